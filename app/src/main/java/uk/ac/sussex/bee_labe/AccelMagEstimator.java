@@ -0,0 +1,58 @@
+package uk.ac.sussex.bee_labe;
+
+/**
+ * Works out the orientation from the latest accelerometer and magnetometer readings alone, as
+ * SensorManager.getRotationMatrix() does. The gyroscope is ignored. The angles are worked out
+ * straight from the readings (see Rotations.getOrientation()), optionally with FastTrig.
+ */
+
+public class AccelMagEstimator implements AttitudeEstimator {
+    private final boolean fastTrig;
+    private final float[] orient = new float[3];
+    private final float[] mGravity = new float[3];
+    private final float[] mGeomagnetic = new float[3];
+    private boolean hasGravity = false, hasGeomagnetic = false;
+
+    public AccelMagEstimator() {
+        this(false);
+    }
+
+    public AccelMagEstimator(boolean fastTrig) {
+        this.fastTrig = fastTrig;
+    }
+
+    @Override
+    public boolean update(int sensorType, long timestamp, float x, float y, float z) {
+        switch (sensorType) {
+            case SensorTypes.ACCELEROMETER:
+                set(mGravity, x, y, z);
+                hasGravity = true;
+                break;
+            case SensorTypes.MAGNETIC_FIELD:
+                set(mGeomagnetic, x, y, z);
+                hasGeomagnetic = true;
+                break;
+            default:
+                return false;
+        }
+
+        return hasGravity && hasGeomagnetic
+                && Rotations.getOrientation(mGravity, mGeomagnetic, fastTrig, orient);
+    }
+
+    @Override
+    public void getOrientation(float[] orient) {
+        System.arraycopy(this.orient, 0, orient, 0, 3);
+    }
+
+    @Override
+    public void reset() {
+        hasGravity = hasGeomagnetic = false;
+    }
+
+    static void set(float[] v, float x, float y, float z) {
+        v[0] = x;
+        v[1] = y;
+        v[2] = z;
+    }
+}
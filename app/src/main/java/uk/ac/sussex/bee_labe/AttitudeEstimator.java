@@ -0,0 +1,24 @@
+package uk.ac.sussex.bee_labe;
+
+/**
+ * Estimates the phone's orientation from raw sensor readings.
+ */
+
+public interface AttitudeEstimator {
+    /**
+     * Feed in a reading from one of the sensors (a SensorTypes constant), with its timestamp
+     * in ns. Returns true if this gave a new orientation.
+     */
+    boolean update(int sensorType, long timestamp, float x, float y, float z);
+
+    /**
+     * Get the latest orientation as azimuth, pitch and roll, as SensorManager.getOrientation()
+     * would give them.
+     */
+    void getOrientation(float[] orient);
+
+    /**
+     * Forget the current state, e.g. before a new recording.
+     */
+    void reset();
+}
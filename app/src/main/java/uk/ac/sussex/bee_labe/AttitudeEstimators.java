@@ -0,0 +1,42 @@
+package uk.ac.sussex.bee_labe;
+
+/**
+ * The attitude estimators which can be chosen in the app.
+ */
+
+public final class AttitudeEstimators {
+    public static final String[] NAMES = {
+            "Accelerometer + compass",
+            "Complementary filter",
+            "Kalman filter (EKF)",
+            "Accelerometer + compass (fast trig)",
+    };
+
+    private AttitudeEstimators() {
+    }
+
+    /**
+     * The index of the estimator with the given name (as saved in the recordings), or -1.
+     */
+    public static int indexOf(String name) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static AttitudeEstimator create(int index) {
+        switch (index) {
+            case 1:
+                return new ComplementaryFilter();
+            case 2:
+                return new QuaternionEkf();
+            case 3:
+                return new AccelMagEstimator(true);
+            default:
+                return new AccelMagEstimator();
+        }
+    }
+}
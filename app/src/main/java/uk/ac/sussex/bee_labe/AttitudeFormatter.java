@@ -0,0 +1,68 @@
+package uk.ac.sussex.bee_labe;
+
+/**
+ * Formats an attitude for display in the same way as Attitude.toString(), but into a reused
+ * char buffer rather than a new String, so it can run on every update without making garbage.
+ */
+
+public class AttitudeFormatter {
+    private final char[] buffer = new char[64];
+    private int length;
+
+    /**
+     * Format the attitude, returning the number of chars written to getBuffer().
+     */
+    public int format(Attitude att) {
+        length = 0;
+        append("Yaw: ");
+        appendDegrees(att.yaw);
+        append("°\nPitch: ");
+        appendDegrees(att.pitch);
+        append("°\nRoll: ");
+        appendDegrees(att.roll);
+        append("°");
+        return length;
+    }
+
+    public char[] getBuffer() {
+        return buffer;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    private void append(String s) {
+        s.getChars(0, s.length(), buffer, length);
+        length += s.length();
+    }
+
+    // write angle in degrees to two decimal places (like "%.2f")
+    private void appendDegrees(float rad) {
+        double deg = Math.toDegrees(rad);
+        if (deg < 0) {
+            buffer[length++] = '-';
+            deg = -deg;
+        }
+
+        long hundredths = Math.round(deg * 100);
+        appendInt(hundredths / 100);
+        buffer[length++] = '.';
+        int frac = (int) (hundredths % 100);
+        buffer[length++] = (char) ('0' + frac / 10);
+        buffer[length++] = (char) ('0' + frac % 10);
+    }
+
+    private void appendInt(long n) {
+        // count digits, then write them backwards
+        int digits = 1;
+        for (long m = n / 10; m > 0; m /= 10) {
+            digits++;
+        }
+        for (int i = length + digits - 1; i >= length; i--) {
+            buffer[i] = (char) ('0' + n % 10);
+            n /= 10;
+        }
+        length += digits;
+    }
+}
@@ -0,0 +1,137 @@
+package uk.ac.sussex.bee_labe;
+
+import java.util.Arrays;
+
+/**
+ * Columnar store for attitude samples: parallel primitive arrays for timestamps and
+ * yaw/pitch/roll, allocated in fixed-size chunks so that appending a sample never allocates
+ * (apart from one new chunk every CHUNK_SIZE samples) and no array is ever copied to grow.
+ *
+ * One thread appends samples while another may read them back and discard them once they have
+ * been written out. Discarded chunks are kept in a small pool and reused.
+ */
+
+public class AttitudeLog {
+    static final int CHUNK_SHIFT = 12;
+    public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT; // samples
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    static final int POOL_SIZE = 4; // chunks
+
+    private long[][] times = new long[16][];
+    private float[][] yaws = new float[16][];
+    private float[][] pitches = new float[16][];
+    private float[][] rolls = new float[16][];
+    private int discarded = 0; // chunks
+
+    private long[][] spareTimes = new long[POOL_SIZE][];
+    private float[][] spareYaws = new float[POOL_SIZE][];
+    private float[][] sparePitches = new float[POOL_SIZE][];
+    private float[][] spareRolls = new float[POOL_SIZE][];
+    private int spareCount = 0;
+
+    // only written by the logging thread, but read by whichever thread drains the log
+    private volatile int size = 0;
+
+    public void append(long time, float yaw, float pitch, float roll) {
+        int chunk = size >>> CHUNK_SHIFT;
+        int i = size & CHUNK_MASK;
+        if (i == 0) {
+            addChunk(chunk);
+        }
+
+        times[chunk][i] = time;
+        yaws[chunk][i] = yaw;
+        pitches[chunk][i] = pitch;
+        rolls[chunk][i] = roll;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTime(int index) {
+        return times[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    public float getYaw(int index) {
+        return yaws[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    public float getPitch(int index) {
+        return pitches[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    public float getRoll(int index) {
+        return rolls[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /**
+     * Release the chunks which only hold samples before the given index, once they have been
+     * written out, so that a recording of any length only needs a few chunks in memory. Samples
+     * before the index can no longer be read afterwards.
+     */
+    public synchronized void discardBefore(int index) {
+        int last = index >>> CHUNK_SHIFT;
+        for (; discarded < last; discarded++) {
+            releaseChunk(discarded);
+        }
+    }
+
+    /**
+     * Forget all samples. Chunks go back into the pool so that the next recording can start
+     * logging without allocating.
+     */
+    public synchronized void clear() {
+        for (int c = 0; c < times.length; c++) {
+            releaseChunk(c);
+        }
+        discarded = 0;
+        size = 0;
+    }
+
+    private void releaseChunk(int chunk) {
+        if (times[chunk] == null) {
+            return;
+        }
+
+        if (spareCount < POOL_SIZE) {
+            spareTimes[spareCount] = times[chunk];
+            spareYaws[spareCount] = yaws[chunk];
+            sparePitches[spareCount] = pitches[chunk];
+            spareRolls[spareCount] = rolls[chunk];
+            spareCount++;
+        }
+        times[chunk] = null;
+        yaws[chunk] = null;
+        pitches[chunk] = null;
+        rolls[chunk] = null;
+    }
+
+    private synchronized void addChunk(int chunk) {
+        if (chunk == times.length) {
+            int n = 2 * chunk;
+            times = Arrays.copyOf(times, n);
+            yaws = Arrays.copyOf(yaws, n);
+            pitches = Arrays.copyOf(pitches, n);
+            rolls = Arrays.copyOf(rolls, n);
+        }
+
+        if (spareCount > 0) {
+            spareCount--;
+            times[chunk] = spareTimes[spareCount];
+            yaws[chunk] = spareYaws[spareCount];
+            pitches[chunk] = sparePitches[spareCount];
+            rolls[chunk] = spareRolls[spareCount];
+            spareTimes[spareCount] = null;
+            spareYaws[spareCount] = null;
+            sparePitches[spareCount] = null;
+            spareRolls[spareCount] = null;
+        } else {
+            times[chunk] = new long[CHUNK_SIZE];
+            yaws[chunk] = new float[CHUNK_SIZE];
+            pitches[chunk] = new float[CHUNK_SIZE];
+            rolls[chunk] = new float[CHUNK_SIZE];
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package uk.ac.sussex.bee_labe;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A summary of the attitude in a recording at several levels of detail, so that any part of it
+ * can be plotted in time depending on the width of the plot rather than on the number of
+ * samples. Each level splits the recording into buckets of equal length, starting from its
+ * start, with the number of samples in each and the minimum, maximum and mean yaw, pitch and
+ * roll; level 0 has buckets of 2^BASE_SHIFT ns (about a quarter of a second), and each level's
+ * are twice as long as the one below's. The yaw is taken as it is, so a bucket in which it
+ * goes past north spans the whole range, as a plot of the samples would.
+ *
+ * BinaryRecordingSink builds it up as samples are saved, and saves it after the index when the
+ * recording is finished (see BinaryFormat). It comes to at most about half a MB an hour.
+ */
+
+public class AttitudePyramid {
+    public static final int BASE_SHIFT = 28;
+    public static final int LEVELS = 16; // the top one has buckets of over two hours
+
+    // per bucket: the minima, maxima and means, each of yaw, pitch and roll
+    public static final int VALUES = 9;
+    public static final int MIN = 0, MAX = 3, MEAN = 6;
+
+    // so a bad timestamp can't use up all the memory (level 0 covers about 78 hours)
+    private static final int MAX_BUCKETS = 1 << 20;
+
+    private final Level[] levels = new Level[LEVELS];
+
+    public AttitudePyramid() {
+        for (int i = 0; i < LEVELS; i++) {
+            levels[i] = new Level();
+        }
+    }
+
+    /**
+     * Add a sample at the given time (ns since the start of the recording). Samples from
+     * before the start go in the first bucket.
+     */
+    public void add(long time, float yaw, float pitch, float roll) {
+        long bucket = Math.max(time, 0) >> BASE_SHIFT;
+        if (bucket >= MAX_BUCKETS) {
+            return;
+        }
+        for (int level = 0; level < LEVELS; level++) {
+            levels[level].add((int) (bucket >> level), yaw, pitch, roll);
+        }
+    }
+
+    /**
+     * The length of the buckets of the given level (ns).
+     */
+    public static long bucketLength(int level) {
+        return 1L << (BASE_SHIFT + level);
+    }
+
+    /**
+     * The number of buckets in the given level, up to the last one with any samples.
+     */
+    public int size(int level) {
+        return levels[level].size;
+    }
+
+    public int getCount(int level, int bucket) {
+        return levels[level].counts[bucket];
+    }
+
+    /**
+     * One of a bucket's values, with MIN, MAX or MEAN plus 0 for the yaw, 1 for the pitch or 2
+     * for the roll. They're NaN if it hasn't any samples.
+     */
+    public float getValue(int level, int bucket, int value) {
+        return levels[level].values[bucket * VALUES + value];
+    }
+
+    /**
+     * The coarsest level whose buckets are no longer than the given time (ns), or -1 if even
+     * level 0's are.
+     */
+    public static int levelFor(long length) {
+        if (length < bucketLength(0)) {
+            return -1;
+        }
+        int level = 0;
+        while (level + 1 < LEVELS && bucketLength(level + 1) <= length) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Fill in the trace's columns from the level whose buckets are as long as its columns or a
+     * bit shorter, so it takes about the same time whatever the time range. Returns false,
+     * without adding anything, if its columns are shorter than level 0's buckets; then the
+     * samples themselves should be added to it instead (e.g. from the attitude blocks which
+     * BinaryRecordingReader.seek() finds), which won't be many more.
+     */
+    public boolean render(PlotTrace trace) {
+        int level = levelFor(trace.getColumnLength());
+        if (level == -1) {
+            return false;
+        }
+
+        Level buckets = levels[level];
+        int shift = BASE_SHIFT + level;
+        long first = Math.max(trace.from, 0) >> shift;
+        long last = Math.min(trace.to >> shift, buckets.size - 1);
+        for (int bucket = (int) first; bucket <= last; bucket++) {
+            int count = buckets.counts[bucket];
+            if (count > 0) {
+                // each bucket goes in the column with its middle
+                long time = ((long) bucket << shift) + (1L << (shift - 1));
+                trace.addSummary(time, count, buckets.values, bucket * VALUES);
+            }
+        }
+        return true;
+    }
+
+    public int serializedSize() {
+        Level base = levels[0];
+        int size = 1 + base.size * 4;
+        for (int i = 0; i < base.size; i++) {
+            if (base.counts[i] > 0) {
+                size += VALUES * 4;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Write level 0, as the base shift (u8) followed by each bucket's count (u32) and, if it
+     * isn't empty, its values (f32). The block's count is the number of buckets. The other
+     * levels are worked out from it when it's read, which only takes a few ms even for hours.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        Level base = levels[0];
+        buffer.put((byte) BASE_SHIFT);
+        for (int i = 0; i < base.size; i++) {
+            buffer.putInt(base.counts[i]);
+            if (base.counts[i] > 0) {
+                for (int j = 0; j < VALUES; j++) {
+                    buffer.putFloat(base.values[i * VALUES + j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a pyramid written by writeTo(), with the given number of buckets, or return null if
+     * it's not one this version can use.
+     */
+    public static AttitudePyramid readFrom(ByteBuffer buffer, int count) {
+        if (buffer.get() != BASE_SHIFT || count < 0 || count > MAX_BUCKETS) {
+            return null;
+        }
+        AttitudePyramid pyramid = new AttitudePyramid();
+        Level base = pyramid.levels[0];
+        base.ensureSize(count);
+        for (int i = 0; i < count; i++) {
+            int n = buffer.getInt();
+            if (n > 0) {
+                base.counts[i] = n;
+                for (int j = 0; j < VALUES; j++) {
+                    base.values[i * VALUES + j] = buffer.getFloat();
+                }
+            }
+        }
+
+        // each bucket is the two below it put together
+        for (int level = 1; level < LEVELS; level++) {
+            Level below = pyramid.levels[level - 1];
+            Level buckets = pyramid.levels[level];
+            for (int i = 0; i < below.size; i++) {
+                buckets.merge(i >> 1, below, i);
+            }
+        }
+        return pyramid;
+    }
+
+    /**
+     * The buckets of one level.
+     */
+    private static class Level {
+        int[] counts = new int[0];
+        float[] values = new float[0];
+        int size = 0;
+
+        void add(int bucket, float yaw, float pitch, float roll) {
+            ensureSize(bucket + 1);
+            int n = ++counts[bucket];
+            int i = bucket * VALUES;
+            add(i, n, yaw);
+            add(i + 1, n, pitch);
+            add(i + 2, n, roll);
+        }
+
+        private void add(int i, int n, float value) {
+            if (n == 1) {
+                values[i + MIN] = value;
+                values[i + MAX] = value;
+                values[i + MEAN] = value;
+            } else {
+                values[i + MIN] = Math.min(values[i + MIN], value);
+                values[i + MAX] = Math.max(values[i + MAX], value);
+                // a running mean, as a sum could lose the later samples in the top levels
+                float mean = values[i + MEAN];
+                values[i + MEAN] = (float) (mean + ((double) value - mean) / n);
+            }
+        }
+
+        // add the samples in a bucket of another level
+        void merge(int bucket, Level from, int i) {
+            ensureSize(bucket + 1);
+            int count = from.counts[i];
+            if (count == 0) {
+                return;
+            }
+            int n = counts[bucket] += count;
+            int to = bucket * VALUES;
+            i *= VALUES;
+            for (int j = 0; j < 3; j++) {
+                if (n == count) {
+                    values[to + MIN + j] = from.values[i + MIN + j];
+                    values[to + MAX + j] = from.values[i + MAX + j];
+                    values[to + MEAN + j] = from.values[i + MEAN + j];
+                } else {
+                    values[to + MIN + j] = Math.min(values[to + MIN + j], from.values[i + MIN + j]);
+                    values[to + MAX + j] = Math.max(values[to + MAX + j], from.values[i + MAX + j]);
+                    double mean = values[to + MEAN + j];
+                    values[to + MEAN + j] = (float) (mean + (from.values[i + MEAN + j] - mean) * count / n);
+                }
+            }
+        }
+
+        void ensureSize(int n) {
+            if (n <= size) {
+                return;
+            }
+            if (n > counts.length) {
+                int capacity = Math.max(Math.max(n, 2 * counts.length), 16);
+                counts = Arrays.copyOf(counts, capacity);
+                int old = values.length;
+                values = Arrays.copyOf(values, capacity * VALUES);
+                Arrays.fill(values, old, values.length, Float.NaN);
+            }
+            size = n;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package uk.ac.sussex.bee_labe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Layout of the binary recording files (".bin"). Everything is little-endian.
+ *
+ * The file starts with a header:
+ *   magic "BLAB" (4 bytes), version (u16), header size in bytes (u32),
+ *   start time and end time (i64, ms since the epoch; the end time is 0 until the recording
+ *   has been finished), experimenter and phone model (each a u16 byte count followed by UTF-8),
+ *   calibration pitch and roll (f32),
+ *   (version 2+) the name of the orientation filter (u16 byte count and UTF-8),
+ *   (version 3+) the variance of the calibration pitch and roll readings (f32, rad^2; NaN if
+ *   unknown),
+ *   (version 4+) the name of the reduction profile (u16 byte count and UTF-8) and a stream count
+ *   (u8), then for each stream its ID (u8; 0 for the attitude, otherwise the sensor type), the
+ *   decimation factor (u16; each saved sample is the mean of this many, see StreamReduction),
+ *   the deadband (f32) and the heartbeat (i64, ns). Files before version 4 are full rate.
+ *   (version 6+) the offset of the index block in the file (i64), filled in when the recording
+ *   finishes; 0 if it has no index.
+ * Fields are only ever added to the end of the header, so older readers can skip them.
+ *
+ * This is followed by blocks, each with a type (u8), sample count (u32) and payload size in
+ * bytes (u32), so readers can skip block types they don't know about. Samples have a fixed
+ * width within a block:
+ *   attitude: time (i64, ns since start), yaw, pitch, roll (f32)
+ *   raw:      time (i64, ns since start), sensor type (u8), x, y, z (f32)
+ * (Version 5+) the samples may instead be in packed attitude or raw blocks, as described in
+ * StreamCodec, whose count is the number of samples.
+ * A finished file may then have a metrics block, whose count is the number of sensor streams
+ * and whose payload is as written by SessionMetrics.writeTo(). (Version 6+) it then has an
+ * index block, whose count is the number of entries and whose payload is as written by
+ * RecordingIndex.writeTo(). (Version 7+) this is followed by a pyramid block, whose count is
+ * the number of buckets in level 0 and whose payload is as written by
+ * AttitudePyramid.writeTo(). The last block of a finished file is an empty END block.
+ */
+
+public final class BinaryFormat {
+    public static final byte[] MAGIC = { 'B', 'L', 'A', 'B' };
+    public static final short VERSION = 7;
+
+    // position of the end time in the header, which is filled in when the recording finishes
+    public static final int END_TIME_OFFSET = 18;
+
+    public static final int BLOCK_HEADER_SIZE = 9; // bytes
+
+    public static final byte BLOCK_ATTITUDE = 1;
+    public static final byte BLOCK_RAW = 2;
+    public static final byte BLOCK_METRICS = 3;
+    public static final byte BLOCK_ATTITUDE_PACKED = 4;
+    public static final byte BLOCK_RAW_PACKED = 5;
+    public static final byte BLOCK_INDEX = 6;
+    public static final byte BLOCK_PYRAMID = 7;
+    public static final byte BLOCK_END = (byte) 0xFF;
+
+    public static final int ATTITUDE_SIZE = 8 + 3 * 4; // bytes
+    public static final int RAW_SIZE = 8 + 1 + 3 * 4; // bytes
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Put a header (with the end time left as 0) into the buffer.
+     */
+    public static void putHeader(ByteBuffer buffer, RecordingHeader header) {
+        byte[] experimenter = header.experimenter.getBytes(UTF8);
+        byte[] phoneModel = header.phoneModel.getBytes(UTF8);
+        byte[] orientationFilter = header.orientationFilter.getBytes(UTF8);
+        byte[] reduction = header.reduction.name.getBytes(UTF8);
+        int streams = ReductionProfile.STREAMS.length;
+        int size = 4 + 2 + 4 + 8 + 8 + 2 + experimenter.length + 2 + phoneModel.length + 4 + 4
+                + 2 + orientationFilter.length + 4 + 4 + 2 + reduction.length + 1
+                + streams * (1 + 2 + 4 + 8) + 8;
+
+        buffer.put(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putInt(size);
+        buffer.putLong(header.startDate.getTime());
+        buffer.putLong(0); // end time is filled in when the recording finishes
+        buffer.putShort((short) experimenter.length);
+        buffer.put(experimenter);
+        buffer.putShort((short) phoneModel.length);
+        buffer.put(phoneModel);
+        buffer.putFloat(header.calPitch);
+        buffer.putFloat(header.calRoll);
+        buffer.putShort((short) orientationFilter.length);
+        buffer.put(orientationFilter);
+        buffer.putFloat(header.calPitchVariance);
+        buffer.putFloat(header.calRollVariance);
+        buffer.putShort((short) reduction.length);
+        buffer.put(reduction);
+        buffer.put((byte) streams);
+        for (int stream : ReductionProfile.STREAMS) {
+            StreamReduction settings = header.reduction.forStream(stream);
+            buffer.put((byte) stream);
+            buffer.putShort((short) settings.factor);
+            buffer.putFloat(settings.deadband);
+            buffer.putLong(settings.heartbeat);
+        }
+        buffer.putLong(0); // the index offset is filled in when the recording finishes
+    }
+
+    /**
+     * Read a header written by putHeader() (or an older version). The whole header must be in
+     * the buffer; afterwards the buffer is positioned just past it. The start time isn't saved,
+     * so it comes back as 0.
+     */
+    public static RecordingHeader getHeader(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        byte[] magic = new byte[4];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a recording header");
+        }
+        int version = buffer.getShort();
+        if (version > VERSION) {
+            throw new IOException("Unsupported recording file version: " + version);
+        }
+        int size = buffer.getInt();
+
+        Date startDate = new Date(buffer.getLong());
+        buffer.getLong(); // end time
+        String experimenter = getString(buffer);
+        String phoneModel = getString(buffer);
+        float calPitch = buffer.getFloat();
+        float calRoll = buffer.getFloat();
+        String orientationFilter = version >= 2 ? getString(buffer) : null;
+        RecordingHeader header = new RecordingHeader(startDate, 0, experimenter, phoneModel,
+                orientationFilter, calPitch, calRoll);
+        if (version >= 3) {
+            header.calPitchVariance = buffer.getFloat();
+            header.calRollVariance = buffer.getFloat();
+        }
+        if (version >= 4) {
+            header.reduction = getReduction(buffer);
+        }
+
+        // skip any header fields added by later versions
+        buffer.position(start + size);
+        return header;
+    }
+
+    /**
+     * The offset of the index block from a header like getHeader()'s, without moving the
+     * buffer, or 0 if there isn't one (the recording wasn't finished, or is from before version
+     * 6).
+     */
+    public static long getIndexOffset(ByteBuffer buffer) {
+        ByteBuffer header = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        header.position(header.position() + 4);
+        int version = header.getShort();
+        if (version < 6) {
+            return 0;
+        }
+        // past the size, times, experimenter, phone model, calibration, orientation filter,
+        // variances and reduction profile
+        header.position(header.position() + 4 + 8 + 8);
+        skipString(header);
+        skipString(header);
+        header.position(header.position() + 4 + 4);
+        skipString(header);
+        header.position(header.position() + 4 + 4);
+        skipString(header);
+        int streams = header.get() & 0xFF;
+        header.position(header.position() + streams * (1 + 2 + 4 + 8));
+        return header.getLong();
+    }
+
+    private static ReductionProfile getReduction(ByteBuffer buffer) {
+        String name = getString(buffer);
+        StreamReduction[] settings = new StreamReduction[ReductionProfile.STREAMS.length];
+        Arrays.fill(settings, StreamReduction.NONE);
+        int count = buffer.get() & 0xFF;
+        for (int i = 0; i < count; i++) {
+            int stream = buffer.get() & 0xFF;
+            StreamReduction reduction = new StreamReduction(Math.max(buffer.getShort() & 0xFFFF, 1),
+                    buffer.getFloat(), buffer.getLong());
+            for (int j = 0; j < settings.length; j++) {
+                if (ReductionProfile.STREAMS[j] == stream) {
+                    settings[j] = reduction;
+                }
+            }
+        }
+        return new ReductionProfile(name, settings[0], settings[1], settings[2], settings[3]);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static void skipString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        buffer.position(buffer.position() + length);
+    }
+
+    private BinaryFormat() {
+    }
+}
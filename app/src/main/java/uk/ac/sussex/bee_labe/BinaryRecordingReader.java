@@ -0,0 +1,361 @@
+package uk.ac.sussex.bee_labe;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Reads recordings saved by BinaryRecordingSink. Samples are passed to a Visitor one at a time
+ * rather than loaded into memory, so files of any size can be read. A time range can be read
+ * from a finished recording without going through the rest of the file, using its index.
+ */
+
+public class BinaryRecordingReader implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024; // bytes
+
+    // the kinds of block for nextBlock()
+    public static final int ATTITUDE = 1, RAW = 2;
+
+    public interface Visitor {
+        // times are in ns since the start of the recording
+        void onAttitude(long time, float yaw, float pitch, float roll) throws IOException;
+
+        void onRaw(long time, int sensorType, float x, float y, float z) throws IOException;
+    }
+
+    private final FileInputStream stream;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final StreamCodec codec = new StreamCodec();
+    private final long dataOffset;
+    private boolean isComplete = false;
+    private long endOffset = Long.MAX_VALUE; // where nextBlock() stops
+
+    public final RecordingHeader header;
+    public final int version;
+
+    // null if the recording was never finished
+    public final Date endDate;
+
+    // the session's metrics, once read() has got to them; null if there aren't any
+    public SessionMetrics metrics;
+
+    // null if the recording hasn't got one, i.e. it was never finished, or is from before
+    // version 6
+    public final RecordingIndex index;
+
+    // the attitude at several levels of detail, for plotting; null if the recording hasn't got
+    // one, i.e. it was never finished, or is from before version 7
+    public final AttitudePyramid pyramid;
+
+    public BinaryRecordingReader(File file) throws IOException {
+        stream = new FileInputStream(file);
+        channel = stream.getChannel();
+
+        try {
+            buffer.limit(0);
+            ensure(4 + 2 + 4);
+            byte[] magic = new byte[4];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, BinaryFormat.MAGIC)) {
+                throw new IOException(file.getName() + " is not a recording file");
+            }
+            version = buffer.getShort();
+            if (version > BinaryFormat.VERSION) {
+                throw new IOException("Unsupported recording file version: " + version);
+            }
+            int headerSize = buffer.getInt();
+
+            buffer.position(0);
+            ensure(headerSize);
+            long endTime = buffer.getLong(BinaryFormat.END_TIME_OFFSET);
+            endDate = endTime == 0 ? null : new Date(endTime);
+            long indexOffset = BinaryFormat.getIndexOffset(buffer);
+            header = BinaryFormat.getHeader(buffer);
+            dataOffset = headerSize;
+            index = indexOffset != 0 ? readIndex(indexOffset) : null;
+            pyramid = index != null ? readPyramid() : null;
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Pass every sample in the file to the visitor, in the order they were saved. Reading stops
+     * quietly at a truncated block, e.g. if the app died while recording.
+     */
+    public void read(Visitor visitor) throws IOException {
+        rewind();
+        while (nextBlock(visitor, ATTITUDE | RAW)) {
+            // keep going
+        }
+    }
+
+    /**
+     * Pass the samples from the given time range (ns since the start, inclusive) to the
+     * visitor: all the attitude, then all the raw readings, each in the order they were saved.
+     * With an index, only the blocks which can have samples in the range are read, so this
+     * takes about as long for a short range whatever the length of the recording; without
+     * one, the whole file is.
+     */
+    public void read(final Visitor visitor, final long from, final long to) throws IOException {
+        Visitor inRange = new Visitor() {
+            @Override
+            public void onAttitude(long time, float yaw, float pitch, float roll) throws IOException {
+                if (time >= from && time <= to) {
+                    visitor.onAttitude(time, yaw, pitch, roll);
+                }
+            }
+
+            @Override
+            public void onRaw(long time, int sensorType, float x, float y, float z) throws IOException {
+                if (time >= from && time <= to) {
+                    visitor.onRaw(time, sensorType, x, y, z);
+                }
+            }
+        };
+
+        if (index == null) {
+            rewind();
+            while (nextBlock(inRange, ATTITUDE | RAW)) {
+                // keep going
+            }
+            return;
+        }
+        for (int kind = ATTITUDE; kind <= RAW; kind++) {
+            seek(kind, from, to);
+            while (nextBlock(inRange, kind)) {
+                // keep going
+            }
+        }
+    }
+
+    /**
+     * Go back to the first block, for nextBlock().
+     */
+    public void rewind() throws IOException {
+        position(dataOffset, Long.MAX_VALUE);
+    }
+
+    /**
+     * Like rewind(), but only going through the part of the file with the blocks of the given
+     * kind (ATTITUDE or RAW) which can have samples in the time range (ns since the start,
+     * inclusive), if the recording has an index. The blocks can have samples from outside the
+     * range too.
+     */
+    public void seek(int kind, long from, long to) throws IOException {
+        if (index == null) {
+            rewind();
+            return;
+        }
+        long[] range = index.find(kind, from, to);
+        if (range == null) {
+            position(dataOffset, dataOffset);
+        } else {
+            position(range[0], range[1]);
+        }
+    }
+
+    private void position(long offset, long end) throws IOException {
+        channel.position(offset);
+        buffer.clear();
+        buffer.limit(0);
+        isComplete = false;
+        endOffset = end;
+    }
+
+    /**
+     * Pass the samples in the next block of the given kinds (ATTITUDE and/or RAW) to the
+     * visitor, skipping any others, so that a file can be read a bit at a time, or one kind of
+     * sample at a time from two readers side by side. Returns false at the end of the file (or
+     * a truncated block), as read() stops, or of the part of it picked by seek().
+     */
+    public boolean nextBlock(Visitor visitor, int kinds) throws IOException {
+        while (channel.position() - buffer.remaining() < endOffset
+                && tryEnsure(BinaryFormat.BLOCK_HEADER_SIZE)) {
+            byte type = buffer.get();
+            int count = buffer.getInt();
+            int size = buffer.getInt();
+
+            if (type == BinaryFormat.BLOCK_END) {
+                isComplete = true;
+                return false;
+            }
+            boolean isAttitude = type == BinaryFormat.BLOCK_ATTITUDE
+                    || type == BinaryFormat.BLOCK_ATTITUDE_PACKED;
+            boolean isRaw = type == BinaryFormat.BLOCK_RAW || type == BinaryFormat.BLOCK_RAW_PACKED;
+            if ((isAttitude && (kinds & ATTITUDE) == 0) || (isRaw && (kinds & RAW) == 0)) {
+                if (!skip(size)) {
+                    return false;
+                }
+                continue;
+            }
+
+            if (type == BinaryFormat.BLOCK_ATTITUDE) {
+                for (int i = 0; i < count; i++) {
+                    if (!tryEnsure(BinaryFormat.ATTITUDE_SIZE)) {
+                        return false;
+                    }
+                    visitor.onAttitude(buffer.getLong(), buffer.getFloat(), buffer.getFloat(),
+                            buffer.getFloat());
+                }
+                return true;
+            } else if (type == BinaryFormat.BLOCK_RAW) {
+                for (int i = 0; i < count; i++) {
+                    if (!tryEnsure(BinaryFormat.RAW_SIZE)) {
+                        return false;
+                    }
+                    visitor.onRaw(buffer.getLong(), buffer.get(), buffer.getFloat(),
+                            buffer.getFloat(), buffer.getFloat());
+                }
+                return true;
+            } else if (isAttitude || isRaw) {
+                ByteBuffer payload = payload(size);
+                if (payload == null) {
+                    return false;
+                }
+                try {
+                    if (isAttitude) {
+                        codec.decodeAttitude(payload, count, visitor);
+                    } else {
+                        codec.decodeRaw(payload, count, visitor);
+                    }
+                } catch (BufferUnderflowException | IllegalArgumentException e) {
+                    throw new IOException("Corrupt packed block", e);
+                }
+                return true;
+            } else if (type == BinaryFormat.BLOCK_METRICS) {
+                ByteBuffer payload = readBlock(size);
+                if (payload == null) {
+                    return false;
+                }
+                metrics = SessionMetrics.readFrom(payload, count);
+            } else if (!skip(size)) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    // the index block at the given offset, or null if it can't be read
+    private RecordingIndex readIndex(long offset) throws IOException {
+        position(offset, Long.MAX_VALUE);
+        if (!tryEnsure(BinaryFormat.BLOCK_HEADER_SIZE) || buffer.get() != BinaryFormat.BLOCK_INDEX) {
+            return null;
+        }
+        int count = buffer.getInt();
+        ByteBuffer payload = readBlock(buffer.getInt());
+        try {
+            return payload == null ? null : RecordingIndex.readFrom(payload, count);
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    // the pyramid block, which follows the index, or null if it can't be read
+    private AttitudePyramid readPyramid() throws IOException {
+        if (!tryEnsure(BinaryFormat.BLOCK_HEADER_SIZE) || buffer.get() != BinaryFormat.BLOCK_PYRAMID) {
+            return null;
+        }
+        int count = buffer.getInt();
+        ByteBuffer payload = readBlock(buffer.getInt());
+        try {
+            return payload == null ? null : AttitudePyramid.readFrom(payload, count);
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Whether the last call to read() found the end of the recording, i.e. the file wasn't
+     * truncated.
+     */
+    public boolean isComplete() {
+        return isComplete;
+    }
+
+    @Override
+    public void close() throws IOException {
+        stream.close();
+    }
+
+    private void ensure(int n) throws IOException {
+        if (n > buffer.capacity()) {
+            throw new IOException("Recording file header is too large");
+        }
+        if (!tryEnsure(n)) {
+            throw new EOFException();
+        }
+    }
+
+    // make sure there are at least n bytes in the buffer, returning false at the end of the file
+    private boolean tryEnsure(int n) throws IOException {
+        if (buffer.remaining() >= n) {
+            return true;
+        }
+
+        buffer.compact();
+        while (buffer.position() < n) {
+            if (channel.read(buffer) == -1) {
+                buffer.flip();
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    // a block's payload, in place in the buffer if it fits (as packed blocks always do when
+    // written by BinaryRecordingSink), or null at the end of the file
+    private ByteBuffer payload(int n) throws IOException {
+        if (n > buffer.capacity()) {
+            return readBlock(n);
+        }
+        if (!tryEnsure(n)) {
+            return null;
+        }
+        ByteBuffer payload = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        payload.limit(n);
+        buffer.position(buffer.position() + n);
+        return payload;
+    }
+
+    // read a whole block's payload, which may be bigger than the buffer, or return null at the
+    // end of the file
+    private ByteBuffer readBlock(int n) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(n).order(ByteOrder.LITTLE_ENDIAN);
+        while (payload.hasRemaining()) {
+            if (!tryEnsure(1)) {
+                return null;
+            }
+            int length = Math.min(payload.remaining(), buffer.remaining());
+            ByteBuffer chunk = buffer.duplicate();
+            chunk.limit(chunk.position() + length);
+            payload.put(chunk);
+            buffer.position(buffer.position() + length);
+        }
+        payload.flip();
+        return payload;
+    }
+
+    private boolean skip(int n) throws IOException {
+        while (n > 0) {
+            if (!tryEnsure(1)) {
+                return false;
+            }
+            int skipped = Math.min(n, buffer.remaining());
+            buffer.position(buffer.position() + skipped);
+            n -= skipped;
+        }
+        return true;
+    }
+}
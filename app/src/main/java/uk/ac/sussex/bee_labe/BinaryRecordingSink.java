@@ -0,0 +1,301 @@
+package uk.ac.sussex.bee_labe;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Date;
+
+/**
+ * Saves recordings in the compact binary format described in BinaryFormat, either at full
+ * precision or in packed blocks (see StreamCodec), which are several times smaller. Each block
+ * is noted in a RecordingIndex as it's written, and the attitude added to an AttitudePyramid,
+ * which are saved at the end.
+ */
+
+public class BinaryRecordingSink implements RecordingSink {
+    private static final int BUFFER_SIZE = 64 * 1024; // bytes
+
+    private final File file;
+    private final StreamCodec codec;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private long startTime;
+    private long filePosition; // of the start of the buffer
+    private int indexOffsetPosition; // in the header
+    private RecordingIndex index;
+    private AttitudePyramid pyramid;
+
+    public BinaryRecordingSink(File file) {
+        this(file, null);
+    }
+
+    /**
+     * Save the samples in packed blocks with the given codec, or at full precision if it's
+     * null.
+     */
+    public BinaryRecordingSink(File file, StreamCodec codec) {
+        this.file = file;
+        this.codec = codec;
+    }
+
+    @Override
+    public void begin(RecordingHeader header) throws IOException {
+        startTime = header.startTime;
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        channel = raf.getChannel();
+
+        // the end time and index offset are filled in by finish(); the offset is the last field
+        buffer.clear();
+        BinaryFormat.putHeader(buffer, header);
+        indexOffsetPosition = buffer.position() - 8;
+        filePosition = 0;
+        index = new RecordingIndex();
+        pyramid = new AttitudePyramid();
+        writeBuffer();
+    }
+
+    @Override
+    public void writeData(AttitudeLog dataList, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            pyramid.add(dataList.getTime(i) - startTime, dataList.getYaw(i), dataList.getPitch(i),
+                    dataList.getRoll(i));
+        }
+
+        if (codec != null) {
+            writePackedData(dataList, from, to);
+            return;
+        }
+
+        int perBlock = (BUFFER_SIZE - BinaryFormat.BLOCK_HEADER_SIZE) / BinaryFormat.ATTITUDE_SIZE;
+        while (from < to) {
+            int n = Math.min(perBlock, to - from);
+            if (buffer.remaining() < BinaryFormat.BLOCK_HEADER_SIZE + n * BinaryFormat.ATTITUDE_SIZE) {
+                writeBuffer();
+            }
+
+            int start = putBlockHeader(BinaryFormat.BLOCK_ATTITUDE, n, n * BinaryFormat.ATTITUDE_SIZE);
+            for (int i = from; i < from + n; i++) {
+                buffer.putLong(dataList.getTime(i) - startTime);
+                buffer.putFloat(dataList.getYaw(i));
+                buffer.putFloat(dataList.getPitch(i));
+                buffer.putFloat(dataList.getRoll(i));
+            }
+            indexData(start, dataList, from, from + n);
+            from += n;
+        }
+    }
+
+    @Override
+    public void writeRaw(RawLog rawDataList, int from, int to) throws IOException {
+        if (codec != null) {
+            writePackedRaw(rawDataList, from, to);
+            return;
+        }
+
+        int perBlock = (BUFFER_SIZE - BinaryFormat.BLOCK_HEADER_SIZE) / BinaryFormat.RAW_SIZE;
+        while (from < to) {
+            int n = Math.min(perBlock, to - from);
+            if (buffer.remaining() < BinaryFormat.BLOCK_HEADER_SIZE + n * BinaryFormat.RAW_SIZE) {
+                writeBuffer();
+            }
+
+            int start = putBlockHeader(BinaryFormat.BLOCK_RAW, n, n * BinaryFormat.RAW_SIZE);
+            for (int i = from; i < from + n; i++) {
+                buffer.putLong(rawDataList.getTime(i) - startTime);
+                buffer.put((byte) rawDataList.getSensorType(i));
+                buffer.putFloat(rawDataList.getValue(i, 0));
+                buffer.putFloat(rawDataList.getValue(i, 1));
+                buffer.putFloat(rawDataList.getValue(i, 2));
+            }
+            indexRaw(start, rawDataList, from, from + n);
+            from += n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeBuffer();
+    }
+
+    @Override
+    public void finish(Date endDate, SessionMetrics metrics) throws IOException {
+        try {
+            if (metrics != null) {
+                writeMetrics(metrics);
+            }
+            // the reader finds the pyramid just after the index
+            long indexOffset = writeIndex();
+            writePyramid();
+
+            if (buffer.remaining() < BinaryFormat.BLOCK_HEADER_SIZE) {
+                writeBuffer();
+            }
+            putBlockHeader(BinaryFormat.BLOCK_END, 0, 0);
+            writeBuffer();
+
+            // now we know when the recording ended and where the index is, fill in the header
+            buffer.putLong(endDate.getTime());
+            writeAt(BinaryFormat.END_TIME_OFFSET);
+            buffer.putLong(indexOffset);
+            writeAt(indexOffsetPosition);
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // nothing more we can do
+            }
+            raf = null;
+            channel = null;
+        }
+    }
+
+    @Override
+    public String getPath() {
+        return file.getAbsolutePath();
+    }
+
+    private void writeMetrics(SessionMetrics metrics) throws IOException {
+        int size = metrics.serializedSize();
+        ByteBuffer block = beginLargeBlock(BinaryFormat.BLOCK_METRICS, metrics.streams.length, size);
+        metrics.writeTo(block);
+        endLargeBlock(block);
+    }
+
+    // returns where the index block is in the file
+    private long writeIndex() throws IOException {
+        ByteBuffer block = beginLargeBlock(BinaryFormat.BLOCK_INDEX, index.size(), index.serializedSize());
+        long offset = filePosition;
+        index.writeTo(block);
+        endLargeBlock(block);
+        return offset;
+    }
+
+    private void writePyramid() throws IOException {
+        ByteBuffer block = beginLargeBlock(BinaryFormat.BLOCK_PYRAMID, pyramid.size(0),
+                pyramid.serializedSize());
+        pyramid.writeTo(block);
+        endLargeBlock(block);
+    }
+
+    // a buffer with the header of a block which is usually small, but could be bigger than the
+    // buffer; the block is written by endLargeBlock()
+    private ByteBuffer beginLargeBlock(byte type, int count, int size) throws IOException {
+        writeBuffer();
+        ByteBuffer block = buffer;
+        if (BinaryFormat.BLOCK_HEADER_SIZE + size > block.capacity()) {
+            block = ByteBuffer.allocate(BinaryFormat.BLOCK_HEADER_SIZE + size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        block.put(type);
+        block.putInt(count);
+        block.putInt(size);
+        return block;
+    }
+
+    private void endLargeBlock(ByteBuffer block) throws IOException {
+        block.flip();
+        filePosition += block.remaining();
+        while (block.hasRemaining()) {
+            channel.write(block);
+        }
+        block.clear();
+    }
+
+    private void writePackedData(AttitudeLog dataList, int from, int to) throws IOException {
+        int perBlock = (BUFFER_SIZE - BinaryFormat.BLOCK_HEADER_SIZE - StreamCodec.ATTITUDE_HEADER_SIZE)
+                / StreamCodec.MAX_ATTITUDE_SIZE;
+        while (from < to) {
+            int n = Math.min(perBlock, to - from);
+            if (buffer.remaining() < BinaryFormat.BLOCK_HEADER_SIZE + StreamCodec.ATTITUDE_HEADER_SIZE
+                    + n * StreamCodec.MAX_ATTITUDE_SIZE) {
+                writeBuffer();
+            }
+
+            int start = putBlockHeader(BinaryFormat.BLOCK_ATTITUDE_PACKED, n, 0);
+            codec.encodeAttitude(buffer, dataList, from, from + n, startTime);
+            fillInBlockSize(start);
+            indexData(start, dataList, from, from + n);
+            from += n;
+        }
+    }
+
+    private void writePackedRaw(RawLog rawDataList, int from, int to) throws IOException {
+        int perBlock = (BUFFER_SIZE - BinaryFormat.BLOCK_HEADER_SIZE - StreamCodec.MAX_RAW_HEADER_SIZE)
+                / StreamCodec.MAX_RAW_SIZE;
+        while (from < to) {
+            int n = Math.min(perBlock, to - from);
+            if (buffer.remaining() < BinaryFormat.BLOCK_HEADER_SIZE + StreamCodec.MAX_RAW_HEADER_SIZE
+                    + n * StreamCodec.MAX_RAW_SIZE) {
+                writeBuffer();
+            }
+
+            int start = putBlockHeader(BinaryFormat.BLOCK_RAW_PACKED, n, 0);
+            codec.encodeRaw(buffer, rawDataList, from, from + n, startTime);
+            fillInBlockSize(start);
+            indexRaw(start, rawDataList, from, from + n);
+            from += n;
+        }
+    }
+
+    // returns where the block starts in the buffer
+    private int putBlockHeader(byte type, int count, int size) {
+        int start = buffer.position();
+        buffer.put(type);
+        buffer.putInt(count);
+        buffer.putInt(size);
+        return start;
+    }
+
+    // for packed blocks, whose size is only known once they've been encoded
+    private void fillInBlockSize(int start) {
+        buffer.putInt(start + 5, buffer.position() - start - BinaryFormat.BLOCK_HEADER_SIZE);
+    }
+
+    // note the block which starts at the given position in the buffer, and ends at its position
+    private void indexData(int start, AttitudeLog dataList, int from, int to) {
+        // attitude samples are in time order
+        index.addBlock(BinaryRecordingReader.ATTITUDE, filePosition + start, filePosition + buffer.position(),
+                dataList.getTime(from) - startTime, dataList.getTime(to - 1) - startTime);
+    }
+
+    private void indexRaw(int start, RawLog rawDataList, int from, int to) {
+        // raw samples are in the order they arrived, so their times can be a little out of order
+        long minTime = Long.MAX_VALUE, maxTime = Long.MIN_VALUE;
+        for (int i = from; i < to; i++) {
+            long time = rawDataList.getTime(i);
+            minTime = Math.min(minTime, time);
+            maxTime = Math.max(maxTime, time);
+        }
+        index.addBlock(BinaryRecordingReader.RAW, filePosition + start, filePosition + buffer.position(),
+                minTime - startTime, maxTime - startTime);
+    }
+
+    // write the buffer's contents at the given position in the file, without moving on
+    private void writeAt(long position) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        buffer.clear();
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        filePosition += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,66 @@
+package uk.ac.sussex.bee_labe;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+
+/**
+ * Converts binary recordings into a single JSON file with both the "data" and "raw_data"
+ * arrays, as read by matlab/parse_data.m.
+ */
+
+public class BinaryToJsonConverter {
+    public static void convert(File binFile, File jsonFile) throws IOException {
+        BinaryRecordingReader reader = new BinaryRecordingReader(binFile);
+        final JsonStreamWriter writer = JsonRecordingSink.openWriter(jsonFile);
+        try {
+            RecordingHeader header = reader.header;
+            writer.beginObject();
+            writer.name("startTime").value(new SimpleDateFormat("dd/MM/yyyy HH:mm:ss").format(header.startDate));
+            // as null if the recording was never finished, so it has the same fields as any other
+            JsonRecordingSink.writeEndTime(writer, reader.endDate);
+            writer.name("experimenter").value(header.experimenter);
+            writer.name("phone_model").value(header.phoneModel);
+            writer.name("orientation_filter").value(header.orientationFilter);
+            JsonRecordingSink.writeCalibration(writer, header);
+            JsonRecordingSink.writeReduction(writer, header.reduction);
+
+            // the streams are interleaved in the file, so go through it once for each
+            writer.name("data");
+            writer.beginArray();
+            reader.read(new BinaryRecordingReader.Visitor() {
+                @Override
+                public void onAttitude(long time, float yaw, float pitch, float roll) throws IOException {
+                    JsonRecordingSink.writeDataPoint(writer, time / 1000000, yaw, pitch, roll);
+                }
+
+                @Override
+                public void onRaw(long time, int sensorType, float x, float y, float z) {
+                }
+            });
+            writer.endArray();
+
+            writer.name("raw_data");
+            writer.beginArray();
+            reader.read(new BinaryRecordingReader.Visitor() {
+                @Override
+                public void onAttitude(long time, float yaw, float pitch, float roll) {
+                }
+
+                @Override
+                public void onRaw(long time, int sensorType, float x, float y, float z) throws IOException {
+                    JsonRecordingSink.writeRawPoint(writer, time / 1000000, sensorType, x, y, z);
+                }
+            });
+            writer.endArray();
+
+            // read() has found these by now
+            JsonRecordingSink.writeMetrics(writer, reader.metrics);
+
+            writer.endObject();
+        } finally {
+            writer.close();
+            reader.close();
+        }
+    }
+}
@@ -1,83 +1,104 @@
 package uk.ac.sussex.bee_labe;
 
-import java.util.ArrayList;
-
 /**
  * Created by alex on 18/09/17.
  */
 
 public class CalibrationHandler {
-    private static final long CALIBRATION_DURATION = 3000; // ms
+    private static final long CALIBRATION_DURATION = 3000; // ms, at most
+    private static final long MIN_DURATION = 500; // ms
+    private static final int MIN_SAMPLES = 20;
+    // calibration stops early once both offsets are known to within this (standard error)
+    private static final double TOLERANCE = 0.001; // rad
+
+    public interface Listener {
+        // called on whichever thread is calling getAttitude()
+        void stopCalibration();
+    }
 
-    private ArrayList<Attitude> calData = new ArrayList();
-    private long startTime;
-    private MainActivity main;
+    private final CircularStats pitchStats = new CircularStats();
+    private final CircularStats rollStats = new CircularStats();
+    private long startTime; // ns, timestamp of the first calibration sample
+    private Listener listener;
     public float pitch, roll;
-    public boolean isCalibrating = false;
 
-    public CalibrationHandler(MainActivity main) {
-        this.main = main;
+    // the variance of the readings the offsets were worked out from (rad^2), which shows how
+    // noisy the sensors were, or NaN if there has been no calibration
+    public float pitchVariance = Float.NaN, rollVariance = Float.NaN;
+    public volatile boolean isCalibrating = false;
+
+    public CalibrationHandler(Listener listener) {
+        this.listener = listener;
         pitch = 0;
         roll = 0;
     }
 
     public void start() {
-        startTime = System.currentTimeMillis();
-        isCalibrating = true;
+        startTime = -1;
         pitch = 0;
         roll = 0;
+        pitchVariance = rollVariance = Float.NaN;
+        pitchStats.clear();
+        rollStats.clear();
+        isCalibrating = true;
     }
 
-    public Attitude getAttitude(float[] orient) {
+    /**
+     * Convert an orientation from SensorManager.getOrientation() into a calibrated attitude,
+     * written into att so that nothing is allocated per sample. The timestamp is that of the
+     * sensor reading (ns, as in SensorEvent), which times the calibration.
+     */
+    public void getAttitude(float[] orient, long timestamp, Attitude att) {
         float yaw = orient[0];
         if (yaw < 0) {
             yaw += 2 * Math.PI;
         }
-        float pitch = normalizeAngle(-orient[1] - this.pitch);
-        float roll = normalizeAngle(orient[2] - this.roll);
-
-        Attitude att = new Attitude(yaw, pitch, roll);
+        att.yaw = yaw;
+        att.pitch = normalizeAngle(-orient[1] - this.pitch);
+        att.roll = normalizeAngle(orient[2] - this.roll);
 
         if (isCalibrating) {
-            if ((System.currentTimeMillis() - startTime) >= CALIBRATION_DURATION) {
+            if (startTime < 0) {
+                startTime = timestamp;
+            }
+            pitchStats.add(att.pitch);
+            rollStats.add(att.roll);
+
+            long elapsed = (timestamp - startTime) / 1000000;
+            if (elapsed >= CALIBRATION_DURATION || (elapsed >= MIN_DURATION && isSettled())) {
                 calculateOffsets();
                 isCalibrating = false;
 
-                main.stopCalibration();
+                listener.stopCalibration();
 
-                att.pitch -= pitch;
-                att.roll -= roll;
-            } else {
-                calData.add(att);
+                att.pitch = normalizeAngle(att.pitch - pitch);
+                att.roll = normalizeAngle(att.roll - roll);
             }
         }
+    }
 
-        return att;
+    // whether we've seen enough to know the offsets as accurately as we need
+    private boolean isSettled() {
+        return pitchStats.count() >= MIN_SAMPLES && pitchStats.standardError() < TOLERANCE
+                && rollStats.standardError() < TOLERANCE;
     }
 
-    private float normalizeAngle(float f) {
-        if (f < 0) {
-            f += 2 * Math.PI;
-        }
-        f %= 2 * Math.PI;
+    // wrap into (-pi, pi]. The angles here are never more than 2 pi out (the orientation and
+    // the offsets are each within range), so one step does it, without a modulo
+    static float normalizeAngle(float f) {
         if (f > Math.PI) {
             f -= 2 * Math.PI;
+        } else if (f <= -Math.PI) {
+            f += 2 * Math.PI;
         }
         return f;
     }
 
     private void calculateOffsets() {
-        pitch = roll = 0;
-
-        for (int i = 0; i < calData.size(); i++) {
-            Attitude dat = calData.get(i);
-
-            pitch += dat.pitch;
-            roll += dat.roll;
-        }
-        pitch /= calData.size();
-        roll /= calData.size();
-
-        calData.clear();
+        // averaged on the circle, so that offsets near ±π come out right
+        pitch = (float) pitchStats.mean();
+        roll = (float) rollStats.mean();
+        pitchVariance = (float) pitchStats.variance();
+        rollVariance = (float) rollStats.variance();
     }
-}
\ No newline at end of file
+}
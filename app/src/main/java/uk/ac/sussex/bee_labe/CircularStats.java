@@ -0,0 +1,61 @@
+package uk.ac.sussex.bee_labe;
+
+/**
+ * Running mean and spread of a set of angles, updated one at a time in constant memory. The
+ * angles are averaged as unit vectors, using Welford's algorithm on their cosines and sines, so
+ * that e.g. angles either side of ±π average to π rather than 0.
+ */
+
+public class CircularStats {
+    private int count;
+    private double meanCos, meanSin;
+    private double m2Cos, m2Sin; // sums of squared differences from the mean
+
+    public void clear() {
+        count = 0;
+        meanCos = meanSin = 0;
+        m2Cos = m2Sin = 0;
+    }
+
+    public void add(double angle) {
+        double c = Math.cos(angle);
+        double s = Math.sin(angle);
+        count++;
+
+        double dc = c - meanCos;
+        double ds = s - meanSin;
+        meanCos += dc / count;
+        meanSin += ds / count;
+        m2Cos += dc * (c - meanCos);
+        m2Sin += ds * (s - meanSin);
+    }
+
+    public int count() {
+        return count;
+    }
+
+    /**
+     * The mean angle, in (-π, π].
+     */
+    public double mean() {
+        return Math.atan2(meanSin, meanCos);
+    }
+
+    /**
+     * The sample variance of the unit vectors, which for angles close together is the variance
+     * of the angles themselves (rad²). NaN if there are fewer than two.
+     */
+    public double variance() {
+        if (count < 2) {
+            return Double.NaN;
+        }
+        return (m2Cos + m2Sin) / (count - 1);
+    }
+
+    /**
+     * How far the mean is likely to be from the true mean (rad).
+     */
+    public double standardError() {
+        return Math.sqrt(variance() / count);
+    }
+}
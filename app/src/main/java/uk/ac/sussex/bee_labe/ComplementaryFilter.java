@@ -0,0 +1,96 @@
+package uk.ac.sussex.bee_labe;
+
+/**
+ * Integrates the gyroscope at its full rate for short-term changes in orientation and pulls
+ * the result slowly towards the accelerometer/magnetometer orientation to stop it drifting.
+ * The gyroscope smooths out the noise in the other two sensors without adding lag.
+ */
+
+public class ComplementaryFilter implements AttitudeEstimator {
+    // how quickly we converge on the accelerometer/magnetometer orientation
+    private static final float TIME_CONSTANT = 0.5f; // s
+
+    // ignore gaps longer than this when integrating, e.g. after the sensors have been off
+    private static final float MAX_DT = 1; // s
+
+    private final float[] q = new float[4];
+    private final float[] qAccMag = new float[4];
+    private final float[] R = new float[9];
+    private final float[] mGravity = new float[3];
+    private final float[] mGeomagnetic = new float[3];
+    private boolean hasGravity, hasGeomagnetic, hasGyro, isInitialised;
+    private long lastGyroTime, lastCorrectionTime;
+
+    public ComplementaryFilter() {
+        reset();
+    }
+
+    @Override
+    public boolean update(int sensorType, long timestamp, float x, float y, float z) {
+        switch (sensorType) {
+            case SensorTypes.ACCELEROMETER:
+                AccelMagEstimator.set(mGravity, x, y, z);
+                hasGravity = true;
+                return correct(timestamp);
+            case SensorTypes.MAGNETIC_FIELD:
+                AccelMagEstimator.set(mGeomagnetic, x, y, z);
+                hasGeomagnetic = true;
+                return correct(timestamp);
+            case SensorTypes.GYROSCOPE:
+                if (!isInitialised) {
+                    return false;
+                }
+                if (hasGyro) {
+                    float dt = (timestamp - lastGyroTime) * 1e-9f;
+                    if (dt > 0 && dt < MAX_DT) {
+                        Rotations.integrateGyro(q, x, y, z, dt);
+                    }
+                }
+                hasGyro = true;
+                lastGyroTime = timestamp;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private boolean correct(long timestamp) {
+        if (!hasGravity || !hasGeomagnetic || !Rotations.getRotationMatrix(R, mGravity, mGeomagnetic)) {
+            return false;
+        }
+        Rotations.matrixToQuaternion(R, qAccMag);
+
+        if (!isInitialised || !hasGyro) {
+            // without the gyroscope there's nothing to smooth with
+            System.arraycopy(qAccMag, 0, q, 0, 4);
+            isInitialised = true;
+        } else {
+            // readings from different sensors may arrive out of order when batched
+            float dt = Math.max(0, Math.min(MAX_DT, (timestamp - lastCorrectionTime) * 1e-9f));
+            float alpha = dt / (TIME_CONSTANT + dt);
+
+            // q and -q are the same rotation, so blend towards whichever is nearer
+            float dot = q[0] * qAccMag[0] + q[1] * qAccMag[1] + q[2] * qAccMag[2] + q[3] * qAccMag[3];
+            float sign = dot < 0 ? -1 : 1;
+            for (int i = 0; i < 4; i++) {
+                q[i] += alpha * (sign * qAccMag[i] - q[i]);
+            }
+            Rotations.normalize(q);
+        }
+        lastCorrectionTime = timestamp;
+        return true;
+    }
+
+    @Override
+    public void getOrientation(float[] orient) {
+        Rotations.quaternionToMatrix(q, R);
+        Rotations.getOrientation(R, orient);
+    }
+
+    @Override
+    public void reset() {
+        q[0] = 1;
+        q[1] = q[2] = q[3] = 0;
+        hasGravity = hasGeomagnetic = hasGyro = isInitialised = false;
+    }
+}
@@ -0,0 +1,290 @@
+package uk.ac.sussex.bee_labe;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Builds the zip archive of data files for sharing. This is slow, so it should be run in the
+ * background.
+ *
+ * The archive is kept between exports, along with a manifest of what's in it, and only files
+ * which haven't been exported before are compressed and added to the end. Files which were
+ * exported and have since been deleted stay in it; if one has changed, the archive is rebuilt
+ * from the files there are now. Files are compressed in parallel, each into a temporary file,
+ * and added to the archive in order.
+ */
+
+public class DataExporter {
+    private static final int BUFFER_SIZE = 64 * 1024; // bytes
+
+    public interface Listener {
+        // called on the compression threads, as each buffer is compressed
+        void onProgress(long bytesDone, long bytesTotal);
+    }
+
+    private final File dir;
+    private final File archive;
+    private final File manifestFile;
+    private final File tmpDir;
+    private final int threads;
+    private final SessionCatalogue catalogue;
+
+    public DataExporter(File dir, File archive, File manifestFile, File tmpDir, int threads) {
+        this(dir, archive, manifestFile, tmpDir, threads, null);
+    }
+
+    /**
+     * @param dir where the data files are
+     * @param archive the archive to build or add to
+     * @param manifestFile where to keep the list of exported files
+     * @param tmpDir for compressed files waiting to go into the archive
+     * @param threads number of files to compress at once
+     * @param catalogue to mark the exported sessions in; may be null
+     */
+    public DataExporter(File dir, File archive, File manifestFile, File tmpDir, int threads,
+                        SessionCatalogue catalogue) {
+        this.dir = dir;
+        this.archive = archive;
+        this.manifestFile = manifestFile;
+        this.tmpDir = tmpDir;
+        this.threads = threads;
+        this.catalogue = catalogue;
+    }
+
+    /**
+     * The data files in a directory: JSON and binary recordings, in name (i.e. date) order.
+     */
+    public static File[] listDataFiles(File dir) {
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File file, String s) {
+                return s.endsWith(".json") || s.endsWith(".bin");
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * Bring the archive up to date, returning the number of files which were added to it, or
+     * -1 if there are no data files at all.
+     */
+    public int export(Listener listener) throws IOException {
+        convertBinaryFiles();
+
+        File[] files = listDataFiles(dir);
+        if (files.length == 0) {
+            return -1;
+        }
+
+        ExportManifest manifest = ExportManifest.load(manifestFile);
+        boolean rebuild = !archive.exists() || !archive.getName().equals(manifest.archiveName)
+                || archive.length() != manifest.archiveLength || !manifest.isUpToDate(dir);
+        ZipAppender zip = null;
+        if (!rebuild) {
+            if (countNew(files, manifest) == 0) {
+                updateCatalogue(manifest);
+                listener.onProgress(0, 0);
+                return 0;
+            }
+            try {
+                zip = ZipAppender.append(archive);
+            } catch (IOException e) {
+                // not what the manifest says it is, so start again
+                rebuild = true;
+            }
+        }
+        if (rebuild) {
+            manifest.clear();
+            zip = ZipAppender.create(archive);
+        }
+
+        List<File> toAdd = new ArrayList<>();
+        long total = 0;
+        for (File file : files) {
+            if (!manifest.contains(file)) {
+                toAdd.add(file);
+                total += file.length();
+            }
+        }
+
+        // if anything goes wrong from here on the archive won't match the manifest, so it'll be
+        // rebuilt next time
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Compressed>> results = new ArrayList<>();
+        try {
+            AtomicLong done = new AtomicLong();
+            for (File file : toAdd) {
+                results.add(executor.submit(new Compressor(file, tmpDir, done, total, listener)));
+            }
+
+            for (int i = 0; i < toAdd.size(); i++) {
+                File file = toAdd.get(i);
+                Compressed compressed = get(results.get(i));
+                try {
+                    zip.addEntry(file.getName(), compressed.time, compressed.crc, compressed.size,
+                            compressed.file);
+                } finally {
+                    compressed.file.delete();
+                }
+                manifest.add(file);
+            }
+
+            manifest.archiveName = archive.getName();
+            manifest.archiveLength = zip.finish();
+        } finally {
+            zip.close();
+            executor.shutdownNow();
+            // clear up after any files which were compressed but never added
+            for (Future<Compressed> result : results) {
+                if (!result.cancel(true) && result.isDone()) {
+                    try {
+                        result.get().file.delete();
+                    } catch (InterruptedException | ExecutionException e) {
+                        // nothing was left behind
+                    }
+                }
+            }
+        }
+
+        manifest.save(manifestFile);
+        updateCatalogue(manifest);
+        return toAdd.size();
+    }
+
+    private void updateCatalogue(ExportManifest manifest) throws IOException {
+        if (catalogue != null) {
+            catalogue.updateExported(manifest);
+        }
+    }
+
+    private static int countNew(File[] files, ExportManifest manifest) {
+        int n = 0;
+        for (File file : files) {
+            if (!manifest.contains(file)) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    // recordings which were only saved in binary form need converting for analysis
+    private void convertBinaryFiles() throws IOException {
+        for (File bin : listDataFiles(dir)) {
+            String name = bin.getName();
+            if (name.endsWith(".bin")) {
+                File json = new File(dir, name.substring(0, name.length() - 4) + ".json");
+                if (!json.exists()) {
+                    BinaryToJsonConverter.convert(bin, json);
+                }
+            }
+        }
+    }
+
+    private static Compressed get(Future<Compressed> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static class Compressed {
+        File file;
+        long time, crc, size;
+    }
+
+    /**
+     * Deflates one file into a temporary file, ready to go into the archive.
+     */
+    private static class Compressor implements Callable<Compressed> {
+        private final File file, tmpDir;
+        private final AtomicLong done;
+        private final long total;
+        private final Listener listener;
+
+        Compressor(File file, File tmpDir, AtomicLong done, long total, Listener listener) {
+            this.file = file;
+            this.tmpDir = tmpDir;
+            this.done = done;
+            this.total = total;
+            this.listener = listener;
+        }
+
+        @Override
+        public Compressed call() throws IOException {
+            Compressed result = new Compressed();
+            result.time = file.lastModified();
+            result.file = File.createTempFile("export", ".deflate", tmpDir);
+
+            ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+            byte[] out = new byte[BUFFER_SIZE];
+            CRC32 crc = new CRC32();
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            FileChannel src = new FileInputStream(file).getChannel();
+            FileChannel dst = new FileOutputStream(result.file).getChannel();
+            try {
+                int n;
+                while ((n = src.read(in)) != -1) {
+                    if (Thread.interrupted()) {
+                        throw new IOException("Export cancelled");
+                    }
+                    crc.update(in.array(), 0, n);
+                    deflater.setInput(in.array(), 0, n);
+                    while (!deflater.needsInput()) {
+                        write(dst, out, deflater.deflate(out));
+                    }
+                    in.clear();
+                    result.size += n;
+                    listener.onProgress(done.addAndGet(n), total);
+                }
+                deflater.finish();
+                while (!deflater.finished()) {
+                    write(dst, out, deflater.deflate(out));
+                }
+            } catch (IOException e) {
+                dst.close();
+                result.file.delete();
+                throw e;
+            } finally {
+                deflater.end();
+                src.close();
+                dst.close();
+            }
+
+            result.crc = crc.getValue();
+            return result;
+        }
+
+        private static void write(FileChannel channel, byte[] data, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
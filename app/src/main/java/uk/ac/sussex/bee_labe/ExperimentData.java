@@ -1,17 +1,11 @@
 package uk.ac.sussex.bee_labe;
 
-import android.content.Context;
-import android.hardware.Sensor;
-import android.os.Build;
-import android.util.JsonWriter;
-
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.lang.reflect.Array;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 
 /**
@@ -19,32 +13,56 @@ import java.util.Date;
  */
 
 public class ExperimentData {
-    private ArrayList<DataPoint> dataList = new ArrayList(1000);
-    private ArrayList<RawData> rawDataList = new ArrayList(1000);
-    private long startTime;
-    private Date startDate;
-    private MainActivity main;
-
-    public ExperimentData(MainActivity main) {
-        this.main = main;
-    }
+    private static final boolean SAVE_JSON = true;
+    private static final boolean SAVE_BINARY = true;
+    private static final String JOURNAL_EXTENSION = ".journal";
+    // a couple of seconds at the fastest sampling rates
+    private static final int RING_CAPACITY = 1 << 13; // samples
+    private static final long DRAIN_INTERVAL = 5; // ms
+
+    private AttitudeLog dataList = new AttitudeLog();
+    private RawLog rawDataList = new RawLog();
+    private StreamingWriter writer;
+    private RecordingJournal journal;
+
+    // thin out the data as set in the header; the raw ones are indexed by sensor type
+    private StreamReducer attitudeReducer;
+    private final StreamReducer[] rawReducers = new StreamReducer[SensorTypes.GYROSCOPE + 1];
+
+    // where finished recordings are listed; may be null
+    private final SessionCatalogue catalogue;
+
+    // log() and logRaw() only reduce the data and hand them over, through the ring, to a
+    // thread which stores them, so nothing slow happens on the sensor thread
+    private final SampleRing ring;
+    private Thread drainer;
+    private volatile boolean isDraining = false;
+    // why the drainer stopped storing samples, if it failed; reported by finish()
+    private volatile Throwable drainFailure;
 
-    public void start() {
-        startDate = new Date();
-        startTime = System.nanoTime();
+    public ExperimentData() {
+        this(null);
     }
 
-    public void log(Attitude attitude) {
-        dataList.add(new DataPoint(System.nanoTime(), attitude));
+    public ExperimentData(SessionCatalogue catalogue) {
+        this(catalogue, SampleRing.BLOCK);
     }
 
-    public void logRaw(int sensorType, float[] values) {
-        rawDataList.add(new RawData(System.nanoTime(), sensorType, values));
+    /**
+     * @param overflowPolicy what to do if the data come in faster than they can be stored, as
+     *                       in SampleRing
+     */
+    public ExperimentData(SessionCatalogue catalogue, int overflowPolicy) {
+        this.catalogue = catalogue;
+        ring = new SampleRing(RING_CAPACITY, overflowPolicy);
     }
 
-    public String saveToFile(String ownerName) throws IOException {
-        // date and time at which this "trial" ended
-        Date endDate = new Date();
+    /**
+     * Open the data files for a new trial in the given directory and start saving data to them
+     * in the background. The file names come from the header's start date and experimenter.
+     */
+    public void start(File dir, RecordingHeader header) throws IOException {
+        String ownerName = header.experimenter;
 
         // work out phone owner's initials (we could also probably get this directly somehow)
         int space = ownerName.indexOf(' ');
@@ -55,119 +73,216 @@ public class ExperimentData {
             initials = ownerName;
         }
 
-        // filename is composed of the end date, time and owner's initials
-        final String filename = String.format("data_%s_%s.json", new SimpleDateFormat("yyyyMMdd_HHmmss").format(startDate),
+        // filename is composed of the start date, time and owner's initials
+        final String basename = String.format("data_%s_%s", new SimpleDateFormat("yyyyMMdd_HHmmss").format(header.startDate),
                 initials);
 
-        // save file to external storage
-        File dataFile = new File(main.getExternalFilesDir(null), filename);
-        FileOutputStream stream = new FileOutputStream(dataFile);
-
-        // save data as JSON
-        JsonWriter writer = new JsonWriter(new OutputStreamWriter(stream, "UTF-8"));
-        writer.setIndent("  ");
-        writer.beginObject();
-
-        // save start and end time as dates
-        writer.name("startTime").value(new SimpleDateFormat("dd/MM/yyyy HH:mm:ss").format(startDate));
-        writer.name("endTime").value(new SimpleDateFormat("dd/MM/yyyy HH:mm:ss").format(endDate));
-
-        // save phone owner's name
-        writer.name("experimenter").value(ownerName);
-
-        // this probably won't get the right model, but at least the manufacturer should be right
-        writer.name("phone_model").value(Build.MANUFACTURER + " " + Build.MODEL);
-
-        // save calibration data to file
-        writer.name("calibration");
-        writer.beginObject();
-        writer.name("pitch").value(main.cal.pitch);
-        writer.name("roll").value(main.cal.roll);
-        writer.endObject();
-
-        // begin writing data array
-        writer.name("data");
-        writer.beginArray();
-        for(int i = 0; i < dataList.size(); i++) {
-            DataPoint datum = dataList.get(i);
-
-            // write timestamp and attitude for each data point, as JSON object
-            writer.beginObject();
-            writer.name("time").value((datum.time - startTime) / 1000000);
-            writer.name("yaw").value(datum.attitude.yaw);
-            writer.name("pitch").value(datum.attitude.pitch);
-            writer.name("roll").value(datum.attitude.roll);
-            writer.endObject();
-        }
-        // end of data array
-        writer.endArray();
-
-        // save raw data if we have it
-        if (rawDataList.size() > 0) {
-            writer.name("raw_data");
-            writer.beginArray();
-            for (int i = 0; i < rawDataList.size(); i++) {
-                RawData data = rawDataList.get(i);
-
-                writer.beginObject();
-                writer.name("time").value((data.time - startTime) / 1000000);
-                writer.name("type");
-                switch (data.sensorType) {
-                    case Sensor.TYPE_ACCELEROMETER:
-                        writer.value("acc");
-                        break;
-                    case Sensor.TYPE_MAGNETIC_FIELD:
-                        writer.value("mag");
-                        break;
-                    case Sensor.TYPE_GYROSCOPE:
-                        writer.value("gyro");
-                        break;
-                    default:
-                        writer.value("unknown");
-                }
+        attitudeReducer = new StreamReducer(header.reduction.attitude, true);
+        for (int type : ReductionProfile.STREAMS) {
+            if (type != ReductionProfile.ATTITUDE) {
+                rawReducers[type] = new StreamReducer(header.reduction.forStream(type), false);
+            }
+        }
 
-                writer.name("values");
-                writer.beginArray();
-                for(float f : data.values) {
-                    writer.value(f);
+        // everything also goes in the journal, so it can be recovered if we never get to finish()
+        journal = new RecordingJournal(new File(dir, basename + JOURNAL_EXTENSION));
+        journal.begin(header);
+
+        writer = new StreamingWriter(dataList, rawDataList, createSinks(dir, basename, catalogue));
+        try {
+            writer.start(header);
+        } catch (IOException e) {
+            journal.delete();
+            journal = null;
+            writer = null;
+            throw e;
+        }
+
+        ring.clear();
+        drainFailure = null;
+        isDraining = true;
+        drainer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (isDraining) {
+                        if (ring.drain(store) == 0) {
+                            try {
+                                Thread.sleep(DRAIN_INTERVAL);
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                    }
+                } catch (RuntimeException | Error e) {
+                    // nothing will take samples out of the ring now, so don't let log() wait
+                    // for room in it
+                    drainFailure = e;
+                    ring.close();
                 }
-                writer.endArray();
-                writer.endObject();
             }
-            writer.endArray();
+        }, "ExperimentData");
+        drainer.start();
+    }
+
+    // runs on the drainer thread, which is the only one to append to the logs and journal
+    private final SampleRing.Visitor store = new SampleRing.Visitor() {
+        @Override
+        public void onSample(int type, long time, float x, float y, float z) {
+            if (type == ReductionProfile.ATTITUDE) {
+                dataList.append(time, x, y, z);
+                journal.appendAttitude(time, x, y, z);
+            } else {
+                rawDataList.append(time, type, x, y, z);
+                journal.appendRaw(time, type, x, y, z);
+            }
         }
+    };
 
-        // end of file
-        writer.endObject();
-        writer.close();
+    /**
+     * Journals left behind by recordings which were never finished, e.g. because the app was
+     * killed.
+     */
+    public static File[] listJournals(File dir) {
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File file, String s) {
+                return s.endsWith(JOURNAL_EXTENSION);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
 
-        // delete data from memory so we can start over
-        dataList.clear();
-        rawDataList.clear();
+    /**
+     * Rebuild the data files of an unfinished recording from its journal, replacing whatever
+     * had been saved of them, then delete the journal and add the recording to the catalogue
+     * (if not null). Returns the path of the first file (for display), or null if the journal
+     * was empty, in which case it's just deleted.
+     */
+    public static String recover(File journalFile, SessionCatalogue catalogue) throws IOException {
+        String name = journalFile.getName();
+        String basename = name.substring(0, name.length() - JOURNAL_EXTENSION.length());
+        RecordingSink[] sinks = createSinks(journalFile.getParentFile(), basename, catalogue);
+        RecordingHeader header = RecordingJournal.recover(journalFile, sinks);
+        journalFile.delete();
+        return header != null ? sinks[0].getPath() : null;
+    }
 
-        // return the file path for display
-        return dataFile.getAbsolutePath();
+    private static RecordingSink[] createSinks(File dir, String basename, SessionCatalogue catalogue) {
+        ArrayList<RecordingSink> sinks = new ArrayList<>();
+        if (SAVE_JSON) {
+            sinks.add(new JsonRecordingSink(new File(dir, basename + ".json"),
+                    new File(dir, basename + "_raw.json")));
+        }
+        if (SAVE_BINARY) {
+            // the JSON files keep full precision, so this can be packed
+            sinks.add(new BinaryRecordingSink(new File(dir, basename + ".bin"), new StreamCodec()));
+        }
+        if (catalogue != null) {
+            // last, so the files are finished by the time it lists them
+            sinks.add(catalogue.newSink(basename));
+        }
+        return sinks.toArray(new RecordingSink[sinks.size()]);
     }
 
-    class DataPoint {
-        long time;
-        Attitude attitude;
+    /**
+     * Log an attitude. The time is the timestamp of the sensor reading it came from (ns, as in
+     * SensorEvent), which is more accurate than the time at which we get to process it. Returns
+     * whether anything was stored, which depends on the header's reduction profile (and on
+     * there being room in the ring).
+     */
+    public boolean log(long time, Attitude attitude) {
+        StreamReducer reducer = attitudeReducer;
+        if (!reducer.add(time, attitude.yaw, attitude.pitch, attitude.roll)) {
+            return false;
+        }
+
+        float[] v = reducer.values;
+        return ring.offer(ReductionProfile.ATTITUDE, reducer.time, v[0], v[1], v[2]);
+    }
 
-        public DataPoint(long time, Attitude attitude) {
-            this.time = time;
-            this.attitude = attitude;
+    /**
+     * Log a raw sensor reading. The values are copied, so the array can be reused afterwards.
+     * Returns whether anything was stored, as for log().
+     */
+    public boolean logRaw(long time, int sensorType, float[] values) {
+        StreamReducer reducer = sensorType >= 0 && sensorType < rawReducers.length
+                ? rawReducers[sensorType] : null;
+        if (reducer != null) {
+            if (!reducer.add(time, values[0], values[1], values[2])) {
+                return false;
+            }
+            time = reducer.time;
+            values = reducer.values;
         }
+
+        return ring.offer(sensorType, time, values[0], values[1], values[2]);
     }
 
-    class RawData {
-        long time;
-        int sensorType;
-        float[] values;
+    /**
+     * Write out the last of the data and close the files. As the data have been saved as the
+     * trial went along, this takes about the same time however long the trial was. The metrics
+     * (if not null) are saved at the end of the files. Call on the thread which logged the
+     * data. If samples stopped being stored part way through, the files are still finished
+     * with those which were, and then an IOException says why.
+     */
+    public String finish(SessionMetrics metrics) throws IOException {
+        // date and time at which this "trial" ended
+        Date endDate = new Date();
+
+        // store whatever is still in the ring
+        isDraining = false;
+        boolean interrupted = false;
+        while (drainer.isAlive()) {
+            try {
+                drainer.join();
+            } catch (InterruptedException e) {
+                // it only sleeps for a few ms, and must have stopped before we drain the rest
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        drainer = null;
+        Throwable failure = drainFailure;
+        while (failure == null && ring.drain(store) > 0) {
+            // keep going until it's empty
+        }
+        if (metrics != null) {
+            metrics.queueOverflows = ring.getOverflows();
+            metrics.queueDropped = ring.getDropped();
+        }
 
-        public RawData(long time, int sensorType, float[] values) {
-            this.time = time;
-            this.sensorType = sensorType;
-            this.values = values;
+        String path = writer.getPath();
+        boolean saved = false;
+        try {
+            writer.finish(endDate, metrics);
+            saved = true;
+        } finally {
+            // the journal is only needed if the files couldn't be finished
+            if (saved) {
+                journal.delete();
+            } else {
+                journal.close();
+            }
+
+            // delete data from memory so we can start over
+            journal = null;
+            writer = null;
+            dataList.clear();
+            rawDataList.clear();
+        }
+
+        if (failure != null) {
+            throw new IOException("Samples stopped being saved part way through", failure);
         }
+
+        // return the file path for display
+        return path;
     }
 }
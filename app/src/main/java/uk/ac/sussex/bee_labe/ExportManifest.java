@@ -0,0 +1,111 @@
+package uk.ac.sussex.bee_labe;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records which files are in the export archive (by name, size and modification time) and how
+ * long the archive was when it was last finished, so that the next export only has to add new
+ * files and can tell if the archive has been changed behind its back.
+ *
+ * Saved as a tab-separated text file: the archive's name and length on the first line, then one
+ * line per file.
+ */
+
+public class ExportManifest {
+    private final Map<String, long[]> files = new LinkedHashMap<>();
+    public String archiveName = "";
+    public long archiveLength = -1;
+
+    /**
+     * Load a manifest, or return an empty one if the file doesn't exist or can't be read.
+     */
+    public static ExportManifest load(File file) {
+        ExportManifest manifest = new ExportManifest();
+        if (!file.exists()) {
+            return manifest;
+        }
+
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String[] archive = in.readLine().split("\t");
+                manifest.archiveName = archive[0];
+                manifest.archiveLength = Long.parseLong(archive[1]);
+
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] fields = line.split("\t");
+                    manifest.files.put(fields[0], new long[] {
+                            Long.parseLong(fields[1]), Long.parseLong(fields[2]) });
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            // start over, which just means the archive gets rebuilt
+            return new ExportManifest();
+        }
+        return manifest;
+    }
+
+    /**
+     * Save the manifest. It is written to a temporary file first, so a crash part way through
+     * leaves the old manifest in place.
+     */
+    public void save(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        Writer out = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        try {
+            out.write(archiveName + "\t" + archiveLength + "\n");
+            for (Map.Entry<String, long[]> entry : files.entrySet()) {
+                long[] v = entry.getValue();
+                out.write(entry.getKey() + "\t" + v[0] + "\t" + v[1] + "\n");
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Couldn't save " + file);
+        }
+    }
+
+    /**
+     * Whether the file is in the archive as it is now.
+     */
+    public boolean contains(File file) {
+        long[] v = files.get(file.getName());
+        return v != null && v[0] == file.length() && v[1] == file.lastModified();
+    }
+
+    public void add(File file) {
+        files.put(file.getName(), new long[] { file.length(), file.lastModified() });
+    }
+
+    public void clear() {
+        files.clear();
+    }
+
+    /**
+     * Whether none of the files in the manifest have changed in the directory. Ones which have
+     * been deleted since (e.g. to make room once they were exported) don't count: they stay in
+     * the archive, and in the manifest.
+     */
+    public boolean isUpToDate(File dir) {
+        for (String name : files.keySet()) {
+            File file = new File(dir, name);
+            if (file.exists() && !contains(file)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
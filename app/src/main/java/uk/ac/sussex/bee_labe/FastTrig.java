@@ -0,0 +1,67 @@
+package uk.ac.sussex.bee_labe;
+
+/**
+ * Polynomial approximations of the inverse trig functions needed to get angles out of a
+ * rotation matrix, which are several times quicker than Math.atan2() and Math.asin() (which
+ * have to be accurate to the last bit of a double). atan(z) on [0, 1] is an odd polynomial
+ * (Hastings' minimax fit); the rest follows from the symmetries of atan2.
+ *
+ * Measured against Math over dense sweeps (see FusedOrientationTest), the error, including
+ * float rounding, is under MAX_ERROR: about 0.00015 degrees, which is far below the noise of
+ * any phone's sensors.
+ */
+
+public final class FastTrig {
+    // largest absolute error of atan2() and asin() (rad)
+    public static final float MAX_ERROR = 2.5e-6f;
+
+    private static final float PI = (float) Math.PI;
+    private static final float HALF_PI = (float) (Math.PI / 2);
+
+    private static final float A1 = 0.99997726f;
+    private static final float A3 = -0.33262347f;
+    private static final float A5 = 0.19354346f;
+    private static final float A7 = -0.11643287f;
+    private static final float A9 = 0.05265332f;
+    private static final float A11 = -0.01172120f;
+
+    private FastTrig() {
+    }
+
+    /**
+     * The same as Math.atan2(y, x), to within MAX_ERROR. Returns 0 for (0, 0).
+     */
+    public static float atan2(float y, float x) {
+        float ax = Math.abs(x), ay = Math.abs(y);
+        if (ax == 0 && ay == 0) {
+            return 0;
+        }
+
+        // atan of the smaller over the larger, which is in [0, 1]
+        boolean steep = ay > ax;
+        float z = steep ? ax / ay : ay / ax;
+        float z2 = z * z;
+        float a = z * (A1 + z2 * (A3 + z2 * (A5 + z2 * (A7 + z2 * (A9 + z2 * A11)))));
+
+        if (steep) {
+            a = HALF_PI - a;
+        }
+        if (x < 0) {
+            a = PI - a;
+        }
+        // by the sign bit, so that -0 below the negative x axis gives -pi, as Math.atan2 does
+        return Math.copySign(a, y);
+    }
+
+    /**
+     * The same as Math.asin(x), to within MAX_ERROR, with x clamped to [-1, 1].
+     */
+    public static float asin(float x) {
+        if (x >= 1) {
+            return HALF_PI;
+        } else if (x <= -1) {
+            return -HALF_PI;
+        }
+        return atan2(x, (float) Math.sqrt((1 - x) * (1 + x)));
+    }
+}
@@ -0,0 +1,225 @@
+package uk.ac.sussex.bee_labe;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Saves recordings as JSON. The attitude data go into the main file and the raw data into a
+ * separate "_raw" file next to it, as the two streams are logged at the same time and so can't
+ * both be appended to one JSON object (older versions put both in one file). Both files are
+ * described in the README, and matlab/parse_data.m can load either.
+ */
+
+public class JsonRecordingSink implements RecordingSink {
+    private final File dataFile, rawFile;
+    private JsonStreamWriter dataWriter, rawWriter;
+    private long startTime;
+
+    public JsonRecordingSink(File dataFile, File rawFile) {
+        this.dataFile = dataFile;
+        this.rawFile = rawFile;
+    }
+
+    @Override
+    public void begin(RecordingHeader header) throws IOException {
+        startTime = header.startTime;
+
+        dataWriter = openWriter(dataFile);
+        dataWriter.beginObject();
+        writeHeader(dataWriter, header);
+
+        // begin writing data array
+        dataWriter.name("data");
+        dataWriter.beginArray();
+        dataWriter.flush();
+    }
+
+    @Override
+    public void writeData(AttitudeLog dataList, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            writeDataPoint(dataWriter, (dataList.getTime(i) - startTime) / 1000000,
+                    dataList.getYaw(i), dataList.getPitch(i), dataList.getRoll(i));
+        }
+    }
+
+    @Override
+    public void writeRaw(RawLog rawDataList, int from, int to) throws IOException {
+        if (from == to) {
+            return;
+        }
+
+        // only create a raw data file if we have raw data
+        if (rawWriter == null) {
+            rawWriter = openWriter(rawFile);
+            rawWriter.beginObject();
+            rawWriter.name("raw_data");
+            rawWriter.beginArray();
+        }
+        for (int i = from; i < to; i++) {
+            writeRawPoint(rawWriter, (rawDataList.getTime(i) - startTime) / 1000000,
+                    rawDataList.getSensorType(i), rawDataList.getValue(i, 0),
+                    rawDataList.getValue(i, 1), rawDataList.getValue(i, 2));
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        dataWriter.flush();
+        if (rawWriter != null) {
+            rawWriter.flush();
+        }
+    }
+
+    @Override
+    public void finish(Date endDate, SessionMetrics metrics) throws IOException {
+        try {
+            // end of data array
+            dataWriter.endArray();
+
+            // the end time is only known now, so it goes at the end of the file
+            writeEndTime(dataWriter, endDate);
+            writeMetrics(dataWriter, metrics);
+            dataWriter.endObject();
+
+            if (rawWriter != null) {
+                rawWriter.endArray();
+                rawWriter.endObject();
+            }
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public void close() {
+        closeQuietly(dataWriter);
+        closeQuietly(rawWriter);
+    }
+
+    @Override
+    public String getPath() {
+        return dataFile.getAbsolutePath();
+    }
+
+    static JsonStreamWriter openWriter(File file) throws IOException {
+        JsonStreamWriter writer = new JsonStreamWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        writer.setIndent("  ");
+        return writer;
+    }
+
+    static void closeQuietly(JsonStreamWriter writer) {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                // nothing more we can do
+            }
+        }
+    }
+
+    static void writeHeader(JsonStreamWriter writer, RecordingHeader header) throws IOException {
+        // save start time as date
+        writer.name("startTime").value(new SimpleDateFormat("dd/MM/yyyy HH:mm:ss").format(header.startDate));
+
+        // save phone owner's name
+        writer.name("experimenter").value(header.experimenter);
+
+        writer.name("phone_model").value(header.phoneModel);
+
+        // which AttitudeEstimator the attitude data came from
+        writer.name("orientation_filter").value(header.orientationFilter);
+
+        // save calibration data to file
+        writeCalibration(writer, header);
+
+        writeReduction(writer, header.reduction);
+    }
+
+    static void writeCalibration(JsonStreamWriter writer, RecordingHeader header) throws IOException {
+        writer.name("calibration");
+        writer.beginObject();
+        writer.name("pitch").value(header.calPitch);
+        writer.name("roll").value(header.calRoll);
+        // how noisy the readings were while calibrating, or null if we don't know (always
+        // written, so that every file has the same fields)
+        writeFloatOrNull(writer.name("pitch_variance"), header.calPitchVariance);
+        writeFloatOrNull(writer.name("roll_variance"), header.calRollVariance);
+        writer.endObject();
+    }
+
+    static void writeReduction(JsonStreamWriter writer, ReductionProfile reduction) throws IOException {
+        // written even for full-rate data (as profile "none", with each stream's decimation 1),
+        // so that every file has the same fields
+        writer.name("reduction");
+        writer.beginObject();
+        writer.name("profile").value(reduction.isActive() ? reduction.name : ReductionProfile.NONE);
+        for (int stream : ReductionProfile.STREAMS) {
+            StreamReduction settings = reduction.forStream(stream);
+            writer.name(ReductionProfile.streamName(stream));
+            writer.beginObject();
+            writer.name("decimation").value(settings.factor);
+            writer.name("filter").value(StreamReduction.FILTER);
+            writer.name("deadband").value(settings.deadband);
+            writer.name("heartbeat").value(settings.heartbeat / 1000000); // ms, like the times
+            writer.endObject();
+        }
+        writer.endObject();
+    }
+
+    private static void writeFloatOrNull(JsonStreamWriter writer, float value) throws IOException {
+        if (Float.isNaN(value)) {
+            writer.nullValue();
+        } else {
+            writer.value(value);
+        }
+    }
+
+    // the end time and metrics are written as null if they're not known (e.g. for recovered
+    // recordings), so that every file has the same fields
+    static void writeEndTime(JsonStreamWriter writer, Date endDate) throws IOException {
+        writer.name("endTime");
+        if (endDate != null) {
+            writer.value(new SimpleDateFormat("dd/MM/yyyy HH:mm:ss").format(endDate));
+        } else {
+            writer.nullValue();
+        }
+    }
+
+    static void writeMetrics(JsonStreamWriter writer, SessionMetrics metrics) throws IOException {
+        writer.name("metrics");
+        if (metrics != null) {
+            metrics.writeJson(writer);
+        } else {
+            writer.nullValue();
+        }
+    }
+
+    static void writeDataPoint(JsonStreamWriter writer, long time, float yaw, float pitch, float roll)
+            throws IOException {
+        // write timestamp and attitude for each data point, as JSON object
+        writer.beginObject();
+        writer.name("time").value(time);
+        writer.name("yaw").value(yaw);
+        writer.name("pitch").value(pitch);
+        writer.name("roll").value(roll);
+        writer.endObject();
+    }
+
+    static void writeRawPoint(JsonStreamWriter writer, long time, int sensorType, float x, float y,
+                              float z) throws IOException {
+        writer.beginObject();
+        writer.name("time").value(time);
+        writer.name("type").value(SensorTypes.name(sensorType));
+        writer.name("values");
+        writer.beginArray();
+        writer.value(x);
+        writer.value(y);
+        writer.value(z);
+        writer.endArray();
+        writer.endObject();
+    }
+}
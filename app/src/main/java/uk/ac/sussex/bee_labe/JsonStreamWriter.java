@@ -0,0 +1,238 @@
+package uk.ac.sussex.bee_labe;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A minimal streaming JSON writer with the same interface and output as android.util.JsonWriter
+ * (for the parts we use), so that the code which saves recordings doesn't depend on the
+ * Android framework and can be run and benchmarked on a PC.
+ */
+
+public class JsonStreamWriter implements Closeable, Flushable {
+    // what's at each level of nesting
+    private static final int EMPTY_ARRAY = 1;
+    private static final int NONEMPTY_ARRAY = 2;
+    private static final int EMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int NONEMPTY_OBJECT = 5;
+    private static final int EMPTY_DOCUMENT = 6;
+    private static final int NONEMPTY_DOCUMENT = 7;
+
+    private final Writer out;
+    private int[] stack = new int[32];
+    private int stackSize = 0;
+    private String indent = null;
+    private String separator = ":";
+
+    public JsonStreamWriter(Writer out) {
+        this.out = out;
+        stack[stackSize++] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Pretty-print the output, indenting each level by the given string.
+     */
+    public void setIndent(String indent) {
+        if (indent.length() == 0) {
+            this.indent = null;
+            separator = ":";
+        } else {
+            this.indent = indent;
+            separator = ": ";
+        }
+    }
+
+    public JsonStreamWriter beginArray() throws IOException {
+        return open(EMPTY_ARRAY, '[');
+    }
+
+    public JsonStreamWriter endArray() throws IOException {
+        return close(EMPTY_ARRAY, NONEMPTY_ARRAY, ']');
+    }
+
+    public JsonStreamWriter beginObject() throws IOException {
+        return open(EMPTY_OBJECT, '{');
+    }
+
+    public JsonStreamWriter endObject() throws IOException {
+        return close(EMPTY_OBJECT, NONEMPTY_OBJECT, '}');
+    }
+
+    public JsonStreamWriter name(String name) throws IOException {
+        int context = peek();
+        if (context == NONEMPTY_OBJECT) {
+            out.write(',');
+        } else if (context != EMPTY_OBJECT) {
+            throw new IllegalStateException("Nesting problem");
+        }
+        newline();
+        stack[stackSize - 1] = DANGLING_NAME;
+        string(name);
+        return this;
+    }
+
+    public JsonStreamWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue(false);
+        string(value);
+        return this;
+    }
+
+    public JsonStreamWriter nullValue() throws IOException {
+        beforeValue(false);
+        out.write("null");
+        return this;
+    }
+
+    public JsonStreamWriter value(boolean value) throws IOException {
+        beforeValue(false);
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonStreamWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+        }
+        beforeValue(false);
+        out.write(Double.toString(value));
+        return this;
+    }
+
+    public JsonStreamWriter value(long value) throws IOException {
+        beforeValue(false);
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+
+        int size = stackSize;
+        if (size > 1 || size == 1 && stack[0] != NONEMPTY_DOCUMENT) {
+            throw new IOException("Incomplete document");
+        }
+        stackSize = 0;
+    }
+
+    private JsonStreamWriter open(int empty, char bracket) throws IOException {
+        beforeValue(true);
+        if (stackSize == stack.length) {
+            int[] newStack = new int[2 * stackSize];
+            System.arraycopy(stack, 0, newStack, 0, stackSize);
+            stack = newStack;
+        }
+        stack[stackSize++] = empty;
+        out.write(bracket);
+        return this;
+    }
+
+    private JsonStreamWriter close(int empty, int nonempty, char bracket) throws IOException {
+        int context = peek();
+        if (context != nonempty && context != empty) {
+            throw new IllegalStateException("Nesting problem");
+        }
+        stackSize--;
+        if (context == nonempty) {
+            newline();
+        }
+        out.write(bracket);
+        return this;
+    }
+
+    private int peek() {
+        if (stackSize == 0) {
+            throw new IllegalStateException("JsonStreamWriter is closed");
+        }
+        return stack[stackSize - 1];
+    }
+
+    private void newline() throws IOException {
+        if (indent == null) {
+            return;
+        }
+
+        out.write('\n');
+        for (int i = 1; i < stackSize; i++) {
+            out.write(indent);
+        }
+    }
+
+    private void beforeValue(boolean root) throws IOException {
+        switch (peek()) {
+            case EMPTY_DOCUMENT:
+                if (!root) {
+                    throw new IllegalStateException("JSON must start with an array or an object");
+                }
+                stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+                break;
+            case EMPTY_ARRAY:
+                stack[stackSize - 1] = NONEMPTY_ARRAY;
+                newline();
+                break;
+            case NONEMPTY_ARRAY:
+                out.write(',');
+                newline();
+                break;
+            case DANGLING_NAME:
+                out.write(separator);
+                stack[stackSize - 1] = NONEMPTY_OBJECT;
+                break;
+            case NONEMPTY_DOCUMENT:
+                throw new IllegalStateException("JSON must have only one top-level value");
+            default:
+                throw new IllegalStateException("Nesting problem");
+        }
+    }
+
+    private void string(String value) throws IOException {
+        out.write('"');
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                    out.write('\\');
+                    out.write(c);
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                case '\b':
+                    out.write("\\b");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\f':
+                    out.write("\\f");
+                    break;
+                case '\u2028':
+                case '\u2029':
+                    out.write(String.format("\\u%04x", (int) c));
+                    break;
+                default:
+                    if (c <= 0x1F) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+}
@@ -0,0 +1,145 @@
+package uk.ac.sussex.bee_labe;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Histogram of non-negative long values (e.g. times in ns), in the style of HdrHistogram: each
+ * power of two is split into SUB_BUCKETS equal buckets, so any value is counted to within about
+ * 3% of its size. Recording a value is a few shifts and an array increment, with no allocation,
+ * so it is cheap enough to use on the sensor thread for every reading.
+ *
+ * Not thread-safe: values should be recorded by one thread, and read by that thread or once it
+ * has finished.
+ */
+
+public class LogLinearHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // enough for any positive long
+    static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count, sum, max;
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[bucket(value)]++;
+        count++;
+        sum += value;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(counts, 0);
+        count = sum = max = 0;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    public double mean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * The value below which the given percentage of the values fall (to within the bucket
+     * size), or 0 if nothing has been recorded.
+     */
+    public long percentile(double percent) {
+        if (count == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(percent / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * How many values were at least the given value (to within the bucket size).
+     */
+    public long countAtLeast(long value) {
+        long n = 0;
+        for (int i = bucket(Math.max(value, 0)); i < BUCKETS; i++) {
+            n += counts[i];
+        }
+        return n;
+    }
+
+    /**
+     * Save the non-empty buckets, which is usually a few hundred bytes.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putLong(count);
+        buffer.putLong(sum);
+        buffer.putLong(max);
+        buffer.putShort((short) nonEmptyBuckets());
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] != 0) {
+                buffer.putShort((short) i);
+                buffer.putLong(counts[i]);
+            }
+        }
+    }
+
+    public int serializedSize() {
+        return 3 * 8 + 2 + nonEmptyBuckets() * (2 + 8);
+    }
+
+    public void readFrom(ByteBuffer buffer) {
+        clear();
+        count = buffer.getLong();
+        sum = buffer.getLong();
+        max = buffer.getLong();
+        int n = buffer.getShort() & 0xFFFF;
+        for (int i = 0; i < n; i++) {
+            int bucket = buffer.getShort() & 0xFFFF;
+            counts[bucket] = buffer.getLong();
+        }
+    }
+
+    private int nonEmptyBuckets() {
+        int n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] != 0) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    // values below 2 * SUB_BUCKETS get a bucket each, then each power of two gets SUB_BUCKETS
+    static int bucket(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    // the largest value which goes in the given bucket
+    static long upperBound(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long top = bucket - shift * SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+}
@@ -1,66 +1,85 @@
 package uk.ac.sussex.bee_labe;
 
-import android.content.Context;
+import android.app.ProgressDialog;
+import android.content.ComponentName;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.database.Cursor;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
-import android.os.SystemClock;
+import android.os.IBinder;
 import android.provider.ContactsContract;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
+import android.view.Choreographer;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.SubMenu;
 import android.view.View;
-import android.view.WindowManager;
 import android.widget.Button;
 import android.widget.Chronometer;
+import android.widget.EditText;
 import android.widget.TextView;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FilenameFilter;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
-
-public class MainActivity extends AppCompatActivity implements SensorEventListener {
-    private static final int SENSOR_DELAY = 50000; // µs
-    private static final int ZIP_BUFFER = 2048; // bytes
-    private static final boolean LOG_RAW = true;
-
-    private SensorManager mSensorManager;
-    private Sensor mAccSensor, mMagSensor, mGyroSensor;
-    private float[] mGravity, mGeomagnetic;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The controls and display for the RecordingService, which does the actual work, so that
+ * recordings don't depend on this being on the screen.
+ */
+
+public class MainActivity extends AppCompatActivity implements RecordingService.Listener {
+    private static final int PROFILE_MENU_GROUP = 1;
+    private static final int ESTIMATOR_MENU_GROUP = 2;
+    private static final int REDUCTION_MENU_GROUP = 3;
+    private static final String EXPORT_MANIFEST = "export_manifest.txt";
+
     private Button recButton, calButton;
     private TextView infoTextView;
-    private ExperimentData data = new ExperimentData(this);
     private Chronometer elapsedChronometer;
-    private boolean isPaused, isRecording = false;
+    private boolean isResumed = false;
     private String ownerName;
-    private Handler mHandlerRec;
+    private RecordingProfile profile = RecordingProfile.PROFILES[0];
+    private int estimatorIndex = 0;
+    private ReductionProfile reduction = ReductionProfile.FULL_RATE;
+    private final Attitude displayAttitude = new Attitude(0, 0, 0);
+    private final AttitudeFormatter displayFormatter = new AttitudeFormatter();
     private Toolbar appToolbar;
-    public CalibrationHandler cal = new CalibrationHandler(this);
+
+    // null until bound
+    private RecordingService service;
+
+    private final ServiceConnection connection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            service = ((RecordingService.LocalBinder) binder).getService();
+            if (!service.isStarting() && !service.isRecording() && !service.isCalibrating()) {
+                service.setProfile(profile);
+                service.setEstimator(estimatorIndex);
+            }
+            service.setDisplaying(isResumed);
+            setTelemetry(getPreferences(MODE_PRIVATE).getString("telemetry", ""));
+            service.setListener(MainActivity.this);
+            showState();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            service = null;
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
-        // show on top of lock screen
-        getWindow().addFlags(WindowManager.LayoutParams.FLAG_SHOW_WHEN_LOCKED);
-
         // set layout
         setContentView(R.layout.activity_main);
 
@@ -73,7 +92,10 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
         recButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                if(isRecording) {
+                if (service == null) {
+                    return;
+                }
+                if (service.isRecording()) {
                     stopRecording();
                 } else {
                     startRecording();
@@ -101,206 +123,562 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
 
         elapsedChronometer = (Chronometer)findViewById(R.id.elapsedChronometer);
 
-        mSensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
-        mAccSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-        mMagSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
-        mGyroSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
-
-        mHandlerRec = new Handler() {
-            @Override
-            public void handleMessage(Message inputMessage) {
-                try {
-                    showDialog("Data saved", "Saved to: " + data.saveToFile(ownerName));
-                } catch(IOException e) {
-                    showDialog(e);
-                }
+        int profileIndex = getPreferences(MODE_PRIVATE).getInt("profile", 0);
+        if (profileIndex < RecordingProfile.PROFILES.length) {
+            profile = RecordingProfile.PROFILES[profileIndex];
+        }
+        estimatorIndex = getPreferences(MODE_PRIVATE).getInt("estimator", 0);
+        if (estimatorIndex >= AttitudeEstimators.NAMES.length) {
+            estimatorIndex = 0;
+        }
 
-                recButton.setText("Start Recording");
-                recButton.setEnabled(true);
-                calButton.setEnabled(true);
-            }
-        };
+        int reductionIndex = getPreferences(MODE_PRIVATE).getInt("reduction", 0);
+        if (reductionIndex < ReductionProfile.PROFILES.length) {
+            reduction = ReductionProfile.PROFILES[reductionIndex];
+        }
 
         appToolbar = (Toolbar)findViewById(R.id.appToolbar);
         setSupportActionBar(appToolbar);
+
+        // nothing can be done until we're connected to the service
+        recButton.setEnabled(false);
+        calButton.setEnabled(false);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        bindService(new Intent(this, RecordingService.class), connection, BIND_AUTO_CREATE);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (service != null) {
+            service.setListener(null);
+            service = null;
+        }
+        // the service carries on if it's recording
+        unbindService(connection);
+    }
+
+    /**
+     * Set up the controls for what the service is doing, e.g. a recording which started before
+     * this activity did.
+     */
+    private void showState() {
+        if (service.isStarting()) {
+            recButton.setText("Starting...");
+            recButton.setEnabled(false);
+            calButton.setEnabled(false);
+        } else if (service.isSaving()) {
+            recButton.setText("Saving data...");
+            recButton.setEnabled(false);
+            calButton.setEnabled(false);
+        } else if (service.isRecording()) {
+            showRecording(service.getRecordingStartedAt());
+        } else if (service.isCalibrating()) {
+            calButton.setText("Calibrating");
+            recButton.setEnabled(false);
+            calButton.setEnabled(true);
+        } else {
+            recButton.setEnabled(true);
+            calButton.setEnabled(true);
+        }
+    }
+
+    @Override
+    public void onRecordingsRecovered(String report) {
+        showDialog("Unfinished recordings", report);
     }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.menu_main, menu);
+
+        // one item for each sensor rate profile
+        SubMenu profileMenu = menu.addSubMenu("Sensor rate");
+        for (int i = 0; i < RecordingProfile.PROFILES.length; i++) {
+            MenuItem item = profileMenu.add(PROFILE_MENU_GROUP, i, i, RecordingProfile.PROFILES[i].name);
+            item.setChecked(RecordingProfile.PROFILES[i] == profile);
+        }
+        profileMenu.setGroupCheckable(PROFILE_MENU_GROUP, true, true);
+
+        // and for each way of working out the orientation
+        SubMenu estimatorMenu = menu.addSubMenu("Orientation filter");
+        for (int i = 0; i < AttitudeEstimators.NAMES.length; i++) {
+            MenuItem item = estimatorMenu.add(ESTIMATOR_MENU_GROUP, i, i, AttitudeEstimators.NAMES[i]);
+            item.setChecked(i == estimatorIndex);
+        }
+        estimatorMenu.setGroupCheckable(ESTIMATOR_MENU_GROUP, true, true);
+
+        // and for how much of the data to keep
+        SubMenu reductionMenu = menu.addSubMenu("Data rate");
+        for (int i = 0; i < ReductionProfile.PROFILES.length; i++) {
+            MenuItem item = reductionMenu.add(REDUCTION_MENU_GROUP, i, i, ReductionProfile.PROFILES[i].name);
+            item.setChecked(ReductionProfile.PROFILES[i] == reduction);
+        }
+        reductionMenu.setGroupCheckable(REDUCTION_MENU_GROUP, true, true);
         return true;
     }
 
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getGroupId() == PROFILE_MENU_GROUP) {
+            if (isBusy()) {
+                showDialog("Error", "The sensor rate can't be changed while recording or calibrating");
+            } else {
+                item.setChecked(true);
+                profile = RecordingProfile.PROFILES[item.getItemId()];
+                getPreferences(MODE_PRIVATE).edit().putInt("profile", item.getItemId()).apply();
+
+                service.setProfile(profile);
+            }
+            return true;
+        }
+        if (item.getGroupId() == ESTIMATOR_MENU_GROUP) {
+            if (isBusy()) {
+                showDialog("Error", "The orientation filter can't be changed while recording or calibrating");
+            } else {
+                item.setChecked(true);
+                estimatorIndex = item.getItemId();
+                getPreferences(MODE_PRIVATE).edit().putInt("estimator", estimatorIndex).apply();
+                service.setEstimator(estimatorIndex);
+            }
+            return true;
+        }
+
+        if (item.getGroupId() == REDUCTION_MENU_GROUP) {
+            if (service == null || service.isRecording() || service.isStarting()) {
+                showDialog("Error", "The data rate can't be changed while recording");
+            } else {
+                // this only takes effect when the next recording starts
+                item.setChecked(true);
+                reduction = ReductionProfile.PROFILES[item.getItemId()];
+                getPreferences(MODE_PRIVATE).edit().putInt("reduction", item.getItemId()).apply();
+            }
+            return true;
+        }
+
         switch (item.getItemId()) {
+            case R.id.action_plot:
+                plotRecording();
+                return true;
             case R.id.action_delete_files:
                 deleteFiles();
                 return true;
+            case R.id.action_stats:
+                showStats();
+                return true;
+            case R.id.action_telemetry:
+                editTelemetry();
+                return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
     }
 
-    private void deleteFiles() {
+    // whether the sensor settings can't be changed
+    private boolean isBusy() {
+        return service == null || service.isStarting() || service.isRecording()
+                || service.isSaving() || service.isCalibrating();
+    }
+
+    private void showStats() {
+        if (service == null) {
+            return;
+        }
+        service.getMetricsSummary(new RecordingService.MetricsCallback() {
+            @Override
+            public void onSummary(String summary) {
+                if (!isDestroyed()) {
+                    showDialog("Sensor statistics", summary);
+                }
+            }
+        });
+    }
+
+    private void editTelemetry() {
+        final EditText input = new EditText(this);
+        input.setSingleLine(true);
+        input.setHint("host, host:port or [IPv6 address]:port");
+        input.setText(getPreferences(MODE_PRIVATE).getString("telemetry", ""));
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Live telemetry")
+                .setMessage("Send the data as they come in to this computer (UDP, port "
+                        + TelemetryStreamer.DEFAULT_PORT + " by default). Leave empty to stop.")
+                .setView(input)
+                .setNegativeButton("Cancel", null)
+                .setPositiveButton("OK", new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                String target = input.getText().toString().trim();
+                if (setTelemetry(target)) {
+                    getPreferences(MODE_PRIVATE).edit().putString("telemetry", target).apply();
+                }
+            }
+        }).show();
+    }
+
+    /**
+     * Stream to "host" or "host:port", or stop streaming if the target is empty. Returns false
+     * if the target isn't valid.
+     */
+    private boolean setTelemetry(String target) {
+        if (service == null) {
+            return false;
+        }
+        if (target.isEmpty()) {
+            service.setTelemetry(null, 0);
+            return true;
+        }
+
+        InetSocketAddress address = TelemetryStreamer.parseTarget(target);
+        if (address == null) {
+            showDialog("Error", "Not a valid host or port: " + target
+                    + " (IPv6 addresses go in brackets, e.g. [fe80::1]:5005)");
+            return false;
+        }
+        service.setTelemetry(address.getHostString(), address.getPort());
+        return true;
+    }
+
+    private void plotRecording() {
+        if (service == null) {
+            return;
+        }
+
+        // only the binary files can be plotted; as for deleteFiles(), get the list in the
+        // background
         final File dir = getExternalFilesDir(null);
-        final String[] children = dir.list();
-        if (children.length == 0) {
-            showDialog("Error", "No files found to delete");
+        final SessionCatalogue catalogue = service.getCatalogue();
+        service.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<File> files = new ArrayList<>();
+                for (SessionCatalogue.Entry entry : catalogue.sessions()) {
+                    File file = new File(dir, entry.name + ".bin");
+                    if (file.exists()) {
+                        files.add(file);
+                    }
+                }
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isDestroyed()) {
+                            choosePlot(files);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void choosePlot(final List<File> files) {
+        if (files.isEmpty()) {
+            showDialog("Error", "No recordings found to plot");
             return;
         }
 
-        String msg = "Are you sure you want to delete the following files?\n";
-        for (String s : children) {
-            msg += "\n- " + s;
+        String[] items = new String[files.size()];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = files.get(i).getName();
+        }
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Plot a recording")
+                .setItems(items, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                Intent intent = new Intent(MainActivity.this, PlotActivity.class);
+                intent.putExtra(PlotActivity.EXTRA_FILE, files.get(which).getPath());
+                startActivity(intent);
+            }
+        }).setNegativeButton("Cancel", null).show();
+    }
+
+    private void deleteFiles() {
+        if (service == null) {
+            return;
+        }
+        if (service.isRecording() || service.isSaving()) {
+            showDialog("Error", "Files can't be deleted while recording");
+            return;
+        }
+
+        // the catalogue may have to be loaded first, so get the list in the background
+        final SessionCatalogue catalogue = service.getCatalogue();
+        service.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<SessionCatalogue.Entry> sessions = catalogue.sessions();
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isDestroyed()) {
+                            confirmDelete(sessions);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void confirmDelete(final List<SessionCatalogue.Entry> sessions) {
+        if (sessions.isEmpty()) {
+            showDialog("Error", "No recordings found to delete");
+            return;
+        }
+
+        // the ones which have been exported are ticked to start with
+        String[] items = new String[sessions.size()];
+        final boolean[] checked = new boolean[sessions.size()];
+        for (int i = 0; i < items.length; i++) {
+            SessionCatalogue.Entry entry = sessions.get(i);
+            items[i] = String.format(Locale.US, "%s (%d min, %.1f MB%s)", entry.name,
+                    entry.getDuration() / 60000, entry.size / 1e6,
+                    entry.exported ? "" : ", not exported");
+            checked[i] = entry.exported;
         }
 
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
-        builder.setMessage(msg).setNegativeButton("No", null)
-                .setPositiveButton("Yes", new DialogInterface.OnClickListener() {
+        builder.setTitle("Delete recordings")
+                .setMultiChoiceItems(items, checked, new DialogInterface.OnMultiChoiceClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which, boolean isChecked) {
+                checked[which] = isChecked;
+            }
+        }).setNegativeButton("Cancel", null).setPositiveButton("Delete", new DialogInterface.OnClickListener() {
             @Override
             public void onClick(DialogInterface dialog, int which) {
-                for (String s : children) {
-                    File f = new File(dir, s);
-                    if (f.isFile()) {
-                        f.delete();
+                final List<SessionCatalogue.Entry> toDelete = new ArrayList<>();
+                for (int i = 0; i < checked.length; i++) {
+                    if (checked[i]) {
+                        toDelete.add(sessions.get(i));
                     }
                 }
+                deleteSessions(toDelete);
             }
         }).show();
     }
 
+    private void deleteSessions(final List<SessionCatalogue.Entry> sessions) {
+        if (service == null) {
+            return;
+        }
+        final File dir = getExternalFilesDir(null);
+        final SessionCatalogue catalogue = service.getCatalogue();
+        service.execute(new Runnable() {
+            @Override
+            public void run() {
+                IOException error = null;
+                try {
+                    catalogue.delete(sessions);
+                    if (catalogue.sessions().isEmpty()) {
+                        // nothing left worth exporting, so the archive can go too
+                        exportArchive().delete();
+                        new File(dir, EXPORT_MANIFEST).delete();
+                    }
+                } catch (IOException e) {
+                    error = e;
+                }
+
+                final IOException finalError = error;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (finalError != null && !isDestroyed()) {
+                            showDialog(finalError);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
     protected void onResume() {
         super.onResume();
-        isPaused = false;
-        mSensorManager.registerListener(this, mAccSensor, SENSOR_DELAY, SENSOR_DELAY);
-        mSensorManager.registerListener(this, mMagSensor, SENSOR_DELAY, SENSOR_DELAY);
-        mSensorManager.registerListener(this, mGyroSensor, SENSOR_DELAY, SENSOR_DELAY);
+        isResumed = true;
+        if (service != null) {
+            service.setDisplaying(true);
+        }
+        Choreographer.getInstance().postFrameCallback(displayUpdater);
     }
 
     protected void onPause() {
         super.onPause();
-        isPaused = true;
+        isResumed = false;
+        Choreographer.getInstance().removeFrameCallback(displayUpdater);
 
-        // disable sensors if neither calibrating nor recording
-        if (!isRecording && !cal.isCalibrating) {
-            mSensorManager.unregisterListener(this);
+        // the service turns the sensors off if it isn't calibrating or recording
+        if (service != null) {
+            service.setDisplaying(false);
         }
     }
 
-    @Override
-    public void onAccuracyChanged(Sensor sensor, int accuracy) {
-    }
-
-    @Override
-    public void onSensorChanged(SensorEvent event) {
-        int type = event.sensor.getType();
-        if (LOG_RAW && isRecording) {
-            data.logRaw(type, event.values);
-        }
-
-        switch (type) {
-            case Sensor.TYPE_ACCELEROMETER:
-                mGravity = event.values;
-                break;
-            case Sensor.TYPE_MAGNETIC_FIELD:
-                mGeomagnetic = event.values;
-                break;
-            default:
-                return;
-        }
-        if (mGravity != null && mGeomagnetic != null) {
-            float R[] = new float[9];
-            float I[] = new float[9];
-            boolean success = SensorManager.getRotationMatrix(R, I, mGravity, mGeomagnetic);
-            if (success) {
-                float orient[] = new float[3];
-                SensorManager.getOrientation(R, orient);
-                Attitude att = cal.getAttitude(orient);
-
-                if (!isPaused) {
-                    infoTextView.setText(att.toString());
-                }
-                if (isRecording) {
-                    data.log(att);
-                }
+    /**
+     * Shows the latest attitude once per frame, however often the sensors update it.
+     */
+    private final Choreographer.FrameCallback displayUpdater = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (service != null && service.getDisplayAttitude(displayAttitude)) {
+                int length = displayFormatter.format(displayAttitude);
+                infoTextView.setText(displayFormatter.getBuffer(), 0, length);
             }
+
+            Choreographer.getInstance().postFrameCallback(this);
         }
-    }
+    };
 
     private void startCalibration() {
-        if (!cal.isCalibrating) {
+        if (service != null && !service.isCalibrating()) {
             recButton.setEnabled(false);
-            cal.start();
             calButton.setText("Calibrating");
+            service.startCalibration();
         }
     }
 
-    public void stopCalibration() {
+    @Override
+    public void onCalibrationFinished() {
         calButton.setText("Calibrated");
         recButton.setEnabled(true);
     }
 
     private void startRecording() {
+        recButton.setEnabled(false);
+        recButton.setText("Starting...");
+        calButton.setEnabled(false);
+        service.startRecording(ownerName, reduction);
+    }
+
+    @Override
+    public void onRecordingStarted(IOException error) {
+        if (error != null) {
+            showDialog(error);
+            recButton.setText("Start Recording");
+            recButton.setEnabled(true);
+            calButton.setEnabled(true);
+        } else {
+            showRecording(service.getRecordingStartedAt());
+        }
+    }
+
+    // startedAt is SystemClock.elapsedRealtime() when the recording started
+    private void showRecording(long startedAt) {
         calButton.setEnabled(false);
-        isRecording = true;
-        data.start();
+        recButton.setEnabled(true);
         recButton.setText("Stop Recording");
-        elapsedChronometer.setBase(SystemClock.elapsedRealtime());
+        elapsedChronometer.setBase(startedAt);
         elapsedChronometer.setVisibility(View.VISIBLE);
         elapsedChronometer.start();
     }
 
     private void stopRecording() {
-        isRecording = false;
         recButton.setEnabled(false);
         recButton.setText("Saving data...");
         elapsedChronometer.setVisibility(View.INVISIBLE);
         elapsedChronometer.stop();
+        service.stopRecording();
+    }
 
-        mHandlerRec.sendEmptyMessage(0);
+    @Override
+    public void onRecordingFinished(Object result) {
+        // either the file path or what went wrong
+        if (result instanceof IOException) {
+            showDialog((IOException) result);
+        } else {
+            showDialog("Data saved", "Saved to: " + result);
+        }
+
+        elapsedChronometer.setVisibility(View.INVISIBLE);
+        elapsedChronometer.stop();
+        recButton.setText("Start Recording");
+        recButton.setEnabled(true);
+        calButton.setEnabled(true);
     }
 
     private void shareData() {
-        // get JSON files from application directory
-        File[] files = getExternalFilesDir(null).listFiles(new FilenameFilter() {
-            @Override
-            public boolean accept(File file, String s) {
-                return s.endsWith(".json");
-            }
-        });
-
-        if (files.length == 0) {
-            showDialog("Error", "No data files found");
+        if (service == null) {
             return;
         }
-
-        final String filename = String.format("%s/%s's data (%s).zip", getExternalFilesDir(null),
-                ownerName, new SimpleDateFormat("yyyy.MM.dd").format(new Date()));
-        byte[] data = new byte[ZIP_BUFFER];
-        try {
-            ZipOutputStream out = new ZipOutputStream(new FileOutputStream(filename));
-            for (File file : files) {
-                BufferedInputStream in = new BufferedInputStream(new FileInputStream(file), ZIP_BUFFER);
-                out.putNextEntry(new ZipEntry(file.getName()));
-                int count;
-                while ((count = in.read(data, 0, ZIP_BUFFER)) != -1) {
-                    out.write(data, 0, count);
-                }
-                in.close();
-            }
-            out.close();
-        } catch (IOException e) {
-            showDialog(e);
+        if (service.isStarting() || service.isRecording() || service.isSaving()) {
+            // the files of the recording are still being written
+            showDialog("Error", "Files can't be shared while recording");
             return;
         }
+        File dir = getExternalFilesDir(null);
+        final File archive = exportArchive();
+        final DataExporter exporter = new DataExporter(dir, archive, new File(dir, EXPORT_MANIFEST),
+                getCacheDir(), Runtime.getRuntime().availableProcessors(), service.getCatalogue());
+
+        final ProgressDialog progress = new ProgressDialog(this);
+        progress.setMessage("Preparing data files...");
+        progress.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        progress.setMax(100);
+        progress.setCancelable(false);
+        progress.show();
+
+        service.execute(new Runnable() {
+            @Override
+            public void run() {
+                Object result;
+                try {
+                    result = exporter.export(new DataExporter.Listener() {
+                        private int lastPercent = -1;
+
+                        @Override
+                        public synchronized void onProgress(long bytesDone, long bytesTotal) {
+                            // only bother the UI thread when there's something new to show
+                            final int percent = bytesTotal == 0 ? 100 : (int) (100 * bytesDone / bytesTotal);
+                            if (percent != lastPercent) {
+                                lastPercent = percent;
+                                runOnUiThread(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        progress.setProgress(percent);
+                                    }
+                                });
+                            }
+                        }
+                    });
+                } catch (IOException e) {
+                    result = e;
+                }
+
+                final Object finalResult = result;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // dismiss it even if we've gone, so its window doesn't leak
+                        if (progress.isShowing()) {
+                            progress.dismiss();
+                        }
+                        if (isDestroyed()) {
+                            return;
+                        }
+
+                        if (finalResult instanceof IOException) {
+                            showDialog((IOException) finalResult);
+                        } else if ((Integer) finalResult < 0) {
+                            showDialog("Error", "No data files found");
+                        } else {
+                            Intent shareIntent = new Intent();
+                            shareIntent.setAction(Intent.ACTION_SEND);
+                            shareIntent.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(archive));
+                            shareIntent.setType("application/zip");
+                            startActivity(Intent.createChooser(shareIntent, "Share data files"));
+                        }
+                    }
+                });
+            }
+        });
+    }
 
-        Intent shareIntent = new Intent();
-        shareIntent.setAction(Intent.ACTION_SEND);
-        shareIntent.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(new File(filename)));
-        shareIntent.setType("application/zip");
-        startActivity(Intent.createChooser(shareIntent, "Share data files"));
+    // the archive is kept and added to each time, so its name mustn't change
+    private File exportArchive() {
+        return new File(getExternalFilesDir(null), ownerName + "'s data.zip");
     }
 
     public void showDialog(String title, String msg) {
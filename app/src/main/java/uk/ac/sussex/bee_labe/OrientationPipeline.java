@@ -0,0 +1,47 @@
+package uk.ac.sussex.bee_labe;
+
+/**
+ * Turns raw sensor readings into a calibrated attitude, using whichever AttitudeEstimator is
+ * plugged in. All the working arrays and the output attitude are allocated once, up front, and
+ * reused for every sample.
+ */
+
+public class OrientationPipeline {
+    private final CalibrationHandler cal;
+    private final float[] orient = new float[3];
+    private AttitudeEstimator estimator;
+
+    // the latest attitude, overwritten by each call to onSensorChanged()
+    public final Attitude attitude = new Attitude(0, 0, 0);
+
+    // timestamp of the reading which gave the latest attitude (ns, as in SensorEvent)
+    public long timestamp;
+
+    public OrientationPipeline(CalibrationHandler cal, AttitudeEstimator estimator) {
+        this.cal = cal;
+        this.estimator = estimator;
+    }
+
+    /**
+     * Swap to a different estimator. This must be called on the thread which is feeding in
+     * readings.
+     */
+    public void setEstimator(AttitudeEstimator estimator) {
+        this.estimator = estimator;
+    }
+
+    /**
+     * Feed in a new sensor reading, returning true if it produced a new attitude. The values are
+     * copied, so the array can be reused afterwards (as the framework does with SensorEvents).
+     */
+    public boolean onSensorChanged(int sensorType, long timestamp, float[] values) {
+        if (!estimator.update(sensorType, timestamp, values[0], values[1], values[2])) {
+            return false;
+        }
+
+        estimator.getOrientation(orient);
+        cal.getAttitude(orient, timestamp, attitude);
+        this.timestamp = timestamp;
+        return true;
+    }
+}
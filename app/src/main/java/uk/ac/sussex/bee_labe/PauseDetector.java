@@ -0,0 +1,69 @@
+package uk.ac.sussex.bee_labe;
+
+/**
+ * Watches for the whole process being held up (e.g. by garbage collection or the CPU being
+ * throttled), by repeatedly sleeping for a short time and recording how much longer than that
+ * each sleep actually took. A stall which shows up here will have held up the sensor thread
+ * too.
+ */
+
+public class PauseDetector implements Runnable {
+    // short enough that any stall long enough to matter overlaps a sleep, but long enough that
+    // waking up for it costs next to nothing, over hours under a wake lock
+    private static final long INTERVAL = 20; // ms
+
+    private final LogLinearHistogram pauses;
+    private Thread thread;
+    private volatile boolean isRunning = false;
+
+    /**
+     * @param pauses where to record how much longer than INTERVAL each sleep took (ns)
+     */
+    public PauseDetector(LogLinearHistogram pauses) {
+        this.pauses = pauses;
+    }
+
+    public void start() {
+        pauses.clear();
+        isRunning = true;
+        thread = new Thread(this, "PauseDetector");
+        thread.start();
+    }
+
+    /**
+     * Stop watching. Once this returns, the histogram can be read from any thread. Must be
+     * called from the thread which called start().
+     */
+    public void stop() {
+        if (thread == null) {
+            return;
+        }
+        isRunning = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    @Override
+    public void run() {
+        long last = System.nanoTime();
+        while (isRunning) {
+            try {
+                Thread.sleep(INTERVAL);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            pauses.record(now - last - INTERVAL * 1000000);
+            last = now;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package uk.ac.sussex.bee_labe;
+
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.Toolbar;
+import android.widget.TextView;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shows the attitude through a recording, from its binary file, in a PlotView. Zoomed out, the
+ * plot is made from the file's AttitudePyramid; zoomed in far enough that that's too coarse,
+ * from the samples in view, which the file's index finds without reading the rest. Either way
+ * it takes about as long however long the recording is. Recordings from before there were
+ * pyramids (or which were never finished) have one made when they're opened.
+ */
+
+public class PlotActivity extends AppCompatActivity implements PlotView.Listener {
+    // the path of the binary file to plot
+    public static final String EXTRA_FILE = "uk.ac.sussex.bee_labe.FILE";
+
+    private PlotView plotView;
+    private TextView rangeTextView;
+
+    // the file is read, and the traces made, on this thread (which is the only one to use the
+    // reader and pyramid), so the plot never waits for them
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private BinaryRecordingReader reader;
+    private AttitudePyramid pyramid;
+
+    // counts the ranges asked for, so that ones which have been scrolled past can be skipped
+    private volatile int requests = 0;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_plot);
+        setSupportActionBar((Toolbar) findViewById(R.id.appToolbar));
+        plotView = (PlotView) findViewById(R.id.plotView);
+        rangeTextView = (TextView) findViewById(R.id.rangeTextView);
+        plotView.setListener(this);
+
+        final File file = new File(getIntent().getStringExtra(EXTRA_FILE));
+        setTitle(file.getName());
+        rangeTextView.setText("Loading...");
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final long length;
+                try {
+                    length = load(file);
+                } catch (final IOException e) {
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            rangeTextView.setText("Can't read " + file.getName() + ": " + e.getMessage());
+                        }
+                    });
+                    return;
+                }
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isDestroyed()) {
+                            plotView.setLength(length);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        // nothing more we can do
+                    }
+                    reader = null;
+                }
+            }
+        });
+        executor.shutdown();
+    }
+
+    // open the file and get its pyramid, returning the length of the recording (ns)
+    private long load(File file) throws IOException {
+        reader = new BinaryRecordingReader(file);
+        pyramid = reader.pyramid;
+        if (pyramid == null) {
+            final AttitudePyramid built = new AttitudePyramid();
+            reader.read(new BinaryRecordingReader.Visitor() {
+                @Override
+                public void onAttitude(long time, float yaw, float pitch, float roll) {
+                    built.add(time, yaw, pitch, roll);
+                }
+
+                @Override
+                public void onRaw(long time, int sensorType, float x, float y, float z) {
+                    // only the attitude is plotted
+                }
+            });
+            pyramid = built;
+        }
+        return pyramid.size(0) * AttitudePyramid.bucketLength(0);
+    }
+
+    @Override
+    public void onRangeChanged(final long from, final long to, final int columns) {
+        if (isDestroyed()) {
+            return;
+        }
+        rangeTextView.setText(formatTime(from) + " to " + formatTime(to));
+        final int request = ++requests;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (request != requests || reader == null) {
+                    return;
+                }
+                final PlotTrace trace = new PlotTrace(from, to, columns);
+                if (!pyramid.render(trace)) {
+                    // only the attitude blocks are needed, not the raw readings
+                    try {
+                        reader.seek(BinaryRecordingReader.ATTITUDE, from, to);
+                        while (reader.nextBlock(trace, BinaryRecordingReader.ATTITUDE)) {
+                            // keep going
+                        }
+                    } catch (IOException e) {
+                        // leave the trace as far as it got
+                    }
+                }
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        plotView.setTrace(trace);
+                    }
+                });
+            }
+        });
+    }
+
+    // as h:mm:ss.s from the start of the recording
+    private static String formatTime(long time) {
+        long tenths = time / 100000000L;
+        return String.format(Locale.US, "%d:%02d:%02d.%d", tenths / 36000, tenths / 600 % 60,
+                tenths / 10 % 60, tenths % 10);
+    }
+}
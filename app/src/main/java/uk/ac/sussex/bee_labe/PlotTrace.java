@@ -0,0 +1,111 @@
+package uk.ac.sussex.bee_labe;
+
+import java.util.Arrays;
+
+/**
+ * The yaw, pitch and roll over a time range, as the minimum, maximum and mean in each of a
+ * number of columns (usually one per pixel), ready to be plotted. The columns are filled in
+ * from an AttitudePyramid or, for short ranges, from the samples themselves, so there are never
+ * more of them to draw than the plot is wide.
+ */
+
+public class PlotTrace implements BinaryRecordingReader.Visitor {
+    public static final int FIELDS = 3; // yaw, pitch, roll
+
+    // the time range (ns since the start of the recording, inclusive)
+    public final long from, to;
+    public final int columns;
+
+    // the number of samples in each column, and the values by field then column; the values
+    // are NaN where there are no samples
+    public final int[] counts;
+    public final float[] min, max, mean;
+
+    public PlotTrace(long from, long to, int columns) {
+        if (to <= from || columns <= 0) {
+            throw new IllegalArgumentException("Empty plot");
+        }
+        this.from = from;
+        this.to = to;
+        this.columns = columns;
+        counts = new int[columns];
+        min = new float[FIELDS * columns];
+        max = new float[FIELDS * columns];
+        mean = new float[FIELDS * columns];
+        Arrays.fill(min, Float.NaN);
+        Arrays.fill(max, Float.NaN);
+        Arrays.fill(mean, Float.NaN);
+    }
+
+    /**
+     * How much time each column covers (ns).
+     */
+    public long getColumnLength() {
+        return (to - from) / columns;
+    }
+
+    /**
+     * The column with the given time in it; times outside the range go in the first or last.
+     */
+    public int column(long time) {
+        if (time <= from) {
+            return 0;
+        }
+        if (time >= to) {
+            return columns - 1;
+        }
+        // (to - from) * columns only overflows for ranges of years
+        return (int) Math.min((time - from) * columns / (to - from), columns - 1);
+    }
+
+    /**
+     * Add a sample, if it's in the time range.
+     */
+    public void add(long time, float yaw, float pitch, float roll) {
+        if (time < from || time > to) {
+            return;
+        }
+        int column = column(time);
+        int n = ++counts[column];
+        add(column, n, 1, yaw, yaw, yaw);
+        add(columns + column, n, 1, pitch, pitch, pitch);
+        add(2 * columns + column, n, 1, roll, roll, roll);
+    }
+
+    /**
+     * Add a summary of count samples, centred on the given time, whose minima, maxima and means
+     * are in values from the offset, arranged as in AttitudePyramid.
+     */
+    public void addSummary(long time, int count, float[] values, int offset) {
+        int column = column(time);
+        int n = counts[column] += count;
+        for (int field = 0; field < FIELDS; field++) {
+            add(field * columns + column, n, count, values[offset + AttitudePyramid.MIN + field],
+                    values[offset + AttitudePyramid.MAX + field],
+                    values[offset + AttitudePyramid.MEAN + field]);
+        }
+    }
+
+    // merge count samples into the column at i, which now has n
+    private void add(int i, int n, int count, float minValue, float maxValue, float meanValue) {
+        if (n == count) {
+            min[i] = minValue;
+            max[i] = maxValue;
+            mean[i] = meanValue;
+        } else {
+            min[i] = Math.min(min[i], minValue);
+            max[i] = Math.max(max[i], maxValue);
+            mean[i] += (meanValue - mean[i]) * count / n;
+        }
+    }
+
+    @Override
+    public void onAttitude(long time, float yaw, float pitch, float roll) {
+        add(time, yaw, pitch, roll);
+    }
+
+    @Override
+    public void onRaw(long time, int sensorType, float x, float y, float z) {
+        // only the attitude is plotted
+    }
+}
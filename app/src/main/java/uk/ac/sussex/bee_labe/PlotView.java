@@ -0,0 +1,218 @@
+package uk.ac.sussex.bee_labe;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+/**
+ * Plots the yaw, pitch and roll of a recording, one above the other, from a PlotTrace with a
+ * column per pixel: the range of each column as a bar, and the means joined up. It can be
+ * zoomed by pinching and scrolled by dragging; the listener is then told the new time range,
+ * and should make a trace for it (in the background) and pass it to setTrace(). Until then the
+ * old trace is stretched to fit, so the plot follows the fingers.
+ */
+
+public class PlotView extends View {
+    public interface Listener {
+        // the time range is in ns since the start of the recording
+        void onRangeChanged(long from, long to, int columns);
+    }
+
+    // the range of each field (rad)
+    private static final float[] LOW = { 0, (float) -Math.PI, (float) -Math.PI };
+    private static final float[] HIGH = { (float) (2 * Math.PI), (float) Math.PI, (float) Math.PI };
+    private static final int[] COLOURS = { Color.RED, Color.GREEN, Color.BLUE };
+
+    // the shortest range which can be shown (ns)
+    private static final long MIN_RANGE = 1000000000L;
+
+    private final Paint rangePaint = new Paint();
+    private final Paint meanPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint axisPaint = new Paint();
+    private final ScaleGestureDetector scaleDetector;
+    private float lastX = Float.NaN;
+
+    private Listener listener;
+    private long length = 0; // of the recording (ns); nothing is shown until it's set
+    private long from, to;
+    private PlotTrace trace;
+
+    // the ends of the lines to draw, kept to save allocating them each frame
+    private float[] lines = new float[0];
+
+    public PlotView(Context context) {
+        this(context, null);
+    }
+
+    public PlotView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        meanPaint.setStrokeWidth(2);
+        axisPaint.setColor(Color.LTGRAY);
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                // keep the time under the fingers where it is
+                float position = detector.getFocusX() / getWidth();
+                long range = to - from;
+                long focus = from + (long) (position * range);
+                long newRange = (long) (range / detector.getScaleFactor());
+                long newFrom = focus - (long) (position * newRange);
+                setRange(newFrom, newFrom + newRange);
+                return true;
+            }
+        });
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Set the length of the recording (ns), and show all of it.
+     */
+    public void setLength(long length) {
+        this.length = Math.max(length, MIN_RANGE);
+        from = 0;
+        to = this.length;
+        trace = null;
+        invalidate();
+        rangeChanged();
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    /**
+     * Show the given time range (ns since the start), moved or stretched as needed to be
+     * within the recording and at least MIN_RANGE.
+     */
+    public void setRange(long newFrom, long newTo) {
+        long range = Math.min(Math.max(newTo - newFrom, MIN_RANGE), length);
+        newFrom = Math.min(Math.max(newFrom, 0), length - range);
+        newTo = newFrom + range;
+        if (newFrom != from || newTo != to) {
+            from = newFrom;
+            to = newTo;
+            invalidate();
+            rangeChanged();
+        }
+    }
+
+    /**
+     * Plot a trace, which needn't be for the range currently shown.
+     */
+    public void setTrace(PlotTrace trace) {
+        this.trace = trace;
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        // there are as many columns as pixels, so the trace has to be made again
+        rangeChanged();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        scaleDetector.onTouchEvent(event);
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_MOVE:
+                if (!scaleDetector.isInProgress() && event.getPointerCount() == 1
+                        && !Float.isNaN(lastX)) {
+                    long shift = (long) ((lastX - event.getX()) / getWidth() * (to - from));
+                    setRange(from + shift, to + shift);
+                }
+                lastX = event.getX();
+                break;
+            case MotionEvent.ACTION_DOWN:
+                lastX = event.getX();
+                break;
+            default:
+                // a finger went down or up, so start again from the next move, rather than
+                // jumping to wherever the one left is
+                lastX = Float.NaN;
+                break;
+        }
+        return true;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        int width = getWidth();
+        float height = getHeight() / (float) PlotTrace.FIELDS;
+        PlotTrace trace = this.trace;
+        if (trace == null || width == 0 || to <= from) {
+            return;
+        }
+
+        if (lines.length < 4 * trace.columns) {
+            lines = new float[4 * trace.columns];
+        }
+        // where each of the trace's columns goes (px)
+        float x0 = (float) ((double) (trace.from - from) * width / (to - from));
+        float dx = (float) ((double) (trace.to - trace.from) / trace.columns * width / (to - from));
+
+        for (int field = 0; field < PlotTrace.FIELDS; field++) {
+            float top = field * height;
+            canvas.drawLine(0, top + height, width, top + height, axisPaint);
+            // values go up from the bottom of the panel, where they're LOW
+            float scale = height / (HIGH[field] - LOW[field]);
+            float zero = top + height + LOW[field] * scale;
+            rangePaint.setColor(COLOURS[field]);
+            rangePaint.setAlpha(96);
+            meanPaint.setColor(COLOURS[field]);
+
+            // a bar for each column, at least a pixel long
+            int n = 0;
+            int offset = field * trace.columns;
+            for (int column = 0; column < trace.columns; column++) {
+                if (trace.counts[column] > 0) {
+                    float x = x0 + (column + 0.5f) * dx;
+                    float y = zero - trace.max[offset + column] * scale;
+                    lines[n++] = x;
+                    lines[n++] = y;
+                    lines[n++] = x;
+                    lines[n++] = Math.max(zero - trace.min[offset + column] * scale, y + 1);
+                }
+            }
+            canvas.drawLines(lines, 0, n, rangePaint);
+
+            // and lines between the means of neighbouring columns with any samples
+            n = 0;
+            float previousX = Float.NaN, previousY = 0;
+            for (int column = 0; column < trace.columns; column++) {
+                if (trace.counts[column] > 0) {
+                    float x = x0 + (column + 0.5f) * dx;
+                    float y = zero - trace.mean[offset + column] * scale;
+                    if (!Float.isNaN(previousX)) {
+                        lines[n++] = previousX;
+                        lines[n++] = previousY;
+                        lines[n++] = x;
+                        lines[n++] = y;
+                    }
+                    previousX = x;
+                    previousY = y;
+                }
+            }
+            canvas.drawLines(lines, 0, n, meanPaint);
+        }
+    }
+
+    private void rangeChanged() {
+        if (listener != null && length > 0 && getWidth() > 0) {
+            listener.onRangeChanged(from, to, getWidth());
+        }
+    }
+}
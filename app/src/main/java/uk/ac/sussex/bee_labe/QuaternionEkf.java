@@ -0,0 +1,248 @@
+package uk.ac.sussex.bee_labe;
+
+/**
+ * Extended Kalman filter with the orientation quaternion as its state. The gyroscope drives the
+ * prediction step; the accelerometer (which gives "up" in device coordinates) and the
+ * magnetometer (which, with the accelerometer, gives "north") are the measurements. Each
+ * measurement component is applied as a separate scalar update, so no matrix inversion is
+ * needed and nothing is allocated per sample.
+ */
+
+public class QuaternionEkf implements AttitudeEstimator {
+    private static final double GYRO_NOISE = 0.01; // rad/s
+    private static final double ACC_NOISE = 0.05; // unit vector components
+    private static final double MAG_NOISE = 0.1; // unit vector components
+    private static final double INITIAL_VARIANCE = 0.01;
+    private static final float MAX_DT = 1; // s
+
+    private final double[] q = new double[4];
+    private final double[] P = new double[16];
+    private final double[] F = new double[16];
+    private final double[] tmp = new double[16];
+    private final double[] H = new double[4];
+    private final double[] PHt = new double[4];
+    private final float[] qf = new float[4];
+    private final float[] R = new float[9];
+    private final float[] mGravity = new float[3];
+    private final float[] mGeomagnetic = new float[3];
+    private boolean hasGravity, hasGeomagnetic, hasGyro, isInitialised;
+    private long lastGyroTime;
+
+    public QuaternionEkf() {
+        reset();
+    }
+
+    @Override
+    public boolean update(int sensorType, long timestamp, float x, float y, float z) {
+        switch (sensorType) {
+            case SensorTypes.ACCELEROMETER:
+                AccelMagEstimator.set(mGravity, x, y, z);
+                hasGravity = true;
+                if (!initialise()) {
+                    return false;
+                }
+
+                // "up" is the bottom row of the rotation matrix
+                float invA = 1 / (float) Math.sqrt(x * x + y * y + z * z);
+                updateRow(2, x * invA, y * invA, z * invA, ACC_NOISE * ACC_NOISE);
+                return true;
+            case SensorTypes.MAGNETIC_FIELD:
+                AccelMagEstimator.set(mGeomagnetic, x, y, z);
+                hasGeomagnetic = true;
+                if (!initialise()) {
+                    return false;
+                }
+
+                // "north" (the middle row) needs the accelerometer too
+                if (!Rotations.getRotationMatrix(R, mGravity, mGeomagnetic)) {
+                    return false;
+                }
+                updateRow(1, R[3], R[4], R[5], MAG_NOISE * MAG_NOISE);
+                return true;
+            case SensorTypes.GYROSCOPE:
+                if (!isInitialised) {
+                    return false;
+                }
+                if (hasGyro) {
+                    float dt = (timestamp - lastGyroTime) * 1e-9f;
+                    if (dt > 0 && dt < MAX_DT) {
+                        predict(x, y, z, dt);
+                    }
+                }
+                hasGyro = true;
+                lastGyroTime = timestamp;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // start from the accelerometer/magnetometer orientation once we have both
+    private boolean initialise() {
+        if (isInitialised) {
+            return true;
+        }
+        if (!hasGravity || !hasGeomagnetic || !Rotations.getRotationMatrix(R, mGravity, mGeomagnetic)) {
+            return false;
+        }
+
+        Rotations.matrixToQuaternion(R, qf);
+        for (int i = 0; i < 4; i++) {
+            q[i] = qf[i];
+        }
+        isInitialised = true;
+        return true;
+    }
+
+    private void predict(float wx, float wy, float wz, float dt) {
+        // quaternion for the rotation over this time step
+        double norm = Math.sqrt(wx * wx + wy * wy + wz * wz);
+        double a = 1, b = 0, c = 0, d = 0;
+        if (norm > 1e-9) {
+            double s = Math.sin(norm * dt / 2) / norm;
+            a = Math.cos(norm * dt / 2);
+            b = wx * s;
+            c = wy * s;
+            d = wz * s;
+        }
+
+        // q = q * (a, b, c, d), written as q = F q
+        set(F, 0, a, -b, -c, -d);
+        set(F, 1, b, a, d, -c);
+        set(F, 2, c, -d, a, b);
+        set(F, 3, d, c, -b, a);
+        multiply(F, q);
+
+        // P = F P F' + Q
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                double sum = 0;
+                for (int k = 0; k < 4; k++) {
+                    sum += F[4 * i + k] * P[4 * k + j];
+                }
+                tmp[4 * i + j] = sum;
+            }
+        }
+        double qNoise = GYRO_NOISE * dt / 2;
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                double sum = 0;
+                for (int k = 0; k < 4; k++) {
+                    sum += tmp[4 * i + k] * F[4 * j + k];
+                }
+                P[4 * i + j] = sum + (i == j ? qNoise * qNoise : 0);
+            }
+        }
+        normalize();
+    }
+
+    // measurement: one row of the rotation matrix, in device coordinates
+    private void updateRow(int row, double z0, double z1, double z2, double noise) {
+        updateElement(row, 0, z0, noise);
+        updateElement(row, 1, z1, noise);
+        updateElement(row, 2, z2, noise);
+        normalize();
+    }
+
+    private void updateElement(int row, int col, double z, double noise) {
+        double h = jacobian(row, col);
+
+        // S = H P H' + r, K = P H' / S
+        double S = noise;
+        for (int i = 0; i < 4; i++) {
+            double sum = 0;
+            for (int k = 0; k < 4; k++) {
+                sum += P[4 * i + k] * H[k];
+            }
+            PHt[i] = sum;
+            S += H[i] * sum;
+        }
+
+        double innovation = z - h;
+        for (int i = 0; i < 4; i++) {
+            q[i] += PHt[i] / S * innovation;
+        }
+
+        // P = P - K H P
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                P[4 * i + j] -= PHt[i] * PHt[j] / S;
+            }
+        }
+    }
+
+    // element (row, col) of the rotation matrix for q, with its derivatives w.r.t. q in H
+    private double jacobian(int row, int col) {
+        final double w = q[0], x = q[1], y = q[2], z = q[3];
+        switch (3 * row + col) {
+            case 3: // 2(xy + wz)
+                set(H, 2 * z, 2 * y, 2 * x, 2 * w);
+                return 2 * (x * y + w * z);
+            case 4: // 1 - 2(x^2 + z^2)
+                set(H, 0, -4 * x, 0, -4 * z);
+                return 1 - 2 * (x * x + z * z);
+            case 5: // 2(yz - wx)
+                set(H, -2 * x, -2 * w, 2 * z, 2 * y);
+                return 2 * (y * z - w * x);
+            case 6: // 2(xz - wy)
+                set(H, -2 * y, 2 * z, -2 * w, 2 * x);
+                return 2 * (x * z - w * y);
+            case 7: // 2(yz + wx)
+                set(H, 2 * x, 2 * w, 2 * z, 2 * y);
+                return 2 * (y * z + w * x);
+            case 8: // 1 - 2(x^2 + y^2)
+                set(H, 0, -4 * x, -4 * y, 0);
+                return 1 - 2 * (x * x + y * y);
+            default:
+                throw new IllegalArgumentException("Only the bottom two rows are measured");
+        }
+    }
+
+    private void normalize() {
+        double inv = 1 / Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+        for (int i = 0; i < 4; i++) {
+            q[i] *= inv;
+        }
+    }
+
+    @Override
+    public void getOrientation(float[] orient) {
+        for (int i = 0; i < 4; i++) {
+            qf[i] = (float) q[i];
+        }
+        Rotations.quaternionToMatrix(qf, R);
+        Rotations.getOrientation(R, orient);
+    }
+
+    @Override
+    public void reset() {
+        q[0] = 1;
+        q[1] = q[2] = q[3] = 0;
+        for (int i = 0; i < 16; i++) {
+            P[i] = i % 5 == 0 ? INITIAL_VARIANCE : 0;
+        }
+        hasGravity = hasGeomagnetic = hasGyro = isInitialised = false;
+    }
+
+    private static void set(double[] v, double a, double b, double c, double d) {
+        v[0] = a;
+        v[1] = b;
+        v[2] = c;
+        v[3] = d;
+    }
+
+    private static void set(double[] m, int row, double a, double b, double c, double d) {
+        m[4 * row] = a;
+        m[4 * row + 1] = b;
+        m[4 * row + 2] = c;
+        m[4 * row + 3] = d;
+    }
+
+    // v = m v, for a 4x4 matrix m
+    private void multiply(double[] m, double[] v) {
+        for (int i = 0; i < 4; i++) {
+            PHt[i] = m[4 * i] * v[0] + m[4 * i + 1] * v[1] + m[4 * i + 2] * v[2] + m[4 * i + 3] * v[3];
+        }
+        System.arraycopy(PHt, 0, v, 0, 4);
+    }
+}
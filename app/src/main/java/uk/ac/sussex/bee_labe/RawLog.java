@@ -0,0 +1,119 @@
+package uk.ac.sussex.bee_labe;
+
+import java.util.Arrays;
+
+/**
+ * Columnar store for raw sensor readings. Each sample is a timestamp, the sensor type (as a
+ * byte, which is enough for the SensorTypes constants we log) and an x/y/z triple packed into
+ * a float array. Storage grows, is discarded and is reused in chunks in the same way as
+ * AttitudeLog.
+ */
+
+public class RawLog {
+    static final int CHUNK_SHIFT = AttitudeLog.CHUNK_SHIFT;
+    public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT; // samples
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    static final int POOL_SIZE = AttitudeLog.POOL_SIZE; // chunks
+
+    private long[][] times = new long[16][];
+    private byte[][] types = new byte[16][];
+    private float[][] values = new float[16][];
+    private int discarded = 0; // chunks
+
+    private long[][] spareTimes = new long[POOL_SIZE][];
+    private byte[][] spareTypes = new byte[POOL_SIZE][];
+    private float[][] spareValues = new float[POOL_SIZE][];
+    private int spareCount = 0;
+
+    // only written by the logging thread, but read by whichever thread drains the log
+    private volatile int size = 0;
+
+    public void append(long time, int sensorType, float x, float y, float z) {
+        int chunk = size >>> CHUNK_SHIFT;
+        int i = size & CHUNK_MASK;
+        if (i == 0) {
+            addChunk(chunk);
+        }
+
+        times[chunk][i] = time;
+        types[chunk][i] = (byte) sensorType;
+        float[] v = values[chunk];
+        v[3 * i] = x;
+        v[3 * i + 1] = y;
+        v[3 * i + 2] = z;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTime(int index) {
+        return times[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    public int getSensorType(int index) {
+        return types[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /**
+     * Get one component (0 = x, 1 = y, 2 = z) of a sample.
+     */
+    public float getValue(int index, int axis) {
+        return values[index >>> CHUNK_SHIFT][3 * (index & CHUNK_MASK) + axis];
+    }
+
+    public synchronized void discardBefore(int index) {
+        int last = index >>> CHUNK_SHIFT;
+        for (; discarded < last; discarded++) {
+            releaseChunk(discarded);
+        }
+    }
+
+    public synchronized void clear() {
+        for (int c = 0; c < times.length; c++) {
+            releaseChunk(c);
+        }
+        discarded = 0;
+        size = 0;
+    }
+
+    private void releaseChunk(int chunk) {
+        if (times[chunk] == null) {
+            return;
+        }
+
+        if (spareCount < POOL_SIZE) {
+            spareTimes[spareCount] = times[chunk];
+            spareTypes[spareCount] = types[chunk];
+            spareValues[spareCount] = values[chunk];
+            spareCount++;
+        }
+        times[chunk] = null;
+        types[chunk] = null;
+        values[chunk] = null;
+    }
+
+    private synchronized void addChunk(int chunk) {
+        if (chunk == times.length) {
+            int n = 2 * chunk;
+            times = Arrays.copyOf(times, n);
+            types = Arrays.copyOf(types, n);
+            values = Arrays.copyOf(values, n);
+        }
+
+        if (spareCount > 0) {
+            spareCount--;
+            times[chunk] = spareTimes[spareCount];
+            types[chunk] = spareTypes[spareCount];
+            values[chunk] = spareValues[spareCount];
+            spareTimes[spareCount] = null;
+            spareTypes[spareCount] = null;
+            spareValues[spareCount] = null;
+        } else {
+            times[chunk] = new long[CHUNK_SIZE];
+            types[chunk] = new byte[CHUNK_SIZE];
+            values[chunk] = new float[3 * CHUNK_SIZE];
+        }
+    }
+}
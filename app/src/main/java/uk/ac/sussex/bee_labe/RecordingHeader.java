@@ -0,0 +1,36 @@
+package uk.ac.sussex.bee_labe;
+
+import java.util.Date;
+
+/**
+ * The metadata saved at the start of every recording.
+ */
+
+public class RecordingHeader {
+    public Date startDate;
+    public String experimenter;
+    public String phoneModel;
+    public String orientationFilter;
+    public float calPitch, calRoll;
+
+    // variance of the calibration readings (rad^2), or NaN if unknown
+    public float calPitchVariance = Float.NaN, calRollVariance = Float.NaN;
+
+    // how the logged streams were thinned out before being saved
+    public ReductionProfile reduction = ReductionProfile.FULL_RATE;
+
+    // SystemClock.elapsedRealtimeNanos() when the recording started (the same time base as
+    // SensorEvent.timestamp); sample times are saved relative to this
+    public long startTime;
+
+    public RecordingHeader(Date startDate, long startTime, String experimenter, String phoneModel,
+                           String orientationFilter, float calPitch, float calRoll) {
+        this.startDate = startDate;
+        this.startTime = startTime;
+        this.experimenter = experimenter;
+        this.phoneModel = phoneModel;
+        this.orientationFilter = orientationFilter;
+        this.calPitch = calPitch;
+        this.calRoll = calRoll;
+    }
+}
@@ -0,0 +1,165 @@
+package uk.ac.sussex.bee_labe;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A sparse index of the samples in a binary recording, so that a time range can be read
+ * without going through the file from the start. For each kind of block (attitude or raw, as
+ * in BinaryRecordingReader.ATTITUDE and RAW) it has spans of consecutive blocks covering about
+ * SPAN of samples each, with where they start and end in the file and the earliest and latest
+ * sample times in them. Packed blocks can each be decoded on their own, so they're indexed the
+ * same way.
+ *
+ * The sink builds it up as blocks are written, and saves it in an index block when the
+ * recording is finished (see BinaryFormat). A few hours come to a few thousand entries.
+ */
+
+public class RecordingIndex {
+    // how much time each entry covers, at most (ns)
+    public static final long SPAN = 5000000000L;
+
+    // kind (u8), start and end offsets in the file (i64), earliest and latest time (i64, ns)
+    public static final int ENTRY_SIZE = 1 + 4 * 8; // bytes
+
+    private final Spans[] spans = { new Spans(), new Spans() };
+
+    /**
+     * Note a block of samples of the given kind, from the start offset in the file up to (but
+     * not including) the end, with the earliest and latest times in it (ns since the start).
+     */
+    public void addBlock(int kind, long start, long end, long minTime, long maxTime) {
+        Spans spans = spans(kind);
+        int last = spans.size - 1;
+        if (last >= 0 && maxTime - spans.minTimes[last] < SPAN) {
+            spans.ends[last] = end;
+            spans.minTimes[last] = Math.min(spans.minTimes[last], minTime);
+            spans.maxTimes[last] = Math.max(spans.maxTimes[last], maxTime);
+        } else {
+            spans.append(start, end, minTime, maxTime);
+        }
+        spans.latest = null;
+    }
+
+    /**
+     * The part of the file, as {start, end} offsets, with every block of the given kind which
+     * has samples in the time range (ns since the start, inclusive), or null if there aren't
+     * any. The blocks in it can have other samples too, so they still need checking.
+     */
+    public long[] find(int kind, long from, long to) {
+        Spans spans = spans(kind);
+        if (spans.size == 0) {
+            return null;
+        }
+        if (spans.latest == null) {
+            // the times of the raw samples can go back a little from block to block, so these
+            // are what can be searched: the latest time up to each span, and the earliest from
+            spans.latest = new long[spans.size];
+            spans.earliest = new long[spans.size];
+            long latest = Long.MIN_VALUE, earliest = Long.MAX_VALUE;
+            for (int i = 0; i < spans.size; i++) {
+                latest = Math.max(latest, spans.maxTimes[i]);
+                spans.latest[i] = latest;
+            }
+            for (int i = spans.size - 1; i >= 0; i--) {
+                earliest = Math.min(earliest, spans.minTimes[i]);
+                spans.earliest[i] = earliest;
+            }
+        }
+
+        // the spans before first all end before the range, and those after last start after it
+        int first = firstAtLeast(spans.latest, spans.size, from);
+        int last = to == Long.MAX_VALUE ? spans.size - 1
+                : firstAtLeast(spans.earliest, spans.size, to + 1) - 1;
+        if (first > last) {
+            return null;
+        }
+        return new long[] { spans.starts[first], spans.ends[last] };
+    }
+
+    /**
+     * The number of entries.
+     */
+    public int size() {
+        return spans[0].size + spans[1].size;
+    }
+
+    public int serializedSize() {
+        return size() * ENTRY_SIZE;
+    }
+
+    public void writeTo(ByteBuffer buffer) {
+        for (int kind = BinaryRecordingReader.ATTITUDE; kind <= BinaryRecordingReader.RAW; kind++) {
+            Spans spans = spans(kind);
+            for (int i = 0; i < spans.size; i++) {
+                buffer.put((byte) kind);
+                buffer.putLong(spans.starts[i]);
+                buffer.putLong(spans.ends[i]);
+                buffer.putLong(spans.minTimes[i]);
+                buffer.putLong(spans.maxTimes[i]);
+            }
+        }
+    }
+
+    /**
+     * Read an index written by writeTo(), with the given number of entries. Entries of kinds
+     * this version doesn't know about are skipped.
+     */
+    public static RecordingIndex readFrom(ByteBuffer buffer, int count) {
+        RecordingIndex index = new RecordingIndex();
+        for (int i = 0; i < count; i++) {
+            int kind = buffer.get();
+            long start = buffer.getLong(), end = buffer.getLong();
+            long minTime = buffer.getLong(), maxTime = buffer.getLong();
+            if (kind == BinaryRecordingReader.ATTITUDE || kind == BinaryRecordingReader.RAW) {
+                index.spans(kind).append(start, end, minTime, maxTime);
+            }
+        }
+        return index;
+    }
+
+    private Spans spans(int kind) {
+        if (kind != BinaryRecordingReader.ATTITUDE && kind != BinaryRecordingReader.RAW) {
+            throw new IllegalArgumentException("Unknown kind of block: " + kind);
+        }
+        return spans[kind - 1];
+    }
+
+    // the first index with values[i] >= key in a sorted array, or size if there isn't one
+    private static int firstAtLeast(long[] values, int size, long key) {
+        int i = Arrays.binarySearch(values, 0, size, key);
+        if (i < 0) {
+            return -i - 1;
+        }
+        while (i > 0 && values[i - 1] == key) {
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * The entries for one kind of block, in file order.
+     */
+    private static class Spans {
+        long[] starts = new long[16], ends = new long[16];
+        long[] minTimes = new long[16], maxTimes = new long[16];
+        int size = 0;
+
+        // for find(), worked out when it's first needed
+        long[] latest, earliest;
+
+        void append(long start, long end, long minTime, long maxTime) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, 2 * size);
+                ends = Arrays.copyOf(ends, 2 * size);
+                minTimes = Arrays.copyOf(minTimes, 2 * size);
+                maxTimes = Arrays.copyOf(maxTimes, 2 * size);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            minTimes[size] = minTime;
+            maxTimes[size] = maxTime;
+            size++;
+        }
+    }
+}
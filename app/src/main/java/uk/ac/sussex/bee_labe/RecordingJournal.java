@@ -0,0 +1,312 @@
+package uk.ac.sussex.bee_labe;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Crash-safe copy of a recording, kept alongside the real output files while recording. Every
+ * sample is written straight into a memory-mapped file, which is just a few stores into the
+ * page cache, so it hardly holds up ExperimentData's drainer thread, which stores the samples
+ * taken from the sensor thread in it along with the output files. The kernel writes the pages
+ * out even if the app is killed, so if a recording is never finished properly the journal
+ * still has everything up to the last commit, and recover() can rebuild the output files from
+ * it.
+ *
+ * The file starts with a page holding the number of committed records, the recording's start
+ * time and its header (as in BinaryFormat), followed by fixed-size records. It is mapped in
+ * segments of SEGMENT_RECORDS records, so that it grows as the recording goes on. Records are
+ * appended by that drainer thread only.
+ */
+
+public class RecordingJournal implements Closeable {
+    static final byte[] MAGIC = { 'B', 'L', 'J', 'R' };
+    static final short VERSION = 1;
+    static final int HEADER_PAGE_SIZE = 4096; // bytes
+    static final int COUNT_OFFSET = 8;
+    static final int START_TIME_OFFSET = 16;
+    static final int HEADER_OFFSET = 24;
+
+    // kind (u8), sensor type (u8), time (i64, ns as in SensorEvent), 3 x f32
+    static final int RECORD_SIZE = 1 + 1 + 8 + 3 * 4;
+    static final byte KIND_ATTITUDE = 1;
+    static final byte KIND_RAW = 2;
+
+    static final int SEGMENT_RECORDS = 1 << 18; // about 5.5 MB
+    private static final int COMMIT_INTERVAL = 32; // records
+    private static final int RECOVERY_BATCH = 4096; // records
+
+    private final File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedByteBuffer headerPage, segment;
+    private long count = 0, committed = 0;
+    private boolean failed = false;
+
+    public RecordingJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Create the journal (replacing any old one) and save the header in it. The first segment
+     * is mapped now, so that appending doesn't have to until the recording gets long.
+     */
+    public void begin(RecordingHeader header) throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            channel = raf.getChannel();
+
+            headerPage = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_PAGE_SIZE);
+            headerPage.order(ByteOrder.LITTLE_ENDIAN);
+            headerPage.put(MAGIC);
+            headerPage.putShort(VERSION);
+            headerPage.putLong(COUNT_OFFSET, 0);
+            headerPage.putLong(START_TIME_OFFSET, header.startTime);
+            headerPage.position(HEADER_OFFSET);
+            BinaryFormat.putHeader(headerPage, header);
+
+            mapSegment(0);
+        } catch (IOException e) {
+            close();
+            throw e;
+        } catch (RuntimeException e) {
+            // e.g. a header too big for the first page
+            close();
+            throw new IOException("Couldn't create " + file.getName(), e);
+        }
+    }
+
+    public void appendAttitude(long time, float yaw, float pitch, float roll) {
+        if (reserve()) {
+            segment.put(KIND_ATTITUDE);
+            segment.put((byte) 0);
+            putValues(time, yaw, pitch, roll);
+        }
+    }
+
+    public void appendRaw(long time, int sensorType, float x, float y, float z) {
+        if (reserve()) {
+            segment.put(KIND_RAW);
+            segment.put((byte) sensorType);
+            putValues(time, x, y, z);
+        }
+    }
+
+    /**
+     * Mark every record appended so far as complete. This is done every COMMIT_INTERVAL
+     * records anyway.
+     */
+    public void commit() {
+        if (headerPage != null && committed != count) {
+            headerPage.putLong(COUNT_OFFSET, count);
+            committed = count;
+        }
+    }
+
+    /**
+     * Commit, write everything out to storage and close the file, which is kept for recovery.
+     */
+    @Override
+    public void close() {
+        if (raf == null) {
+            return;
+        }
+
+        commit();
+        try {
+            if (segment != null) {
+                segment.force();
+            }
+            if (headerPage != null) {
+                headerPage.force();
+            }
+        } catch (RuntimeException e) {
+            // the pages will still be written out eventually
+        }
+        try {
+            raf.close();
+        } catch (IOException e) {
+            // nothing more we can do
+        }
+        raf = null;
+        channel = null;
+        headerPage = null;
+        segment = null;
+    }
+
+    /**
+     * Close and delete the journal, once the recording has been saved properly.
+     */
+    public void delete() {
+        close();
+        file.delete();
+    }
+
+    public String getPath() {
+        return file.getAbsolutePath();
+    }
+
+    private boolean reserve() {
+        if (failed || segment == null) {
+            return false;
+        }
+        if (!segment.hasRemaining()) {
+            try {
+                // write out the full segment and let go of it, so only one is mapped at a time
+                // (the mapping goes once it's collected, as there's no way to unmap it sooner)
+                MappedByteBuffer full = segment;
+                segment = null;
+                full.force();
+                mapSegment(count / SEGMENT_RECORDS);
+            } catch (IOException | RuntimeException e) {
+                // keep what we've got rather than hold up the recording
+                failed = true;
+                segment = null;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void putValues(long time, float a, float b, float c) {
+        segment.putLong(time);
+        segment.putFloat(a);
+        segment.putFloat(b);
+        segment.putFloat(c);
+        count++;
+        if (count - committed >= COMMIT_INTERVAL) {
+            commit();
+        }
+    }
+
+    private void mapSegment(long index) throws IOException {
+        long size = (long) SEGMENT_RECORDS * RECORD_SIZE;
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_PAGE_SIZE + index * size, size);
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Rebuild a recording from a journal left behind by a recording which was never finished,
+     * writing it to the given sinks. The end time is taken from the last sample, and the
+     * header is returned. If the app died before the header was saved, the journal is empty and
+     * null is returned without writing anything. The journal itself is left alone.
+     */
+    public static RecordingHeader recover(File file, RecordingSink... sinks) throws IOException {
+        FileInputStream stream = new FileInputStream(file);
+        FileChannel channel = stream.getChannel();
+        try {
+            // the header page is the first thing to be mapped, and then filled in, so if the
+            // app died before that it's missing or blank
+            ByteBuffer page = ByteBuffer.allocate(HEADER_PAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            page.limit((int) Math.min(channel.size(), HEADER_PAGE_SIZE));
+            readFully(channel, page, 0);
+            page.flip();
+            if (page.remaining() < MAGIC.length) {
+                return null;
+            }
+            byte[] magic = new byte[MAGIC.length];
+            page.get(magic);
+            if (Arrays.equals(magic, new byte[MAGIC.length])) {
+                return null;
+            } else if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException(file.getName() + " is not a recording journal");
+            } else if (page.limit() < HEADER_PAGE_SIZE) {
+                return null;
+            }
+            int version = page.getShort();
+            if (version > VERSION) {
+                throw new IOException("Unsupported journal version: " + version);
+            }
+
+            // anything after the committed records may be half-written
+            long available = (channel.size() - HEADER_PAGE_SIZE) / RECORD_SIZE;
+            long count = Math.min(page.getLong(COUNT_OFFSET), Math.max(available, 0));
+            long startTime = page.getLong(START_TIME_OFFSET);
+            page.position(HEADER_OFFSET);
+            RecordingHeader header = BinaryFormat.getHeader(page);
+            header.startTime = startTime;
+
+            copyRecords(channel, count, header, sinks);
+            return header;
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static void copyRecords(FileChannel channel, long count, RecordingHeader header,
+                                    RecordingSink[] sinks) throws IOException {
+        AttitudeLog dataList = new AttitudeLog();
+        RawLog rawDataList = new RawLog();
+        ByteBuffer buffer = ByteBuffer.allocate(RECOVERY_BATCH * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        long lastTime = header.startTime;
+
+        try {
+            for (RecordingSink sink : sinks) {
+                sink.begin(header);
+            }
+
+            long position = HEADER_PAGE_SIZE;
+            long remaining = count;
+            while (remaining > 0) {
+                int n = (int) Math.min(remaining, RECOVERY_BATCH);
+                buffer.clear();
+                buffer.limit(n * RECORD_SIZE);
+                readFully(channel, buffer, position);
+                buffer.flip();
+                position += n * RECORD_SIZE;
+                remaining -= n;
+
+                for (int i = 0; i < n; i++) {
+                    byte kind = buffer.get();
+                    int sensorType = buffer.get();
+                    long time = buffer.getLong();
+                    float a = buffer.getFloat(), b = buffer.getFloat(), c = buffer.getFloat();
+                    if (kind == KIND_ATTITUDE) {
+                        dataList.append(time, a, b, c);
+                    } else if (kind == KIND_RAW) {
+                        rawDataList.append(time, sensorType, a, b, c);
+                    }
+                    lastTime = Math.max(lastTime, time);
+                }
+
+                for (RecordingSink sink : sinks) {
+                    sink.writeData(dataList, 0, dataList.size());
+                    sink.writeRaw(rawDataList, 0, rawDataList.size());
+                    sink.flush();
+                }
+                dataList.clear();
+                rawDataList.clear();
+            }
+
+            // the metrics were only kept in memory, so they're lost
+            Date endDate = new Date(header.startDate.getTime() + (lastTime - header.startTime) / 1000000);
+            for (RecordingSink sink : sinks) {
+                sink.finish(endDate, null);
+            }
+        } finally {
+            for (RecordingSink sink : sinks) {
+                sink.close();
+            }
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n == -1) {
+                throw new EOFException("Journal is truncated");
+            }
+            position += n;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package uk.ac.sussex.bee_labe;
+
+/**
+ * Sampling settings for the sensors. Profiles with a non-zero maximum report latency let the
+ * sensor hardware batch readings in its FIFO and deliver them in bursts, which is what makes
+ * high sample rates affordable on battery. Readings keep their hardware timestamps, so batching
+ * doesn't affect the recorded times.
+ */
+
+public class RecordingProfile {
+    public static final RecordingProfile[] PROFILES = {
+            // the original settings
+            new RecordingProfile("Standard (20 Hz)", 50000, 50000, 50000, 50000),
+
+            // for flight-like motion; magnetometers don't usually go this fast, so don't ask
+            new RecordingProfile("Fast (200 Hz, batched)", 5000, 10000, 5000, 1000000),
+
+            new RecordingProfile("Fastest (batched)", 0, 0, 0, 1000000),
+    };
+
+    public final String name;
+
+    // sampling periods (µs; 0 means as fast as possible)
+    public final int accPeriod, magPeriod, gyroPeriod;
+
+    // how long readings may be held in the sensor FIFO before being delivered (µs)
+    public final int maxReportLatency;
+
+    public RecordingProfile(String name, int accPeriod, int magPeriod, int gyroPeriod,
+                            int maxReportLatency) {
+        this.name = name;
+        this.accPeriod = accPeriod;
+        this.magPeriod = magPeriod;
+        this.gyroPeriod = gyroPeriod;
+        this.maxReportLatency = maxReportLatency;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
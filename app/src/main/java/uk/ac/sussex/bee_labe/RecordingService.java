@@ -0,0 +1,627 @@
+package uk.ac.sussex.bee_labe;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener2;
+import android.hardware.SensorManager;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.v4.app.NotificationCompat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Owns the sensors, calibration, orientation pipeline and recording, so that a recording
+ * doesn't depend on the activity: it carries on with the screen off, or if the activity is
+ * destroyed. While recording, the service is started (so it outlives its clients), runs in the
+ * foreground with a notification so it isn't killed, and holds a partial wake lock so the CPU
+ * keeps processing readings. The activity binds to it, and is just the controls and display.
+ *
+ * Readings are processed on the service's sensor thread. The sensors are only registered while
+ * they're needed: while calibrating or recording, or while a client is showing the attitude.
+ * Methods are to be called on the main thread, unless they say otherwise.
+ */
+
+public class RecordingService extends Service implements SensorEventListener2,
+        CalibrationHandler.Listener {
+    private static final long FLUSH_TIMEOUT = 2000; // ms
+    private static final int NOTIFICATION_ID = 1;
+    // only used from Android 8 on, once the app targets it
+    private static final String NOTIFICATION_CHANNEL = "recording";
+    private static final boolean LOG_RAW = true;
+
+    public interface Listener {
+        // called on the main thread
+        void onCalibrationFinished();
+
+        // with the IOException which stopped it starting, or null once it has
+        void onRecordingStarted(IOException error);
+
+        // with either the saved file's path or the IOException which stopped it being saved
+        void onRecordingFinished(Object result);
+
+        // with a report on the recordings which were recovered when the service started
+        void onRecordingsRecovered(String report);
+    }
+
+    public interface MetricsCallback {
+        void onSummary(String summary);
+    }
+
+    public class LocalBinder extends Binder {
+        public RecordingService getService() {
+            return RecordingService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+    private Handler mainHandler;
+    private HandlerThread sensorThread;
+    private Handler sensorHandler;
+    private SensorManager mSensorManager;
+    private Sensor mAccSensor, mMagSensor, mGyroSensor;
+    private boolean sensorsRegistered = false;
+    private PowerManager.WakeLock wakeLock;
+
+    private SessionCatalogue catalogue;
+    private ExperimentData data;
+    private final CalibrationHandler cal = new CalibrationHandler(this);
+    private final OrientationPipeline orientation = new OrientationPipeline(cal,
+            AttitudeEstimators.create(0));
+    private SensorProcessor processor;
+    private final SessionMetrics metrics = new SessionMetrics();
+    private final PauseDetector pauseDetector = new PauseDetector(metrics.pauses);
+    private RecordingProfile profile = RecordingProfile.PROFILES[0];
+    private int estimatorIndex = 0;
+    private int pendingFlushes = 0;
+
+    private volatile boolean isRecording = false;
+    // on the main thread: from asking for a recording until its files have been set up
+    private boolean isStarting = false;
+    // on the main thread: from asking for a calibration until it's finished
+    private boolean isCalibrating = false;
+    private boolean isSaving = false;
+    private long recordingStartedAt; // SystemClock.elapsedRealtime()
+
+    // the attitude is only handed over for display while a client is showing it
+    private volatile boolean isDisplaying = false;
+    private final Attitude displayAttitude = new Attitude(0, 0, 0);
+    private boolean hasNewAttitude = false;
+
+    // where to send a live copy of the data (on the main thread; host null for nowhere), and
+    // what's sending it, only while the sensors are on
+    private String telemetryHost;
+    private int telemetryPort;
+    private volatile TelemetryStreamer telemetry;
+
+    private Listener listener;
+    // what happened while there was no listener, to be passed on when one is set
+    private Object pendingResult;
+    private String pendingRecoveryReport;
+
+    // exports and recoveries run one at a time, in the background, so an export always
+    // includes any recordings recovered before it
+    private final ExecutorService backgroundExecutor = Executors.newSingleThreadExecutor();
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mainHandler = new Handler(Looper.getMainLooper());
+
+        // recordings are listed in the catalogue as they're saved
+        catalogue = new SessionCatalogue(getExternalFilesDir(null));
+        // the sensor thread must never wait for storage: if it falls behind, readings are
+        // dropped and counted in the metrics
+        data = new ExperimentData(catalogue, SampleRing.COUNT_AND_DROP);
+        processor = new SensorProcessor(orientation, data, LOG_RAW);
+
+        // sensor events are processed on their own thread so nothing else can hold them up
+        sensorThread = new HandlerThread("SensorThread", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        sensorThread.start();
+        sensorHandler = new Handler(sensorThread.getLooper());
+
+        mSensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
+        mAccSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        mMagSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
+        mGyroSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+
+        PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "bee_labe:recording");
+
+        // the service has only just started, so nothing is being recorded and any journals
+        // are from recordings which never finished
+        recoverRecordings();
+
+        // load the catalogue (which may mean catching up with the files) before it's needed
+        backgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                catalogue.sessions();
+            }
+        });
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // started for a recording, which can't be picked up again if we're killed
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mSensorManager.unregisterListener(this);
+        sensorThread.quitSafely();
+        backgroundExecutor.shutdown();
+        setTelemetry(null, 0);
+        if (wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+    }
+
+    /**
+     * Set (or clear, with null) the client to be told about calibrations and recordings. Anything
+     * it missed while there wasn't one is passed on straight away.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+        if (listener != null && pendingRecoveryReport != null) {
+            listener.onRecordingsRecovered(pendingRecoveryReport);
+            pendingRecoveryReport = null;
+        }
+        if (listener != null && pendingResult != null) {
+            listener.onRecordingFinished(pendingResult);
+            pendingResult = null;
+        }
+    }
+
+    /**
+     * Whether a client is showing the attitude, and so needs the sensors running.
+     */
+    public void setDisplaying(boolean isDisplaying) {
+        this.isDisplaying = isDisplaying;
+        updateSensors();
+    }
+
+    /**
+     * Send the attitude and raw readings to the given host and port as they come in (whenever
+     * the sensors are on), in place of wherever they were being sent before; or stop sending
+     * them if the host is null.
+     */
+    public void setTelemetry(String host, int port) {
+        telemetryHost = host;
+        telemetryPort = port;
+        updateTelemetry();
+    }
+
+    // run a TelemetryStreamer for the target only while the sensors are on, so its thread
+    // isn't waking up with nothing to send
+    private void updateTelemetry() {
+        String host = sensorsRegistered ? telemetryHost : null;
+        if (telemetry != null && telemetry.host.equals(host) && telemetry.port == telemetryPort) {
+            return;
+        }
+        if (telemetry != null) {
+            telemetry.stop();
+        }
+        if (host == null) {
+            telemetry = null;
+        } else {
+            TelemetryStreamer streamer = new TelemetryStreamer(host, telemetryPort);
+            streamer.start();
+            telemetry = streamer;
+        }
+    }
+
+    /**
+     * Copy the latest attitude into att if there's been a new one since the last call, and say
+     * whether there was. Can be called on any thread.
+     */
+    public boolean getDisplayAttitude(Attitude att) {
+        synchronized (displayAttitude) {
+            if (!hasNewAttitude) {
+                return false;
+            }
+            att.yaw = displayAttitude.yaw;
+            att.pitch = displayAttitude.pitch;
+            att.roll = displayAttitude.roll;
+            hasNewAttitude = false;
+            return true;
+        }
+    }
+
+    public SessionCatalogue getCatalogue() {
+        return catalogue;
+    }
+
+    /**
+     * Run a task on the background thread, after any recoveries and exports before it.
+     */
+    public void execute(Runnable task) {
+        backgroundExecutor.execute(task);
+    }
+
+    public boolean isRecording() {
+        return isRecording;
+    }
+
+    // asked to record, but the files are still being set up
+    public boolean isStarting() {
+        return isStarting;
+    }
+
+    // stopped, but the files are still being finished
+    public boolean isSaving() {
+        return isSaving;
+    }
+
+    public boolean isCalibrating() {
+        return isCalibrating;
+    }
+
+    // SystemClock.elapsedRealtime() when the current recording started
+    public long getRecordingStartedAt() {
+        return recordingStartedAt;
+    }
+
+    public void setProfile(RecordingProfile profile) {
+        this.profile = profile;
+        if (sensorsRegistered) {
+            // re-register the sensors with the new rates
+            mSensorManager.unregisterListener(this);
+            sensorsRegistered = false;
+            updateSensors();
+        }
+    }
+
+    public void setEstimator(int index) {
+        estimatorIndex = index;
+
+        // the estimator is used on the sensor thread, so swap it over there
+        final AttitudeEstimator estimator = AttitudeEstimators.create(index);
+        sensorHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                orientation.setEstimator(estimator);
+            }
+        });
+    }
+
+    /**
+     * Summarise the sensor metrics, passing the summary to the callback on the main thread.
+     */
+    public void getMetricsSummary(final MetricsCallback callback) {
+        // the metrics belong to the sensor thread, so summarise them there
+        sensorHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final String summary = metrics.format();
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onSummary(summary);
+                    }
+                });
+            }
+        });
+    }
+
+    public void startCalibration() {
+        if (isCalibrating) {
+            return;
+        }
+        isCalibrating = true;
+        updateSensors();
+
+        // calibration data come from the sensor thread, so start it there
+        sensorHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                cal.start();
+            }
+        });
+    }
+
+    /**
+     * Called by the calibration handler, on the sensor thread.
+     */
+    @Override
+    public void stopCalibration() {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                isCalibrating = false;
+                updateSensors();
+                if (listener != null) {
+                    listener.onCalibrationFinished();
+                }
+            }
+        });
+    }
+
+    /**
+     * Start recording to new files in the external files directory. The files are set up on
+     * the sensor thread, as that can be slow, and then the listener is told whether it worked.
+     * The service keeps going in the foreground until the recording is finished.
+     */
+    public void startRecording(String experimenter, ReductionProfile reduction) {
+        // same time base as SensorEvent.timestamp. This probably won't get the right model,
+        // but at least the manufacturer should be right
+        final RecordingHeader header = new RecordingHeader(new Date(),
+                SystemClock.elapsedRealtimeNanos(), experimenter,
+                Build.MANUFACTURER + " " + Build.MODEL,
+                AttitudeEstimators.NAMES[estimatorIndex], cal.pitch, cal.roll);
+        header.calPitchVariance = cal.pitchVariance;
+        header.calRollVariance = cal.rollVariance;
+        header.reduction = reduction;
+
+        isStarting = true;
+        sensorHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                IOException error = null;
+                try {
+                    // save files to external storage
+                    data.start(getExternalFilesDir(null), header);
+
+                    // the metrics saved with the recording start from here
+                    metrics.requestReset();
+                    pauseDetector.start();
+                } catch (IOException e) {
+                    error = e;
+                }
+
+                final IOException finalError = error;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        recordingStarted(finalError);
+                    }
+                });
+            }
+        });
+    }
+
+    // on the main thread, once the files have been set up, or couldn't be
+    private void recordingStarted(IOException error) {
+        isStarting = false;
+        if (error == null) {
+            // keep going after the activity has gone, and with the screen off
+            startService(new Intent(this, RecordingService.class));
+            startForeground(NOTIFICATION_ID, createNotification());
+            wakeLock.acquire();
+
+            recordingStartedAt = SystemClock.elapsedRealtime();
+            isRecording = true;
+            updateSensors();
+        }
+
+        if (listener != null) {
+            listener.onRecordingStarted(error);
+        } else if (error != null) {
+            // which a client handles like a recording which couldn't be saved
+            pendingResult = error;
+        }
+    }
+
+    private Notification createNotification() {
+        Intent intent = new Intent(this, MainActivity.class);
+        return new NotificationCompat.Builder(this, NOTIFICATION_CHANNEL)
+                .setContentTitle("Recording")
+                .setContentText("Tap to stop or check on the recording")
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setOngoing(true)
+                .setContentIntent(PendingIntent.getActivity(this, 0, intent, 0))
+                .build();
+    }
+
+    /**
+     * Stop recording. The listener is told when the files have been saved.
+     */
+    public void stopRecording() {
+        isSaving = true;
+
+        // finish on the sensor thread, so we know no more data are being logged
+        sensorHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // get any readings still batched up in the sensors' FIFOs first
+                pendingFlushes = 0;
+                for (Sensor sensor : new Sensor[] { mAccSensor, mMagSensor, mGyroSensor }) {
+                    if (sensor != null) {
+                        pendingFlushes++;
+                    }
+                }
+                if (pendingFlushes > 0 && mSensorManager.flush(RecordingService.this)) {
+                    // don't wait forever if a sensor never reports back
+                    sensorHandler.postDelayed(finishRecording, FLUSH_TIMEOUT);
+                } else {
+                    finishRecording.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs on the sensor thread once any batched readings have been delivered.
+     */
+    private final Runnable finishRecording = new Runnable() {
+        @Override
+        public void run() {
+            pendingFlushes = 0;
+            isRecording = false;
+
+            pauseDetector.stop();
+
+            Object result;
+            try {
+                result = data.finish(metrics);
+            } catch (IOException e) {
+                result = e;
+            }
+
+            final Object finalResult = result;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    isSaving = false;
+                    if (wakeLock.isHeld()) {
+                        wakeLock.release();
+                    }
+                    stopForeground(true);
+                    // only goes once no client is bound
+                    stopSelf();
+                    updateSensors();
+
+                    if (listener != null) {
+                        listener.onRecordingFinished(finalResult);
+                    } else {
+                        pendingResult = finalResult;
+                    }
+                }
+            });
+        }
+    };
+
+    /**
+     * Rebuild the files of any recordings which were never finished (e.g. because the app was
+     * killed) from their journals.
+     */
+    private void recoverRecordings() {
+        final File[] journals = ExperimentData.listJournals(getExternalFilesDir(null));
+        if (journals.length == 0) {
+            return;
+        }
+
+        backgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final StringBuilder message = new StringBuilder();
+                for (File journal : journals) {
+                    try {
+                        String path = ExperimentData.recover(journal, catalogue);
+                        if (path == null) {
+                            // the recording hadn't really started
+                            continue;
+                        }
+                        message.append("Recovered: ").append(path);
+                    } catch (IOException e) {
+                        message.append("Couldn't recover ").append(journal.getName()).append(": ")
+                                .append(e.toString());
+                    }
+                    message.append('\n');
+                }
+                if (message.length() == 0) {
+                    return;
+                }
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (listener != null) {
+                            listener.onRecordingsRecovered(message.toString());
+                        } else {
+                            pendingRecoveryReport = message.toString();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    // register the sensors if anything needs them, and unregister them if not
+    private void updateSensors() {
+        boolean needed = isRecording || isSaving || isCalibrating || isDisplaying;
+        if (needed && !sensorsRegistered) {
+            registerSensors();
+            sensorsRegistered = true;
+        } else if (!needed && sensorsRegistered) {
+            mSensorManager.unregisterListener(this);
+            sensorsRegistered = false;
+        }
+        updateTelemetry();
+    }
+
+    private void registerSensors() {
+        final RecordingProfile profile = this.profile;
+        sensorHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                metrics.setRequestedPeriods(profile);
+            }
+        });
+
+        mSensorManager.registerListener(this, mAccSensor, profile.accPeriod,
+                profile.maxReportLatency, sensorHandler);
+        mSensorManager.registerListener(this, mMagSensor, profile.magPeriod,
+                profile.maxReportLatency, sensorHandler);
+        mSensorManager.registerListener(this, mGyroSensor, profile.gyroPeriod,
+                profile.maxReportLatency, sensorHandler);
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+
+    @Override
+    public void onFlushCompleted(Sensor sensor) {
+        // once every sensor's FIFO has been emptied, we have all the data for the recording
+        if (pendingFlushes > 0 && --pendingFlushes == 0) {
+            sensorHandler.removeCallbacks(finishRecording);
+            finishRecording.run();
+        }
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        // same time base as event.timestamp
+        long receivedAt = SystemClock.elapsedRealtimeNanos();
+
+        int type = event.sensor.getType();
+        boolean hasAttitude = processor.onSensorChanged(type, event.timestamp, event.values, isRecording);
+
+        TelemetryStreamer telemetry = this.telemetry;
+        if (telemetry != null) {
+            float[] v = event.values;
+            telemetry.publish(type, event.timestamp, v[0], v[1], v[2]);
+            if (hasAttitude) {
+                telemetry.publish(orientation.timestamp, orientation.attitude);
+            }
+        }
+
+        if (hasAttitude && isDisplaying) {
+            // hand the attitude over to be displayed on the next frame
+            Attitude att = orientation.attitude;
+            synchronized (displayAttitude) {
+                displayAttitude.yaw = att.yaw;
+                displayAttitude.pitch = att.pitch;
+                displayAttitude.roll = att.roll;
+                hasNewAttitude = true;
+            }
+        }
+
+        metrics.record(type, event.timestamp, receivedAt, SystemClock.elapsedRealtimeNanos(),
+                processor.logged);
+    }
+}
@@ -0,0 +1,43 @@
+package uk.ac.sussex.bee_labe;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * A file format that StreamingWriter can append a recording to, batch by batch.
+ */
+
+public interface RecordingSink {
+    void begin(RecordingHeader header) throws IOException;
+
+    /**
+     * Append attitude samples [from, to) from the log.
+     */
+    void writeData(AttitudeLog dataList, int from, int to) throws IOException;
+
+    /**
+     * Append raw samples [from, to) from the log.
+     */
+    void writeRaw(RawLog rawDataList, int from, int to) throws IOException;
+
+    /**
+     * Make sure everything written so far has reached the file.
+     */
+    void flush() throws IOException;
+
+    /**
+     * Write the end of the file, with the session's metrics if there are any (metrics may be
+     * null), and close it.
+     */
+    void finish(Date endDate, SessionMetrics metrics) throws IOException;
+
+    /**
+     * Close the file without finishing it, e.g. after an error.
+     */
+    void close();
+
+    /**
+     * The main file written to (for display).
+     */
+    String getPath();
+}
@@ -0,0 +1,87 @@
+package uk.ac.sussex.bee_labe;
+
+/**
+ * Settings for thinning out each of the logged streams (see StreamReduction). The profile used
+ * is saved in the header of each recording, so the analysis knows what was done to the data.
+ */
+
+public class ReductionProfile {
+    private static final long SECOND = 1000000000L; // ns
+
+    // stream IDs, as saved in the file headers: the attitude, then the raw sensor types
+    public static final int ATTITUDE = 0;
+    public static final int[] STREAMS = { ATTITUDE, SensorTypes.ACCELEROMETER,
+            SensorTypes.MAGNETIC_FIELD, SensorTypes.GYROSCOPE };
+
+    // the profile name saved for data which weren't reduced at all
+    public static final String NONE = "none";
+
+    public static final ReductionProfile FULL_RATE = new ReductionProfile("Full rate",
+            StreamReduction.NONE, StreamReduction.NONE, StreamReduction.NONE, StreamReduction.NONE);
+
+    public static final ReductionProfile[] PROFILES = {
+            FULL_RATE,
+
+            // e.g. 50 Hz from the fast profile, which is plenty for slow movements
+            new ReductionProfile("Quarter rate", new StreamReduction(4, 0, 0),
+                    new StreamReduction(4, 0, 0), new StreamReduction(4, 0, 0),
+                    new StreamReduction(4, 0, 0)),
+
+            // for multi-hour recordings where the phone is mostly still: about 0.1 degrees, and
+            // well above the sensors' noise
+            new ReductionProfile("Changes only", new StreamReduction(1, 0.002f, SECOND),
+                    new StreamReduction(2, 0.05f, SECOND), new StreamReduction(2, 0.5f, SECOND),
+                    new StreamReduction(2, 0.01f, SECOND)),
+    };
+
+    public final String name;
+    public final StreamReduction attitude, acc, mag, gyro;
+
+    public ReductionProfile(String name, StreamReduction attitude, StreamReduction acc,
+                            StreamReduction mag, StreamReduction gyro) {
+        this.name = name;
+        this.attitude = attitude;
+        this.acc = acc;
+        this.mag = mag;
+        this.gyro = gyro;
+    }
+
+    /**
+     * The settings for one of STREAMS (no reduction for any other stream).
+     */
+    public StreamReduction forStream(int stream) {
+        switch (stream) {
+            case ATTITUDE:
+                return attitude;
+            case SensorTypes.ACCELEROMETER:
+                return acc;
+            case SensorTypes.MAGNETIC_FIELD:
+                return mag;
+            case SensorTypes.GYROSCOPE:
+                return gyro;
+            default:
+                return StreamReduction.NONE;
+        }
+    }
+
+    public boolean isActive() {
+        for (int stream : STREAMS) {
+            if (forStream(stream).isActive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The name used for a stream in the JSON files.
+     */
+    public static String streamName(int stream) {
+        return stream == ATTITUDE ? "attitude" : SensorTypes.name(stream);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
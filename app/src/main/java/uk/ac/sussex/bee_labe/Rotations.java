@@ -0,0 +1,178 @@
+package uk.ac.sussex.bee_labe;
+
+/**
+ * Plain Java rotation maths, so that orientation estimation doesn't depend on the Android
+ * framework and can be tested on a PC. Matrices are row-major float[9] arrays mapping device
+ * coordinates to world coordinates (x east, y north, z up), as in SensorManager, and quaternions
+ * are float[4] arrays in (w, x, y, z) order representing the same rotation.
+ */
+
+public final class Rotations {
+    private static final float GRAVITY = 9.81f; // m/s^2
+
+    private Rotations() {
+    }
+
+    /**
+     * The same as SensorManager.getRotationMatrix(R, null, gravity, geomagnetic): returns false
+     * if the device is in free fall or the field is (anti)parallel to gravity.
+     */
+    public static boolean getRotationMatrix(float[] R, float[] gravity, float[] geomagnetic) {
+        float Ax = gravity[0], Ay = gravity[1], Az = gravity[2];
+        final float normsqA = (Ax * Ax + Ay * Ay + Az * Az);
+        final float freeFallGravitySquared = 0.01f * GRAVITY * GRAVITY;
+        if (normsqA < freeFallGravitySquared) {
+            // gravity less than 10% of normal value
+            return false;
+        }
+
+        final float Ex = geomagnetic[0], Ey = geomagnetic[1], Ez = geomagnetic[2];
+        float Hx = Ey * Az - Ez * Ay;
+        float Hy = Ez * Ax - Ex * Az;
+        float Hz = Ex * Ay - Ey * Ax;
+        final float normH = (float) Math.sqrt(Hx * Hx + Hy * Hy + Hz * Hz);
+        if (normH < 0.1f) {
+            // device is close to free fall (or in space?), or close to magnetic north pole
+            return false;
+        }
+        final float invH = 1.0f / normH;
+        Hx *= invH;
+        Hy *= invH;
+        Hz *= invH;
+        final float invA = 1.0f / (float) Math.sqrt(Ax * Ax + Ay * Ay + Az * Az);
+        Ax *= invA;
+        Ay *= invA;
+        Az *= invA;
+        final float Mx = Ay * Hz - Az * Hy;
+        final float My = Az * Hx - Ax * Hz;
+        final float Mz = Ax * Hy - Ay * Hx;
+
+        R[0] = Hx; R[1] = Hy; R[2] = Hz;
+        R[3] = Mx; R[4] = My; R[5] = Mz;
+        R[6] = Ax; R[7] = Ay; R[8] = Az;
+        return true;
+    }
+
+    /**
+     * The same as SensorManager.getOrientation(): azimuth, pitch and roll in radians.
+     */
+    public static void getOrientation(float[] R, float[] orient) {
+        orient[0] = (float) Math.atan2(R[1], R[4]);
+        orient[1] = (float) Math.asin(-R[7]);
+        orient[2] = (float) Math.atan2(-R[6], R[8]);
+    }
+
+    /**
+     * getRotationMatrix() followed by getOrientation(), for when only the angles are needed.
+     * They only depend on five elements of the matrix, which all scale with the same vectors,
+     * so those are worked out without normalising the east vector: one square root instead of
+     * three, and no matrix. atan2 and asin can be the FastTrig ones. Returns false, leaving
+     * orient as it was, in the same cases as getRotationMatrix().
+     */
+    public static boolean getOrientation(float[] gravity, float[] geomagnetic, boolean fastTrig,
+                                         float[] orient) {
+        final float Ax = gravity[0], Ay = gravity[1], Az = gravity[2];
+        final float normsqA = Ax * Ax + Ay * Ay + Az * Az;
+        if (normsqA < 0.01f * GRAVITY * GRAVITY) {
+            return false;
+        }
+
+        // east, as in getRotationMatrix() but left at whatever length it comes out
+        final float Ex = geomagnetic[0], Ey = geomagnetic[1], Ez = geomagnetic[2];
+        final float Hx = Ey * Az - Ez * Ay;
+        final float Hy = Ez * Ax - Ex * Az;
+        final float Hz = Ex * Ay - Ey * Ax;
+        if (Hx * Hx + Hy * Hy + Hz * Hz < 0.1f * 0.1f) {
+            return false;
+        }
+
+        // R[1] = Hy / |H| and R[4] = My = (Az Hx - Ax Hz) / (|A| |H|), so their ratio only needs
+        // |A|; R[6] and R[8] are Ax and Az over |A|, and R[7] is Ay over |A|
+        final float normA = (float) Math.sqrt(normsqA);
+        final float north = Az * Hx - Ax * Hz;
+        if (fastTrig) {
+            orient[0] = FastTrig.atan2(Hy * normA, north);
+            orient[1] = FastTrig.asin(-Ay / normA);
+            orient[2] = FastTrig.atan2(-Ax, Az);
+        } else {
+            orient[0] = (float) Math.atan2(Hy * normA, north);
+            orient[1] = (float) Math.asin(-Ay / normA);
+            orient[2] = (float) Math.atan2(-Ax, Az);
+        }
+        return true;
+    }
+
+    public static void quaternionToMatrix(float[] q, float[] R) {
+        final float w = q[0], x = q[1], y = q[2], z = q[3];
+        R[0] = 1 - 2 * (y * y + z * z);
+        R[1] = 2 * (x * y - w * z);
+        R[2] = 2 * (x * z + w * y);
+        R[3] = 2 * (x * y + w * z);
+        R[4] = 1 - 2 * (x * x + z * z);
+        R[5] = 2 * (y * z - w * x);
+        R[6] = 2 * (x * z - w * y);
+        R[7] = 2 * (y * z + w * x);
+        R[8] = 1 - 2 * (x * x + y * y);
+    }
+
+    public static void matrixToQuaternion(float[] R, float[] q) {
+        // pick the numerically safest way round, depending on the largest diagonal term
+        final float trace = R[0] + R[4] + R[8];
+        if (trace > 0) {
+            float s = 2 * (float) Math.sqrt(1 + trace);
+            q[0] = s / 4;
+            q[1] = (R[7] - R[5]) / s;
+            q[2] = (R[2] - R[6]) / s;
+            q[3] = (R[3] - R[1]) / s;
+        } else if (R[0] > R[4] && R[0] > R[8]) {
+            float s = 2 * (float) Math.sqrt(1 + R[0] - R[4] - R[8]);
+            q[0] = (R[7] - R[5]) / s;
+            q[1] = s / 4;
+            q[2] = (R[1] + R[3]) / s;
+            q[3] = (R[2] + R[6]) / s;
+        } else if (R[4] > R[8]) {
+            float s = 2 * (float) Math.sqrt(1 + R[4] - R[0] - R[8]);
+            q[0] = (R[2] - R[6]) / s;
+            q[1] = (R[1] + R[3]) / s;
+            q[2] = s / 4;
+            q[3] = (R[5] + R[7]) / s;
+        } else {
+            float s = 2 * (float) Math.sqrt(1 + R[8] - R[0] - R[4]);
+            q[0] = (R[3] - R[1]) / s;
+            q[1] = (R[2] + R[6]) / s;
+            q[2] = (R[5] + R[7]) / s;
+            q[3] = s / 4;
+        }
+        normalize(q);
+    }
+
+    /**
+     * Rotate q by the angular velocity (rad/s, device coordinates, as from the gyroscope) over
+     * dt seconds.
+     */
+    public static void integrateGyro(float[] q, float wx, float wy, float wz, float dt) {
+        final float norm = (float) Math.sqrt(wx * wx + wy * wy + wz * wz);
+        if (norm < 1e-9f) {
+            return;
+        }
+        final float half = norm * dt / 2;
+        final float s = (float) Math.sin(half) / norm;
+        final float a = (float) Math.cos(half), b = wx * s, c = wy * s, d = wz * s;
+
+        // q = q * (a, b, c, d)
+        final float w = q[0], x = q[1], y = q[2], z = q[3];
+        q[0] = w * a - x * b - y * c - z * d;
+        q[1] = w * b + x * a + y * d - z * c;
+        q[2] = w * c - x * d + y * a + z * b;
+        q[3] = w * d + x * c - y * b + z * a;
+        normalize(q);
+    }
+
+    public static void normalize(float[] q) {
+        final float inv = 1 / (float) Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+        q[0] *= inv;
+        q[1] *= inv;
+        q[2] *= inv;
+        q[3] *= inv;
+    }
+}
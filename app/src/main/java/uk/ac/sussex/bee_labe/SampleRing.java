@@ -0,0 +1,229 @@
+package uk.ac.sussex.bee_labe;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded queue of samples from one producer thread (the sensor thread) to one consumer thread,
+ * without locks or allocation. Each sample is a type, a time and an x/y/z triple, stored in
+ * preallocated arrays; the producer publishes it by moving the head on, and the consumer frees
+ * it by moving the tail on, so each index is only ever written by one thread.
+ *
+ * What happens when the ring is full depends on the policy:
+ * BLOCK waits for the consumer to make room, so nothing is lost (e.g. for replays);
+ * DROP_OLDEST overwrites the oldest sample, keeping the most recent ones;
+ * COUNT_AND_DROP drops the new sample, which offer() returns false for.
+ * If the consumer stops for good, it should call close(), after which samples which don't fit
+ * are dropped whatever the policy, so that the producer never waits for it.
+ */
+
+public class SampleRing {
+    public static final int BLOCK = 0;
+    public static final int DROP_OLDEST = 1;
+    public static final int COUNT_AND_DROP = 2;
+
+    // most samples passed to the visitor by one drain()
+    static final int MAX_BATCH = 512;
+    private static final long BLOCK_WAIT = 100000; // ns
+
+    public interface Visitor {
+        void onSample(int type, long time, float x, float y, float z);
+    }
+
+    private final int capacity, mask, policy;
+    private final long[] times;
+    private final int[] types;
+    private final float[] values;
+
+    // next position to write (producer) and to read (consumer); positions only ever go up
+    private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+    // the producer's last look at the tail, so it only has to read it when the ring seems full
+    private long cachedTail = 0;
+
+    // with DROP_OLDEST, samples are copied out before they're checked, in case they were
+    // overwritten meanwhile
+    private final long[] batchTimes;
+    private final int[] batchTypes;
+    private final float[] batchValues;
+
+    // number of times the producer found the ring full (producer only)
+    private volatile long overflows = 0;
+    // samples overwritten before they could be drained, with DROP_OLDEST (consumer only)
+    private volatile long overwritten = 0;
+    // samples dropped because the ring was full after close() (producer only)
+    private volatile long abandoned = 0;
+    private volatile boolean isClosed = false;
+
+    /**
+     * @param capacity number of samples, a power of 2
+     * @param policy BLOCK, DROP_OLDEST or COUNT_AND_DROP
+     */
+    public SampleRing(int capacity, int policy) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of 2: " + capacity);
+        }
+        if (policy < BLOCK || policy > COUNT_AND_DROP) {
+            throw new IllegalArgumentException("unknown policy: " + policy);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.policy = policy;
+        times = new long[capacity];
+        types = new int[capacity];
+        values = new float[3 * capacity];
+
+        int batch = policy == DROP_OLDEST ? Math.min(capacity, MAX_BATCH) : 0;
+        batchTimes = new long[batch];
+        batchTypes = new int[batch];
+        batchValues = new float[3 * batch];
+    }
+
+    public int getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Add a sample. Call on the producer thread only. Returns false if it was dropped, which
+     * only happens with COUNT_AND_DROP, or after close().
+     */
+    public boolean offer(int type, long time, float x, float y, float z) {
+        long h = head.get();
+        // with DROP_OLDEST, reading the tail every time also keeps the writes below from
+        // being seen before the head which was published last time
+        if (h - cachedTail >= capacity || policy == DROP_OLDEST) {
+            cachedTail = tail.get();
+            if (h - cachedTail >= capacity) {
+                overflows++;
+                if (policy == COUNT_AND_DROP) {
+                    return false;
+                } else if (isClosed) {
+                    // nothing is going to make room
+                    abandoned++;
+                    return false;
+                } else if (policy == BLOCK) {
+                    while (h - (cachedTail = tail.get()) >= capacity) {
+                        if (isClosed) {
+                            abandoned++;
+                            return false;
+                        }
+                        LockSupport.parkNanos(BLOCK_WAIT);
+                    }
+                }
+                // with DROP_OLDEST, just overwrite: the consumer skips what it missed
+            }
+        }
+
+        int i = (int) h & mask;
+        times[i] = time;
+        types[i] = type;
+        values[3 * i] = x;
+        values[3 * i + 1] = y;
+        values[3 * i + 2] = z;
+
+        if (policy == DROP_OLDEST) {
+            // a full barrier, see drain()
+            head.set(h + 1);
+        } else {
+            head.lazySet(h + 1);
+        }
+        return true;
+    }
+
+    /**
+     * Pass up to MAX_BATCH of the oldest samples to the visitor, in order, and remove them.
+     * Call on the consumer thread only. Returns the number of samples removed, including any
+     * which had been overwritten; 0 means the ring was empty.
+     */
+    public int drain(Visitor visitor) {
+        long t = tail.get();
+        long h = head.get();
+        if (policy != DROP_OLDEST) {
+            // the producer won't touch these until the tail has moved past them
+            int n = (int) Math.min(h - t, MAX_BATCH);
+            for (int k = 0; k < n; k++) {
+                int i = (int) (t + k) & mask;
+                visitor.onSample(types[i], times[i], values[3 * i], values[3 * i + 1],
+                        values[3 * i + 2]);
+            }
+            tail.lazySet(t + n);
+            return n;
+        }
+
+        // skip anything which has been overwritten already. The producer may be writing the
+        // slot after the last one it published, i.e. the oldest one, so leave that too
+        long first = Math.max(t, h - capacity + 1);
+        int n = (int) Math.min(h - first, batchTimes.length);
+        for (int k = 0; k < n; k++) {
+            int i = (int) (first + k) & mask;
+            batchTimes[k] = times[i];
+            batchTypes[k] = types[i];
+            batchValues[3 * k] = values[3 * i];
+            batchValues[3 * k + 1] = values[3 * i + 1];
+            batchValues[3 * k + 2] = values[3 * i + 2];
+        }
+        long end = first + n;
+        tail.set(end);
+
+        // then check how far the producer had got by the time they were copied: the stores
+        // to the tail and head order this after the copying, and the producer only writes a
+        // slot after publishing the sample before it
+        long valid = Math.min(Math.max(first, head.get() - capacity + 1), end);
+        overwritten += valid - t;
+        for (long p = valid; p < end; p++) {
+            int k = (int) (p - first);
+            visitor.onSample(batchTypes[k], batchTimes[k], batchValues[3 * k],
+                    batchValues[3 * k + 1], batchValues[3 * k + 2]);
+        }
+        return (int) (end - t);
+    }
+
+    /**
+     * Note that the consumer has stopped for good, e.g. because it failed, so offer() stops
+     * waiting for it. Can be called on any thread.
+     */
+    public void close() {
+        isClosed = true;
+    }
+
+    /**
+     * Number of samples waiting to be drained (roughly, if the threads are busy).
+     */
+    public int size() {
+        return (int) Math.min(head.get() - tail.get(), capacity);
+    }
+
+    /**
+     * Number of times a sample was offered while the ring was full.
+     */
+    public long getOverflows() {
+        return overflows;
+    }
+
+    /**
+     * Number of samples lost because the ring was full (none with BLOCK, unless it was
+     * closed). With DROP_OLDEST this only counts what the consumer has found out about so far.
+     */
+    public long getDropped() {
+        switch (policy) {
+            case DROP_OLDEST:
+                return overwritten + abandoned;
+            case COUNT_AND_DROP:
+                return overflows;
+            default:
+                return abandoned;
+        }
+    }
+
+    /**
+     * Empty the ring and reset the counters. Only call while neither thread is using it.
+     */
+    public void clear() {
+        head.set(0);
+        tail.set(0);
+        cachedTail = 0;
+        overflows = 0;
+        overwritten = 0;
+        abandoned = 0;
+        isClosed = false;
+    }
+}
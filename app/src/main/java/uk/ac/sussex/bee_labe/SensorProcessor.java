@@ -0,0 +1,42 @@
+package uk.ac.sussex.bee_labe;
+
+/**
+ * What happens to each sensor reading, whether it comes live from the sensors or from a
+ * SensorReplay: while recording, the reading is logged, and it is fed through the orientation
+ * pipeline, whose attitude is logged too. Keeping this in one place means a replayed recording
+ * goes through exactly the same code as the live one.
+ */
+
+public class SensorProcessor {
+    public final OrientationPipeline orientation;
+    private final ExperimentData data;
+    private final boolean logRaw;
+
+    // whether the raw values of the latest reading were logged
+    public boolean logged;
+
+    /**
+     * @param logRaw whether to log the raw readings as well as the attitude
+     */
+    public SensorProcessor(OrientationPipeline orientation, ExperimentData data, boolean logRaw) {
+        this.orientation = orientation;
+        this.data = data;
+        this.logRaw = logRaw;
+    }
+
+    /**
+     * Process a reading, returning true if it produced a new attitude (in orientation.attitude).
+     * The values are copied, so the array can be reused afterwards.
+     */
+    public boolean onSensorChanged(int sensorType, long timestamp, float[] values, boolean isRecording) {
+        logged = logRaw && isRecording && data.logRaw(timestamp, sensorType, values);
+
+        if (!orientation.onSensorChanged(sensorType, timestamp, values)) {
+            return false;
+        }
+        if (isRecording) {
+            data.log(orientation.timestamp, orientation.attitude);
+        }
+        return true;
+    }
+}
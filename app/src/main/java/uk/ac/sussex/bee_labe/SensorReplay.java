@@ -0,0 +1,125 @@
+package uk.ac.sussex.bee_labe;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Plays recorded raw sensor readings back through a SensorProcessor, in place of the sensors,
+ * so the calibration, orientation filters and logging can be tested and profiled on any JVM.
+ * The output only depends on the readings, so a replay gives the same result every time, and
+ * the same as the phone did if the readings are exactly as they were logged. (Saved readings
+ * may not be: the JSON files only keep the times to the millisecond, and the packed binary
+ * files round the values; see StreamCodec.)
+ *
+ * Readings can be played back in real time (or a multiple of it), or as fast as possible.
+ */
+
+public class SensorReplay {
+    public static final double MAX_SPEED = 0;
+
+    public interface Listener {
+        // called for each new attitude, which is overwritten by the next reading
+        void onAttitude(long timestamp, Attitude attitude);
+    }
+
+    public final RecordingHeader header;
+    public final RawLog raw;
+    private final float[] values = new float[3];
+
+    // what the last run() did: number of readings and attitudes, and how long it took (ns)
+    public int readings, attitudes;
+    public long elapsed;
+
+    /**
+     * @param header the recording's header, for its calibration and orientation filter
+     * @param raw the readings, with times in ns (as in SensorEvent), in the order they came in
+     */
+    public SensorReplay(RecordingHeader header, RawLog raw) {
+        this.header = header;
+        this.raw = raw;
+    }
+
+    /**
+     * Load the raw readings of a binary recording. Their times are relative to the start of the
+     * recording, as is the header's startTime (0).
+     */
+    public static SensorReplay load(File file) throws IOException {
+        final RawLog raw = new RawLog();
+        BinaryRecordingReader reader = new BinaryRecordingReader(file);
+        try {
+            reader.read(new BinaryRecordingReader.Visitor() {
+                @Override
+                public void onAttitude(long time, float yaw, float pitch, float roll) {
+                }
+
+                @Override
+                public void onRaw(long time, int sensorType, float x, float y, float z) {
+                    raw.append(time, sensorType, x, y, z);
+                }
+            });
+            return new SensorReplay(reader.header, raw);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * A pipeline set up as it was for the recording: with its calibration and, unless another
+     * is given (i.e. estimator isn't -1), its orientation filter.
+     */
+    public OrientationPipeline createPipeline(int estimator) {
+        if (estimator == -1) {
+            estimator = Math.max(AttitudeEstimators.indexOf(header.orientationFilter), 0);
+        }
+        CalibrationHandler cal = new CalibrationHandler(null);
+        cal.pitch = header.calPitch;
+        cal.roll = header.calRoll;
+        cal.pitchVariance = header.calPitchVariance;
+        cal.rollVariance = header.calRollVariance;
+        return new OrientationPipeline(cal, AttitudeEstimators.create(estimator));
+    }
+
+    /**
+     * Feed every reading to the processor in order, as if recording (or not), passing each new
+     * attitude to the listener (if not null). The speed is a multiple of real time, or
+     * MAX_SPEED to go as fast as possible.
+     */
+    public void run(SensorProcessor processor, boolean isRecording, double speed, Listener listener)
+            throws InterruptedException {
+        int n = raw.size();
+        readings = attitudes = 0;
+        long startedAt = System.nanoTime();
+        long firstTime = n > 0 ? raw.getTime(0) : 0;
+
+        for (int i = 0; i < n; i++) {
+            long time = raw.getTime(i);
+            if (speed != MAX_SPEED) {
+                // wait until the reading is due
+                long wait = (long) ((time - firstTime) / speed) - (System.nanoTime() - startedAt);
+                if (wait > 0) {
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                }
+            }
+
+            values[0] = raw.getValue(i, 0);
+            values[1] = raw.getValue(i, 1);
+            values[2] = raw.getValue(i, 2);
+            readings++;
+            if (processor.onSensorChanged(raw.getSensorType(i), time, values, isRecording)) {
+                attitudes++;
+                if (listener != null) {
+                    listener.onAttitude(processor.orientation.timestamp, processor.orientation.attitude);
+                }
+            }
+        }
+
+        elapsed = System.nanoTime() - startedAt;
+    }
+
+    /**
+     * Readings processed per second in the last run().
+     */
+    public double getThroughput() {
+        return elapsed == 0 ? 0 : readings * 1e9 / elapsed;
+    }
+}
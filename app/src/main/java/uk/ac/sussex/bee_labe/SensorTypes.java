@@ -0,0 +1,47 @@
+package uk.ac.sussex.bee_labe;
+
+/**
+ * The sensor types we use. These have the same values as the Sensor.TYPE_* constants, so sensor
+ * types from SensorEvents can be passed straight through, but don't need the Android framework.
+ */
+
+public final class SensorTypes {
+    public static final int ACCELEROMETER = 1; // Sensor.TYPE_ACCELEROMETER
+    public static final int MAGNETIC_FIELD = 2; // Sensor.TYPE_MAGNETIC_FIELD
+    public static final int GYROSCOPE = 4; // Sensor.TYPE_GYROSCOPE
+
+    /**
+     * The short name used for a sensor type in the data files, e.g. "acc".
+     */
+    public static String name(int sensorType) {
+        switch (sensorType) {
+            case ACCELEROMETER:
+                return "acc";
+            case MAGNETIC_FIELD:
+                return "mag";
+            case GYROSCOPE:
+                return "gyro";
+            default:
+                return "unknown";
+        }
+    }
+
+    /**
+     * The sensor type with the given short name, or -1 if there isn't one.
+     */
+    public static int fromName(String name) {
+        switch (name) {
+            case "acc":
+                return ACCELEROMETER;
+            case "mag":
+                return MAGNETIC_FIELD;
+            case "gyro":
+                return GYROSCOPE;
+            default:
+                return -1;
+        }
+    }
+
+    private SensorTypes() {
+    }
+}
@@ -0,0 +1,379 @@
+package uk.ac.sussex.bee_labe;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An index of the recording sessions in the data directory, so they can be listed, filtered,
+ * deleted and exported without scanning and parsing the data files. Entries are added as each
+ * recording is saved (or recovered), by the sink from newSink(), and marked when their files
+ * have been exported.
+ *
+ * Saved as a tab-separated text file, one line per session. It is loaded the first time it is
+ * used; sessions whose files are in the directory but not in the catalogue (e.g. from before
+ * there was one) are added then, from their binary file's header or their file names, and
+ * sessions whose files have all gone are dropped. All methods are thread-safe.
+ */
+
+public class SessionCatalogue {
+    public static final String FILE_NAME = "sessions.txt";
+
+    // the files a session can have, after its name
+    private static final String[] SUFFIXES = { ".json", "_raw.json", ".bin" };
+
+    public interface Filter {
+        boolean accept(Entry entry);
+    }
+
+    public static final Filter UNEXPORTED = new Filter() {
+        @Override
+        public boolean accept(Entry entry) {
+            return !entry.exported;
+        }
+    };
+
+    public static class Entry {
+        // the data files' names, without the suffix
+        public final String name;
+        public final String experimenter;
+        public final long startTime, endTime; // ms since the epoch
+        // number of samples saved, or -1 if not known (for sessions found on disk)
+        public final int attitudeSamples, rawSamples;
+        public final long size; // of all the session's files (bytes)
+        public final boolean exported;
+
+        public Entry(String name, String experimenter, long startTime, long endTime,
+                     int attitudeSamples, int rawSamples, long size, boolean exported) {
+            this.name = name;
+            this.experimenter = experimenter;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.attitudeSamples = attitudeSamples;
+            this.rawSamples = rawSamples;
+            this.size = size;
+            this.exported = exported;
+        }
+
+        public long getDuration() {
+            return endTime - startTime;
+        }
+
+        /**
+         * The session's files which exist in the directory.
+         */
+        public List<File> files(File dir) {
+            List<File> files = new ArrayList<>();
+            for (String suffix : SUFFIXES) {
+                File file = new File(dir, name + suffix);
+                if (file.isFile()) {
+                    files.add(file);
+                }
+            }
+            return files;
+        }
+    }
+
+    private final File dir;
+    private final File file;
+
+    // by name, i.e. in date order; null until loaded
+    private TreeMap<String, Entry> entries;
+
+    public SessionCatalogue(File dir) {
+        this.dir = dir;
+        this.file = new File(dir, FILE_NAME);
+    }
+
+    /**
+     * A sink which adds the session with the given name to the catalogue when it is finished.
+     * It writes no files of its own, so it should go after the ones that do, and then it sees
+     * them finished.
+     */
+    public RecordingSink newSink(String name) {
+        return new CatalogueSink(name);
+    }
+
+    /**
+     * Every session, in date order.
+     */
+    public List<Entry> sessions() {
+        return sessions(null);
+    }
+
+    /**
+     * The sessions the filter accepts (all of them if it's null), in date order.
+     */
+    public synchronized List<Entry> sessions(Filter filter) {
+        ensureLoaded();
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (filter == null || filter.accept(entry)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The session with the given name, or null.
+     */
+    public synchronized Entry get(String name) {
+        ensureLoaded();
+        return entries.get(name);
+    }
+
+    /**
+     * Add or replace a session and save the catalogue.
+     */
+    public synchronized void add(Entry entry) throws IOException {
+        ensureLoaded();
+        entries.put(entry.name, entry);
+        save();
+    }
+
+    /**
+     * Delete the sessions' files and their entries, returning the number of files deleted.
+     */
+    public synchronized int delete(Collection<Entry> sessions) throws IOException {
+        ensureLoaded();
+        int n = 0;
+        for (Entry entry : sessions) {
+            for (File file : entry.files(dir)) {
+                if (file.delete()) {
+                    n++;
+                }
+            }
+            entries.remove(entry.name);
+        }
+        save();
+        return n;
+    }
+
+    /**
+     * Mark the sessions whose files are all in the export archive as exported (and the rest as
+     * not), updating their sizes, which change when binary files are converted to JSON.
+     */
+    public synchronized void updateExported(ExportManifest manifest) throws IOException {
+        ensureLoaded();
+        for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            List<File> files = entry.files(dir);
+            boolean exported = !files.isEmpty();
+            long size = 0;
+            for (File file : files) {
+                exported &= manifest.contains(file);
+                size += file.length();
+            }
+            if (exported != entry.exported || size != entry.size) {
+                mapEntry.setValue(new Entry(entry.name, entry.experimenter, entry.startTime,
+                        entry.endTime, entry.attitudeSamples, entry.rawSamples, size, exported));
+            }
+        }
+        save();
+    }
+
+    private void ensureLoaded() {
+        if (entries != null) {
+            return;
+        }
+
+        entries = new TreeMap<>();
+        boolean changed = !file.exists();
+        if (!changed) {
+            try {
+                load();
+            } catch (IOException | RuntimeException e) {
+                // start over from the files
+                entries.clear();
+                changed = true;
+            }
+        }
+
+        // catch up with the directory: only the sessions we don't know about are read
+        List<String> names = listSessionNames();
+        for (String name : names) {
+            if (!entries.containsKey(name)) {
+                entries.put(name, scan(name));
+                changed = true;
+            }
+        }
+        changed |= entries.keySet().retainAll(names);
+
+        if (changed) {
+            try {
+                save();
+            } catch (IOException e) {
+                // we'll catch up again next time
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                Entry entry = new Entry(fields[0], fields[7], Long.parseLong(fields[1]),
+                        Long.parseLong(fields[2]), Integer.parseInt(fields[3]),
+                        Integer.parseInt(fields[4]), Long.parseLong(fields[5]),
+                        fields[6].equals("1"));
+                entries.put(entry.name, entry);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Write to a temporary file first, so a crash part way through leaves the old catalogue.
+     */
+    private void save() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        Writer out = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        try {
+            for (Entry entry : entries.values()) {
+                // the experimenter goes last, as it's the only free text
+                out.write(entry.name + "\t" + entry.startTime + "\t" + entry.endTime + "\t"
+                        + entry.attitudeSamples + "\t" + entry.rawSamples + "\t" + entry.size
+                        + "\t" + (entry.exported ? "1" : "0") + "\t"
+                        + entry.experimenter.replaceAll("[\t\r\n]", " ") + "\n");
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Couldn't save " + file);
+        }
+    }
+
+    // just the file names, so this is quick however many sessions there are
+    private List<String> listSessionNames() {
+        List<String> names = new ArrayList<>();
+        for (File data : DataExporter.listDataFiles(dir)) {
+            String name = data.getName();
+            String session = null;
+            if (name.endsWith("_raw.json")) {
+                // the main file will be there as well
+            } else if (name.endsWith(".json")) {
+                session = name.substring(0, name.length() - 5);
+            } else if (name.endsWith(".bin")) {
+                session = name.substring(0, name.length() - 4);
+            }
+            if (session != null && (names.isEmpty() || !names.get(names.size() - 1).equals(session))) {
+                names.add(session);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * An entry for a session which isn't in the catalogue. Its binary file's header has what we
+     * need; failing that, the start comes from the name (as made by ExperimentData) and the end
+     * from when the file was last written.
+     */
+    private Entry scan(String name) {
+        File bin = new File(dir, name + ".bin");
+        if (bin.isFile()) {
+            try {
+                BinaryRecordingReader reader = new BinaryRecordingReader(bin);
+                try {
+                    long startTime = reader.header.startDate.getTime();
+                    long endTime = reader.endDate != null ? reader.endDate.getTime() : bin.lastModified();
+                    return new Entry(name, reader.header.experimenter, startTime, endTime, -1, -1,
+                            sizeOf(name), false);
+                } finally {
+                    reader.close();
+                }
+            } catch (IOException e) {
+                // go by the names
+            }
+        }
+
+        // data_yyyyMMdd_HHmmss_initials
+        long startTime = 0;
+        String experimenter = "";
+        String[] parts = name.split("_", 4);
+        if (parts.length == 4) {
+            try {
+                startTime = new SimpleDateFormat("yyyyMMdd_HHmmss").parse(parts[1] + "_" + parts[2]).getTime();
+                experimenter = parts[3];
+            } catch (ParseException e) {
+                // not one of ours, but it's still listed
+            }
+        }
+        return new Entry(name, experimenter, startTime, new File(dir, name + ".json").lastModified(),
+                -1, -1, sizeOf(name), false);
+    }
+
+    private class CatalogueSink implements RecordingSink {
+        private final String name;
+        private RecordingHeader header;
+        private int attitudeSamples, rawSamples;
+
+        CatalogueSink(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void begin(RecordingHeader header) {
+            this.header = header;
+        }
+
+        @Override
+        public void writeData(AttitudeLog dataList, int from, int to) {
+            attitudeSamples += to - from;
+        }
+
+        @Override
+        public void writeRaw(RawLog rawDataList, int from, int to) {
+            rawSamples += to - from;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void finish(Date endDate, SessionMetrics metrics) {
+            try {
+                add(new Entry(name, header.experimenter, header.startDate.getTime(),
+                        endDate.getTime(), attitudeSamples, rawSamples, sizeOf(name), false));
+            } catch (IOException e) {
+                // the recording itself is fine, and it'll be found on disk next time the
+                // catalogue is loaded
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String getPath() {
+            return file.getAbsolutePath();
+        }
+    }
+
+    private long sizeOf(String name) {
+        long size = 0;
+        for (String suffix : SUFFIXES) {
+            size += new File(dir, name + suffix).length();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,198 @@
+package uk.ac.sussex.bee_labe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Metrics for a recording session: a StreamMetrics for each sensor, plus any pauses of the
+ * whole process seen by a PauseDetector. They are updated on the sensor thread for every
+ * reading and saved at the end of each recording, so bad data can be told apart from a phone
+ * that couldn't keep up.
+ */
+
+public class SessionMetrics {
+    // pauses longer than this are counted separately
+    private static final long LONG_PAUSE = 10000000; // ns
+
+    public final StreamMetrics[] streams;
+
+    // how much longer than expected the pause detector's sleeps took (ns); empty if it wasn't
+    // running
+    public final LogLinearHistogram pauses = new LogLinearHistogram();
+
+    // from the ExperimentData's SampleRing: times it was full, and samples lost because of it.
+    // Only in the JSON files
+    public long queueOverflows = 0, queueDropped = 0;
+
+    private volatile boolean resetRequested = false;
+
+    public SessionMetrics() {
+        this(new StreamMetrics[] { new StreamMetrics("acc"), new StreamMetrics("mag"),
+                new StreamMetrics("gyro") });
+    }
+
+    private SessionMetrics(StreamMetrics[] streams) {
+        this.streams = streams;
+    }
+
+    /**
+     * The metrics for one sensor (a SensorTypes constant), or null if it isn't one we use.
+     */
+    public StreamMetrics stream(int sensorType) {
+        switch (sensorType) {
+            case SensorTypes.ACCELEROMETER:
+                return streams[0];
+            case SensorTypes.MAGNETIC_FIELD:
+                return streams[1];
+            case SensorTypes.GYROSCOPE:
+                return streams[2];
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Use the profile's sampling periods to estimate missed readings. Call on the sensor thread.
+     */
+    public void setRequestedPeriods(RecordingProfile profile) {
+        streams[0].requestedPeriod = 1000L * profile.accPeriod;
+        streams[1].requestedPeriod = 1000L * profile.magPeriod;
+        streams[2].requestedPeriod = 1000L * profile.gyroPeriod;
+    }
+
+    /**
+     * Start counting again from the next reading. This can be called from any thread; the
+     * counters are actually reset on the sensor thread, so that nothing needs locking.
+     */
+    public void requestReset() {
+        resetRequested = true;
+    }
+
+    /**
+     * Count a reading (see StreamMetrics.record()). Call on the sensor thread.
+     */
+    public void record(int sensorType, long timestamp, long receivedAt, long finishedAt,
+                       boolean wasLogged) {
+        if (resetRequested) {
+            resetRequested = false;
+            for (StreamMetrics stream : streams) {
+                stream.clear();
+            }
+        }
+
+        StreamMetrics stream = stream(sensorType);
+        if (stream != null) {
+            stream.record(timestamp, receivedAt, finishedAt, wasLogged);
+        }
+    }
+
+    public void writeJson(JsonStreamWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("streams");
+        writer.beginArray();
+        for (StreamMetrics stream : streams) {
+            writer.beginObject();
+            writer.name("sensor").value(stream.name);
+            writer.name("requested_period_us").value(stream.requestedPeriod / 1000);
+            writer.name("received").value(stream.received);
+            writer.name("logged").value(stream.logged);
+            if (stream.requestedPeriod > 0) {
+                writer.name("estimated_missed").value(stream.missed);
+            }
+            writeSummary(writer, "interval_us", stream.interval);
+            writeSummary(writer, "latency_us", stream.latency);
+            writeSummary(writer, "handling_us", stream.handling);
+            writer.endObject();
+        }
+        writer.endArray();
+
+        if (queueOverflows > 0) {
+            writer.name("queue_overflows").value(queueOverflows);
+            writer.name("queue_dropped").value(queueDropped);
+        }
+        if (pauses.count() > 0) {
+            writer.name("long_pauses").value(pauses.countAtLeast(LONG_PAUSE));
+            writeSummary(writer, "pause_us", pauses);
+        }
+        writer.endObject();
+    }
+
+    private static void writeSummary(JsonStreamWriter writer, String name, LogLinearHistogram h)
+            throws IOException {
+        writer.name(name);
+        writer.beginObject();
+        writer.name("count").value(h.count());
+        writer.name("mean").value(h.mean() / 1000);
+        writer.name("p50").value(h.percentile(50) / 1000.0);
+        writer.name("p90").value(h.percentile(90) / 1000.0);
+        writer.name("p99").value(h.percentile(99) / 1000.0);
+        writer.name("p99_9").value(h.percentile(99.9) / 1000.0);
+        writer.name("max").value(h.max() / 1000.0);
+        writer.endObject();
+    }
+
+    /**
+     * A summary to show on screen.
+     */
+    public String format() {
+        StringBuilder s = new StringBuilder();
+        for (StreamMetrics stream : streams) {
+            if (stream.received == 0) {
+                continue;
+            }
+            s.append(String.format(Locale.UK, "%s: %d received, %d logged", stream.name,
+                    stream.received, stream.logged));
+            if (stream.requestedPeriod > 0) {
+                s.append(String.format(Locale.UK, ", ~%d missed", stream.missed));
+            }
+            s.append(String.format(Locale.UK,
+                    "\n  interval: median %.1f ms, 99%% %.1f ms, max %.1f ms"
+                            + "\n  latency: median %.1f ms, 99%% %.1f ms"
+                            + "\n  handling: median %.0f µs, 99%% %.0f µs, max %.0f µs\n\n",
+                    stream.interval.percentile(50) / 1e6, stream.interval.percentile(99) / 1e6,
+                    stream.interval.max() / 1e6, stream.latency.percentile(50) / 1e6,
+                    stream.latency.percentile(99) / 1e6, stream.handling.percentile(50) / 1e3,
+                    stream.handling.percentile(99) / 1e3, stream.handling.max() / 1e3));
+        }
+        if (s.length() == 0) {
+            s.append("No sensor readings yet\n\n");
+        }
+
+        if (pauses.count() > 0) {
+            s.append(String.format(Locale.UK, "pauses: %d over %d ms, longest %.1f ms",
+                    pauses.countAtLeast(LONG_PAUSE), LONG_PAUSE / 1000000, pauses.max() / 1e6));
+        } else {
+            s.append("pauses: only measured while recording");
+        }
+        return s.toString();
+    }
+
+    public int serializedSize() {
+        int size = pauses.serializedSize();
+        for (StreamMetrics stream : streams) {
+            size += stream.serializedSize();
+        }
+        return size;
+    }
+
+    /**
+     * Save the metrics in binary form, for BinaryFormat's metrics block.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        for (StreamMetrics stream : streams) {
+            stream.writeTo(buffer);
+        }
+        pauses.writeTo(buffer);
+    }
+
+    public static SessionMetrics readFrom(ByteBuffer buffer, int streamCount) {
+        StreamMetrics[] streams = new StreamMetrics[streamCount];
+        for (int i = 0; i < streamCount; i++) {
+            streams[i] = StreamMetrics.readFrom(buffer);
+        }
+        SessionMetrics metrics = new SessionMetrics(streams);
+        metrics.pauses.readFrom(buffer);
+        return metrics;
+    }
+}
@@ -0,0 +1,232 @@
+package uk.ac.sussex.bee_labe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compact encoding for the packed blocks of the binary format. Timestamps are stored as the
+ * change in the interval since the previous sample (delta-of-delta), which is close to zero
+ * for a steady sensor, and values as fixed-point numbers with a given resolution, each stored
+ * as the change from the previous sample. Everything is then zigzag-encoded and packed as
+ * varints (7 bits a byte), so small changes take one or two bytes instead of four or eight.
+ *
+ * Times are kept exactly, and values to within half the resolution. Each block starts from
+ * scratch and carries its resolutions, so blocks can be decoded on their own.
+ *
+ * Packed attitude block payload: angle resolution (f64, rad), then for each sample the time,
+ * yaw, pitch and roll.
+ * Packed raw block payload: a count of sensor types (u8), then for each a type (u8) and
+ * resolution (f64), then for each sample its sensor type (u8), time, x, y and z. The time and
+ * values are relative to the previous sample of the same sensor type.
+ *
+ * An instance keeps the state of the block being encoded or decoded, so each thread needs its
+ * own.
+ */
+
+public class StreamCodec {
+    // the most bytes a sample can take
+    public static final int MAX_ATTITUDE_SIZE = 4 * 10;
+    public static final int MAX_RAW_SIZE = 1 + 4 * 10;
+    public static final int ATTITUDE_HEADER_SIZE = 8;
+    public static final int MAX_RAW_HEADER_SIZE = 1 + 256 * (1 + 8);
+
+    private static final int TYPES = 256;
+
+    public final double angleResolution; // rad
+    public final double accResolution; // m/s^2
+    public final double magResolution; // µT
+    public final double gyroResolution; // rad/s
+    public final double otherResolution; // for any other sensor
+
+    // per sensor type (or just [0] for attitude) while going through a block
+    private final long[] prevTime = new long[TYPES], prevDelta = new long[TYPES];
+    private final long[][] prevValue = new long[3][TYPES];
+    private final int[] samples = new int[TYPES];
+    private final boolean[] inBlock = new boolean[TYPES];
+    private final double[] resolutions = new double[TYPES];
+
+    /**
+     * Resolutions well below the noise of phone sensors: about 0.0006 degrees for angles.
+     */
+    public StreamCodec() {
+        this(1e-5, 1e-3, 1e-2, 1e-4, 1e-4);
+    }
+
+    public StreamCodec(double angleResolution, double accResolution, double magResolution,
+                       double gyroResolution, double otherResolution) {
+        this.angleResolution = angleResolution;
+        this.accResolution = accResolution;
+        this.magResolution = magResolution;
+        this.gyroResolution = gyroResolution;
+        this.otherResolution = otherResolution;
+    }
+
+    public double rawResolution(int sensorType) {
+        switch (sensorType) {
+            case SensorTypes.ACCELEROMETER:
+                return accResolution;
+            case SensorTypes.MAGNETIC_FIELD:
+                return magResolution;
+            case SensorTypes.GYROSCOPE:
+                return gyroResolution;
+            default:
+                return otherResolution;
+        }
+    }
+
+    /**
+     * Encode samples [from, to) of the log, with times relative to startTime. There must be at
+     * least ATTITUDE_HEADER_SIZE + (to - from) * MAX_ATTITUDE_SIZE bytes left in the buffer.
+     */
+    public void encodeAttitude(ByteBuffer out, AttitudeLog log, int from, int to, long startTime) {
+        double resolution = angleResolution;
+        out.putDouble(resolution);
+        reset(0);
+        for (int i = from; i < to; i++) {
+            putTime(out, 0, log.getTime(i) - startTime);
+            putValue(out, 0, 0, log.getYaw(i), resolution);
+            putValue(out, 1, 0, log.getPitch(i), resolution);
+            putValue(out, 2, 0, log.getRoll(i), resolution);
+        }
+    }
+
+    /**
+     * Encode samples [from, to) of the log, with times relative to startTime. There must be at
+     * least MAX_RAW_HEADER_SIZE + (to - from) * MAX_RAW_SIZE bytes left in the buffer.
+     */
+    public void encodeRaw(ByteBuffer out, RawLog log, int from, int to, long startTime) {
+        // which sensors are in this block
+        int countPosition = out.position();
+        out.put((byte) 0);
+        int types = 0;
+        for (int i = from; i < to; i++) {
+            int type = log.getSensorType(i) & 0xFF;
+            if (!inBlock[type]) {
+                inBlock[type] = true;
+                reset(type);
+                resolutions[type] = rawResolution(type);
+                out.put((byte) type);
+                out.putDouble(resolutions[type]);
+                types++;
+            }
+        }
+        out.put(countPosition, (byte) types);
+
+        for (int i = from; i < to; i++) {
+            int type = log.getSensorType(i) & 0xFF;
+            double resolution = resolutions[type];
+            out.put((byte) type);
+            putTime(out, type, log.getTime(i) - startTime);
+            putValue(out, 0, type, log.getValue(i, 0), resolution);
+            putValue(out, 1, type, log.getValue(i, 1), resolution);
+            putValue(out, 2, type, log.getValue(i, 2), resolution);
+        }
+
+        for (int i = from; i < to; i++) {
+            inBlock[log.getSensorType(i) & 0xFF] = false;
+        }
+    }
+
+    /**
+     * Decode a packed attitude block of count samples, passing them to the visitor.
+     */
+    public void decodeAttitude(ByteBuffer in, int count, BinaryRecordingReader.Visitor visitor)
+            throws IOException {
+        double resolution = in.getDouble();
+        reset(0);
+        for (int i = 0; i < count; i++) {
+            long time = getTime(in, 0);
+            float yaw = getValue(in, 0, 0, resolution);
+            float pitch = getValue(in, 1, 0, resolution);
+            float roll = getValue(in, 2, 0, resolution);
+            visitor.onAttitude(time, yaw, pitch, roll);
+        }
+    }
+
+    /**
+     * Decode a packed raw block of count samples, passing them to the visitor.
+     */
+    public void decodeRaw(ByteBuffer in, int count, BinaryRecordingReader.Visitor visitor)
+            throws IOException {
+        int types = in.get() & 0xFF;
+        for (int i = 0; i < types; i++) {
+            int type = in.get() & 0xFF;
+            resolutions[type] = in.getDouble();
+            reset(type);
+        }
+
+        for (int i = 0; i < count; i++) {
+            int type = in.get() & 0xFF;
+            double resolution = resolutions[type];
+            long time = getTime(in, type);
+            float x = getValue(in, 0, type, resolution);
+            float y = getValue(in, 1, type, resolution);
+            float z = getValue(in, 2, type, resolution);
+            visitor.onRaw(time, type, x, y, z);
+        }
+    }
+
+    private void reset(int stream) {
+        prevTime[stream] = 0;
+        prevDelta[stream] = 0;
+        prevValue[0][stream] = prevValue[1][stream] = prevValue[2][stream] = 0;
+        samples[stream] = 0;
+    }
+
+    // the first time in a block is stored as it is, the second as a delta, and the rest as
+    // deltas of deltas
+    private void putTime(ByteBuffer out, int stream, long time) {
+        long delta = time - prevTime[stream];
+        putVarLong(out, zigzag(delta - prevDelta[stream]));
+        prevDelta[stream] = samples[stream]++ == 0 ? 0 : delta;
+        prevTime[stream] = time;
+    }
+
+    private long getTime(ByteBuffer in, int stream) {
+        long delta = unzigzag(getVarLong(in)) + prevDelta[stream];
+        long time = prevTime[stream] + delta;
+        prevDelta[stream] = samples[stream]++ == 0 ? 0 : delta;
+        prevTime[stream] = time;
+        return time;
+    }
+
+    private void putValue(ByteBuffer out, int axis, int stream, float value, double resolution) {
+        long q = Math.round(value / resolution);
+        putVarLong(out, zigzag(q - prevValue[axis][stream]));
+        prevValue[axis][stream] = q;
+    }
+
+    private float getValue(ByteBuffer in, int axis, int stream, double resolution) {
+        long q = prevValue[axis][stream] + unzigzag(getVarLong(in));
+        prevValue[axis][stream] = q;
+        return (float) (q * resolution);
+    }
+
+    static long zigzag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    static long unzigzag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    static void putVarLong(ByteBuffer out, long n) {
+        while ((n & ~0x7FL) != 0) {
+            out.put((byte) ((n & 0x7F) | 0x80));
+            n >>>= 7;
+        }
+        out.put((byte) n);
+    }
+
+    static long getVarLong(ByteBuffer in) {
+        long n = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            n |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return n;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+}
@@ -0,0 +1,102 @@
+package uk.ac.sussex.bee_labe;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Counters and timing histograms for the readings from one sensor, so we can tell whether the
+ * phone kept up: how many readings arrived and were logged, the spacing of their timestamps,
+ * how long they took to reach us and how long we took to handle them.
+ */
+
+public class StreamMetrics {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public final String name;
+
+    // the sampling period we asked for (ns), or 0 for as fast as possible
+    public long requestedPeriod;
+
+    public long received, logged;
+
+    // readings which should have arrived at the requested rate but didn't, going by the gaps
+    // between timestamps
+    public long missed;
+
+    public final LogLinearHistogram interval = new LogLinearHistogram(); // ns between readings
+    public final LogLinearHistogram latency = new LogLinearHistogram(); // ns from reading to callback
+    public final LogLinearHistogram handling = new LogLinearHistogram(); // ns spent in the callback
+
+    private long lastTimestamp = -1;
+
+    public StreamMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Count a reading. The times are all in the SensorEvent.timestamp time base (ns): when the
+     * reading was taken, when the callback started and when it finished.
+     */
+    public void record(long timestamp, long receivedAt, long finishedAt, boolean wasLogged) {
+        received++;
+        if (wasLogged) {
+            logged++;
+        }
+
+        if (lastTimestamp >= 0) {
+            long gap = timestamp - lastTimestamp;
+            interval.record(gap);
+            if (requestedPeriod > 0) {
+                // a gap of about n periods means n - 1 readings went missing
+                long periods = (gap + requestedPeriod / 2) / requestedPeriod;
+                if (periods > 1) {
+                    missed += periods - 1;
+                }
+            }
+        }
+        lastTimestamp = timestamp;
+
+        latency.record(receivedAt - timestamp);
+        handling.record(finishedAt - receivedAt);
+    }
+
+    public void clear() {
+        received = logged = missed = 0;
+        lastTimestamp = -1;
+        interval.clear();
+        latency.clear();
+        handling.clear();
+    }
+
+    public int serializedSize() {
+        return 2 + name.getBytes(UTF8).length + 4 * 8 + interval.serializedSize()
+                + latency.serializedSize() + handling.serializedSize();
+    }
+
+    public void writeTo(ByteBuffer buffer) {
+        byte[] nameBytes = name.getBytes(UTF8);
+        buffer.putShort((short) nameBytes.length);
+        buffer.put(nameBytes);
+        buffer.putLong(requestedPeriod);
+        buffer.putLong(received);
+        buffer.putLong(logged);
+        buffer.putLong(missed);
+        interval.writeTo(buffer);
+        latency.writeTo(buffer);
+        handling.writeTo(buffer);
+    }
+
+    public static StreamMetrics readFrom(ByteBuffer buffer) {
+        byte[] nameBytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(nameBytes);
+        StreamMetrics stream = new StreamMetrics(new String(nameBytes, UTF8));
+        stream.requestedPeriod = buffer.getLong();
+        stream.received = buffer.getLong();
+        stream.logged = buffer.getLong();
+        stream.missed = buffer.getLong();
+        stream.interval.readFrom(buffer);
+        stream.latency.readFrom(buffer);
+        stream.handling.readFrom(buffer);
+        return stream;
+    }
+}
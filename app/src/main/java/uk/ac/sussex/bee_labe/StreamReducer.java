@@ -0,0 +1,104 @@
+package uk.ac.sussex.bee_labe;
+
+/**
+ * Applies a StreamReduction to one stream of three-component samples, as they are logged.
+ * Each sample goes through add(), and when that returns true the sample to store is in time and
+ * values. Nothing is allocated, so this can run on the sensor thread for every reading.
+ *
+ * Any samples left in an unfinished decimation block when the recording stops are dropped.
+ */
+
+public class StreamReducer {
+    private static final double TWO_PI = 2 * Math.PI;
+
+    private final int factor;
+    private final float deadband;
+    private final long heartbeat;
+    private final boolean isAngular;
+
+    // the sample to store, when add() returns true
+    public long time;
+    public final float[] values = new float[3];
+
+    // the block being averaged, relative to its first sample
+    private int blockCount = 0;
+    private long blockStart, timeSum;
+    private final float[] blockFirst = new float[3];
+    private final double[] sums = new double[3];
+
+    private boolean hasStored = false;
+    private long storedTime;
+    private final float[] stored = new float[3];
+
+    /**
+     * @param isAngular whether the components are an attitude (rad), which is averaged and
+     *                  compared the short way round the circle; the yaw (the first component)
+     *                  is kept in [0, 2pi), as CalibrationHandler gives it, and the others in
+     *                  [-pi, pi]
+     */
+    public StreamReducer(StreamReduction reduction, boolean isAngular) {
+        factor = reduction.factor;
+        deadband = reduction.deadband;
+        heartbeat = reduction.heartbeat;
+        this.isAngular = isAngular;
+    }
+
+    public boolean add(long t, float x, float y, float z) {
+        if (factor > 1) {
+            if (blockCount == 0) {
+                blockStart = t;
+                timeSum = 0;
+                blockFirst[0] = x;
+                blockFirst[1] = y;
+                blockFirst[2] = z;
+                sums[0] = sums[1] = sums[2] = 0;
+            }
+            timeSum += t - blockStart;
+            sums[0] += difference(x, blockFirst[0]);
+            sums[1] += difference(y, blockFirst[1]);
+            sums[2] += difference(z, blockFirst[2]);
+            if (++blockCount < factor) {
+                return false;
+            }
+
+            blockCount = 0;
+            t = blockStart + timeSum / factor;
+            x = mean(0);
+            y = mean(1);
+            z = mean(2);
+        }
+
+        if (deadband > 0 && hasStored && (heartbeat == 0 || t - storedTime < heartbeat)
+                && Math.abs(difference(x, stored[0])) <= deadband
+                && Math.abs(difference(y, stored[1])) <= deadband
+                && Math.abs(difference(z, stored[2])) <= deadband) {
+            return false;
+        }
+
+        time = storedTime = t;
+        values[0] = stored[0] = x;
+        values[1] = stored[1] = y;
+        values[2] = stored[2] = z;
+        hasStored = true;
+        return true;
+    }
+
+    private float mean(int i) {
+        double mean = blockFirst[i] + sums[i] / factor;
+        if (!isAngular) {
+            return (float) mean;
+        }
+        mean = Math.IEEEremainder(mean, TWO_PI);
+        if (i == 0 && mean < 0) {
+            mean += TWO_PI;
+        }
+        float value = (float) mean;
+        // just under 2pi can round up to it
+        return i == 0 && value >= TWO_PI ? 0 : value;
+    }
+
+    private double difference(float a, float b) {
+        double d = (double) a - b;
+        return isAngular ? Math.IEEEremainder(d, TWO_PI) : d;
+    }
+}
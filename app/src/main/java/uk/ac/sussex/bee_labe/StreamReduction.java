@@ -0,0 +1,44 @@
+package uk.ac.sussex.bee_labe;
+
+/**
+ * How one stream of samples is thinned out before it is stored, so that long recordings take
+ * less space. Both steps are optional:
+ *
+ * Decimation keeps one sample in every `factor`. To stop faster movements aliasing into the
+ * stored signal, each stored sample is the mean of a block of `factor` consecutive samples (a
+ * boxcar filter, which also cancels frequencies at multiples of the stored rate), timestamped
+ * with the mean of their times.
+ *
+ * A deadband then drops samples which differ from the last one stored by no more than
+ * `deadband` in every component, unless `heartbeat` has passed since then, so that a still
+ * phone still shows up in the data. Angles are compared the short way round the circle.
+ */
+
+public class StreamReduction {
+    public static final StreamReduction NONE = new StreamReduction(1, 0, 0);
+
+    // the name of the decimation filter, as saved in the file headers
+    public static final String FILTER = "boxcar";
+
+    // keep one sample in this many (1 = all of them)
+    public final int factor;
+
+    // in the units of the stream (e.g. rad, or m/s^2 for the accelerometer); 0 = off
+    public final float deadband;
+
+    // longest time between stored samples when the deadband is on (ns; 0 = no limit)
+    public final long heartbeat;
+
+    public StreamReduction(int factor, float deadband, long heartbeat) {
+        if (factor < 1 || factor > 0xFFFF) {
+            throw new IllegalArgumentException("Decimation factor out of range: " + factor);
+        }
+        this.factor = factor;
+        this.deadband = deadband;
+        this.heartbeat = heartbeat;
+    }
+
+    public boolean isActive() {
+        return factor > 1 || deadband > 0;
+    }
+}
@@ -0,0 +1,124 @@
+package uk.ac.sussex.bee_labe;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Writes a recording to disk while it is still going on. A background thread wakes up every
+ * FLUSH_INTERVAL and appends whatever has been logged since the last batch to each of the
+ * output files, so at most one batch is lost if the app dies and stopping a recording only has
+ * to write the end of the files.
+ */
+
+public class StreamingWriter implements Runnable {
+    private static final long FLUSH_INTERVAL = 500; // ms
+
+    private final AttitudeLog dataList;
+    private final RawLog rawDataList;
+    private final RecordingSink[] sinks;
+    private int dataWritten = 0, rawWritten = 0;
+    private Thread thread;
+    private volatile boolean isRunning = false;
+    private IOException error;
+
+    public StreamingWriter(AttitudeLog dataList, RawLog rawDataList, RecordingSink... sinks) {
+        this.dataList = dataList;
+        this.rawDataList = rawDataList;
+        this.sinks = sinks;
+    }
+
+    /**
+     * Write the file headers and start appending data in the background.
+     */
+    public void start(RecordingHeader header) throws IOException {
+        try {
+            for (RecordingSink sink : sinks) {
+                sink.begin(header);
+            }
+        } catch (IOException e) {
+            closeAll();
+            throw e;
+        }
+
+        isRunning = true;
+        thread = new Thread(this, "StreamingWriter");
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (isRunning) {
+                synchronized (this) {
+                    if (isRunning) {
+                        wait(FLUSH_INTERVAL);
+                    }
+                }
+                writeBatch();
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            // we're being stopped
+        }
+    }
+
+    /**
+     * Stop the background thread, append anything logged since the last batch and the metrics
+     * (which may be null) and close the files. No more data should be logged once this has been called.
+     */
+    public void finish(Date endDate, SessionMetrics metrics) throws IOException {
+        synchronized (this) {
+            isRunning = false;
+            notify();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            closeAll();
+            throw new IOException(e);
+        }
+        if (error != null) {
+            closeAll();
+            throw error;
+        }
+
+        try {
+            writeBatch();
+            for (RecordingSink sink : sinks) {
+                sink.finish(endDate, metrics);
+            }
+        } finally {
+            closeAll();
+        }
+    }
+
+    /**
+     * The path of the first output file (for display).
+     */
+    public String getPath() {
+        return sinks[0].getPath();
+    }
+
+    private void writeBatch() throws IOException {
+        int nData = dataList.size();
+        int nRaw = rawDataList.size();
+        for (RecordingSink sink : sinks) {
+            sink.writeData(dataList, dataWritten, nData);
+            sink.writeRaw(rawDataList, rawWritten, nRaw);
+            sink.flush();
+        }
+
+        // everything up to here is on disk, so we can reuse the memory
+        dataWritten = nData;
+        rawWritten = nRaw;
+        dataList.discardBefore(dataWritten);
+        rawDataList.discardBefore(rawWritten);
+    }
+
+    private void closeAll() {
+        for (RecordingSink sink : sinks) {
+            sink.close();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package uk.ac.sussex.bee_labe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Layout of the live telemetry frames sent by TelemetryStreamer, one per UDP datagram.
+ * Everything is little-endian, as in BinaryFormat.
+ *
+ * Each frame starts with a header:
+ *   magic "BLTM" (4 bytes), version (u16), sequence number (u32, counting up from 0 when the
+ *   sender starts, so lost frames show up as gaps), samples dropped by the sender so far (u32),
+ *   base time (i64, ns, on the sensors' clock as in SensorEvent) and sample count (u16),
+ * followed by the samples, each of which is:
+ *   stream (u8; 0 for the attitude, otherwise the sensor type, as in BinaryFormat), time (i32,
+ *   us relative to the base time), x, y, z (f32; yaw, pitch and roll for the attitude).
+ * Frames are at most MAX_FRAME_SIZE bytes, so they don't get fragmented.
+ */
+
+public final class TelemetryFormat {
+    public static final byte[] MAGIC = { 'B', 'L', 'T', 'M' };
+    public static final short VERSION = 1;
+
+    public static final int HEADER_SIZE = 4 + 2 + 4 + 4 + 8 + 2; // bytes
+    public static final int SAMPLE_SIZE = 1 + 4 + 3 * 4; // bytes
+    public static final int MAX_FRAME_SIZE = 1200; // bytes
+    public static final int MAX_SAMPLES = (MAX_FRAME_SIZE - HEADER_SIZE) / SAMPLE_SIZE;
+
+    private static final int COUNT_OFFSET = HEADER_SIZE - 2;
+
+    // what the last frame read had in its header
+    public long sequence, dropped, baseTime;
+    public int count;
+
+    /**
+     * A buffer big enough for any frame, in the right byte order.
+     */
+    public static ByteBuffer allocate() {
+        return ByteBuffer.allocate(MAX_FRAME_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Clear the buffer and start a frame in it, with no samples.
+     */
+    public static void begin(ByteBuffer buffer, long sequence, long dropped, long baseTime) {
+        buffer.clear();
+        buffer.put(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putInt((int) sequence);
+        buffer.putInt((int) Math.min(dropped, 0xFFFFFFFFL));
+        buffer.putLong(baseTime);
+        buffer.putShort((short) 0);
+    }
+
+    /**
+     * Add a sample to the frame in the buffer, returning false if it's full. The time must be
+     * within about half an hour of the base time (readings from different sensors can come in
+     * a little out of order, so it may be before it).
+     */
+    public static boolean put(ByteBuffer buffer, int stream, long baseTime, long time, float x,
+                              float y, float z) {
+        int count = buffer.getShort(COUNT_OFFSET) & 0xFFFF;
+        if (count == MAX_SAMPLES) {
+            return false;
+        }
+        buffer.put((byte) stream);
+        buffer.putInt((int) ((time - baseTime) / 1000));
+        buffer.putFloat(x);
+        buffer.putFloat(y);
+        buffer.putFloat(z);
+        buffer.putShort(COUNT_OFFSET, (short) (count + 1));
+        return true;
+    }
+
+    public static int count(ByteBuffer buffer) {
+        return buffer.getShort(COUNT_OFFSET) & 0xFFFF;
+    }
+
+    /**
+     * Read a frame from the buffer (between its position and limit), keeping its header in the
+     * fields and passing each of its samples to the visitor, with their times in ns.
+     */
+    public void read(ByteBuffer buffer, SampleRing.Visitor visitor) throws IOException {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_SIZE) {
+            throw new IOException("Telemetry frame too short: " + buffer.remaining() + " bytes");
+        }
+        byte[] magic = new byte[4];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a telemetry frame");
+        }
+        int version = buffer.getShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported telemetry version: " + version);
+        }
+        sequence = buffer.getInt() & 0xFFFFFFFFL;
+        dropped = buffer.getInt() & 0xFFFFFFFFL;
+        baseTime = buffer.getLong();
+        count = buffer.getShort() & 0xFFFF;
+        if (buffer.remaining() < count * SAMPLE_SIZE) {
+            throw new IOException("Telemetry frame cut short: " + count + " samples in "
+                    + buffer.remaining() + " bytes");
+        }
+
+        for (int i = 0; i < count; i++) {
+            int stream = buffer.get() & 0xFF;
+            long time = baseTime + 1000L * buffer.getInt();
+            visitor.onSample(stream, time, buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package uk.ac.sussex.bee_labe;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Sends the attitude and raw readings as they come in to another machine (e.g. a laptop
+ * monitoring a trial), as UDP datagrams in TelemetryFormat. A receiver for the desktop is in
+ * the tools module.
+ *
+ * The sensor thread only puts samples in a SampleRing. A background thread wakes up every
+ * FRAME_INTERVAL and sends whatever has come in since as one frame, or a few if there's too
+ * much for one, so the number of packets doesn't depend on the sampling rates. Nothing is
+ * allowed to pile up if the network can't keep up: the ring overwrites its oldest samples,
+ * samples which are more than MAX_AGE behind the latest are dropped, and so is a frame which
+ * the socket has no room for. The number of samples dropped goes in each frame.
+ */
+
+public class TelemetryStreamer implements Runnable {
+    public static final int DEFAULT_PORT = 5005;
+
+    private static final long FRAME_INTERVAL = 50; // ms
+    private static final int MAX_FRAMES = 4; // per interval
+    private static final long MAX_AGE = 250000000; // ns
+    private static final int RING_CAPACITY = 1 << 10; // samples
+
+    public final String host;
+    public final int port;
+    private final SampleRing ring = new SampleRing(RING_CAPACITY, SampleRing.DROP_OLDEST);
+    // time of the latest sample (producer only)
+    private volatile long latestTime = 0;
+
+    private Thread thread;
+    private volatile boolean isRunning = false;
+
+    // the rest is only used by the sending thread
+    private DatagramChannel channel;
+    private final ByteBuffer frame = TelemetryFormat.allocate();
+    private long sequence = 0, baseTime;
+    private int framesThisInterval;
+    private long oldestWanted;
+
+    // samples which were too old or for which there was no room in a frame or the socket
+    private volatile long staleSamples = 0;
+    // frames sent, and dropped because the socket had no room for them
+    public volatile long framesSent = 0, framesDropped = 0;
+
+    public TelemetryStreamer(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Parse a target typed in by the user: "host" or "host:port", with an IPv6 address in
+     * brackets (e.g. "[fe80::1]:5005"), as otherwise its last part would be taken for the
+     * port. The port is DEFAULT_PORT if it's not given. Returns null if it isn't valid; the
+     * host isn't looked up.
+     */
+    public static InetSocketAddress parseTarget(String target) {
+        String host = target;
+        String port = null;
+        if (target.startsWith("[")) {
+            int end = target.indexOf(']');
+            if (end == -1) {
+                return null;
+            }
+            host = target.substring(1, end);
+            String rest = target.substring(end + 1);
+            if (rest.startsWith(":")) {
+                port = rest.substring(1);
+            } else if (!rest.isEmpty()) {
+                return null;
+            }
+        } else {
+            int colon = target.indexOf(':');
+            if (colon != -1) {
+                if (target.indexOf(':', colon + 1) != -1) {
+                    // an IPv6 address without brackets
+                    return null;
+                }
+                host = target.substring(0, colon);
+                port = target.substring(colon + 1);
+            }
+        }
+
+        int number = DEFAULT_PORT;
+        if (port != null) {
+            try {
+                number = Integer.parseInt(port);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        if (host.isEmpty() || number <= 0 || number > 65535) {
+            return null;
+        }
+        return InetSocketAddress.createUnresolved(host, number);
+    }
+
+    /**
+     * Start sending in the background. The host is looked up on the background thread, so this
+     * can be called on the main thread.
+     */
+    public void start() {
+        isRunning = true;
+        thread = new Thread(this, "TelemetryStreamer");
+        thread.start();
+    }
+
+    /**
+     * Stop sending. Samples published after this are ignored.
+     */
+    public void stop() {
+        isRunning = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Send a sample: an attitude if stream is ReductionProfile.ATTITUDE, or otherwise a reading
+     * from that sensor type. Call from one thread only (the sensor thread); this never waits.
+     */
+    public void publish(int stream, long time, float x, float y, float z) {
+        latestTime = time;
+        ring.offer(stream, time, x, y, z);
+    }
+
+    public void publish(long time, Attitude attitude) {
+        publish(ReductionProfile.ATTITUDE, time, attitude.yaw, attitude.pitch, attitude.roll);
+    }
+
+    /**
+     * Number of samples which weren't sent, because they got too old or there was no room.
+     */
+    public long getDroppedSamples() {
+        return ring.getDropped() + staleSamples;
+    }
+
+    @Override
+    public void run() {
+        try {
+            connect();
+            while (isRunning) {
+                Thread.sleep(FRAME_INTERVAL);
+                sendFrames();
+            }
+        } catch (IOException e) {
+            // nowhere to send to; publish() will just overwrite the ring
+        } catch (InterruptedException e) {
+            // we're being stopped
+        } finally {
+            isRunning = false;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // nothing to be done
+                }
+            }
+        }
+    }
+
+    void connect() throws IOException {
+        channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.connect(new InetSocketAddress(host, port));
+    }
+
+    /**
+     * Send whatever has come in since last time, in up to MAX_FRAMES frames.
+     */
+    void sendFrames() {
+        oldestWanted = latestTime - MAX_AGE;
+        framesThisInterval = 0;
+        frame.clear();
+        while (ring.drain(coalesce) > 0) {
+            // keep going until it's empty
+        }
+        if (frame.position() > 0) {
+            send();
+        }
+    }
+
+    private final SampleRing.Visitor coalesce = new SampleRing.Visitor() {
+        @Override
+        public void onSample(int stream, long time, float x, float y, float z) {
+            if (time < oldestWanted || framesThisInterval == MAX_FRAMES) {
+                staleSamples++;
+                return;
+            }
+            if (frame.position() == 0) {
+                baseTime = time;
+                TelemetryFormat.begin(frame, sequence, getDroppedSamples(), baseTime);
+            }
+            TelemetryFormat.put(frame, stream, baseTime, time, x, y, z);
+            if (TelemetryFormat.count(frame) == TelemetryFormat.MAX_SAMPLES) {
+                send();
+            }
+        }
+    };
+
+    private void send() {
+        frame.flip();
+        int count = TelemetryFormat.count(frame);
+        boolean sent;
+        try {
+            sent = channel.write(frame) > 0;
+        } catch (IOException e) {
+            // e.g. nothing listening at the other end yet, on some systems
+            sent = false;
+        }
+        if (sent) {
+            framesSent++;
+        } else {
+            framesDropped++;
+            staleSamples += count;
+        }
+        sequence++;
+        framesThisInterval++;
+        frame.clear();
+    }
+}
@@ -0,0 +1,236 @@
+package uk.ac.sussex.bee_labe;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+
+/**
+ * Writes zip archives from entries which have already been deflated, so that files can be
+ * compressed in parallel and added as each one is ready. It can also add entries to the end of
+ * an archive it wrote before without touching what's already there.
+ *
+ * Only what we need is supported: deflated entries, no zip64 (so entries and archives must be
+ * under 4 GB) and no archive comment.
+ */
+
+public class ZipAppender implements Closeable {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_RECORD = 0x06054b50;
+    private static final int END_RECORD_SIZE = 22; // bytes
+    private static final short VERSION = 20; // 2.0, for deflate
+    private static final short FLAGS = 0x0800; // names are UTF-8
+    private static final short DEFLATED = 8;
+    private static final long MAX_SIZE = 0xFFFFFFFFL;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    // the central directory, which is kept in memory and written out by finish()
+    private ByteBuffer central;
+    private int count;
+    private long offset; // where the next entry goes
+
+    private ZipAppender(File file) throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+    }
+
+    /**
+     * Start a new, empty archive, replacing any existing file.
+     */
+    public static ZipAppender create(File file) throws IOException {
+        ZipAppender zip = new ZipAppender(file);
+        zip.raf.setLength(0);
+        zip.central = newBuffer(64 * 1024);
+        return zip;
+    }
+
+    /**
+     * Open an archive written by this class to add more entries to it. New entries are written
+     * over the old central directory, so the archive is unreadable until finish() is called.
+     */
+    public static ZipAppender append(File file) throws IOException {
+        ZipAppender zip = new ZipAppender(file);
+        try {
+            zip.readCentralDirectory();
+        } catch (IOException e) {
+            zip.close();
+            throw e;
+        }
+        return zip;
+    }
+
+    /**
+     * Add an entry whose compressed data are in the given file (raw deflate, with no zlib
+     * header, as written by a Deflater with nowrap set).
+     */
+    public void addEntry(String name, long time, long crc, long size, File deflated)
+            throws IOException {
+        long compressedSize = deflated.length();
+        if (size > MAX_SIZE || compressedSize > MAX_SIZE || offset > MAX_SIZE) {
+            throw new IOException("Too big for a zip archive: " + name);
+        }
+        if (count == 0xFFFF) {
+            throw new IOException("Too many files for a zip archive");
+        }
+
+        byte[] nameBytes = name.getBytes(UTF8);
+        int dosTime = dosTime(time);
+
+        ByteBuffer local = newBuffer(30 + nameBytes.length);
+        local.putInt(LOCAL_HEADER);
+        local.putShort(VERSION);
+        local.putShort(FLAGS);
+        local.putShort(DEFLATED);
+        local.putInt(dosTime);
+        local.putInt((int) crc);
+        local.putInt((int) compressedSize);
+        local.putInt((int) size);
+        local.putShort((short) nameBytes.length);
+        local.putShort((short) 0); // extra field length
+        local.put(nameBytes);
+        local.flip();
+        writeFully(local, offset);
+
+        FileChannel in = new RandomAccessFile(deflated, "r").getChannel();
+        try {
+            long position = offset + local.limit();
+            long done = 0;
+            while (done < compressedSize) {
+                done += in.transferTo(done, compressedSize - done, channel.position(position + done));
+            }
+        } finally {
+            in.close();
+        }
+
+        ensureCentralSpace(46 + nameBytes.length);
+        central.putInt(CENTRAL_HEADER);
+        central.putShort(VERSION); // made by
+        central.putShort(VERSION); // needed to extract
+        central.putShort(FLAGS);
+        central.putShort(DEFLATED);
+        central.putInt(dosTime);
+        central.putInt((int) crc);
+        central.putInt((int) compressedSize);
+        central.putInt((int) size);
+        central.putShort((short) nameBytes.length);
+        central.putShort((short) 0); // extra field length
+        central.putShort((short) 0); // comment length
+        central.putShort((short) 0); // disk number
+        central.putShort((short) 0); // internal attributes
+        central.putInt(0); // external attributes
+        central.putInt((int) offset);
+        central.put(nameBytes);
+
+        offset += local.limit() + compressedSize;
+        count++;
+    }
+
+    /**
+     * Write the central directory, returning the length of the finished archive.
+     */
+    public long finish() throws IOException {
+        if (offset > MAX_SIZE) {
+            throw new IOException("Too big for a zip archive");
+        }
+
+        ByteBuffer dir = central.duplicate();
+        dir.flip();
+        int dirSize = dir.remaining();
+        writeFully(dir, offset);
+
+        ByteBuffer end = newBuffer(END_RECORD_SIZE);
+        end.putInt(END_RECORD);
+        end.putShort((short) 0); // this disk
+        end.putShort((short) 0); // disk with the central directory
+        end.putShort((short) count);
+        end.putShort((short) count);
+        end.putInt(dirSize);
+        end.putInt((int) offset);
+        end.putShort((short) 0); // comment length
+        end.flip();
+        writeFully(end, offset + dirSize);
+
+        long length = offset + dirSize + END_RECORD_SIZE;
+        raf.setLength(length);
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    private void readCentralDirectory() throws IOException {
+        long length = channel.size();
+        ByteBuffer end = newBuffer(END_RECORD_SIZE);
+        if (length < END_RECORD_SIZE || !readFully(end, length - END_RECORD_SIZE)
+                || end.getInt(0) != END_RECORD) {
+            throw new IOException("Not an archive which can be added to");
+        }
+
+        count = end.getShort(10) & 0xFFFF;
+        long dirSize = end.getInt(12) & MAX_SIZE;
+        offset = end.getInt(16) & MAX_SIZE;
+        if (offset + dirSize + END_RECORD_SIZE != length) {
+            throw new IOException("Not an archive which can be added to");
+        }
+
+        central = newBuffer((int) dirSize + 64 * 1024);
+        central.limit((int) dirSize);
+        if (!readFully(central, offset)) {
+            throw new IOException("Not an archive which can be added to");
+        }
+        central.limit(central.capacity());
+    }
+
+    private void ensureCentralSpace(int bytes) {
+        if (central.remaining() < bytes) {
+            ByteBuffer bigger = newBuffer(Math.max(2 * central.capacity(), central.position() + bytes));
+            central.flip();
+            bigger.put(central);
+            central = bigger;
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private boolean readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                return false;
+            }
+            position += n;
+        }
+        return true;
+    }
+
+    private static ByteBuffer newBuffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // MS-DOS date and time, as used in zip headers (time in the low half, date in the high half)
+    private static int dosTime(long time) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(time);
+        int year = c.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25 | (c.get(Calendar.MONTH) + 1) << 21
+                | c.get(Calendar.DAY_OF_MONTH) << 16 | c.get(Calendar.HOUR_OF_DAY) << 11
+                | c.get(Calendar.MINUTE) << 5 | c.get(Calendar.SECOND) >> 1;
+    }
+}
@@ -0,0 +1,26 @@
+package uk.ac.sussex.bee_labe;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Counts the bytes allocated by the current thread, using HotSpot's ThreadMXBean extension.
+ */
+
+class AllocationCounter {
+    private final com.sun.management.ThreadMXBean bean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final long threadId = Thread.currentThread().getId();
+    private long start;
+
+    AllocationCounter() {
+        bean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    void start() {
+        start = bean.getThreadAllocatedBytes(threadId);
+    }
+
+    long allocatedBytes() {
+        return bean.getThreadAllocatedBytes(threadId) - start;
+    }
+}
@@ -0,0 +1,163 @@
+package uk.ac.sussex.bee_labe;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AttitudeEstimatorTest {
+    private static final float[] GRAVITY = { 0, 0, 9.81f }; // world coordinates
+    private static final float[] FIELD = { 0, 20, -40 }; // µT, world coordinates
+    private static final long GYRO_PERIOD = 5000000; // ns
+    private static final long ACC_PERIOD = 5000000; // ns
+    private static final long MAG_PERIOD = 20000000; // ns
+
+    @Test
+    public void quaternionsRoundTrip() throws Exception {
+        Random random = new Random(1);
+        float[] q = new float[4], q2 = new float[4], R = new float[9];
+        for (int i = 0; i < 1000; i++) {
+            for (int j = 0; j < 4; j++) {
+                q[j] = (float) random.nextGaussian();
+            }
+            Rotations.normalize(q);
+            Rotations.quaternionToMatrix(q, R);
+            Rotations.matrixToQuaternion(R, q2);
+
+            // q and -q are the same rotation
+            float dot = q[0] * q2[0] + q[1] * q2[1] + q[2] * q2[2] + q[3] * q2[3];
+            assertEquals(1, Math.abs(dot), 1e-5);
+        }
+    }
+
+    @Test
+    public void rotationMatrixFromSensors() throws Exception {
+        float[] R = new float[9], orient = new float[3];
+
+        // lying flat, pointing north
+        assertTrue(Rotations.getRotationMatrix(R, GRAVITY, FIELD));
+        assertArrayEquals(new float[] { 1, 0, 0, 0, 1, 0, 0, 0, 1 }, R, 1e-6f);
+        Rotations.getOrientation(R, orient);
+        assertArrayEquals(new float[] { 0, 0, 0 }, orient, 1e-6f);
+
+        // free fall
+        assertFalse(Rotations.getRotationMatrix(R, new float[] { 0, 0, 0.5f }, FIELD));
+    }
+
+    @Test
+    public void estimatorsFollowNoiseFreeMotion() throws Exception {
+        for (int i = 0; i < AttitudeEstimators.NAMES.length; i++) {
+            double error = rmsError(AttitudeEstimators.create(i), 0, 0);
+            assertTrue(AttitudeEstimators.NAMES[i] + " error: " + error, error < 0.01);
+        }
+    }
+
+    @Test
+    public void gyroFiltersReduceNoise() throws Exception {
+        double accMag = rmsError(new AccelMagEstimator(), 0.5, 2);
+        double complementary = rmsError(new ComplementaryFilter(), 0.5, 2);
+        double ekf = rmsError(new QuaternionEkf(), 0.5, 2);
+
+        assertTrue("complementary " + complementary + " vs " + accMag, complementary < accMag / 2);
+        assertTrue("EKF " + ekf + " vs " + accMag, ekf < accMag / 2);
+    }
+
+    @Test
+    public void resetForgetsState() throws Exception {
+        AttitudeEstimator estimator = new QuaternionEkf();
+        assertFalse(estimator.update(SensorTypes.GYROSCOPE, 0, 0, 0, 1));
+        assertFalse(estimator.update(SensorTypes.ACCELEROMETER, 0, 0, 0, 9.81f));
+        assertTrue(estimator.update(SensorTypes.MAGNETIC_FIELD, 0, 0, 20, -40));
+        estimator.reset();
+        assertFalse(estimator.update(SensorTypes.ACCELEROMETER, 0, 0, 0, 9.81f));
+    }
+
+    /**
+     * Run the estimator over 20 s of the phone turning steadily about the vertical while
+     * rocking in pitch, and return the RMS error in yaw, pitch and roll (rad) over the last 15 s.
+     */
+    private static double rmsError(AttitudeEstimator estimator, double accNoise, double magNoise) {
+        Random random = new Random(42);
+        float[] R = new float[9], v = new float[3], orient = new float[3], truth = new float[3];
+        double sumSq = 0;
+        int count = 0;
+
+        long nextGyro = 0, nextAcc = 1000, nextMag = 2000;
+        while (nextGyro < 20000000000L) {
+            int type;
+            long t;
+            if (nextGyro <= nextAcc && nextGyro <= nextMag) {
+                type = SensorTypes.GYROSCOPE;
+                t = nextGyro;
+                nextGyro += GYRO_PERIOD;
+            } else if (nextAcc <= nextMag) {
+                type = SensorTypes.ACCELEROMETER;
+                t = nextAcc;
+                nextAcc += ACC_PERIOD;
+            } else {
+                type = SensorTypes.MAGNETIC_FIELD;
+                t = nextMag;
+                nextMag += MAG_PERIOD;
+            }
+
+            // R = Rz(yaw) Rx(pitch)
+            double s = t * 1e-9;
+            double yaw = 0.5 * s, pitch = 0.3 * Math.sin(s);
+            double yawRate = 0.5, pitchRate = 0.3 * Math.cos(s);
+            truthMatrix(yaw, pitch, R);
+
+            switch (type) {
+                case SensorTypes.GYROSCOPE:
+                    estimator.update(type, t, (float) pitchRate, (float) (yawRate * Math.sin(pitch)),
+                            (float) (yawRate * Math.cos(pitch)));
+                    break;
+                case SensorTypes.ACCELEROMETER:
+                    toDevice(R, GRAVITY, v);
+                    estimator.update(type, t, noisy(v[0], accNoise, random),
+                            noisy(v[1], accNoise, random), noisy(v[2], accNoise, random));
+                    break;
+                default:
+                    toDevice(R, FIELD, v);
+                    estimator.update(type, t, noisy(v[0], magNoise, random),
+                            noisy(v[1], magNoise, random), noisy(v[2], magNoise, random));
+            }
+
+            if (type == SensorTypes.GYROSCOPE && s > 5) {
+                estimator.getOrientation(orient);
+                Rotations.getOrientation(R, truth);
+                for (int i = 0; i < 3; i++) {
+                    double d = Math.IEEEremainder(orient[i] - truth[i], 2 * Math.PI);
+                    sumSq += d * d;
+                    count++;
+                }
+            }
+        }
+
+        return Math.sqrt(sumSq / count);
+    }
+
+    private static void truthMatrix(double yaw, double pitch, float[] R) {
+        double cy = Math.cos(yaw), sy = Math.sin(yaw), cp = Math.cos(pitch), sp = Math.sin(pitch);
+        R[0] = (float) cy;
+        R[1] = (float) (-sy * cp);
+        R[2] = (float) (sy * sp);
+        R[3] = (float) sy;
+        R[4] = (float) (cy * cp);
+        R[5] = (float) (-cy * sp);
+        R[6] = 0;
+        R[7] = (float) sp;
+        R[8] = (float) cp;
+    }
+
+    // v = R' w
+    private static void toDevice(float[] R, float[] w, float[] v) {
+        for (int i = 0; i < 3; i++) {
+            v[i] = R[i] * w[0] + R[3 + i] * w[1] + R[6 + i] * w[2];
+        }
+    }
+
+    private static float noisy(float x, double sd, Random random) {
+        return (float) (x + sd * random.nextGaussian());
+    }
+}
@@ -0,0 +1,54 @@
+package uk.ac.sussex.bee_labe;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AttitudeFormatterTest {
+    @Test
+    public void matchesToString() throws Exception {
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(Locale.UK);
+        try {
+            AttitudeFormatter formatter = new AttitudeFormatter();
+            Random random = new Random(42);
+            for (int i = 0; i < 10000; i++) {
+                Attitude att = new Attitude((float) (2 * Math.PI * random.nextDouble()),
+                        (float) (Math.PI * (2 * random.nextDouble() - 1)),
+                        (float) (Math.PI * (2 * random.nextDouble() - 1)));
+                int length = formatter.format(att);
+                assertEquals(att.toString(), new String(formatter.getBuffer(), 0, length));
+            }
+
+            Attitude att = new Attitude(0, -0.00001f, (float) Math.PI);
+            int length = formatter.format(att);
+            assertEquals(att.toString(), new String(formatter.getBuffer(), 0, length));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    public void formatDoesNotAllocate() throws Exception {
+        AttitudeFormatter formatter = new AttitudeFormatter();
+        Attitude att = new Attitude(1, -0.5f, 0.25f);
+        AllocationCounter counter = new AllocationCounter();
+
+        for (int i = 0; i < 100000; i++) {
+            formatter.format(att);
+        }
+
+        int n = 10000;
+        counter.start();
+        for (int i = 0; i < n; i++) {
+            att.yaw = 0.001f * i;
+            formatter.format(att);
+        }
+        long allocated = counter.allocatedBytes();
+
+        assertTrue("allocated " + allocated + " bytes for " + n + " updates", allocated < n);
+    }
+}
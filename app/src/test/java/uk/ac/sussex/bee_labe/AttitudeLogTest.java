@@ -0,0 +1,83 @@
+package uk.ac.sussex.bee_labe;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AttitudeLogTest {
+    @Test
+    public void storesSamplesAcrossChunks() throws Exception {
+        AttitudeLog log = new AttitudeLog();
+        int n = 3 * AttitudeLog.CHUNK_SIZE + 17;
+        for (int i = 0; i < n; i++) {
+            log.append(i * 1000L, i, -i, 0.5f * i);
+        }
+
+        assertEquals(n, log.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(i * 1000L, log.getTime(i));
+            assertEquals(i, log.getYaw(i), 0);
+            assertEquals(-i, log.getPitch(i), 0);
+            assertEquals(0.5f * i, log.getRoll(i), 0);
+        }
+
+        log.clear();
+        assertEquals(0, log.size());
+        log.append(42, 1, 2, 3);
+        assertEquals(42, log.getTime(0));
+        assertEquals(1, log.size());
+    }
+
+    @Test
+    public void appendDoesNotAllocatePerSample() throws Exception {
+        AttitudeLog log = new AttitudeLog();
+        AllocationCounter counter = new AllocationCounter();
+
+        // warm up so that the JIT has compiled append() and the first chunk exists
+        for (int i = 0; i < 20; i++) {
+            log.clear();
+            for (int j = 0; j < AttitudeLog.CHUNK_SIZE; j++) {
+                log.append(j, 1, 2, 3);
+            }
+        }
+        log.clear();
+        log.append(0, 1, 2, 3);
+
+        int n = AttitudeLog.CHUNK_SIZE - 1;
+        counter.start();
+        for (int i = 0; i < n; i++) {
+            log.append(i, 1, 2, 3);
+        }
+        long allocated = counter.allocatedBytes();
+
+        assertTrue("allocated " + allocated + " bytes for " + n + " samples", allocated < n);
+    }
+
+    @Test
+    public void discardedChunksAreReused() throws Exception {
+        AttitudeLog log = new AttitudeLog();
+        AllocationCounter counter = new AllocationCounter();
+
+        // fill a couple of chunks so there is something in the pool
+        for (int i = 0; i < 2 * AttitudeLog.CHUNK_SIZE; i++) {
+            log.append(i, 0, 0, 0);
+        }
+        log.discardBefore(log.size());
+
+        // keep a writer's worth of samples behind, as the streaming writer does
+        int n = 64 * AttitudeLog.CHUNK_SIZE;
+        counter.start();
+        for (int i = 0; i < n; i++) {
+            log.append(i, 0, 0, 0);
+            if ((i & 1023) == 0) {
+                log.discardBefore(log.size());
+            }
+        }
+        long allocated = counter.allocatedBytes();
+
+        // only the chunk index should grow: that's less than a single chunk of timestamps
+        assertTrue("allocated " + allocated + " bytes for " + n + " samples",
+                allocated < 8 * AttitudeLog.CHUNK_SIZE);
+        assertEquals(n - 1, log.getTime(log.size() - 1));
+    }
+}
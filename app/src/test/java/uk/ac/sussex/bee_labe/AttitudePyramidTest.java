@@ -0,0 +1,201 @@
+package uk.ac.sussex.bee_labe;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class AttitudePyramidTest {
+    private static final long PERIOD = 10000000; // ns
+    private static final int SAMPLES = 100000; // over 16 minutes
+
+    @Test
+    public void buildsLevels() {
+        AttitudePyramid pyramid = build();
+        assertEquals(SAMPLES, total(pyramid, 0));
+        assertEquals((SAMPLES - 1) * PERIOD / AttitudePyramid.bucketLength(0) + 1, pyramid.size(0));
+
+        // each bucket is its two halves from the level below
+        for (int level = 1; level < AttitudePyramid.LEVELS; level++) {
+            assertEquals(SAMPLES, total(pyramid, level));
+            for (int bucket = 0; bucket < pyramid.size(level); bucket++) {
+                int first = 2 * bucket, second = 2 * bucket + 1;
+                int n1 = pyramid.getCount(level - 1, first);
+                int n2 = second < pyramid.size(level - 1) ? pyramid.getCount(level - 1, second) : 0;
+                assertEquals(n1 + n2, pyramid.getCount(level, bucket));
+                for (int field = 0; field < 3; field++) {
+                    float min = pyramid.getValue(level - 1, first, AttitudePyramid.MIN + field);
+                    float max = pyramid.getValue(level - 1, first, AttitudePyramid.MAX + field);
+                    double sum = n1 * pyramid.getValue(level - 1, first, AttitudePyramid.MEAN + field);
+                    if (n2 > 0) {
+                        min = Math.min(min, pyramid.getValue(level - 1, second, AttitudePyramid.MIN + field));
+                        max = Math.max(max, pyramid.getValue(level - 1, second, AttitudePyramid.MAX + field));
+                        sum += n2 * pyramid.getValue(level - 1, second, AttitudePyramid.MEAN + field);
+                    }
+                    assertEquals(min, pyramid.getValue(level, bucket, AttitudePyramid.MIN + field), 0);
+                    assertEquals(max, pyramid.getValue(level, bucket, AttitudePyramid.MAX + field), 0);
+                    double mean = sum / (n1 + n2);
+                    assertEquals(mean, pyramid.getValue(level, bucket, AttitudePyramid.MEAN + field),
+                            1e-5 + 1e-4 * Math.abs(mean));
+                }
+            }
+        }
+
+        // the top level has it all in one bucket
+        int top = AttitudePyramid.LEVELS - 1;
+        assertEquals(1, pyramid.size(top));
+        assertEquals(0, pyramid.getValue(top, 0, AttitudePyramid.MIN), 0);
+        assertEquals(SAMPLES - 1, pyramid.getValue(top, 0, AttitudePyramid.MAX), 0);
+        assertEquals((SAMPLES - 1) / 2.0, pyramid.getValue(top, 0, AttitudePyramid.MEAN), 5);
+        assertEquals(0.5f, pyramid.getValue(top, 0, AttitudePyramid.MEAN + 1), 1e-6);
+    }
+
+    @Test
+    public void leavesGapsEmpty() {
+        AttitudePyramid pyramid = new AttitudePyramid();
+        pyramid.add(-5, 1, 2, 3);
+        pyramid.add(10 * AttitudePyramid.bucketLength(0), 4, 5, 6);
+        assertEquals(11, pyramid.size(0));
+        // the one from before the start goes in the first bucket
+        assertEquals(1, pyramid.getCount(0, 0));
+        assertEquals(0, pyramid.getCount(0, 5));
+        assertTrue(Float.isNaN(pyramid.getValue(0, 5, AttitudePyramid.MEAN)));
+        assertEquals(2, pyramid.getCount(4, 0));
+
+        // and the empty buckets take little room
+        ByteBuffer buffer = ByteBuffer.allocate(pyramid.serializedSize()).order(ByteOrder.LITTLE_ENDIAN);
+        pyramid.writeTo(buffer);
+        assertEquals(1 + 11 * 4 + 2 * AttitudePyramid.VALUES * 4, buffer.position());
+        buffer.flip();
+        assertSame(pyramid, AttitudePyramid.readFrom(buffer, 11), 0);
+    }
+
+    @Test
+    public void picksLevelsByLength() {
+        long base = AttitudePyramid.bucketLength(0);
+        assertEquals(-1, AttitudePyramid.levelFor(base - 1));
+        assertEquals(0, AttitudePyramid.levelFor(base));
+        assertEquals(0, AttitudePyramid.levelFor(2 * base - 1));
+        assertEquals(3, AttitudePyramid.levelFor(8 * base));
+        assertEquals(AttitudePyramid.LEVELS - 1, AttitudePyramid.levelFor(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void rendersLikeTheSamples() {
+        AttitudePyramid pyramid = build();
+        long length = SAMPLES * PERIOD;
+
+        // the columns are about 1 s, so it uses level 1
+        PlotTrace fromPyramid = new PlotTrace(0, length, 1000);
+        assertTrue(pyramid.render(fromPyramid));
+        PlotTrace fromSamples = new PlotTrace(0, length, 1000);
+        addSamples(fromSamples);
+
+        int total = 0;
+        for (int column = 0; column < 1000; column++) {
+            total += fromPyramid.counts[column];
+            // the buckets don't line up with the columns, so they can take in a bit of the
+            // ones either side
+            if (fromPyramid.counts[column] > 0) {
+                float slack = AttitudePyramid.bucketLength(1) / PERIOD;
+                assertEquals(fromSamples.min[column], fromPyramid.min[column], slack);
+                assertEquals(fromSamples.max[column], fromPyramid.max[column], slack);
+                assertEquals(fromSamples.mean[column], fromPyramid.mean[column], slack);
+                assertEquals(0.5f, fromPyramid.mean[1000 + column], 1e-6);
+            }
+        }
+        assertEquals(SAMPLES, total);
+        assertEquals(0, fromPyramid.min[0], 0);
+        assertEquals(SAMPLES - 1, fromPyramid.max[999], 0);
+
+        // a window too short for even level 0
+        PlotTrace window = new PlotTrace(5 * length / 10, 5 * length / 10 + 1000 * PERIOD, 1000);
+        assertFalse(pyramid.render(window));
+        assertEquals(0, window.counts[0]);
+    }
+
+    @Test
+    public void tracesSummariesLikeSamples() {
+        PlotTrace samples = new PlotTrace(0, 100, 10);
+        PlotTrace summaries = new PlotTrace(0, 100, 10);
+        float[] values = new float[AttitudePyramid.VALUES];
+        for (int i = 0; i <= 100; i += 5) {
+            samples.add(i, i, -i, 1);
+            samples.add(i, i + 1, -i - 1, 1);
+            values[AttitudePyramid.MIN] = i;
+            values[AttitudePyramid.MAX] = i + 1;
+            values[AttitudePyramid.MEAN] = i + 0.5f;
+            values[AttitudePyramid.MIN + 1] = -i - 1;
+            values[AttitudePyramid.MAX + 1] = -i;
+            values[AttitudePyramid.MEAN + 1] = -i - 0.5f;
+            values[AttitudePyramid.MIN + 2] = 1;
+            values[AttitudePyramid.MAX + 2] = 1;
+            values[AttitudePyramid.MEAN + 2] = 1;
+            summaries.addSummary(i, 2, values, 0);
+        }
+        // out of range
+        samples.add(101, 0, 0, 0);
+
+        assertArrayEquals(samples.counts, summaries.counts);
+        assertEquals(4, samples.counts[0]);
+        assertEquals(6, samples.counts[9]);
+        assertArrayEquals(samples.min, summaries.min, 0);
+        assertArrayEquals(samples.max, summaries.max, 0);
+        assertArrayEquals(samples.mean, summaries.mean, 1e-5f);
+        assertEquals(3, samples.mean[0], 1e-5);
+        assertEquals(-101, samples.min[10 + 9], 0);
+    }
+
+    @Test
+    public void roundTrip() {
+        AttitudePyramid pyramid = build();
+        ByteBuffer buffer = ByteBuffer.allocate(pyramid.serializedSize()).order(ByteOrder.LITTLE_ENDIAN);
+        pyramid.writeTo(buffer);
+        assertFalse(buffer.hasRemaining());
+
+        buffer.flip();
+        // the means of the levels above are worked out another way
+        assertSame(pyramid, AttitudePyramid.readFrom(buffer, pyramid.size(0)), 1e-5f * SAMPLES);
+        buffer.rewind();
+        buffer.put(0, (byte) 20);
+        assertNull(AttitudePyramid.readFrom(buffer, pyramid.size(0)));
+    }
+
+    static void assertSame(AttitudePyramid expected, AttitudePyramid actual, float delta) {
+        for (int level = 0; level < AttitudePyramid.LEVELS; level++) {
+            assertEquals(expected.size(level), actual.size(level));
+            for (int bucket = 0; bucket < expected.size(level); bucket++) {
+                assertEquals(expected.getCount(level, bucket), actual.getCount(level, bucket));
+                for (int value = 0; value < AttitudePyramid.VALUES; value++) {
+                    assertEquals(expected.getValue(level, bucket, value),
+                            actual.getValue(level, bucket, value), delta);
+                }
+            }
+        }
+    }
+
+    // the yaw goes up by one each sample, the pitch stays put and the roll goes back and forth
+    private static AttitudePyramid build() {
+        AttitudePyramid pyramid = new AttitudePyramid();
+        for (int i = 0; i < SAMPLES; i++) {
+            pyramid.add(i * PERIOD, i, 0.5f, (float) Math.sin(i * 0.01));
+        }
+        return pyramid;
+    }
+
+    private static void addSamples(PlotTrace trace) {
+        for (int i = 0; i < SAMPLES; i++) {
+            trace.add(i * PERIOD, i, 0.5f, (float) Math.sin(i * 0.01));
+        }
+    }
+
+    private static int total(AttitudePyramid pyramid, int level) {
+        int total = 0;
+        for (int bucket = 0; bucket < pyramid.size(level); bucket++) {
+            total += pyramid.getCount(level, bucket);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,379 @@
+package uk.ac.sussex.bee_labe;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+public class BinaryRecordingTest {
+    private static final long START_TIME = 123456789L;
+
+    private File file;
+    private StreamCodec codec = null;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("recording", ".bin");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        int nData = 10000, nRaw = 30000;
+        Date startDate = new Date(1505736000000L), endDate = new Date(1505739600000L);
+        writeRecording(startDate, endDate, nData, nRaw);
+
+        BinaryRecordingReader reader = new BinaryRecordingReader(file);
+        try {
+            assertEquals(BinaryFormat.VERSION, reader.version);
+            assertEquals(startDate, reader.header.startDate);
+            assertEquals(endDate, reader.endDate);
+            assertEquals("Ann Example", reader.header.experimenter);
+            assertEquals("Phone Ω", reader.header.phoneModel);
+            assertEquals("Kalman filter (EKF)", reader.header.orientationFilter);
+            assertEquals(0.1f, reader.header.calPitch, 0);
+            assertEquals(-0.2f, reader.header.calRoll, 0);
+            assertEquals(1e-4f, reader.header.calPitchVariance, 0);
+            assertEquals(2e-4f, reader.header.calRollVariance, 0);
+            ReductionProfile reduction = reader.header.reduction;
+            assertEquals(ReductionProfile.PROFILES[2].name, reduction.name);
+            for (int stream : ReductionProfile.STREAMS) {
+                StreamReduction expected = ReductionProfile.PROFILES[2].forStream(stream);
+                assertEquals(expected.factor, reduction.forStream(stream).factor);
+                assertEquals(expected.deadband, reduction.forStream(stream).deadband, 0);
+                assertEquals(expected.heartbeat, reduction.forStream(stream).heartbeat);
+            }
+
+            CheckingVisitor visitor = new CheckingVisitor();
+            reader.read(visitor);
+            assertTrue(reader.isComplete());
+            assertEquals(nData, visitor.nData);
+            assertEquals(nRaw, visitor.nRaw);
+            assertNull(reader.metrics);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void savesMetrics() throws Exception {
+        SessionMetrics metrics = new SessionMetrics();
+        for (int i = 0; i < 1000; i++) {
+            metrics.record(SensorTypes.ACCELEROMETER, 5000000L * i, 5000000L * i + 300000,
+                    5000000L * i + 310000, true);
+        }
+        writeRecording(new Date(), new Date(), 100, 100, metrics);
+
+        BinaryRecordingReader reader = new BinaryRecordingReader(file);
+        try {
+            reader.read(new CheckingVisitor());
+            assertTrue(reader.isComplete());
+            StreamMetrics acc = reader.metrics.stream(SensorTypes.ACCELEROMETER);
+            assertEquals(1000, acc.received);
+            assertEquals(5000000, acc.interval.max());
+            assertEquals(metrics.format(), reader.metrics.format());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void packedRoundTrip() throws Exception {
+        writeRecording(new Date(), new Date(), 10000, 30000);
+        long fullSize = file.length();
+
+        codec = new StreamCodec();
+        writeRecording(new Date(), new Date(), 10000, 30000);
+
+        BinaryRecordingReader reader = new BinaryRecordingReader(file);
+        try {
+            // the pyramid is the same size either way
+            long pyramidSize = reader.pyramid.serializedSize();
+            assertTrue(file.length() - pyramidSize < (fullSize - pyramidSize) / 2);
+
+            // these values are all whole numbers of the resolution, so come back exactly
+            CheckingVisitor visitor = new CheckingVisitor();
+            reader.read(visitor);
+            assertTrue(reader.isComplete());
+            assertEquals(10000, visitor.nData);
+            assertEquals(30000, visitor.nRaw);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void readsTruncatedRecording() throws Exception {
+        writeRecording(new Date(), new Date(), 1000, 0);
+
+        BinaryRecordingReader reader = new BinaryRecordingReader(file);
+        int indexSize = reader.index.serializedSize() + reader.pyramid.serializedSize();
+        reader.close();
+
+        // chop the file off in the middle of a sample, as if the app had died, taking the index,
+        // pyramid and end block with it
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 3 * BinaryFormat.BLOCK_HEADER_SIZE - indexSize
+                - BinaryFormat.ATTITUDE_SIZE / 2);
+        raf.close();
+
+        reader = new BinaryRecordingReader(file);
+        try {
+            CheckingVisitor visitor = new CheckingVisitor();
+            reader.read(visitor);
+            assertFalse(reader.isComplete());
+            assertEquals(999, visitor.nData);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void readsTimeRanges() throws Exception {
+        for (StreamCodec codec : new StreamCodec[] { null, new StreamCodec() }) {
+            this.codec = codec;
+            // 20 minutes, saved every half a second
+            writeBatches(1200, true);
+
+            BinaryRecordingReader reader = new BinaryRecordingReader(file);
+            try {
+                assertNotNull(reader.index);
+                long from = 600000000000L, to = 610000000000L;
+                Collector expected = new Collector(), window = new Collector();
+                reader.read(new Collector(from, to, expected));
+                reader.read(window, from, to);
+                assertTrue(expected.attitude.size() > 900);
+                expected.assertSame(window);
+
+                // only the blocks around the range are read
+                long[] range = reader.index.find(BinaryRecordingReader.RAW, from, to);
+                assertTrue(range[1] - range[0] < file.length() / 50);
+                assertNull(reader.index.find(BinaryRecordingReader.ATTITUDE, -2, -1));
+
+                // and the same block by block, as SessionLoader.stream() does
+                Collector blocks = new Collector(from, to, new Collector());
+                reader.seek(BinaryRecordingReader.ATTITUDE, from, to);
+                while (reader.nextBlock(blocks, BinaryRecordingReader.ATTITUDE)) {
+                    // keep going
+                }
+                reader.seek(BinaryRecordingReader.RAW, from, to);
+                while (reader.nextBlock(blocks, BinaryRecordingReader.RAW)) {
+                    // keep going
+                }
+                expected.assertSame(blocks.inRange);
+
+                // everything
+                Collector all = new Collector();
+                reader.read(all, Long.MIN_VALUE, Long.MAX_VALUE);
+                assertEquals(120000, all.attitude.size());
+                assertEquals(720000, all.raw.size());
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    @Test
+    public void savesPyramid() throws Exception {
+        for (StreamCodec codec : new StreamCodec[] { null, new StreamCodec() }) {
+            this.codec = codec;
+            writeBatches(600, true);
+
+            BinaryRecordingReader reader = new BinaryRecordingReader(file);
+            try {
+                // the same as building it from the samples
+                AttitudePyramid expected = new AttitudePyramid();
+                Collector all = new Collector();
+                reader.read(all);
+                for (int i = 0; i < all.attitude.size(); i++) {
+                    expected.add(all.attitude.getTime(i), all.attitude.getYaw(i),
+                            all.attitude.getPitch(i), all.attitude.getRoll(i));
+                }
+                AttitudePyramidTest.assertSame(expected, reader.pyramid, 1e-4f);
+                assertEquals(2236, reader.pyramid.size(0));
+            } finally {
+                reader.close();
+            }
+        }
+
+        // an unfinished recording hasn't got one
+        writeBatches(10, false);
+        BinaryRecordingReader reader = new BinaryRecordingReader(file);
+        assertNull(reader.pyramid);
+        reader.close();
+    }
+
+    @Test
+    public void readsTimeRangesWithoutIndex() throws Exception {
+        // as if the app had died, so the index was never written
+        writeBatches(60, false);
+
+        BinaryRecordingReader reader = new BinaryRecordingReader(file);
+        try {
+            assertNull(reader.index);
+            long from = 10000000000L, to = 12000000000L;
+            Collector expected = new Collector(), window = new Collector();
+            reader.read(new Collector(from, to, expected));
+            reader.read(window, from, to);
+            assertEquals(201, window.attitude.size());
+            expected.assertSame(window);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.writeBytes("{\"startTime\": \"18/09/2017 12:00:00\"}");
+        raf.close();
+
+        new BinaryRecordingReader(file);
+    }
+
+    private void writeRecording(Date startDate, Date endDate, int nData, int nRaw) throws IOException {
+        writeRecording(startDate, endDate, nData, nRaw, null);
+    }
+
+    private void writeRecording(Date startDate, Date endDate, int nData, int nRaw,
+                                SessionMetrics metrics) throws IOException {
+        AttitudeLog dataList = new AttitudeLog();
+        RawLog rawDataList = new RawLog();
+        for (int i = 0; i < nData; i++) {
+            dataList.append(START_TIME + 50000000L * i, i, -i, 0.5f * i);
+        }
+        for (int i = 0; i < nRaw; i++) {
+            rawDataList.append(START_TIME + 16000000L * i, 1 + i % 3, i, 2 * i, 3 * i);
+        }
+
+        BinaryRecordingSink sink = new BinaryRecordingSink(file, codec);
+        RecordingHeader header = new RecordingHeader(startDate, START_TIME, "Ann Example",
+                "Phone Ω", "Kalman filter (EKF)", 0.1f, -0.2f);
+        header.calPitchVariance = 1e-4f;
+        header.calRollVariance = 2e-4f;
+        header.reduction = ReductionProfile.PROFILES[2];
+        sink.begin(header);
+
+        // write in a few batches, as StreamingWriter would
+        sink.writeData(dataList, 0, nData / 2);
+        sink.writeRaw(rawDataList, 0, nRaw / 3);
+        sink.flush();
+        sink.writeData(dataList, nData / 2, nData);
+        sink.writeRaw(rawDataList, nRaw / 3, nRaw);
+        sink.finish(endDate, metrics);
+    }
+
+    // attitude every 10 ms, and raw readings from three sensors every 5 ms, arriving slightly out
+    // of order, saved in batches as StreamingWriter does
+    private void writeBatches(int seconds, boolean finish) throws IOException {
+        BinaryRecordingSink sink = new BinaryRecordingSink(file, codec);
+        sink.begin(new RecordingHeader(new Date(), START_TIME, "Ann Example", "Phone", "Kalman filter (EKF)",
+                0, 0));
+        AttitudeLog dataList = new AttitudeLog();
+        RawLog rawDataList = new RawLog();
+        for (int batch = 0; batch < 2 * seconds; batch++) {
+            for (int i = 0; i < 50; i++) {
+                long time = START_TIME + (batch * 50 + i) * 10000000L;
+                dataList.append(time, i * 0.01f, 0.5f, -0.25f);
+                for (int j = 0; j < 2; j++) {
+                    for (int type = 1; type <= 3; type++) {
+                        rawDataList.append(time + j * 5000000L - type * 1000000L, type, i, j, type);
+                    }
+                }
+            }
+            sink.writeData(dataList, 0, dataList.size());
+            sink.writeRaw(rawDataList, 0, rawDataList.size());
+            sink.flush();
+            dataList.clear();
+            rawDataList.clear();
+        }
+        if (finish) {
+            sink.finish(new Date(), null);
+        } else {
+            sink.close();
+        }
+    }
+
+    // collects the samples, or passes on the ones in a time range
+    private static class Collector implements BinaryRecordingReader.Visitor {
+        final AttitudeLog attitude = new AttitudeLog();
+        final RawLog raw = new RawLog();
+        final long from, to;
+        final Collector inRange;
+
+        Collector() {
+            this(Long.MIN_VALUE, Long.MAX_VALUE, null);
+        }
+
+        Collector(long from, long to, Collector inRange) {
+            this.from = from;
+            this.to = to;
+            this.inRange = inRange;
+        }
+
+        @Override
+        public void onAttitude(long time, float yaw, float pitch, float roll) {
+            if (inRange == null) {
+                attitude.append(time, yaw, pitch, roll);
+            } else if (time >= from && time <= to) {
+                inRange.onAttitude(time, yaw, pitch, roll);
+            }
+        }
+
+        @Override
+        public void onRaw(long time, int sensorType, float x, float y, float z) {
+            if (inRange == null) {
+                raw.append(time, sensorType, x, y, z);
+            } else if (time >= from && time <= to) {
+                inRange.onRaw(time, sensorType, x, y, z);
+            }
+        }
+
+        void assertSame(Collector other) {
+            assertEquals(attitude.size(), other.attitude.size());
+            for (int i = 0; i < attitude.size(); i++) {
+                assertEquals(attitude.getTime(i), other.attitude.getTime(i));
+                assertEquals(attitude.getYaw(i), other.attitude.getYaw(i), 0);
+            }
+            assertEquals(raw.size(), other.raw.size());
+            for (int i = 0; i < raw.size(); i++) {
+                assertEquals(raw.getTime(i), other.raw.getTime(i));
+                assertEquals(raw.getSensorType(i), other.raw.getSensorType(i));
+                assertEquals(raw.getValue(i, 2), other.raw.getValue(i, 2), 0);
+            }
+        }
+    }
+
+    private static class CheckingVisitor implements BinaryRecordingReader.Visitor {
+        int nData = 0, nRaw = 0;
+
+        @Override
+        public void onAttitude(long time, float yaw, float pitch, float roll) {
+            int i = nData++;
+            assertEquals(50000000L * i, time);
+            assertEquals(i, yaw, 0);
+            assertEquals(-i, pitch, 0);
+            assertEquals(0.5f * i, roll, 0);
+        }
+
+        @Override
+        public void onRaw(long time, int sensorType, float x, float y, float z) {
+            int i = nRaw++;
+            assertEquals(16000000L * i, time);
+            assertEquals(1 + i % 3, sensorType);
+            assertEquals(i, x, 0);
+            assertEquals(2 * i, y, 0);
+            assertEquals(3 * i, z, 0);
+        }
+    }
+}
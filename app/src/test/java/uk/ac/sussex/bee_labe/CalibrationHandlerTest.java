@@ -0,0 +1,138 @@
+package uk.ac.sussex.bee_labe;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CalibrationHandlerTest {
+    private static final long PERIOD = 5000000; // ns
+    private static final CalibrationHandler.Listener NO_LISTENER = new CalibrationHandler.Listener() {
+        @Override
+        public void stopCalibration() {
+        }
+    };
+
+    @Test
+    public void normalizesAngles() throws Exception {
+        CalibrationHandler cal = new CalibrationHandler(NO_LISTENER);
+        Attitude att = new Attitude(0, 0, 0);
+
+        cal.getAttitude(new float[] { -0.5f, 0.25f, -3 }, 0, att);
+        assertEquals(2 * Math.PI - 0.5, att.yaw, 1e-6);
+        assertEquals(-0.25, att.pitch, 1e-6);
+        assertEquals(-3, att.roll, 1e-6);
+
+        cal.pitch = 1;
+        cal.roll = -1;
+        cal.getAttitude(new float[] { 1, 3, 3 }, 0, att);
+        assertEquals(1, att.yaw, 1e-6);
+        assertEquals(2 * Math.PI - 4, att.pitch, 1e-6);
+        assertEquals(4 - 2 * Math.PI, att.roll, 1e-6);
+    }
+
+    @Test
+    public void getAttitudeDoesNotAllocate() throws Exception {
+        CalibrationHandler cal = new CalibrationHandler(NO_LISTENER);
+        Attitude att = new Attitude(0, 0, 0);
+        float[] orient = { 0.1f, 0.2f, 0.3f };
+        AllocationCounter counter = new AllocationCounter();
+
+        cal.start();
+        for (int i = 0; i < 100000; i++) {
+            cal.getAttitude(orient, i * PERIOD, att);
+        }
+
+        // this includes gathering calibration data
+        int n = 10000;
+        cal.start();
+        counter.start();
+        for (int i = 0; i < n; i++) {
+            orient[1] = 0.0001f * i;
+            cal.getAttitude(orient, i * PERIOD, att);
+        }
+        long allocated = counter.allocatedBytes();
+
+        assertTrue("allocated " + allocated + " bytes for " + n + " samples", allocated < n);
+    }
+
+    @Test
+    public void averagesAcrossTheWrap() throws Exception {
+        CircularStats stats = new CircularStats();
+        stats.add(Math.PI - 0.1);
+        stats.add(-Math.PI + 0.1);
+        stats.add(Math.PI);
+        assertEquals(Math.PI, Math.abs(stats.mean()), 1e-9);
+        assertEquals(0.01, stats.variance(), 1e-3);
+
+        stats.clear();
+        assertEquals(0, stats.count());
+        stats.add(0.5);
+        assertEquals(0.5, stats.mean(), 1e-9);
+        assertTrue(Double.isNaN(stats.variance()));
+    }
+
+    @Test
+    public void calibratesUpsideDown() throws Exception {
+        // pitch near ±π, where a plain average of the readings would come out near 0
+        CalibrationHandler cal = new CalibrationHandler(NO_LISTENER);
+        Attitude att = new Attitude(0, 0, 0);
+        Random random = new Random(1);
+
+        cal.start();
+        long time = 1000000000L;
+        while (cal.isCalibrating) {
+            float noise = 0.01f * (float) random.nextGaussian();
+            cal.getAttitude(new float[] { 0, (float) Math.PI - 0.05f + noise, 0.2f }, time, att);
+            time += PERIOD;
+        }
+
+        assertEquals(-Math.PI + 0.05, cal.pitch, 2e-3);
+        assertEquals(0.2, cal.roll, 1e-6);
+        assertEquals(1e-4, cal.pitchVariance, 2e-5);
+        assertEquals(0, cal.rollVariance, 1e-9);
+
+        // calibrated readings come out level
+        cal.getAttitude(new float[] { 0, (float) Math.PI - 0.05f, 0.2f }, time, att);
+        assertEquals(0, att.pitch, 2e-3);
+        assertEquals(0, att.roll, 1e-6);
+    }
+
+    @Test
+    public void stopsEarlyWhenSettled() throws Exception {
+        final int[] stops = { 0 };
+        CalibrationHandler cal = new CalibrationHandler(new CalibrationHandler.Listener() {
+            @Override
+            public void stopCalibration() {
+                stops[0]++;
+            }
+        });
+        Attitude att = new Attitude(0, 0, 0);
+        Random random = new Random(2);
+
+        // steady readings: done as soon as the minimum time is up
+        cal.start();
+        int n = calibrate(cal, att, random, 0.001f);
+        assertEquals(1, stops[0]);
+        assertTrue("took " + n + " samples", n * PERIOD <= 600000000L);
+
+        // noisy readings: goes on for the full time
+        cal.start();
+        n = calibrate(cal, att, random, 0.2f);
+        assertEquals(2, stops[0]);
+        assertTrue("took " + n + " samples", n * PERIOD >= 3000000000L);
+        assertEquals(0.04, cal.pitchVariance, 0.01);
+    }
+
+    private static int calibrate(CalibrationHandler cal, Attitude att, Random random, float noise) {
+        int n = 0;
+        while (cal.isCalibrating) {
+            float[] orient = { 0, 0.3f + noise * (float) random.nextGaussian(),
+                    -0.1f + noise * (float) random.nextGaussian() };
+            cal.getAttitude(orient, n * PERIOD, att);
+            n++;
+        }
+        return n;
+    }
+}
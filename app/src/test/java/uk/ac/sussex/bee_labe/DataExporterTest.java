@@ -0,0 +1,161 @@
+package uk.ac.sussex.bee_labe;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.*;
+
+public class DataExporterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir, archive, manifest, tmp;
+    private long lastTotal;
+
+    private final DataExporter.Listener listener = new DataExporter.Listener() {
+        @Override
+        public synchronized void onProgress(long bytesDone, long bytesTotal) {
+            assertTrue(bytesDone <= bytesTotal);
+            lastTotal = bytesTotal;
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        dir = folder.newFolder("data");
+        tmp = folder.newFolder("tmp");
+        archive = new File(dir, "AB's data.zip");
+        manifest = new File(dir, "export_manifest.txt");
+    }
+
+    @Test
+    public void archivesAllDataFiles() throws Exception {
+        byte[] a = writeFile("data_a.json", 300000, 1);
+        byte[] b = writeFile("data_b_raw.json", 70000, 2);
+        writeFile("notes.txt", 10, 3);
+
+        assertEquals(2, exporter(4).export(listener));
+        assertEquals(a.length + b.length, lastTotal);
+        assertArchive(new String[] { "data_a.json", "data_b_raw.json" }, new byte[][] { a, b });
+    }
+
+    @Test
+    public void onlyAddsNewFiles() throws Exception {
+        byte[] a = writeFile("data_a.json", 100000, 1);
+        assertEquals(1, exporter(1).export(listener));
+        assertEquals(0, exporter(1).export(listener));
+
+        byte[] b = writeFile("data_b.json", 5000, 2);
+        byte[] c = writeFile("data_c.json", 0, 3);
+        assertEquals(2, exporter(2).export(listener));
+        assertEquals(b.length, lastTotal);
+        assertArchive(new String[] { "data_a.json", "data_b.json", "data_c.json" },
+                new byte[][] { a, b, c });
+        assertEquals(0, tmp.list().length);
+    }
+
+    @Test
+    public void rebuildsWhenAFileChanges() throws Exception {
+        writeFile("data_a.json", 1000, 1);
+        byte[] b = writeFile("data_b.json", 1000, 2);
+        exporter(2).export(listener);
+
+        byte[] a = writeFile("data_a.json", 2000, 4);
+        new File(dir, "data_a.json").setLastModified(12345000);
+        assertEquals(2, exporter(2).export(listener));
+        assertArchive(new String[] { "data_a.json", "data_b.json" }, new byte[][] { a, b });
+    }
+
+    @Test
+    public void keepsDeletedFilesWhenExportingAgain() throws Exception {
+        // export, delete what was exported, record some more and export again
+        byte[] a = writeFile("data_a.json", 1000, 1);
+        byte[] b = writeFile("data_b.json", 1000, 2);
+        exporter(2).export(listener);
+        long length = archive.length();
+
+        assertTrue(new File(dir, "data_a.json").delete());
+        assertEquals(0, exporter(2).export(listener));
+        assertEquals(length, archive.length());
+
+        byte[] c = writeFile("data_c.json", 3000, 3);
+        assertEquals(1, exporter(2).export(listener));
+        assertEquals(c.length, lastTotal);
+        assertArchive(new String[] { "data_a.json", "data_b.json", "data_c.json" },
+                new byte[][] { a, b, c });
+    }
+
+    @Test
+    public void rebuildsWhenTheArchiveHasBeenTamperedWith() throws Exception {
+        byte[] a = writeFile("data_a.json", 1000, 1);
+        exporter(1).export(listener);
+        FileOutputStream out = new FileOutputStream(archive, true);
+        out.write(1);
+        out.close();
+
+        byte[] b = writeFile("data_b.json", 1000, 2);
+        assertEquals(2, exporter(1).export(listener));
+        assertArchive(new String[] { "data_a.json", "data_b.json" }, new byte[][] { a, b });
+    }
+
+    @Test
+    public void noDataFiles() throws Exception {
+        assertEquals(-1, exporter(1).export(listener));
+        assertFalse(archive.exists());
+    }
+
+    private DataExporter exporter(int threads) {
+        return new DataExporter(dir, archive, manifest, tmp, threads);
+    }
+
+    // text-like data, so that it compresses
+    private byte[] writeFile(String name, int size, long seed) throws IOException {
+        Random random = new Random(seed);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ('0' + random.nextInt(10));
+        }
+        FileOutputStream out = new FileOutputStream(new File(dir, name));
+        out.write(data);
+        out.close();
+        return data;
+    }
+
+    private void assertArchive(String[] names, byte[][] contents) throws IOException {
+        ZipFile zip = new ZipFile(archive);
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            for (int i = 0; i < names.length; i++) {
+                ZipEntry entry = entries.nextElement();
+                assertEquals(names[i], entry.getName());
+                assertArrayEquals(contents[i], read(zip.getInputStream(entry)));
+            }
+            assertFalse(entries.hasMoreElements());
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
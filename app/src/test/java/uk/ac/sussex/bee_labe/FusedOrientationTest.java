@@ -0,0 +1,161 @@
+package uk.ac.sussex.bee_labe;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FusedOrientationTest {
+    private static final float[] GRAVITY = { 0, 0, 9.81f }; // world coordinates
+    private static final float[] FIELD = { 0, 20, -40 }; // µT, world coordinates
+
+    @Test
+    public void fastTrigIsWithinItsErrorBound() throws Exception {
+        double atan2Error = 0, asinError = 0;
+        Random random = new Random(1);
+        for (int i = 0; i < 1000000; i++) {
+            float y = (float) random.nextGaussian(), x = (float) random.nextGaussian();
+            atan2Error = Math.max(atan2Error, Math.abs(FastTrig.atan2(y, x) - Math.atan2(y, x)));
+        }
+        // all the way round, where the branches meet
+        for (int i = 0; i < 100000; i++) {
+            double angle = i * 2 * Math.PI / 100000;
+            float y = (float) Math.sin(angle), x = (float) Math.cos(angle);
+            double error = Math.IEEEremainder(FastTrig.atan2(y, x) - Math.atan2(y, x), 2 * Math.PI);
+            atan2Error = Math.max(atan2Error, Math.abs(error));
+        }
+        for (int i = -100000; i <= 100000; i++) {
+            float x = i / 100000f;
+            asinError = Math.max(asinError, Math.abs(FastTrig.asin(x) - Math.asin(x)));
+        }
+
+        assertTrue("atan2 error " + atan2Error, atan2Error < FastTrig.MAX_ERROR);
+        assertTrue("asin error " + asinError, asinError < FastTrig.MAX_ERROR);
+        assertEquals(0, FastTrig.atan2(0, 0), 0);
+        // either side of the cut along the negative x axis
+        assertEquals(Math.PI, FastTrig.atan2(0f, -1), 1e-6);
+        assertEquals(-Math.PI, FastTrig.atan2(-0f, -1), 1e-6);
+        assertEquals(Math.atan2(-0.0, -1e-3), FastTrig.atan2(-0f, -1e-3f), 1e-6);
+        assertEquals(Math.PI / 2, FastTrig.asin(1.5f), 1e-7);
+    }
+
+    @Test
+    public void fusedMatchesRotationMatrixMaths() throws Exception {
+        float[] q = new float[4], R = new float[9], rotation = new float[9];
+        float[] gravity = new float[3], geomagnetic = new float[3];
+        float[] expected = new float[3], exact = new float[3], fast = new float[3];
+        Random random = new Random(2);
+        int compared = 0;
+        for (int i = 0; i < 100000; i++) {
+            // the phone at any angle, with readings of any size and a little noise
+            for (int j = 0; j < 4; j++) {
+                q[j] = (float) random.nextGaussian();
+            }
+            Rotations.normalize(q);
+            Rotations.quaternionToMatrix(q, R);
+            float scale = 0.5f + random.nextFloat();
+            toDevice(R, GRAVITY, scale, random, gravity);
+            toDevice(R, FIELD, scale, random, geomagnetic);
+
+            boolean valid = Rotations.getRotationMatrix(rotation, gravity, geomagnetic);
+            assertEquals(valid, Rotations.getOrientation(gravity, geomagnetic, false, exact));
+            assertEquals(valid, Rotations.getOrientation(gravity, geomagnetic, true, fast));
+            // with the phone on end, the azimuth depends on rounding
+            if (!valid || Math.abs(rotation[7]) > 0.99f) {
+                continue;
+            }
+            Rotations.getOrientation(rotation, expected);
+            compared++;
+
+            for (int j = 0; j < 3; j++) {
+                assertEquals(0, Math.IEEEremainder(exact[j] - expected[j], 2 * Math.PI), 1e-5);
+                assertEquals(0, Math.IEEEremainder(fast[j] - exact[j], 2 * Math.PI),
+                        FastTrig.MAX_ERROR + 1e-6);
+            }
+        }
+        assertTrue(compared > 90000);
+    }
+
+    @Test
+    public void fusedRejectsTheSameReadings() throws Exception {
+        float[] orient = { 1, 2, 3 };
+
+        // free fall
+        assertFalse(Rotations.getOrientation(new float[] { 0, 0, 0.5f }, FIELD, false, orient));
+        // field along gravity
+        assertFalse(Rotations.getOrientation(GRAVITY, new float[] { 0, 0, -40 }, true, orient));
+        assertArrayEquals(new float[] { 1, 2, 3 }, orient, 0);
+
+        // lying flat, pointing north
+        assertTrue(Rotations.getOrientation(GRAVITY, FIELD, true, orient));
+        assertArrayEquals(new float[] { 0, 0, 0 }, orient, 1e-6f);
+    }
+
+    @Test
+    public void normalizesAnglesAsBefore() throws Exception {
+        // every angle the calibration can produce: within 2 pi of the range
+        for (int i = -100000; i <= 100000; i++) {
+            float f = (float) (i * 2 * Math.PI / 100000 * 0.999);
+            float normalized = CalibrationHandler.normalizeAngle(f);
+            assertTrue(normalized > -Math.PI && normalized <= Math.PI);
+            assertEquals(moduloNormalize(f), normalized, 5e-7);
+            assertEquals(0, Math.IEEEremainder(normalized - f, 2 * Math.PI), 5e-7);
+        }
+        assertEquals(Math.PI, CalibrationHandler.normalizeAngle((float) -Math.PI), 5e-7);
+    }
+
+    @Test
+    public void estimatorGivesTheSameAttitude() throws Exception {
+        // the fused estimator against the matrix maths it replaced, through the calibration
+        CalibrationHandler cal = new CalibrationHandler(null);
+        cal.pitch = 3;
+        cal.roll = -2.5f;
+        Attitude attitude = new Attitude(0, 0, 0), expected = new Attitude(0, 0, 0);
+        float[] R = new float[9], orient = new float[3];
+        AccelMagEstimator estimator = new AccelMagEstimator();
+
+        Random random = new Random(3);
+        for (int i = 0; i < 10000; i++) {
+            float ax = (float) random.nextGaussian(), ay = (float) random.nextGaussian(),
+                    az = 10 * (float) random.nextGaussian();
+            float mx = 20 * (float) random.nextGaussian(), my = 20 * (float) random.nextGaussian(),
+                    mz = 20 * (float) random.nextGaussian();
+            estimator.update(SensorTypes.ACCELEROMETER, i, ax, ay, az);
+            boolean valid = estimator.update(SensorTypes.MAGNETIC_FIELD, i, mx, my, mz);
+            assertEquals(Rotations.getRotationMatrix(R, new float[] { ax, ay, az },
+                    new float[] { mx, my, mz }), valid);
+            if (!valid || Math.abs(R[7]) > 0.99f) {
+                continue;
+            }
+
+            estimator.getOrientation(orient);
+            cal.getAttitude(orient, i, attitude);
+            Rotations.getOrientation(R, orient);
+            cal.getAttitude(orient, i, expected);
+            assertEquals(0, Math.IEEEremainder(expected.yaw - attitude.yaw, 2 * Math.PI), 1e-4);
+            assertEquals(expected.pitch, attitude.pitch, 1e-4);
+            assertEquals(0, Math.IEEEremainder(expected.roll - attitude.roll, 2 * Math.PI), 1e-4);
+        }
+    }
+
+    // the world vector in device coordinates, scaled, plus noise
+    private static void toDevice(float[] R, float[] world, float scale, Random random, float[] out) {
+        for (int j = 0; j < 3; j++) {
+            out[j] = scale * (R[j] * world[0] + R[3 + j] * world[1] + R[6 + j] * world[2])
+                    + 0.01f * (float) random.nextGaussian();
+        }
+    }
+
+    // how angles used to be normalised, for comparison
+    private static float moduloNormalize(float f) {
+        if (f < 0) {
+            f += 2 * Math.PI;
+        }
+        f %= 2 * Math.PI;
+        if (f > Math.PI) {
+            f -= 2 * Math.PI;
+        }
+        return f;
+    }
+}
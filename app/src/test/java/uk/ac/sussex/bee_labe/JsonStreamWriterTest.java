@@ -0,0 +1,67 @@
+package uk.ac.sussex.bee_labe;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class JsonStreamWriterTest {
+    @Test
+    public void indentsLikeAndroidJsonWriter() throws Exception {
+        StringWriter out = new StringWriter();
+        JsonStreamWriter w = new JsonStreamWriter(out);
+        w.setIndent("  ");
+        w.beginObject();
+        w.name("startTime").value("2017-09-15");
+        w.name("calibration").beginObject().name("pitch").value(0.5).endObject();
+        w.name("empty").beginArray().endArray();
+        w.name("data").beginArray();
+        w.beginObject().name("time").value(12L).endObject();
+        w.value(true);
+        w.endArray();
+        w.endObject();
+        w.close();
+
+        assertEquals("{\n"
+                + "  \"startTime\": \"2017-09-15\",\n"
+                + "  \"calibration\": {\n"
+                + "    \"pitch\": 0.5\n"
+                + "  },\n"
+                + "  \"empty\": [],\n"
+                + "  \"data\": [\n"
+                + "    {\n"
+                + "      \"time\": 12\n"
+                + "    },\n"
+                + "    true\n"
+                + "  ]\n"
+                + "}", out.toString());
+    }
+
+    @Test
+    public void compactWithoutIndent() throws Exception {
+        StringWriter out = new StringWriter();
+        JsonStreamWriter w = new JsonStreamWriter(out);
+        w.beginArray().value(1L).value((String) null).beginObject().name("a").value(2.5f)
+                .endObject().endArray();
+        w.close();
+
+        assertEquals("[1,null,{\"a\":2.5}]", out.toString());
+    }
+
+    @Test
+    public void escapesStrings() throws Exception {
+        StringWriter out = new StringWriter();
+        JsonStreamWriter w = new JsonStreamWriter(out);
+        w.beginArray().value("a\"b\\c\nd\u0001\u2028é").endArray();
+        w.close();
+
+        assertEquals("[\"a\\\"b\\\\c\\nd\\u0001\\u2028é\"]", out.toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsValueWithoutName() throws Exception {
+        JsonStreamWriter w = new JsonStreamWriter(new StringWriter());
+        w.beginObject().value(1L);
+    }
+}
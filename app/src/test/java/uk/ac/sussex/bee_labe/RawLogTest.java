@@ -0,0 +1,49 @@
+package uk.ac.sussex.bee_labe;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RawLogTest {
+    @Test
+    public void storesSamplesAcrossChunks() throws Exception {
+        RawLog log = new RawLog();
+        int n = 2 * RawLog.CHUNK_SIZE + 5;
+        for (int i = 0; i < n; i++) {
+            log.append(i, 1 + i % 3, i, 2 * i, 3 * i);
+        }
+
+        assertEquals(n, log.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, log.getTime(i));
+            assertEquals(1 + i % 3, log.getSensorType(i));
+            assertEquals(i, log.getValue(i, 0), 0);
+            assertEquals(2 * i, log.getValue(i, 1), 0);
+            assertEquals(3 * i, log.getValue(i, 2), 0);
+        }
+    }
+
+    @Test
+    public void appendDoesNotAllocatePerSample() throws Exception {
+        RawLog log = new RawLog();
+        AllocationCounter counter = new AllocationCounter();
+
+        for (int i = 0; i < 20; i++) {
+            log.clear();
+            for (int j = 0; j < RawLog.CHUNK_SIZE; j++) {
+                log.append(j, 4, 1, 2, 3);
+            }
+        }
+        log.clear();
+        log.append(0, 4, 1, 2, 3);
+
+        int n = RawLog.CHUNK_SIZE - 1;
+        counter.start();
+        for (int i = 0; i < n; i++) {
+            log.append(i, 4, 1, 2, 3);
+        }
+        long allocated = counter.allocatedBytes();
+
+        assertTrue("allocated " + allocated + " bytes for " + n + " samples", allocated < n);
+    }
+}
@@ -0,0 +1,190 @@
+package uk.ac.sussex.bee_labe;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+public class RecordingJournalTest {
+    private static final long START_TIME = 123456789L;
+    private static final long PERIOD = 5000000; // ns
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir, journalFile, binFile;
+    private RecordingHeader header;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = folder.newFolder("data");
+        journalFile = new File(dir, "data_20170918_120000_AE.journal");
+        binFile = new File(dir, "recovered.bin");
+        header = new RecordingHeader(new Date(1505736000000L), START_TIME, "Ann Example",
+                "Phone", "Kalman filter (EKF)", 0.1f, -0.2f);
+        header.calPitchVariance = 1e-4f;
+        header.calRollVariance = 2e-4f;
+    }
+
+    @Test
+    public void recoversEverythingAcrossSegments() throws Exception {
+        int n = RecordingJournal.SEGMENT_RECORDS + 1000;
+        RecordingJournal journal = new RecordingJournal(journalFile);
+        journal.begin(header);
+        append(journal, n);
+        journal.close();
+
+        CountingVisitor visitor = recover();
+        assertEquals(n / 2, visitor.nData);
+        assertEquals(n / 2, visitor.nRaw);
+    }
+
+    @Test
+    public void onlyRecoversCommittedRecords() throws Exception {
+        RecordingJournal journal = new RecordingJournal(journalFile);
+        journal.begin(header);
+        try {
+            // as if the app had died without closing the journal
+            append(journal, 100);
+            CountingVisitor visitor = recover();
+            assertEquals(96, visitor.nData + visitor.nRaw);
+
+            journal.commit();
+            visitor = recover();
+            assertEquals(100, visitor.nData + visitor.nRaw);
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void recoversDataFilesFromExperimentData() throws Exception {
+        ExperimentData data = new ExperimentData();
+        data.start(dir, header);
+        Attitude attitude = new Attitude(0.5f, 0.25f, -0.25f);
+        for (int i = 0; i < 1000; i++) {
+            data.log(START_TIME + i * PERIOD, attitude);
+        }
+        assertEquals(1, ExperimentData.listJournals(dir).length);
+
+        // finishing properly gets rid of the journal
+        data.finish(null);
+        assertEquals(0, ExperimentData.listJournals(dir).length);
+
+        // a journal which was left behind replaces the partial data files
+        RecordingJournal journal = new RecordingJournal(journalFile);
+        journal.begin(header);
+        append(journal, 200);
+        journal.close();
+        new File(dir, "data_20170918_120000_AE.bin").delete();
+
+        String path = ExperimentData.recover(journalFile, null);
+        assertEquals(new File(dir, "data_20170918_120000_AE.json").getAbsolutePath(), path);
+        assertFalse(journalFile.exists());
+        assertTrue(new File(dir, "data_20170918_120000_AE_raw.json").exists());
+        // with the same fields as a recording which was finished, though the metrics are lost
+        String json = new String(Files.readAllBytes(new File(dir, "data_20170918_120000_AE.json").toPath()), "UTF-8");
+        assertTrue(json.contains("\"metrics\": null"));
+
+        BinaryRecordingReader reader = new BinaryRecordingReader(new File(dir, "data_20170918_120000_AE.bin"));
+        try {
+            CountingVisitor visitor = new CountingVisitor();
+            reader.read(visitor);
+            assertTrue(reader.isComplete());
+            assertEquals(100, visitor.nData);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void treatsJournalsWithoutAHeaderAsEmpty() throws Exception {
+        // as if the app died before the header page was mapped, or before it was filled in
+        for (int length : new int[] { 0, 100, RecordingJournal.HEADER_PAGE_SIZE }) {
+            RandomAccessFile raf = new RandomAccessFile(journalFile, "rw");
+            raf.setLength(length);
+            raf.close();
+
+            assertNull(ExperimentData.recover(journalFile, null));
+            assertFalse(journalFile.exists());
+            assertEquals(0, dir.list().length);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws Exception {
+        BinaryRecordingSink sink = new BinaryRecordingSink(journalFile);
+        sink.begin(header);
+        sink.finish(new Date(), null);
+        RecordingJournal.recover(journalFile, new BinaryRecordingSink(binFile));
+    }
+
+    // alternate attitudes and accelerometer readings, one every PERIOD
+    private static void append(RecordingJournal journal, int n) {
+        for (int i = 0; i < n; i++) {
+            long time = START_TIME + i * PERIOD;
+            if (i % 2 == 0) {
+                journal.appendAttitude(time, i, 0.5f, -0.5f);
+            } else {
+                journal.appendRaw(time, SensorTypes.ACCELEROMETER, i, 9.8f, 0);
+            }
+        }
+    }
+
+    private CountingVisitor recover() throws IOException {
+        RecordingJournal.recover(journalFile, new BinaryRecordingSink(binFile));
+
+        BinaryRecordingReader reader = new BinaryRecordingReader(binFile);
+        try {
+            assertEquals(header.startDate, reader.header.startDate);
+            assertEquals("Kalman filter (EKF)", reader.header.orientationFilter);
+            assertEquals(1e-4f, reader.header.calPitchVariance, 0);
+            assertEquals(2e-4f, reader.header.calRollVariance, 0);
+
+            CountingVisitor visitor = new CountingVisitor();
+            reader.read(visitor);
+            assertTrue(reader.isComplete());
+
+            // the end time comes from the last sample
+            assertEquals(header.startDate.getTime() + visitor.lastTime / 1000000,
+                    reader.endDate.getTime());
+            return visitor;
+        } finally {
+            reader.close();
+        }
+    }
+
+    // each sample's index can be worked out from its time, as the streams are saved separately
+    private static class CountingVisitor implements BinaryRecordingReader.Visitor {
+        int nData = 0, nRaw = 0;
+        long lastTime = 0;
+
+        @Override
+        public void onAttitude(long time, float yaw, float pitch, float roll) {
+            long i = time / PERIOD;
+            assertEquals(0, i % 2);
+            assertEquals(i, yaw, 0);
+            assertEquals(0.5f, pitch, 0);
+            lastTime = Math.max(lastTime, time);
+            nData++;
+        }
+
+        @Override
+        public void onRaw(long time, int sensorType, float x, float y, float z) {
+            long i = time / PERIOD;
+            assertEquals(1, i % 2);
+            assertEquals(SensorTypes.ACCELEROMETER, sensorType);
+            assertEquals(i, x, 0);
+            lastTime = Math.max(lastTime, time);
+            nRaw++;
+        }
+    }
+}
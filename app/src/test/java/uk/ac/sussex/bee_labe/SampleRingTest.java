@@ -0,0 +1,174 @@
+package uk.ac.sussex.bee_labe;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class SampleRingTest {
+    private static final int STRESS_SAMPLES = 2000000;
+
+    @Test
+    public void countsAndDropsNewSamplesWhenFull() throws Exception {
+        SampleRing ring = new SampleRing(16, SampleRing.COUNT_AND_DROP);
+        for (int i = 0; i < 16; i++) {
+            assertTrue(ring.offer(1 + i % 3, i, i, 2 * i, -i));
+        }
+        for (int i = 16; i < 21; i++) {
+            assertFalse(ring.offer(1 + i % 3, i, i, 2 * i, -i));
+        }
+        assertEquals(5, ring.getOverflows());
+        assertEquals(5, ring.getDropped());
+
+        Checker checker = new Checker();
+        assertEquals(16, ring.drain(checker));
+        assertEquals(0, ring.drain(checker));
+        assertEquals(16, checker.count);
+        assertEquals(15, checker.last);
+
+        // and there's room again
+        assertTrue(ring.offer(2, 100, 100, 200, -100));
+        assertEquals(1, ring.size());
+    }
+
+    @Test
+    public void overwritesOldSamplesWhenFull() throws Exception {
+        SampleRing ring = new SampleRing(16, SampleRing.DROP_OLDEST);
+        for (int i = 0; i < 40; i++) {
+            assertTrue(ring.offer(1 + i % 3, i, i, 2 * i, -i));
+        }
+        assertEquals(24, ring.getOverflows());
+
+        // the oldest slot is given up too, in case it's being written, so one more is lost
+        Checker checker = new Checker();
+        assertEquals(40, ring.drain(checker));
+        assertEquals(15, checker.count);
+        assertEquals(25, checker.first);
+        assertEquals(39, checker.last);
+        assertEquals(25, ring.getDropped());
+    }
+
+    @Test
+    public void closingStopsTheProducerWaiting() throws Exception {
+        final SampleRing ring = new SampleRing(16, SampleRing.BLOCK);
+        for (int i = 0; i < 16; i++) {
+            assertTrue(ring.offer(1 + i % 3, i, i, 2 * i, -i));
+        }
+        final AtomicBoolean offered = new AtomicBoolean(true);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                offered.set(ring.offer(1, 16, 16, 32, -16));
+            }
+        });
+        producer.start();
+        ring.close();
+        producer.join(10000);
+        assertFalse(producer.isAlive());
+        assertFalse(offered.get());
+        assertFalse(ring.offer(2, 17, 17, 34, -17));
+        assertEquals(2, ring.getDropped());
+
+        // what was already there can still be taken out
+        Checker checker = new Checker();
+        assertEquals(16, ring.drain(checker));
+        assertEquals(15, checker.last);
+    }
+
+    @Test
+    public void offerAndDrainDoNotAllocate() throws Exception {
+        SampleRing ring = new SampleRing(1024, SampleRing.DROP_OLDEST);
+        Checker checker = new Checker();
+        AllocationCounter counter = new AllocationCounter();
+
+        int n = 100000;
+        counter.start();
+        for (int i = 0; i < n; i++) {
+            ring.offer(1 + i % 3, i, i, 2 * i, -i);
+            if (i % 100 == 99) {
+                ring.drain(checker);
+            }
+        }
+        long allocated = counter.allocatedBytes();
+
+        assertEquals(n, checker.count);
+        assertTrue("allocated " + allocated + " bytes for " + n + " samples", allocated < n);
+    }
+
+    @Test
+    public void blockingKeepsEverySampleUnderLoad() throws Exception {
+        SampleRing ring = new SampleRing(1024, SampleRing.BLOCK);
+        stress(ring);
+        assertEquals(0, ring.getDropped());
+    }
+
+    @Test
+    public void droppingOldSamplesNeverTearsOne() throws Exception {
+        // the producer never waits, so it laps the consumer now and then; every sample the
+        // consumer does get must still be whole
+        SampleRing ring = new SampleRing(1024, SampleRing.DROP_OLDEST);
+        stress(ring);
+    }
+
+    @Test
+    public void droppingNewSamplesAccountsForAll() throws Exception {
+        SampleRing ring = new SampleRing(1024, SampleRing.COUNT_AND_DROP);
+        stress(ring);
+    }
+
+    /**
+     * Offer STRESS_SAMPLES samples as fast as possible from one thread while another drains
+     * them, checking every sample drained, and that they're all accounted for.
+     */
+    private static void stress(final SampleRing ring) throws Exception {
+        final Checker checker = new Checker();
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!done.get()) {
+                    if (ring.drain(checker) == 0) {
+                        Thread.yield();
+                    }
+                }
+                while (ring.drain(checker) > 0) {
+                    // the rest
+                }
+            }
+        });
+        consumer.start();
+
+        for (int i = 0; i < STRESS_SAMPLES; i++) {
+            ring.offer(1 + i % 3, i, i, 2 * i, -i);
+        }
+        done.set(true);
+        consumer.join();
+
+        assertNull(checker.error, checker.error);
+        assertEquals(STRESS_SAMPLES, checker.count + ring.getDropped());
+    }
+
+    // checks that each sample is whole and that they come in order
+    private static class Checker implements SampleRing.Visitor {
+        long count = 0, first = -1, last = -1;
+        String error;
+
+        @Override
+        public void onSample(int type, long time, float x, float y, float z) {
+            if (error != null) {
+                return;
+            }
+            if (time <= last) {
+                error = "sample " + time + " came after " + last;
+            } else if (type != 1 + time % 3 || x != time || y != 2 * time || z != -time) {
+                error = "sample " + time + " is torn: " + type + ", " + x + ", " + y + ", " + z;
+            }
+            if (first == -1) {
+                first = time;
+            }
+            last = time;
+            count++;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package uk.ac.sussex.bee_labe;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SensorReplayTest {
+    private static final long PERIOD = 5000000; // ns
+    private static final int TICKS = 2000; // 10 s
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private RecordingHeader header;
+    private RawLog readings;
+
+    @Before
+    public void setUp() {
+        header = new RecordingHeader(new Date(1505736000000L), 0, "Ann Example", "Phone",
+                AttitudeEstimators.NAMES[2], 0.05f, -0.02f);
+        header.calPitchVariance = 1e-4f;
+        header.calRollVariance = 1e-4f;
+
+        // a phone slowly rocking about its x axis, with a little noise: gyro and accelerometer at
+        // 200 Hz and the magnetometer at 50 Hz
+        readings = new RawLog();
+        Random random = new Random(1);
+        for (int tick = 0; tick < TICKS; tick++) {
+            long time = tick * PERIOD;
+            double t = time * 1e-9;
+            double pitch = 0.3 * Math.sin(t);
+            float cp = (float) Math.cos(pitch), sp = (float) Math.sin(pitch);
+            readings.append(time, SensorTypes.GYROSCOPE, (float) (0.3 * Math.cos(t)) + noise(random, 0.01f),
+                    noise(random, 0.01f), noise(random, 0.01f));
+            readings.append(time, SensorTypes.ACCELEROMETER, noise(random, 0.05f),
+                    9.81f * sp + noise(random, 0.05f), 9.81f * cp + noise(random, 0.05f));
+            if (tick % 4 == 0) {
+                readings.append(time, SensorTypes.MAGNETIC_FIELD, noise(random, 0.5f),
+                        20 * cp - 40 * sp + noise(random, 0.5f), -20 * sp - 40 * cp + noise(random, 0.5f));
+            }
+        }
+    }
+
+    @Test
+    public void givesTheSameResultEveryTime() throws Exception {
+        SensorReplay replay = new SensorReplay(header, readings);
+        Recorder first = replay(replay, -1);
+        Recorder second = replay(replay, -1);
+        assertEquals(readings.size(), replay.readings);
+        assertTrue(first.n > 0);
+        assertEquals(first.n, replay.attitudes);
+        assertArrayEquals(first.times(), second.times());
+        assertArrayEquals(first.values(), second.values(), 0);
+
+        // the filter comes from the header unless another is asked for
+        Recorder other = replay(replay, 0);
+        assertFalse(Arrays.equals(first.values(), other.values()));
+    }
+
+    @Test
+    public void replaysARecording() throws Exception {
+        // record live, as the app would, then play back the raw readings which were saved
+        File dir = folder.newFolder("data");
+        SensorReplay live = new SensorReplay(header, readings);
+        ExperimentData data = new ExperimentData();
+        data.start(dir, header);
+        Recorder recorded = new Recorder();
+        live.run(new SensorProcessor(live.createPipeline(-1), data, true), true,
+                SensorReplay.MAX_SPEED, recorded);
+        String path = data.finish(null);
+
+        File bin = new File(path.substring(0, path.length() - 5) + ".bin");
+        SensorReplay replay = SensorReplay.load(bin);
+        assertEquals(readings.size(), replay.raw.size());
+        assertEquals(header.orientationFilter, replay.header.orientationFilter);
+        Recorder replayed = replay(replay, -1);
+
+        // the saved values are rounded a little, but the times are exact
+        assertEquals(recorded.n, replayed.n);
+        assertArrayEquals(recorded.times(), replayed.times());
+        float[] expected = recorded.values(), actual = replayed.values();
+        for (int i = 0; i < expected.length; i++) {
+            // yaw can come out either side of 0 and 2 pi
+            assertEquals(0, Math.IEEEremainder(expected[i] - actual[i], 2 * Math.PI), 1e-3);
+        }
+    }
+
+    @Test
+    public void keepsToRealTime() throws Exception {
+        RawLog second = new RawLog();
+        for (int i = 0; readings.getTime(i) < 1000000000L; i++) {
+            second.append(readings.getTime(i), readings.getSensorType(i), readings.getValue(i, 0),
+                    readings.getValue(i, 1), readings.getValue(i, 2));
+        }
+        SensorReplay replay = new SensorReplay(header, second);
+        replay.run(new SensorProcessor(replay.createPipeline(-1), null, false), false, 10, null);
+
+        // the last reading is just under a second in, so a tenth of that at 10 times the speed
+        assertTrue(replay.elapsed >= 99000000L);
+        assertTrue(replay.getThroughput() > 0);
+    }
+
+    private static Recorder replay(SensorReplay replay, int estimator) throws InterruptedException {
+        Recorder recorder = new Recorder();
+        replay.run(new SensorProcessor(replay.createPipeline(estimator), null, false), false,
+                SensorReplay.MAX_SPEED, recorder);
+        return recorder;
+    }
+
+    private static float noise(Random random, float sd) {
+        return sd * (float) random.nextGaussian();
+    }
+
+    // keeps every attitude
+    private static class Recorder implements SensorReplay.Listener {
+        private long[] times = new long[1024];
+        private float[] values = new float[3 * 1024];
+        int n;
+
+        @Override
+        public void onAttitude(long timestamp, Attitude attitude) {
+            if (n == times.length) {
+                times = Arrays.copyOf(times, 2 * n);
+                values = Arrays.copyOf(values, 6 * n);
+            }
+            times[n] = timestamp;
+            values[3 * n] = attitude.yaw;
+            values[3 * n + 1] = attitude.pitch;
+            values[3 * n + 2] = attitude.roll;
+            n++;
+        }
+
+        long[] times() {
+            return Arrays.copyOf(times, n);
+        }
+
+        float[] values() {
+            return Arrays.copyOf(values, 3 * n);
+        }
+    }
+}
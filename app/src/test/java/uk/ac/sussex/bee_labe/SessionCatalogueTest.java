@@ -0,0 +1,153 @@
+package uk.ac.sussex.bee_labe;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SessionCatalogueTest {
+    private static final long START_TIME = 123456789L;
+    private static final long PERIOD = 5000000; // ns
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private RecordingHeader header;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = folder.newFolder("data");
+        header = new RecordingHeader(new Date(1505736000000L), START_TIME, "Ann Example",
+                "Phone", "Kalman filter (EKF)", 0.1f, -0.2f);
+        header.calPitchVariance = 1e-4f;
+        header.calRollVariance = 2e-4f;
+    }
+
+    @Test
+    public void listsSessionsAsTheyAreSaved() throws Exception {
+        SessionCatalogue catalogue = new SessionCatalogue(dir);
+        assertTrue(catalogue.sessions().isEmpty());
+        record(catalogue, 100);
+
+        List<SessionCatalogue.Entry> sessions = catalogue.sessions();
+        assertEquals(1, sessions.size());
+        SessionCatalogue.Entry entry = sessions.get(0);
+        assertEquals("Ann Example", entry.experimenter);
+        assertEquals(1505736000000L, entry.startTime);
+        assertTrue(entry.getDuration() >= 0);
+        assertEquals(100, entry.attitudeSamples);
+        assertEquals(300, entry.rawSamples);
+        assertEquals(3, entry.files(dir).size());
+        long size = 0;
+        for (File file : entry.files(dir)) {
+            size += file.length();
+        }
+        assertEquals(size, entry.size);
+        assertFalse(entry.exported);
+
+        // and it's all still there when loaded again
+        SessionCatalogue loaded = new SessionCatalogue(dir);
+        SessionCatalogue.Entry reloaded = loaded.get(entry.name);
+        assertEquals(entry.experimenter, reloaded.experimenter);
+        assertEquals(entry.endTime, reloaded.endTime);
+        assertEquals(entry.rawSamples, reloaded.rawSamples);
+        assertEquals(entry.size, reloaded.size);
+    }
+
+    @Test
+    public void catchesUpWithFilesOnDisk() throws Exception {
+        // a session from before there was a catalogue, and one which has lost its entry
+        record(null, 10);
+        writeFile("data_20170101_093000_BC.json");
+        writeFile("data_20170101_093000_BC_raw.json");
+        SessionCatalogue catalogue = new SessionCatalogue(dir);
+        assertEquals(2, catalogue.sessions().size());
+
+        SessionCatalogue.Entry fromJson = catalogue.get("data_20170101_093000_BC");
+        assertEquals("BC", fromJson.experimenter);
+        assertEquals(-1, fromJson.rawSamples);
+
+        SessionCatalogue.Entry fromBinary = catalogue.sessions().get(1);
+        assertEquals("Ann Example", fromBinary.experimenter);
+        assertEquals(1505736000000L, fromBinary.startTime);
+
+        // sessions whose files have gone are dropped
+        assertTrue(new File(dir, "data_20170101_093000_BC.json").delete());
+        assertTrue(new File(dir, "data_20170101_093000_BC_raw.json").delete());
+        assertEquals(1, new SessionCatalogue(dir).sessions().size());
+    }
+
+    @Test
+    public void startsOverIfUnreadable() throws Exception {
+        record(new SessionCatalogue(dir), 10);
+        FileOutputStream out = new FileOutputStream(new File(dir, SessionCatalogue.FILE_NAME));
+        out.write("nonsense\n".getBytes("UTF-8"));
+        out.close();
+
+        List<SessionCatalogue.Entry> sessions = new SessionCatalogue(dir).sessions();
+        assertEquals(1, sessions.size());
+        assertEquals("Ann Example", sessions.get(0).experimenter);
+    }
+
+    @Test
+    public void marksExportedSessions() throws Exception {
+        SessionCatalogue catalogue = new SessionCatalogue(dir);
+        record(catalogue, 10);
+        File archive = new File(dir, "AB's data.zip");
+        File manifest = new File(dir, "export_manifest.txt");
+        new DataExporter(dir, archive, manifest, folder.newFolder("tmp"), 1, catalogue).export(
+                new DataExporter.Listener() {
+                    @Override
+                    public void onProgress(long bytesDone, long bytesTotal) {
+                    }
+                });
+        assertTrue(catalogue.sessions(SessionCatalogue.UNEXPORTED).isEmpty());
+        assertTrue(new SessionCatalogue(dir).sessions().get(0).exported);
+
+        writeFile("data_20991231_000000_AE.json");
+        catalogue.add(new SessionCatalogue.Entry("data_20991231_000000_AE", "AE", 0, 0, 0, 0, 4, false));
+        assertEquals(1, catalogue.sessions(SessionCatalogue.UNEXPORTED).size());
+    }
+
+    @Test
+    public void deletesSessionFiles() throws Exception {
+        SessionCatalogue catalogue = new SessionCatalogue(dir);
+        record(catalogue, 10);
+        writeFile("notes.txt");
+
+        assertEquals(3, catalogue.delete(catalogue.sessions()));
+        assertTrue(catalogue.sessions().isEmpty());
+        assertTrue(new File(dir, "notes.txt").exists());
+        assertTrue(new SessionCatalogue(dir).sessions().isEmpty());
+    }
+
+    private void record(SessionCatalogue catalogue, int n) throws IOException {
+        ExperimentData data = new ExperimentData(catalogue);
+        data.start(dir, header);
+        Attitude attitude = new Attitude(0.5f, 0.25f, -0.25f);
+        float[] values = { 1, 2, 3 };
+        for (int i = 0; i < n; i++) {
+            long time = START_TIME + i * PERIOD;
+            data.log(time, attitude);
+            data.logRaw(time, SensorTypes.ACCELEROMETER, values);
+            data.logRaw(time, SensorTypes.MAGNETIC_FIELD, values);
+            data.logRaw(time, SensorTypes.GYROSCOPE, values);
+        }
+        data.finish(null);
+    }
+
+    private void writeFile(String name) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(dir, name));
+        out.write("{}\n".getBytes("UTF-8"));
+        out.close();
+    }
+}
@@ -0,0 +1,118 @@
+package uk.ac.sussex.bee_labe;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SessionMetricsTest {
+    @Test
+    public void bucketsCoverEveryValue() throws Exception {
+        int last = -1;
+        for (long v = 0; v < 100000; v++) {
+            int bucket = LogLinearHistogram.bucket(v);
+            assertTrue(bucket == last || bucket == last + 1);
+            assertTrue(LogLinearHistogram.upperBound(bucket) >= v);
+            last = bucket;
+        }
+        assertEquals(LogLinearHistogram.BUCKETS - 1, LogLinearHistogram.bucket(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, LogLinearHistogram.upperBound(LogLinearHistogram.BUCKETS - 1));
+    }
+
+    @Test
+    public void percentilesAreWithinBucketSize() throws Exception {
+        LogLinearHistogram h = new LogLinearHistogram();
+        for (long v = 1; v <= 10000; v++) {
+            h.record(v * 1000);
+        }
+
+        assertEquals(10000, h.count());
+        assertEquals(10000000, h.max());
+        assertEquals(5000500, h.mean(), 1e-6);
+        assertEquals(5000000, h.percentile(50), 5000000 * 0.035);
+        assertEquals(9900000, h.percentile(99), 9900000 * 0.035);
+        assertEquals(10000000, h.percentile(100));
+        assertEquals(5001, h.countAtLeast(5000000), 5000 * 0.035);
+    }
+
+    @Test
+    public void estimatesMissedReadings() throws Exception {
+        StreamMetrics stream = new StreamMetrics("acc");
+        stream.requestedPeriod = 5000000;
+
+        long t = 0;
+        for (int i = 0; i < 100; i++) {
+            // a gap of 4 periods every 10 readings
+            t += i % 10 == 9 ? 20000000 : 5000000;
+            stream.record(t, t + 1000000, t + 1010000, i % 2 == 0);
+        }
+
+        assertEquals(100, stream.received);
+        assertEquals(50, stream.logged);
+        assertEquals(30, stream.missed);
+        assertEquals(99, stream.interval.count());
+        assertEquals(1000000, stream.latency.percentile(50), 1000000 * 0.035);
+        assertEquals(10000, stream.handling.max());
+    }
+
+    @Test
+    public void resetsOnRequest() throws Exception {
+        SessionMetrics metrics = new SessionMetrics();
+        metrics.record(SensorTypes.GYROSCOPE, 0, 10, 20, false);
+        metrics.record(99, 0, 10, 20, false);
+        assertEquals(1, metrics.stream(SensorTypes.GYROSCOPE).received);
+
+        metrics.requestReset();
+        assertEquals(1, metrics.stream(SensorTypes.GYROSCOPE).received);
+        metrics.record(SensorTypes.ACCELEROMETER, 0, 10, 20, true);
+        assertEquals(0, metrics.stream(SensorTypes.GYROSCOPE).received);
+        assertEquals(1, metrics.stream(SensorTypes.ACCELEROMETER).logged);
+    }
+
+    @Test
+    public void roundTrips() throws Exception {
+        SessionMetrics metrics = new SessionMetrics();
+        metrics.setRequestedPeriods(RecordingProfile.PROFILES[1]);
+        Random random = new Random(1);
+        long t = 0;
+        for (int i = 0; i < 10000; i++) {
+            t += 4000000 + random.nextInt(2000000);
+            metrics.record(1 + i % 3, t, t + random.nextInt(10000000), t + 20000000, true);
+            metrics.pauses.record(random.nextInt(1000000));
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(metrics.serializedSize()).order(ByteOrder.LITTLE_ENDIAN);
+        metrics.writeTo(buffer);
+        assertFalse(buffer.hasRemaining());
+        buffer.flip();
+        SessionMetrics read = SessionMetrics.readFrom(buffer, 3);
+
+        assertEquals(json(metrics), json(read));
+        assertEquals(metrics.format(), read.format());
+        assertEquals(10000000L, read.stream(SensorTypes.MAGNETIC_FIELD).requestedPeriod);
+    }
+
+    @Test
+    public void pauseDetectorSeesStalls() throws Exception {
+        LogLinearHistogram pauses = new LogLinearHistogram();
+        PauseDetector detector = new PauseDetector(pauses);
+        detector.start();
+        Thread.sleep(300);
+        detector.stop();
+
+        assertFalse(detector.isRunning());
+        assertTrue(pauses.count() > 5);
+    }
+
+    private static String json(SessionMetrics metrics) throws Exception {
+        StringWriter out = new StringWriter();
+        JsonStreamWriter writer = new JsonStreamWriter(out);
+        metrics.writeJson(writer);
+        writer.close();
+        return out.toString();
+    }
+}
@@ -0,0 +1,159 @@
+package uk.ac.sussex.bee_labe;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StreamCodecTest {
+    private static final long START_TIME = 987654321L;
+    private static final int N = 5000;
+
+    private final StreamCodec codec = new StreamCodec();
+    private final ByteBuffer buffer = ByteBuffer.allocate(StreamCodec.MAX_RAW_HEADER_SIZE
+            + N * StreamCodec.MAX_RAW_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    @Test
+    public void varints() {
+        long[] values = { 0, 1, -1, 63, -64, 64, 300, -300, Integer.MAX_VALUE, Integer.MIN_VALUE,
+                Long.MAX_VALUE, Long.MIN_VALUE };
+        for (long value : values) {
+            StreamCodec.putVarLong(buffer, StreamCodec.zigzag(value));
+        }
+        assertEquals(1, sizeOf(0));
+        assertEquals(1, sizeOf(-64));
+        assertEquals(2, sizeOf(64));
+        assertEquals(10, sizeOf(Long.MIN_VALUE));
+
+        buffer.flip();
+        for (long value : values) {
+            assertEquals(value, StreamCodec.unzigzag(StreamCodec.getVarLong(buffer)));
+        }
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void attitudeRoundTrip() throws IOException {
+        // a slow random walk, sampled with some jitter, with yaw going round the circle
+        Random random = new Random(1);
+        AttitudeLog log = new AttitudeLog();
+        long time = START_TIME - 20000000L; // samples can come from before the start
+        float yaw = 3, pitch = 0, roll = 0;
+        for (int i = 0; i < N; i++) {
+            time += 5000000 + random.nextInt(20000) - 10000;
+            yaw = (float) Math.IEEEremainder(yaw + 0.01 + 0.002 * random.nextGaussian(), 2 * Math.PI);
+            pitch += 0.001f * (float) random.nextGaussian();
+            roll += 0.001f * (float) random.nextGaussian();
+            log.append(time, yaw, pitch, roll);
+        }
+
+        codec.encodeAttitude(buffer, log, 0, N, START_TIME);
+        int size = buffer.position();
+        buffer.flip();
+        Samples samples = new Samples();
+        codec.decodeAttitude(buffer, N, samples);
+        assertFalse(buffer.hasRemaining());
+
+        double tolerance = codec.angleResolution / 2 + 1e-6; // and float rounding
+        for (int i = 0; i < N; i++) {
+            assertEquals(log.getTime(i) - START_TIME, (long) samples.times.get(i));
+            assertEquals(log.getYaw(i), samples.values.get(i)[0], tolerance);
+            assertEquals(log.getPitch(i), samples.values.get(i)[1], tolerance);
+            assertEquals(log.getRoll(i), samples.values.get(i)[2], tolerance);
+        }
+
+        // a fraction of the 20 bytes each sample takes in full
+        assertTrue("bytes per sample: " + (double) size / N, size < N * 10);
+    }
+
+    @Test
+    public void rawRoundTrip() throws IOException {
+        // the sensors interleaved, as they arrive, each noisy and at its own rate
+        Random random = new Random(2);
+        RawLog log = new RawLog();
+        int[] types = { SensorTypes.ACCELEROMETER, SensorTypes.GYROSCOPE, SensorTypes.MAGNETIC_FIELD, 17 };
+        long[] periods = { 5000000, 5000000, 10000000, 20000000 };
+        float[] scales = { 9.8f, 0.5f, 50, 1 };
+        long[] next = new long[types.length];
+        for (int i = 0; i < N; i++) {
+            int s = 0;
+            for (int j = 1; j < types.length; j++) {
+                if (next[j] < next[s]) {
+                    s = j;
+                }
+            }
+            long time = START_TIME + next[s] + random.nextInt(5000);
+            next[s] += periods[s];
+            log.append(time, types[s], scales[s] * (float) random.nextGaussian(),
+                    scales[s] * (float) random.nextGaussian(), scales[s] + 0.01f * (float) random.nextGaussian());
+        }
+
+        codec.encodeRaw(buffer, log, 0, N, START_TIME);
+        buffer.flip();
+        Samples samples = new Samples();
+        codec.decodeRaw(buffer, N, samples);
+        assertFalse(buffer.hasRemaining());
+
+        for (int i = 0; i < N; i++) {
+            int type = log.getSensorType(i);
+            assertEquals(type, (int) samples.types.get(i));
+            assertEquals(log.getTime(i) - START_TIME, (long) samples.times.get(i));
+            double tolerance = codec.rawResolution(type) / 2 + 1e-5;
+            for (int axis = 0; axis < 3; axis++) {
+                assertEquals(log.getValue(i, axis), samples.values.get(i)[axis], tolerance);
+            }
+        }
+    }
+
+    @Test
+    public void blocksDecodeOnTheirOwn() throws IOException {
+        AttitudeLog log = new AttitudeLog();
+        for (int i = 0; i < 100; i++) {
+            log.append(START_TIME + 1000L * i * i, 0.001f * i, 0, 0);
+        }
+
+        // the second block doesn't depend on the first
+        codec.encodeAttitude(buffer, log, 0, 50, START_TIME);
+        int second = buffer.position();
+        codec.encodeAttitude(buffer, log, 50, 100, START_TIME);
+        buffer.flip();
+        buffer.position(second);
+
+        Samples samples = new Samples();
+        new StreamCodec().decodeAttitude(buffer, 50, samples);
+        assertEquals(1000L * 50 * 50, (long) samples.times.get(0));
+        assertEquals(1000L * 99 * 99, (long) samples.times.get(49));
+        assertEquals(0.099f, samples.values.get(49)[0], 1e-5);
+    }
+
+    private int sizeOf(long value) {
+        ByteBuffer b = ByteBuffer.allocate(10);
+        StreamCodec.putVarLong(b, StreamCodec.zigzag(value));
+        return b.position();
+    }
+
+    private static class Samples implements BinaryRecordingReader.Visitor {
+        final List<Long> times = new ArrayList<>();
+        final List<Integer> types = new ArrayList<>();
+        final List<float[]> values = new ArrayList<>();
+
+        @Override
+        public void onAttitude(long time, float yaw, float pitch, float roll) {
+            times.add(time);
+            values.add(new float[] { yaw, pitch, roll });
+        }
+
+        @Override
+        public void onRaw(long time, int sensorType, float x, float y, float z) {
+            times.add(time);
+            types.add(sensorType);
+            values.add(new float[] { x, y, z });
+        }
+    }
+}
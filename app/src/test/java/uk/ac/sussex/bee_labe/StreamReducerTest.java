@@ -0,0 +1,90 @@
+package uk.ac.sussex.bee_labe;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StreamReducerTest {
+    private static final long PERIOD = 5000000; // ns
+
+    @Test
+    public void passesEverythingThroughByDefault() {
+        StreamReducer reducer = new StreamReducer(StreamReduction.NONE, false);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(reducer.add(i * PERIOD, i, -i, 2 * i));
+            assertEquals(i * PERIOD, reducer.time);
+            assertEquals(-i, reducer.values[1], 0);
+        }
+    }
+
+    @Test
+    public void decimatesByAveraging() {
+        StreamReducer reducer = new StreamReducer(new StreamReduction(4, 0, 0), false);
+        int stored = 0;
+        for (int i = 0; i < 100; i++) {
+            if (reducer.add(i * PERIOD, i, 1, (i % 2) * 2 - 1)) {
+                // the mean of the last four samples, at the middle of their times
+                assertEquals((i - 1.5) * PERIOD, reducer.time, 1);
+                assertEquals(i - 1.5, reducer.values[0], 1e-5);
+                assertEquals(1, reducer.values[1], 0);
+
+                // something at the stored rate's Nyquist frequency (or above) cancels out
+                assertEquals(0, reducer.values[2], 0);
+                stored++;
+            }
+        }
+        assertEquals(25, stored);
+    }
+
+    @Test
+    public void averagesAnglesTheShortWayRound() {
+        StreamReducer reducer = new StreamReducer(new StreamReduction(2, 0, 0), true);
+        assertFalse(reducer.add(0, (float) Math.PI - 0.1f, 0.1f, 0));
+        assertTrue(reducer.add(PERIOD, (float) -Math.PI + 0.05f, -0.1f, 0));
+        assertEquals(Math.PI - 0.025, reducer.values[0], 1e-5);
+        assertEquals(0, reducer.values[1], 1e-6);
+    }
+
+    @Test
+    public void keepsYawPositive() {
+        // the yaw stays in [0, 2pi), as saved, while the pitch and roll can be negative
+        StreamReducer reducer = new StreamReducer(new StreamReduction(4, 0, 0), true);
+        reducer.add(0, 3.9f, 0, -1);
+        reducer.add(PERIOD, 4.0f, 0, -1);
+        reducer.add(2 * PERIOD, 4.1f, 0, -1);
+        assertTrue(reducer.add(3 * PERIOD, 4.0f, 0, -1));
+        assertEquals(4.0, reducer.values[0], 1e-5);
+        assertEquals(-1, reducer.values[2], 1e-6);
+
+        // either side of north
+        reducer.add(4 * PERIOD, 6.2f, 3.1f, 0);
+        reducer.add(5 * PERIOD, 0.1f, 3.1f, 0);
+        reducer.add(6 * PERIOD, 6.25f, -3.1f, 0);
+        assertTrue(reducer.add(7 * PERIOD, 0.05f, -3.1f, 0));
+        assertTrue(reducer.values[0] >= 0 && reducer.values[0] < 2 * Math.PI);
+        assertEquals(0.0084, reducer.values[0], 1e-4);
+        assertEquals(Math.PI, Math.abs(reducer.values[1]), 1e-5);
+    }
+
+    @Test
+    public void deadbandOnlyStoresChanges() {
+        long heartbeat = 1000000000L;
+        StreamReducer reducer = new StreamReducer(new StreamReduction(1, 0.01f, heartbeat), true);
+        assertTrue(reducer.add(0, 0, 0, 3.14f));
+
+        // small changes are dropped, even across the +-pi boundary
+        assertFalse(reducer.add(PERIOD, 0.005f, -0.005f, -3.14f));
+        assertFalse(reducer.add(2 * PERIOD, 0.009f, 0, 3.14f));
+        assertTrue(reducer.add(3 * PERIOD, 0.02f, 0, 3.14f));
+        assertEquals(3 * PERIOD, reducer.time);
+
+        // but a sample is stored at least once per heartbeat
+        int stored = 0;
+        for (int i = 4; i < 4 + 2 * heartbeat / PERIOD; i++) {
+            if (reducer.add(i * PERIOD, 0.02f, 0, 3.14f)) {
+                stored++;
+            }
+        }
+        assertEquals(2, stored);
+    }
+}
@@ -0,0 +1,170 @@
+package uk.ac.sussex.bee_labe;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TelemetryStreamerTest {
+    private static final long PERIOD = 1000000; // ns
+
+    // stands in for the machine the data are streamed to
+    private DatagramChannel receiver;
+    private TelemetryStreamer streamer;
+
+    @Before
+    public void setUp() throws Exception {
+        receiver = DatagramChannel.open();
+        receiver.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        receiver.configureBlocking(false);
+        streamer = new TelemetryStreamer("127.0.0.1", receiver.socket().getLocalPort());
+        streamer.connect();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        receiver.close();
+    }
+
+    private static void assertTarget(String host, int port, String target) {
+        InetSocketAddress address = TelemetryStreamer.parseTarget(target);
+        assertNotNull(target, address);
+        assertEquals(host, address.getHostString());
+        assertEquals(port, address.getPort());
+    }
+
+    @Test
+    public void coalescesSamplesIntoFrames() throws Exception {
+        int n = 2 * TelemetryFormat.MAX_SAMPLES + 10;
+        for (int i = 0; i < n; i++) {
+            publish(i);
+        }
+        streamer.sendFrames();
+
+        // as few frames as they fit in
+        Collector collector = new Collector();
+        TelemetryFormat format = new TelemetryFormat();
+        for (int sequence = 0; sequence < 3; sequence++) {
+            ByteBuffer frame = receive(1000);
+            assertNotNull(frame);
+            assertTrue(frame.remaining() <= TelemetryFormat.MAX_FRAME_SIZE);
+            format.read(frame, collector);
+            assertEquals(sequence, format.sequence);
+            assertEquals(0, format.dropped);
+        }
+        assertNull(receive(0));
+        assertEquals(3, streamer.framesSent);
+
+        assertEquals(n, collector.times.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(i * PERIOD, (long) collector.times.get(i));
+            assertEquals(i % 2 == 0 ? ReductionProfile.ATTITUDE : SensorTypes.GYROSCOPE,
+                    (int) collector.streams.get(i));
+            assertEquals(i, collector.values.get(3 * i), 0);
+            assertEquals(-i, collector.values.get(3 * i + 2), 0);
+        }
+
+        // and only what's new is sent next time
+        publish(n);
+        streamer.sendFrames();
+        collector = new Collector();
+        format.read(receive(1000), collector);
+        assertEquals(3, format.sequence);
+        assertEquals(1, collector.times.size());
+    }
+
+    @Test
+    public void parsesTargets() throws Exception {
+        assertTarget("laptop.local", TelemetryStreamer.DEFAULT_PORT, "laptop.local");
+        assertTarget("192.168.1.20", 6000, "192.168.1.20:6000");
+        assertTarget("fe80::1", 6000, "[fe80::1]:6000");
+        assertTarget("::1", TelemetryStreamer.DEFAULT_PORT, "[::1]");
+
+        // an IPv6 address has to be in brackets, or its last part would look like a port
+        for (String target : new String[] { "fe80::1", "fe80::1:6000", "[fe80::1", "[::1]6000",
+                ":6000", "laptop:", "laptop:x", "laptop:70000", "[]:6000" }) {
+            assertNull(target, TelemetryStreamer.parseTarget(target));
+        }
+    }
+
+    @Test
+    public void dropsStaleSamples() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            publish(i);
+        }
+        // a second later, e.g. after a pause
+        publish(1000);
+        streamer.sendFrames();
+
+        Collector collector = new Collector();
+        TelemetryFormat format = new TelemetryFormat();
+        format.read(receive(1000), collector);
+        assertEquals(1, collector.times.size());
+        assertEquals(1000 * PERIOD, (long) collector.times.get(0));
+        assertEquals(100, format.dropped);
+        assertEquals(100, streamer.getDroppedSamples());
+    }
+
+    @Test
+    public void limitsFramesPerInterval() throws Exception {
+        // more than can be sent in one go, but not so many that the ring overwrites any
+        int n = 1000;
+        for (int i = 0; i < n; i++) {
+            streamer.publish(SensorTypes.ACCELEROMETER, i * 1000, i, 0, 0);
+        }
+        streamer.sendFrames();
+
+        int frames = 0;
+        while (receive(frames == 0 ? 1000 : 100) != null) {
+            frames++;
+        }
+        assertTrue(frames > 1);
+        assertTrue(frames < n / TelemetryFormat.MAX_SAMPLES);
+        assertEquals(n - frames * TelemetryFormat.MAX_SAMPLES, streamer.getDroppedSamples());
+    }
+
+    private void publish(int i) {
+        if (i % 2 == 0) {
+            streamer.publish(i * PERIOD, new Attitude(i, 0.5f, -i));
+        } else {
+            streamer.publish(SensorTypes.GYROSCOPE, i * PERIOD, i, 0.5f, -i);
+        }
+    }
+
+    // wait up to the timeout (ms) for a datagram, returning null if none came
+    private ByteBuffer receive(long timeout) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(2 * TelemetryFormat.MAX_FRAME_SIZE);
+        long giveUpAt = System.currentTimeMillis() + timeout;
+        while (receiver.receive(buffer) == null) {
+            if (System.currentTimeMillis() >= giveUpAt) {
+                return null;
+            }
+            Thread.sleep(1);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static class Collector implements SampleRing.Visitor {
+        final List<Integer> streams = new ArrayList<>();
+        final List<Long> times = new ArrayList<>();
+        final List<Float> values = new ArrayList<>();
+
+        @Override
+        public void onSample(int stream, long time, float x, float y, float z) {
+            streams.add(stream);
+            times.add(time);
+            values.add(x);
+            values.add(y);
+            values.add(z);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package uk.ac.sussex.bee_labe;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to turn an orientation into a calibrated attitude (including normalising the angles),
+ * over orientations spread across the whole range so that every branch gets taken.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CalibrationBenchmark {
+    private static final int N = 1024;
+
+    private final float[][] orients = new float[N][3];
+    private final Attitude attitude = new Attitude(0, 0, 0);
+    private CalibrationHandler cal;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        for (float[] orient : orients) {
+            orient[0] = (float) ((2 * random.nextDouble() - 1) * Math.PI);
+            orient[1] = (float) ((random.nextDouble() - 0.5) * Math.PI);
+            orient[2] = (float) ((2 * random.nextDouble() - 1) * Math.PI);
+        }
+
+        cal = new CalibrationHandler(new CalibrationHandler.Listener() {
+            @Override
+            public void stopCalibration() {
+            }
+        });
+        cal.pitch = 0.2f;
+        cal.roll = -0.3f;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void getAttitude(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            cal.getAttitude(orients[i], i, attitude);
+            bh.consume(attitude.pitch);
+        }
+    }
+}
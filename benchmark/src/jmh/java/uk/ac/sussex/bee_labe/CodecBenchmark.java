@@ -0,0 +1,99 @@
+package uk.ac.sussex.bee_labe;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of packing a block of samples with StreamCodec, as BinaryRecordingSink does on the
+ * writer thread, and of unpacking it again. SerialisationBenchmark compares the whole files.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CodecBenchmark {
+    private static final int N = 1024; // samples, a bit less than a block
+
+    private final AttitudeLog attitudeLog = new AttitudeLog();
+    private final RawLog rawLog = new RawLog();
+    private final StreamCodec codec = new StreamCodec();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(StreamCodec.MAX_RAW_HEADER_SIZE
+            + N * StreamCodec.MAX_RAW_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer packedAttitude, packedRaw;
+
+    private final Sum sum = new Sum();
+
+    // adds up the decoded values, so they're used
+    private static class Sum implements BinaryRecordingReader.Visitor {
+        float total;
+
+        @Override
+        public void onAttitude(long time, float yaw, float pitch, float roll) {
+            total += yaw;
+        }
+
+        @Override
+        public void onRaw(long time, int sensorType, float x, float y, float z) {
+            total += x;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        SyntheticSensors sensors = new SyntheticSensors(N, 1);
+        for (int i = 0; i < N; i++) {
+            float[] v = sensors.values[i];
+            // slowly changing angles, like real ones
+            attitudeLog.append(sensors.times[i], 0.001f * i, (float) Math.sin(0.01 * i), 0.1f);
+            rawLog.append(sensors.times[i], sensors.types[i], v[0], v[1], v[2]);
+        }
+
+        packedAttitude = ByteBuffer.allocate(buffer.capacity()).order(ByteOrder.LITTLE_ENDIAN);
+        codec.encodeAttitude(packedAttitude, attitudeLog, 0, N, 0);
+        packedAttitude.flip();
+        packedRaw = ByteBuffer.allocate(buffer.capacity()).order(ByteOrder.LITTLE_ENDIAN);
+        codec.encodeRaw(packedRaw, rawLog, 0, N, 0);
+        packedRaw.flip();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int encodeAttitude() {
+        buffer.clear();
+        codec.encodeAttitude(buffer, attitudeLog, 0, N, 0);
+        return buffer.position();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int encodeRaw() {
+        buffer.clear();
+        codec.encodeRaw(buffer, rawLog, 0, N, 0);
+        return buffer.position();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public float decodeAttitude() throws IOException {
+        codec.decodeAttitude(packedAttitude.duplicate().order(ByteOrder.LITTLE_ENDIAN), N, sum);
+        return sum.total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public float decodeRaw() throws IOException {
+        codec.decodeRaw(packedRaw.duplicate().order(ByteOrder.LITTLE_ENDIAN), N, sum);
+        return sum.total;
+    }
+}
@@ -0,0 +1,51 @@
+package uk.ac.sussex.bee_labe;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of logging samples, as ExperimentData.log() and logRaw() do on the sensor thread.
+ * After each batch the log is cleared, which puts the chunks back in the pool as discarding
+ * them once they are on disk does, so this measures the steady state in which chunks are reused.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LogBenchmark {
+    private static final int N = 4 * AttitudeLog.CHUNK_SIZE;
+
+    private final AttitudeLog attitudeLog = new AttitudeLog();
+    private final RawLog rawLog = new RawLog();
+    private final Attitude attitude = new Attitude(0.1f, 0.2f, 0.3f);
+    private final float[] values = { 0.1f, 9.8f, 0.2f };
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int appendAttitude() {
+        for (int i = 0; i < N; i++) {
+            attitudeLog.append(i, attitude.yaw, attitude.pitch, attitude.roll);
+        }
+        int size = attitudeLog.size();
+        attitudeLog.clear();
+        return size;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int appendRaw() {
+        for (int i = 0; i < N; i++) {
+            rawLog.append(i, SensorTypes.ACCELEROMETER, values[0], values[1], values[2]);
+        }
+        int size = rawLog.size();
+        rawLog.clear();
+        return size;
+    }
+}
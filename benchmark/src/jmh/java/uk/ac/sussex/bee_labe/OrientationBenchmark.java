@@ -0,0 +1,102 @@
+package uk.ac.sussex.bee_labe;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time per sensor reading to get from raw readings to a calibrated attitude, for each of the
+ * orientation filters, and for the rotation matrix maths on its own: the way SensorManager
+ * does it (a matrix, then the angles from it), and fused into one step with either Math or
+ * FastTrig.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OrientationBenchmark {
+    private static final int N = 4096;
+
+    // index into AttitudeEstimators.NAMES
+    @Param({"0", "1", "2", "3"})
+    public int estimator;
+
+    private SyntheticSensors sensors;
+    private OrientationPipeline pipeline;
+    private final float[] R = new float[9];
+    private final float[] orient = new float[3];
+
+    @Setup
+    public void setup() {
+        sensors = new SyntheticSensors(N, 1);
+        CalibrationHandler cal = new CalibrationHandler(new CalibrationHandler.Listener() {
+            @Override
+            public void stopCalibration() {
+            }
+        });
+        pipeline = new OrientationPipeline(cal, AttitudeEstimators.create(estimator));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void pipeline(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(pipeline.onSensorChanged(sensors.types[i], sensors.times[i],
+                    sensors.values[i]));
+        }
+        bh.consume(pipeline.attitude.yaw);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void rotationMatrix(Blackhole bh) {
+        // pair each accelerometer reading with the magnetometer reading that came after it
+        float[] gravity = sensors.values[0], geomagnetic = sensors.values[0];
+        for (int i = 0; i < N; i++) {
+            if (sensors.types[i] == SensorTypes.ACCELEROMETER) {
+                gravity = sensors.values[i];
+            } else if (sensors.types[i] == SensorTypes.MAGNETIC_FIELD) {
+                geomagnetic = sensors.values[i];
+            }
+            if (Rotations.getRotationMatrix(R, gravity, geomagnetic)) {
+                Rotations.getOrientation(R, orient);
+            }
+            bh.consume(orient[0]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void fusedOrientation(Blackhole bh) {
+        fused(bh, false);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void fusedOrientationFastTrig(Blackhole bh) {
+        fused(bh, true);
+    }
+
+    private void fused(Blackhole bh, boolean fastTrig) {
+        // the same readings as rotationMatrix()
+        float[] gravity = sensors.values[0], geomagnetic = sensors.values[0];
+        for (int i = 0; i < N; i++) {
+            if (sensors.types[i] == SensorTypes.ACCELEROMETER) {
+                gravity = sensors.values[i];
+            } else if (sensors.types[i] == SensorTypes.MAGNETIC_FIELD) {
+                geomagnetic = sensors.values[i];
+            }
+            Rotations.getOrientation(gravity, geomagnetic, fastTrig, orient);
+            bh.consume(orient[0]);
+        }
+    }
+}
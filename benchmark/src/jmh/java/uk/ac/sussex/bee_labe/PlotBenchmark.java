@@ -0,0 +1,77 @@
+package uk.ac.sussex.bee_labe;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to make a screen-wide trace of the whole of recordings of different lengths, and of an
+ * hour in the middle, from an AttitudePyramid and by going through every sample as the
+ * recording's data list would have to be. From the pyramid it should hardly depend on the
+ * length.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PlotBenchmark {
+    private static final long PERIOD = 10000000L; // 100 Hz (ns)
+    private static final long HOUR = 3600000000000L; // ns
+    private static final int COLUMNS = 1080;
+
+    @Param({"1", "4"})
+    public int hours;
+
+    private AttitudeLog dataList;
+    private AttitudePyramid pyramid;
+
+    @Setup
+    public void setup() {
+        dataList = new AttitudeLog();
+        pyramid = new AttitudePyramid();
+        for (long time = 0; time < hours * HOUR; time += PERIOD) {
+            float t = time * 1e-9f;
+            float yaw = 0.3f * t % 6.28f, pitch = (float) Math.sin(t), roll = -0.25f;
+            dataList.append(time, yaw, pitch, roll);
+            pyramid.add(time, yaw, pitch, roll);
+        }
+    }
+
+    @Benchmark
+    public PlotTrace wholeFromPyramid() {
+        PlotTrace trace = new PlotTrace(0, hours * HOUR, COLUMNS);
+        pyramid.render(trace);
+        return trace;
+    }
+
+    @Benchmark
+    public PlotTrace wholeFromSamples() {
+        PlotTrace trace = new PlotTrace(0, hours * HOUR, COLUMNS);
+        addSamples(trace);
+        return trace;
+    }
+
+    @Benchmark
+    public PlotTrace hourFromPyramid() {
+        PlotTrace trace = new PlotTrace((hours - 1) * HOUR / 2, (hours + 1) * HOUR / 2, COLUMNS);
+        pyramid.render(trace);
+        return trace;
+    }
+
+    private void addSamples(PlotTrace trace) {
+        for (int i = 0; i < dataList.size(); i++) {
+            trace.add(dataList.getTime(i), dataList.getYaw(i), dataList.getPitch(i), dataList.getRoll(i));
+        }
+    }
+}
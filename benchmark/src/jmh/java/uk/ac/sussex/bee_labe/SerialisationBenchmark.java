@@ -0,0 +1,136 @@
+package uk.ac.sussex.bee_labe;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to save a whole session of attitude samples and raw readings in each of the file
+ * formats, writing in batches as StreamingWriter does, and to record a session end to end
+ * through ExperimentData.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class SerialisationBenchmark {
+    // about what gets logged in half a second at the fastest sensor rates
+    private static final int BATCH = 256;
+
+    @Param({"1000000"})
+    public int samples;
+
+    private final AttitudeLog attitudeLog = new AttitudeLog();
+    private final RawLog rawLog = new RawLog();
+    private SyntheticSensors sensors;
+    private File dir;
+    private long savedSize;
+
+    @Setup
+    public void setup() throws IOException {
+        sensors = new SyntheticSensors(samples, 1);
+        for (int i = 0; i < samples; i++) {
+            float[] v = sensors.values[i];
+            // any old angles will do, as long as they vary like real ones
+            attitudeLog.append(sensors.times[i], v[0], v[1], v[2]);
+            rawLog.append(sensors.times[i], sensors.types[i], v[0], v[1], v[2]);
+        }
+
+        dir = File.createTempFile("bee_labe", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Couldn't create " + dir);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteFiles() {
+        savedSize = 0;
+        for (File file : dir.listFiles()) {
+            savedSize += file.length();
+            file.delete();
+        }
+    }
+
+    @TearDown
+    public void deleteDir() {
+        dir.delete();
+
+        // JMH only measures time, so report how much space the session took as well
+        System.out.printf("%nSaved %d bytes (%.1f per attitude sample and raw reading)%n",
+                savedSize, savedSize / (2.0 * samples));
+    }
+
+    @State(Scope.Benchmark)
+    public static class Format {
+        // binary is at full precision, and packed uses StreamCodec
+        @Param({"json", "binary", "packed"})
+        public String name;
+    }
+
+    @Benchmark
+    public void write(Format format) throws IOException {
+        RecordingSink sink;
+        if (format.name.equals("json")) {
+            sink = new JsonRecordingSink(new File(dir, "data.json"), new File(dir, "data_raw.json"));
+        } else if (format.name.equals("binary")) {
+            sink = new BinaryRecordingSink(new File(dir, "data.bin"));
+        } else {
+            sink = new BinaryRecordingSink(new File(dir, "data.bin"), new StreamCodec());
+        }
+
+        try {
+            sink.begin(header());
+            for (int from = 0; from < samples; from += BATCH) {
+                int to = Math.min(from + BATCH, samples);
+                sink.writeData(attitudeLog, from, to);
+                sink.writeRaw(rawLog, from, to);
+                sink.flush();
+            }
+            sink.finish(new Date(), null);
+        } finally {
+            sink.close();
+        }
+    }
+
+    /**
+     * Log a session as fast as possible while StreamingWriter saves it in the background (in
+     * every format), including waiting for the last of it to be written out.
+     */
+    @Benchmark
+    public String record() throws IOException {
+        ExperimentData data = new ExperimentData();
+        data.start(dir, header());
+
+        Attitude attitude = new Attitude(0, 0, 0);
+        for (int i = 0; i < samples; i++) {
+            float[] v = sensors.values[i];
+            attitude.yaw = v[0];
+            attitude.pitch = v[1];
+            attitude.roll = v[2];
+            data.log(sensors.times[i], attitude);
+            data.logRaw(sensors.times[i], sensors.types[i], v);
+        }
+        return data.finish(null);
+    }
+
+    private static RecordingHeader header() {
+        return new RecordingHeader(new Date(), 0, "Benchmark", "JVM", AttitudeEstimators.NAMES[0],
+                0, 0);
+    }
+}
@@ -0,0 +1,74 @@
+package uk.ac.sussex.bee_labe;
+
+import java.util.Random;
+
+/**
+ * Sensor readings from a phone being waved about, for benchmarking: the gyroscope and
+ * accelerometer at 200 Hz and the magnetometer at 50 Hz, interleaved as the framework would
+ * deliver them, with a little noise.
+ */
+
+class SyntheticSensors {
+    private static final long PERIOD = 5000000; // ns
+
+    final int[] types;
+    final long[] times;
+    final float[][] values;
+
+    SyntheticSensors(int n, long seed) {
+        types = new int[n];
+        times = new long[n];
+        values = new float[n][3];
+
+        Random random = new Random(seed);
+        float[] R = new float[9];
+        int tick = 0;
+        for (int i = 0; i < n; tick++) {
+            long time = tick * PERIOD;
+            double t = time * 1e-9;
+            double yaw = 0.8 * Math.sin(0.3 * t);
+            double pitch = 0.5 * Math.sin(1.1 * t);
+            double roll = 0.4 * Math.cos(0.7 * t);
+            rotation(R, yaw, pitch, roll);
+
+            i = add(i, SensorTypes.GYROSCOPE, time, (float) (0.5 * 1.1 * Math.cos(1.1 * t)),
+                    (float) (-0.4 * 0.7 * Math.sin(0.7 * t)), (float) (0.8 * 0.3 * Math.cos(0.3 * t)),
+                    0.01f, random);
+            if (i < n) {
+                // world -> device is the transpose of R
+                i = add(i, SensorTypes.ACCELEROMETER, time, 9.81f * R[6], 9.81f * R[7],
+                        9.81f * R[8], 0.05f, random);
+            }
+            if (i < n && tick % 4 == 0) {
+                i = add(i, SensorTypes.MAGNETIC_FIELD, time, 20 * R[3] - 40 * R[6],
+                        20 * R[4] - 40 * R[7], 20 * R[5] - 40 * R[8], 0.5f, random);
+            }
+        }
+    }
+
+    private int add(int i, int type, long time, float x, float y, float z, float noise,
+                    Random random) {
+        types[i] = type;
+        times[i] = time;
+        values[i][0] = x + noise * (float) random.nextGaussian();
+        values[i][1] = y + noise * (float) random.nextGaussian();
+        values[i][2] = z + noise * (float) random.nextGaussian();
+        return i + 1;
+    }
+
+    // device -> world rotation matrix (row major) for the given yaw (z), pitch (x) and roll (y)
+    private static void rotation(float[] R, double yaw, double pitch, double roll) {
+        double cy = Math.cos(yaw), sy = Math.sin(yaw);
+        double cp = Math.cos(pitch), sp = Math.sin(pitch);
+        double cr = Math.cos(roll), sr = Math.sin(roll);
+        R[0] = (float) (cy * cr - sy * sp * sr);
+        R[1] = (float) (-sy * cp);
+        R[2] = (float) (cy * sr + sy * sp * cr);
+        R[3] = (float) (sy * cr + cy * sp * sr);
+        R[4] = (float) (cy * cp);
+        R[5] = (float) (sy * sr - cy * sp * cr);
+        R[6] = (float) (-cp * sr);
+        R[7] = (float) sp;
+        R[8] = (float) (cp * cr);
+    }
+}
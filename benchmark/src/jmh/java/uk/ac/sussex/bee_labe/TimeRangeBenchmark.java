@@ -0,0 +1,114 @@
+package uk.ac.sussex.bee_labe;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to read ten seconds from the middle of packed recordings of different lengths, with the
+ * index and by going through the whole file. With the index it should hardly depend on the
+ * length.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TimeRangeBenchmark {
+    private static final long SECOND = 1000000000L; // ns
+    private static final long RANGE = 10 * SECOND;
+
+    @Param({"10", "60", "240"})
+    public int minutes;
+
+    private File file;
+    private BinaryRecordingReader reader;
+    private long from;
+    private final Count count = new Count();
+
+    // counts the samples in the range
+    private class Count implements BinaryRecordingReader.Visitor {
+        int n;
+
+        @Override
+        public void onAttitude(long time, float yaw, float pitch, float roll) {
+            if (time >= from && time <= from + RANGE) {
+                n++;
+            }
+        }
+
+        @Override
+        public void onRaw(long time, int sensorType, float x, float y, float z) {
+            if (time >= from && time <= from + RANGE) {
+                n++;
+            }
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("bee_labe", ".bin");
+        BinaryRecordingSink sink = new BinaryRecordingSink(file, new StreamCodec());
+        sink.begin(new RecordingHeader(new Date(), 0, "Benchmark", "Phone", "None", 0, 0));
+
+        // attitude at 100 Hz and three sensors at 200 Hz, saved every half a second as
+        // StreamingWriter does
+        AttitudeLog attitudeLog = new AttitudeLog();
+        RawLog rawLog = new RawLog();
+        for (int batch = 0; batch < minutes * 120; batch++) {
+            for (int i = 0; i < 100; i++) {
+                long time = batch * SECOND / 2 + i * 5000000L;
+                float t = time * 1e-9f;
+                if (i % 2 == 0) {
+                    attitudeLog.append(time, 0.3f * t % 6.28f, 0.5f, -0.25f);
+                }
+                for (int type = 1; type <= 3; type++) {
+                    rawLog.append(time, type, (float) Math.sin(t), type, (float) Math.cos(t));
+                }
+            }
+            sink.writeData(attitudeLog, 0, attitudeLog.size());
+            sink.writeRaw(rawLog, 0, rawLog.size());
+            sink.flush();
+            attitudeLog.clear();
+            rawLog.clear();
+        }
+        sink.finish(new Date(), null);
+
+        reader = new BinaryRecordingReader(file);
+        from = minutes * 60 * SECOND / 2;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        reader.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public int withIndex() throws IOException {
+        count.n = 0;
+        reader.read(count, from, from + RANGE);
+        return count.n;
+    }
+
+    @Benchmark
+    public int wholeFile() throws IOException {
+        count.n = 0;
+        reader.read(count);
+        return count.n;
+    }
+}
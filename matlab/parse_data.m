@@ -1,4 +1,4 @@
-function datafile = parse_data(path)
+function datafile = parse_data(path, loadraw)
 %PARSE_DATA Loads JSON-formatted data from the Bee-labe app.
 %   Path can be a file, directory or pattern matching several files
 %   (e.g. 'data/*_AP.json').
@@ -7,9 +7,19 @@ function datafile = parse_data(path)
 %   including metadata and vectors of time (in ms) and yaw (compass bearing),
 %   pitch and roll (all in radians).
 %
+%   PARSE_DATA(PATH, true) also loads the raw sensor readings, into a
+%   raw_data struct with vectors of time (in ms), a cell array of sensor
+%   types and a matrix of values (one row per reading). They are saved in a
+%   separate "_raw.json" file next to each data file (or in the data file
+%   itself, for older recordings); raw_data is empty if there aren't any.
+%
 %   This function needs either a newer version of Matlab (R2016b+) or the
 %   jsonlab toolbox (from Matlab exchange).
 
+if nargin < 2
+    loadraw = false;
+end
+
 % if param is a folder, load all JSON files in that folder
 if isdir(path)
     dname = path;
@@ -19,35 +29,71 @@ else
     dname = fileparts(path);
 end
 
+% raw data are saved separately, in files ending in "_raw.json"
 d = dir(path);
+d = d(cellfun(@isempty,regexp({d.name},'_raw\.json$')));
 for i = 1:length(d)
     filename = fullfile(dname,d(i).name);
     fprintf('Loading %s (%d/%d)...\n', filename, i, length(d));
-    
-    % use appropriate function to load JSON, then turn data into cleaner
-    % format
-    if exist('jsondecode','builtin')
-        fid = fopen(filename);
-        data = jsondecode(char(fread(fid)'));
-        fclose(fid);
-        
-        % (jsondecode gives the data as a struct)
-        data.time = cell2mat({data.data.time})';
-        data.yaw = cell2mat({data.data.yaw})';
-        data.pitch = cell2mat({data.data.pitch})';
-        data.roll = cell2mat({data.data.roll})';
-    elseif exist('loadjson','file')
-        data = loadjson(filename);
-        
-        % (loadjson gives the data as a cell array of structs)
-        data.time = cellfun(@(x)x.time,data.data)';
-        data.yaw = cellfun(@(x)x.yaw,data.data)';
-        data.pitch = cellfun(@(x)x.pitch,data.data)';
-        data.roll = cellfun(@(x)x.roll,data.data)';
+
+    data = load_json(filename);
+    samples = data.data;
+    data.time = field_vector(samples,'time');
+    data.yaw = field_vector(samples,'yaw');
+    data.pitch = field_vector(samples,'pitch');
+    data.roll = field_vector(samples,'roll');
+
+    if loadraw
+        rawfile = regexprep(filename,'\.json$','_raw.json');
+        if exist(rawfile,'file')
+            raw = load_json(rawfile);
+            data.raw_data = raw_struct(raw.raw_data);
+        elseif isfield(data,'raw_data')
+            data.raw_data = raw_struct(data.raw_data);
+        else
+            data.raw_data = [];
+        end
+        data = rmfield(data,'data');
     else
-        error('This function needs either a newer version of Matlab (R2016b+) or the jsonlab toolbox (from Matlab exchange).');
+        % get the new data struct minus the data field (older files also have
+        % raw data in them)
+        data = rmfield(data,intersect({'data','raw_data'},fieldnames(data)));
     end
-    
-    % get the new data struct minus the data field
-    datafile(i) = rmfield(data,{'data','raw_data'});
-end
\ No newline at end of file
+    datafile(i) = data;
+end
+
+function data = load_json(filename)
+% use appropriate function to load JSON
+if exist('jsondecode','builtin')
+    fid = fopen(filename);
+    data = jsondecode(char(fread(fid)'));
+    fclose(fid);
+elseif exist('loadjson','file')
+    data = loadjson(filename);
+else
+    error('This function needs either a newer version of Matlab (R2016b+) or the jsonlab toolbox (from Matlab exchange).');
+end
+
+function v = field_vector(samples, name)
+% jsondecode gives the samples as a struct array, and loadjson as a cell
+% array of structs
+if isempty(samples)
+    v = zeros(0,1);
+elseif iscell(samples)
+    v = cellfun(@(x)x.(name),samples)';
+else
+    v = cell2mat({samples.(name)})';
+end
+
+function raw = raw_struct(samples)
+raw.time = field_vector(samples,'time');
+if isempty(samples)
+    raw.type = cell(0,1);
+    raw.values = zeros(0,3);
+elseif iscell(samples)
+    raw.type = cellfun(@(x)x.type,samples,'UniformOutput',false)';
+    raw.values = cell2mat(cellfun(@(x)x.values(:)',samples,'UniformOutput',false)');
+else
+    raw.type = {samples.type}';
+    raw.values = [samples.values]';
+end
@@ -0,0 +1,132 @@
+package uk.ac.sussex.bee_labe;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Saves a session as plain little-endian arrays, one file per column, in a directory named
+ * after the session, so each can be loaded in one go (e.g. fread(fid, Inf, 'float32') in
+ * Matlab). The file extension gives the type: ".i64" for times and ".f32" for values.
+ *
+ * The attitude data go in time.i64, yaw.f32, pitch.f32 and roll.f32, and each raw stream in
+ * its own set of columns, e.g. acc_time.i64, acc_x.f32, acc_y.f32 and acc_z.f32. The header
+ * goes in info.txt, as in CsvSessionExporter.
+ */
+
+public class ColumnSessionExporter implements SessionExporter {
+    private static final int BUFFER_SIZE = 64 * 1024; // bytes
+    private static final String[] AXES = { "x", "y", "z" };
+
+    @Override
+    public void export(Session session, SessionQuery query, File outDir) throws IOException {
+        File dir = new File(outDir, session.name);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Couldn't create " + dir);
+        }
+        CsvSessionExporter.writeInfo(session, new File(dir, "info.txt"));
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if (query.wantsAttitude()) {
+            AttitudeLog attitude = session.attitude;
+            Column column = new Column(new File(dir, "time.i64"), buffer);
+            try {
+                for (int i = 0; i < attitude.size(); i++) {
+                    column.ensure(8).putLong(attitude.getTime(i));
+                }
+            } finally {
+                column.close();
+            }
+
+            for (int f = 0; f < SessionQuery.ATTITUDE_FIELDS.length; f++) {
+                if (!query.attitudeFields[f]) {
+                    continue;
+                }
+                column = new Column(new File(dir, SessionQuery.ATTITUDE_FIELDS[f] + ".f32"), buffer);
+                try {
+                    for (int i = 0; i < attitude.size(); i++) {
+                        column.ensure(4).putFloat(f == 0 ? attitude.getYaw(i)
+                                : f == 1 ? attitude.getPitch(i) : attitude.getRoll(i));
+                    }
+                } finally {
+                    column.close();
+                }
+            }
+        }
+
+        // one pass through the raw data for each column of each stream
+        RawLog raw = session.raw;
+        for (int type : SessionQuery.RAW_SENSORS) {
+            if (!query.wantsRaw(type)) {
+                continue;
+            }
+            String prefix = SensorTypes.name(type) + "_";
+
+            Column column = new Column(new File(dir, prefix + "time.i64"), buffer);
+            try {
+                for (int i = 0; i < raw.size(); i++) {
+                    if (raw.getSensorType(i) == type) {
+                        column.ensure(8).putLong(raw.getTime(i));
+                    }
+                }
+            } finally {
+                column.close();
+            }
+
+            for (int axis = 0; axis < AXES.length; axis++) {
+                column = new Column(new File(dir, prefix + AXES[axis] + ".f32"), buffer);
+                try {
+                    for (int i = 0; i < raw.size(); i++) {
+                        if (raw.getSensorType(i) == type) {
+                            column.ensure(4).putFloat(raw.getValue(i, axis));
+                        }
+                    }
+                } finally {
+                    column.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * One column file, written through a shared buffer.
+     */
+    private static class Column {
+        private final FileOutputStream stream;
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+
+        Column(File file, ByteBuffer buffer) throws IOException {
+            stream = new FileOutputStream(file);
+            channel = stream.getChannel();
+            this.buffer = buffer;
+            buffer.clear();
+        }
+
+        ByteBuffer ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                write();
+            }
+            return buffer;
+        }
+
+        void close() throws IOException {
+            try {
+                write();
+            } finally {
+                stream.close();
+            }
+        }
+
+        private void write() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
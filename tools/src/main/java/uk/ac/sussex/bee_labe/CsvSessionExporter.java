@@ -0,0 +1,94 @@
+package uk.ac.sussex.bee_labe;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Saves a session as CSV files, named after the session: "name.csv" with the attitude data,
+ * "name_raw.csv" with the raw readings (one row each, with the sensor name in the second
+ * column) and "name_info.txt" with the header, one tab-separated key and value per line.
+ */
+
+public class CsvSessionExporter implements SessionExporter {
+    private static final int BUFFER_SIZE = 64 * 1024; // chars
+
+    @Override
+    public void export(Session session, SessionQuery query, File outDir) throws IOException {
+        writeInfo(session, new File(outDir, session.name + "_info.txt"));
+
+        if (query.wantsAttitude()) {
+            Writer out = open(new File(outDir, session.name + ".csv"));
+            try {
+                out.write("time");
+                for (int f = 0; f < SessionQuery.ATTITUDE_FIELDS.length; f++) {
+                    if (query.attitudeFields[f]) {
+                        out.write(',');
+                        out.write(SessionQuery.ATTITUDE_FIELDS[f]);
+                    }
+                }
+                out.write('\n');
+
+                AttitudeLog attitude = session.attitude;
+                for (int i = 0; i < attitude.size(); i++) {
+                    out.write(Long.toString(attitude.getTime(i)));
+                    writeValue(out, query.attitudeFields[0], attitude.getYaw(i));
+                    writeValue(out, query.attitudeFields[1], attitude.getPitch(i));
+                    writeValue(out, query.attitudeFields[2], attitude.getRoll(i));
+                    out.write('\n');
+                }
+            } finally {
+                out.close();
+            }
+        }
+
+        if (query.wantsRaw() && session.raw.size() > 0) {
+            Writer out = open(new File(outDir, session.name + "_raw.csv"));
+            try {
+                out.write("time,sensor,x,y,z\n");
+                RawLog raw = session.raw;
+                for (int i = 0; i < raw.size(); i++) {
+                    out.write(Long.toString(raw.getTime(i)));
+                    out.write(',');
+                    out.write(SensorTypes.name(raw.getSensorType(i)));
+                    for (int axis = 0; axis < 3; axis++) {
+                        writeValue(out, true, raw.getValue(i, axis));
+                    }
+                    out.write('\n');
+                }
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    static void writeInfo(Session session, File file) throws IOException {
+        Writer out = open(file);
+        try {
+            for (Map.Entry<String, String> entry : session.info.entrySet()) {
+                out.write(entry.getKey());
+                out.write('\t');
+                // keep each value on one line
+                out.write(entry.getValue().replace('\t', ' ').replace('\n', ' '));
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Writer open(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), BUFFER_SIZE);
+    }
+
+    private static void writeValue(Writer out, boolean wanted, float value) throws IOException {
+        if (wanted) {
+            out.write(',');
+            out.write(Float.toString(value));
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package uk.ac.sussex.bee_labe;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A recorded session loaded into memory, in columns. Times are in ms since the start of the
+ * recording, as in the JSON files.
+ */
+
+public class Session {
+    public final String name;
+
+    // the header and any other simple values in the file, e.g. "experimenter" and
+    // "calibration.pitch", in the order they were found
+    public final Map<String, String> info = new LinkedHashMap<>();
+
+    public final AttitudeLog attitude = new AttitudeLog();
+    public final RawLog raw = new RawLog();
+
+    public Session(String name) {
+        this.name = name;
+    }
+}
@@ -0,0 +1,15 @@
+package uk.ac.sussex.bee_labe;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Saves a loaded session in a format for analysis.
+ */
+
+public interface SessionExporter {
+    /**
+     * Save the fields of the session which the query asks for into the given directory.
+     */
+    void export(Session session, SessionQuery query, File outDir) throws IOException;
+}
@@ -0,0 +1,409 @@
+package uk.ac.sussex.bee_labe;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Loads sessions saved by the app, either as JSON (with the raw data in the "_raw" file next to
+ * it, or in the main file for older recordings) or in the binary format. JSON is read with a
+ * pull parser, one value at a time, so only the samples the query asks for are ever kept.
+ * Binary files with an index are read from the start of the query's time range.
+ */
+
+public class SessionLoader {
+    private static final int BUFFER_SIZE = 64 * 1024; // chars
+
+    /**
+     * The sessions in a directory, one file each: the JSON files (but not the "_raw" ones), and
+     * binary files which haven't been converted to JSON. In name (i.e. date) order.
+     */
+    public static List<File> listSessions(File dir) {
+        List<File> sessions = new ArrayList<>();
+        File[] files = DataExporter.listDataFiles(dir);
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(".json") && !name.endsWith("_raw.json")) {
+                sessions.add(file);
+            } else if (name.endsWith(".bin") && Arrays.binarySearch(files, sibling(file, ".json")) < 0) {
+                sessions.add(file);
+            }
+        }
+        return sessions;
+    }
+
+    public static Session load(File file, SessionQuery query) throws IOException {
+        String name = file.getName();
+        if (name.endsWith(".bin")) {
+            return loadBinary(file, query);
+        }
+
+        Session session = new Session(basename(file));
+        loadJson(file, session, query);
+        File rawFile = sibling(file, "_raw.json");
+        if (query.wantsRaw() && rawFile.exists()) {
+            loadJson(rawFile, session, query);
+        }
+        return session;
+    }
+
+    /**
+     * Pass the samples the query asks for to the visitor without keeping any of them, for
+     * sessions too big to load. Times are in ns since the start of the recording, as in the
+     * binary format (JSON files only have them to the ms). The attitude and raw readings are
+     * read side by side and merged by time; the raw streams are in the order the readings
+     * arrived, so they can be a little out of step with each other.
+     */
+    public static void stream(File file, SessionQuery query, BinaryRecordingReader.Visitor visitor)
+            throws IOException {
+        List<Closeable> readers = new ArrayList<>();
+        try {
+            Samples attitude = null, raw = null;
+            long scale;
+            if (file.getName().endsWith(".bin")) {
+                // a reader for each, as the file has blocks of one then the other
+                if (query.wantsAttitude()) {
+                    BinaryRecordingReader reader = new BinaryRecordingReader(file);
+                    readers.add(reader);
+                    attitude = new BinarySamples(reader, BinaryRecordingReader.ATTITUDE, query);
+                }
+                if (query.wantsRaw()) {
+                    BinaryRecordingReader reader = new BinaryRecordingReader(file);
+                    readers.add(reader);
+                    raw = new BinarySamples(reader, BinaryRecordingReader.RAW, query);
+                }
+                scale = 1;
+            } else {
+                // the raw data can be in the main file, in older recordings
+                File rawFile = sibling(file, "_raw.json");
+                if (query.wantsAttitude()) {
+                    JsonReader reader = open(file);
+                    readers.add(reader);
+                    if (seek(reader, "data")) {
+                        attitude = new JsonSamples(reader, false);
+                    }
+                }
+                if (query.wantsRaw()) {
+                    JsonReader reader = open(rawFile.exists() ? rawFile : file);
+                    readers.add(reader);
+                    if (seek(reader, "raw_data")) {
+                        raw = new JsonSamples(reader, true);
+                    }
+                }
+                scale = 1000000;
+            }
+
+            boolean moreAttitude = attitude != null && attitude.next();
+            boolean moreRaw = raw != null && raw.next();
+            while (moreAttitude || moreRaw) {
+                Samples next = moreAttitude && (!moreRaw || attitude.time <= raw.time) ? attitude : raw;
+                long time = next.time * scale;
+                float[] values = next.values;
+                if (next == attitude) {
+                    if (query.contains(time / 1000000)) {
+                        visitor.onAttitude(time, values[0], values[1], values[2]);
+                    }
+                    moreAttitude = attitude.next();
+                } else {
+                    if (query.wantsRaw(raw.sensorType) && query.contains(time / 1000000)) {
+                        visitor.onRaw(time, raw.sensorType, values[0], values[1], values[2]);
+                    }
+                    moreRaw = raw.next();
+                }
+            }
+        } finally {
+            for (Closeable reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    private static Session loadBinary(File file, final SessionQuery query) throws IOException {
+        final Session session = new Session(basename(file));
+        BinaryRecordingReader reader = new BinaryRecordingReader(file);
+        try {
+            SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss");
+            RecordingHeader header = reader.header;
+            session.info.put("startTime", dateFormat.format(header.startDate));
+            session.info.put("experimenter", header.experimenter);
+            session.info.put("phone_model", header.phoneModel);
+            if (header.orientationFilter != null) {
+                session.info.put("orientation_filter", header.orientationFilter);
+            }
+            session.info.put("calibration.pitch", Float.toString(header.calPitch));
+            session.info.put("calibration.roll", Float.toString(header.calRoll));
+            if (!Float.isNaN(header.calPitchVariance)) {
+                session.info.put("calibration.pitch_variance", Float.toString(header.calPitchVariance));
+                session.info.put("calibration.roll_variance", Float.toString(header.calRollVariance));
+            }
+            // as JsonRecordingSink writes it, even for full-rate data
+            ReductionProfile reduction = header.reduction;
+            session.info.put("reduction.profile", reduction.isActive() ? reduction.name : ReductionProfile.NONE);
+            for (int stream : ReductionProfile.STREAMS) {
+                StreamReduction settings = reduction.forStream(stream);
+                String prefix = "reduction." + ReductionProfile.streamName(stream) + ".";
+                session.info.put(prefix + "decimation", Integer.toString(settings.factor));
+                session.info.put(prefix + "filter", StreamReduction.FILTER);
+                session.info.put(prefix + "deadband", Float.toString(settings.deadband));
+                session.info.put(prefix + "heartbeat", Long.toString(settings.heartbeat / 1000000));
+            }
+            if (reader.endDate != null) {
+                session.info.put("endTime", dateFormat.format(reader.endDate));
+            }
+
+            // straight to the time range, if the file has an index
+            reader.read(new BinaryRecordingReader.Visitor() {
+                @Override
+                public void onAttitude(long time, float yaw, float pitch, float roll) {
+                    time /= 1000000;
+                    if (query.wantsAttitude() && query.contains(time)) {
+                        session.attitude.append(time, yaw, pitch, roll);
+                    }
+                }
+
+                @Override
+                public void onRaw(long time, int sensorType, float x, float y, float z) {
+                    time /= 1000000;
+                    if (query.wantsRaw(sensorType) && query.contains(time)) {
+                        session.raw.append(time, sensorType, x, y, z);
+                    }
+                }
+            }, fromNs(query), toNs(query));
+        } finally {
+            reader.close();
+        }
+        return session;
+    }
+
+    private static void loadJson(File file, Session session, SessionQuery query) throws IOException {
+        JsonReader reader = open(file);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("data") && query.wantsAttitude()) {
+                    readData(reader, session.attitude, query);
+                } else if (name.equals("raw_data") && query.wantsRaw()) {
+                    readRaw(reader, session.raw, query);
+                } else if (name.equals("calibration") || name.equals("reduction")) {
+                    readInfo(reader, session, name + ".");
+                } else if (isSimple(reader.peek())) {
+                    session.info.put(name, reader.nextString());
+                } else {
+                    // e.g. the metrics, or data we don't want
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void readData(JsonReader reader, AttitudeLog attitude, SessionQuery query)
+            throws IOException {
+        JsonSamples samples = new JsonSamples(reader, false);
+        while (samples.next()) {
+            long time = samples.time;
+            if (query.contains(time)) {
+                attitude.append(time, samples.values[0], samples.values[1], samples.values[2]);
+            }
+        }
+    }
+
+    private static void readRaw(JsonReader reader, RawLog raw, SessionQuery query) throws IOException {
+        JsonSamples samples = new JsonSamples(reader, true);
+        while (samples.next()) {
+            long time = samples.time;
+            if (query.wantsRaw(samples.sensorType) && query.contains(time)) {
+                raw.append(time, samples.sensorType, samples.values[0], samples.values[1],
+                        samples.values[2]);
+            }
+        }
+    }
+
+    private static void readInfo(JsonReader reader, Session session, String prefix) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (isSimple(reader.peek())) {
+                session.info.put(prefix + name, reader.nextString());
+            } else if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                // e.g. the settings for each stream in "reduction"
+                readInfo(reader, session, prefix + name + ".");
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    // the query's time range in ns, for the binary reader
+    private static long fromNs(SessionQuery query) {
+        return query.from == Long.MIN_VALUE ? query.from : query.from * 1000000;
+    }
+
+    private static long toNs(SessionQuery query) {
+        return query.to == Long.MAX_VALUE ? query.to : query.to * 1000000 + 999999;
+    }
+
+    private static JsonReader open(File file) throws IOException {
+        return new JsonReader(new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), "UTF-8"), BUFFER_SIZE));
+    }
+
+    // move a newly opened reader to the value with the given name, returning false if the file
+    // hasn't got one
+    private static boolean seek(JsonReader reader, String name) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(name)) {
+                return true;
+            }
+            reader.skipValue();
+        }
+        return false;
+    }
+
+    private static boolean isSimple(JsonToken token) {
+        return token == JsonToken.STRING || token == JsonToken.NUMBER;
+    }
+
+    static String basename(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot == -1 ? name : name.substring(0, dot);
+    }
+
+    private static File sibling(File file, String suffix) {
+        return new File(file.getParentFile(), basename(file) + suffix);
+    }
+
+    /**
+     * One sample at a time from a file, with the last one read in the fields.
+     */
+    private abstract static class Samples {
+        long time;
+        int sensorType;
+        final float[] values = new float[3]; // yaw, pitch and roll or x, y and z
+
+        /**
+         * Read the next sample, or return false at the end.
+         */
+        abstract boolean next() throws IOException;
+    }
+
+    /**
+     * Reads the samples in a "data" or "raw_data" array one at a time, starting with the
+     * reader at the array.
+     */
+    private static class JsonSamples extends Samples {
+        private final JsonReader reader;
+        private final boolean isRaw;
+
+        JsonSamples(JsonReader reader, boolean isRaw) throws IOException {
+            this.reader = reader;
+            this.isRaw = isRaw;
+            reader.beginArray();
+        }
+
+        // times are in ms
+        @Override
+        boolean next() throws IOException {
+            if (!reader.hasNext()) {
+                reader.endArray();
+                return false;
+            }
+
+            time = 0;
+            sensorType = isRaw ? -1 : ReductionProfile.ATTITUDE;
+            if (!isRaw) {
+                values[0] = values[1] = values[2] = 0;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("time")) {
+                    time = reader.nextLong();
+                } else if (isRaw && name.equals("type")) {
+                    sensorType = SensorTypes.fromName(reader.nextString());
+                } else if (isRaw && name.equals("values")) {
+                    reader.beginArray();
+                    for (int i = 0; reader.hasNext(); i++) {
+                        float value = (float) reader.nextDouble();
+                        if (i < values.length) {
+                            values[i] = value;
+                        }
+                    }
+                    reader.endArray();
+                } else if (!isRaw && name.equals("yaw")) {
+                    values[0] = (float) reader.nextDouble();
+                } else if (!isRaw && name.equals("pitch")) {
+                    values[1] = (float) reader.nextDouble();
+                } else if (!isRaw && name.equals("roll")) {
+                    values[2] = (float) reader.nextDouble();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return true;
+        }
+    }
+
+    /**
+     * Reads the samples of one kind (BinaryRecordingReader.ATTITUDE or RAW) from a binary file,
+     * a block at a time, starting from the query's time range if the file has an index.
+     */
+    private static class BinarySamples extends Samples implements BinaryRecordingReader.Visitor {
+        private final BinaryRecordingReader reader;
+        private final int kind;
+        private final RawLog block = new RawLog();
+        private int index = 0;
+
+        BinarySamples(BinaryRecordingReader reader, int kind, SessionQuery query) throws IOException {
+            this.reader = reader;
+            this.kind = kind;
+            reader.seek(kind, fromNs(query), toNs(query));
+        }
+
+        // times are in ns
+        @Override
+        boolean next() throws IOException {
+            while (index == block.size()) {
+                block.clear();
+                index = 0;
+                if (!reader.nextBlock(this, kind)) {
+                    return false;
+                }
+            }
+            time = block.getTime(index);
+            sensorType = block.getSensorType(index);
+            for (int axis = 0; axis < 3; axis++) {
+                values[axis] = block.getValue(index, axis);
+            }
+            index++;
+            return true;
+        }
+
+        @Override
+        public void onAttitude(long time, float yaw, float pitch, float roll) {
+            block.append(time, ReductionProfile.ATTITUDE, yaw, pitch, roll);
+        }
+
+        @Override
+        public void onRaw(long time, int sensorType, float x, float y, float z) {
+            block.append(time, sensorType, x, y, z);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package uk.ac.sussex.bee_labe;
+
+/**
+ * Which parts of a session to load: a time range and which fields. Anything else is skipped
+ * while the file is being read, so it never takes up memory.
+ */
+
+public class SessionQuery {
+    public static final String[] ATTITUDE_FIELDS = { "yaw", "pitch", "roll" };
+    public static final int[] RAW_SENSORS = { SensorTypes.ACCELEROMETER,
+            SensorTypes.MAGNETIC_FIELD, SensorTypes.GYROSCOPE };
+
+    // ms since the start of the recording, inclusive
+    public long from = Long.MIN_VALUE, to = Long.MAX_VALUE;
+
+    // indexed as ATTITUDE_FIELDS
+    public final boolean[] attitudeFields = { true, true, true };
+
+    // bit (1 << sensor type) is set for each raw stream to load
+    public int rawSensors = 0;
+
+    public SessionQuery() {
+        for (int type : RAW_SENSORS) {
+            rawSensors |= 1 << type;
+        }
+    }
+
+    /**
+     * Only load the given comma-separated fields, from ATTITUDE_FIELDS and the raw stream
+     * names (as in SensorTypes.name()).
+     */
+    public void selectFields(String fields) {
+        boolean[] attitude = new boolean[ATTITUDE_FIELDS.length];
+        int raw = 0;
+        for (String field : fields.split(",")) {
+            field = field.trim();
+            int index = indexOf(ATTITUDE_FIELDS, field);
+            int type = SensorTypes.fromName(field);
+            if (index != -1) {
+                attitude[index] = true;
+            } else if (type != -1) {
+                raw |= 1 << type;
+            } else {
+                throw new IllegalArgumentException("Unknown field: " + field);
+            }
+        }
+
+        System.arraycopy(attitude, 0, attitudeFields, 0, attitude.length);
+        rawSensors = raw;
+    }
+
+    public boolean wantsAttitude() {
+        for (boolean field : attitudeFields) {
+            if (field) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean wantsRaw() {
+        return rawSensors != 0;
+    }
+
+    public boolean wantsRaw(int sensorType) {
+        return sensorType >= 0 && sensorType < 32 && (rawSensors & (1 << sensorType)) != 0;
+    }
+
+    public boolean contains(long time) {
+        return time >= from && time <= to;
+    }
+
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,91 @@
+package uk.ac.sussex.bee_labe;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Loads a session and works its attitude out again from the raw readings, with SensorReplay
+ * (so through the same code as the app), instead of using the attitude which was saved. This
+ * shows what another orientation filter would have made of a recording, or whether a change
+ * to the code changes the results.
+ *
+ * The readings are replayed with the times as they were loaded, i.e. to the millisecond, so
+ * the results can differ slightly from the phone's.
+ */
+
+public class SessionReplayer {
+    private final int estimator;
+
+    // readings processed per second by the last load()
+    public double throughput;
+
+    /**
+     * @param estimator index into AttitudeEstimators.NAMES, or -1 for the one each session was
+     *                  recorded with
+     */
+    public SessionReplayer(int estimator) {
+        this.estimator = estimator;
+    }
+
+    /**
+     * Load the session, replacing its attitude with a replayed one. The query applies to the
+     * result: every reading is replayed, as the filters need to start from the beginning.
+     */
+    public Session load(File file, final SessionQuery query) throws IOException {
+        Session loaded = SessionLoader.load(file, everyReading());
+
+        RecordingHeader header = new RecordingHeader(null, 0, loaded.info.get("experimenter"),
+                loaded.info.get("phone_model"), loaded.info.get("orientation_filter"),
+                number(loaded, "calibration.pitch"), number(loaded, "calibration.roll"));
+        RawLog readings = new RawLog();
+        for (int i = 0; i < loaded.raw.size(); i++) {
+            readings.append(loaded.raw.getTime(i) * 1000000, loaded.raw.getSensorType(i),
+                    loaded.raw.getValue(i, 0), loaded.raw.getValue(i, 1), loaded.raw.getValue(i, 2));
+        }
+
+        final Session session = new Session(loaded.name);
+        session.info.putAll(loaded.info);
+        int index = estimator != -1 ? estimator
+                : Math.max(AttitudeEstimators.indexOf(header.orientationFilter), 0);
+        session.info.put("replay.orientation_filter", AttitudeEstimators.NAMES[index]);
+
+        SensorReplay replay = new SensorReplay(header, readings);
+        try {
+            replay.run(new SensorProcessor(replay.createPipeline(index), null, false), false,
+                    SensorReplay.MAX_SPEED,
+                    new SensorReplay.Listener() {
+                        @Override
+                        public void onAttitude(long timestamp, Attitude attitude) {
+                            long time = timestamp / 1000000;
+                            if (query.wantsAttitude() && query.contains(time)) {
+                                session.attitude.append(time, attitude.yaw, attitude.pitch, attitude.roll);
+                            }
+                        }
+                    });
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+        throughput = replay.getThroughput();
+
+        for (int i = 0; i < loaded.raw.size(); i++) {
+            long time = loaded.raw.getTime(i);
+            int type = loaded.raw.getSensorType(i);
+            if (query.wantsRaw(type) && query.contains(time)) {
+                session.raw.append(time, type, loaded.raw.getValue(i, 0), loaded.raw.getValue(i, 1),
+                        loaded.raw.getValue(i, 2));
+            }
+        }
+        return session;
+    }
+
+    private static SessionQuery everyReading() {
+        SessionQuery query = new SessionQuery();
+        query.selectFields("acc,mag,gyro");
+        return query;
+    }
+
+    private static float number(Session session, String key) {
+        String value = session.info.get(key);
+        return value == null ? 0 : Float.parseFloat(value);
+    }
+}
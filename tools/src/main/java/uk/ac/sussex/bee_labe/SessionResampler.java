@@ -0,0 +1,460 @@
+package uk.ac.sussex.bee_labe;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Resamples a session onto one uniform timeline, e.g. every 10 ms, so that each row has the
+ * attitude and every raw stream at the same time instead of each arriving on its own jittery
+ * clock. The raw readings are interpolated linearly, and the attitude along the shortest
+ * rotation between its samples (SLERP), so that it doesn't take the long way round where the
+ * yaw wraps. A stream is left empty where it has no samples less than maxGap apart either side
+ * of a row.
+ *
+ * The session is streamed (see SessionLoader.stream()) rather than loaded. The timeline is cut
+ * into chunks of CHUNK_ROWS rows, which are resampled in parallel on a fork-join pool as soon
+ * as every sample they need has been read, and written out in order, so memory use depends on
+ * the number of threads rather than the length of the session.
+ */
+
+public class SessionResampler {
+    public static final long DEFAULT_MAX_GAP = 1000; // ms
+
+    static final int CHUNK_ROWS = 4096;
+
+    // how far out of step the raw streams can be, as they're saved in the order the readings
+    // arrived (ns)
+    private static final long MAX_SKEW = 1000000000L;
+
+    private static final int BUFFER_SIZE = 64 * 1024; // chars
+
+    private final long period, maxGap; // ns
+    private final ForkJoinPool pool;
+
+    // rows written and samples read by the last resample()
+    public long rows, samples;
+
+    /**
+     * @param period the time between rows (ms)
+     * @param maxGap the longest time between two samples of a stream to interpolate across (ms)
+     */
+    public SessionResampler(long period, long maxGap, ForkJoinPool pool) {
+        if (period <= 0 || maxGap < 0) {
+            throw new IllegalArgumentException("Bad resampling period or gap");
+        }
+        this.period = period * 1000000;
+        this.maxGap = maxGap * 1000000;
+        this.pool = pool;
+    }
+
+    /**
+     * Resample the fields of the session which the query asks for into "name_resampled.csv"
+     * in the given directory.
+     */
+    public void resample(File file, SessionQuery query, File outDir) throws IOException {
+        File outFile = new File(outDir, SessionLoader.basename(file) + "_resampled.csv");
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outFile), "UTF-8"),
+                BUFFER_SIZE);
+        try {
+            resample(file, query, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write the resampled session as CSV: the time (ms since the start), the attitude fields
+     * the query asks for, and x, y and z for each raw stream it asks for.
+     */
+    public void resample(File file, SessionQuery query, Writer out) throws IOException {
+        Run run = new Run(query, out);
+        try {
+            SessionLoader.stream(file, widen(query), run);
+            run.finish();
+        } finally {
+            // don't leave chunks running if the file was bad
+            for (ForkJoinTask<String> chunk : run.pending) {
+                chunk.cancel(false);
+            }
+        }
+        rows = run.rows;
+        samples = run.samples;
+    }
+
+    // the query, with enough either side of its time range to interpolate up to the ends
+    private SessionQuery widen(SessionQuery query) {
+        SessionQuery widened = new SessionQuery();
+        System.arraycopy(query.attitudeFields, 0, widened.attitudeFields, 0, query.attitudeFields.length);
+        widened.rawSensors = query.rawSensors;
+        long margin = maxGap / 1000000 + 1;
+        widened.from = query.from == Long.MIN_VALUE ? query.from : query.from - margin;
+        widened.to = query.to == Long.MAX_VALUE ? query.to : query.to + margin;
+        return widened;
+    }
+
+    /**
+     * The state of one resample(): the samples which are still needed for each stream, and the
+     * chunks which have been started but not written yet.
+     */
+    private class Run implements BinaryRecordingReader.Visitor {
+        private final Writer out;
+        private final boolean[] attitudeFields;
+        private final int attitudeSlot;
+        // the index into tracks for each stream (ReductionProfile.ATTITUDE or a sensor type), or
+        // -1 for streams which aren't wanted
+        private final int[] slots = new int[SensorTypes.GYROSCOPE + 1];
+        private final Track[] tracks;
+        private final long from, to; // ns
+
+        final Queue<ForkJoinTask<String>> pending = new ArrayDeque<>();
+        private final int maxPending = 2 * pool.getParallelism();
+
+        private boolean isStarted = false, isDone = false;
+        private long start; // time of the first row (ns)
+        private long latest = Long.MIN_VALUE; // of any sample so far
+        private long nextChunk = 0;
+        long rows = 0, samples = 0;
+
+        Run(SessionQuery query, Writer out) throws IOException {
+            this.out = out;
+            attitudeFields = query.attitudeFields.clone();
+            from = query.from == Long.MIN_VALUE ? 0 : query.from * 1000000;
+            to = query.to == Long.MAX_VALUE ? query.to : query.to * 1000000;
+
+            StringBuilder header = new StringBuilder("time");
+            Arrays.fill(slots, -1);
+            int n = 0;
+            attitudeSlot = query.wantsAttitude() ? n++ : -1;
+            if (attitudeSlot != -1) {
+                slots[ReductionProfile.ATTITUDE] = attitudeSlot;
+                for (int f = 0; f < SessionQuery.ATTITUDE_FIELDS.length; f++) {
+                    if (attitudeFields[f]) {
+                        header.append(',').append(SessionQuery.ATTITUDE_FIELDS[f]);
+                    }
+                }
+            }
+            for (int type : SessionQuery.RAW_SENSORS) {
+                if (query.wantsRaw(type)) {
+                    slots[type] = n++;
+                    String name = SensorTypes.name(type);
+                    header.append(',').append(name).append("_x,").append(name).append("_y,")
+                            .append(name).append("_z");
+                }
+            }
+            tracks = new Track[n];
+            for (int i = 0; i < n; i++) {
+                tracks[i] = new Track(256);
+            }
+            out.write(header.append('\n').toString());
+        }
+
+        @Override
+        public void onAttitude(long time, float yaw, float pitch, float roll) throws IOException {
+            add(ReductionProfile.ATTITUDE, time, yaw, pitch, roll);
+        }
+
+        @Override
+        public void onRaw(long time, int sensorType, float x, float y, float z) throws IOException {
+            add(sensorType, time, x, y, z);
+        }
+
+        private void add(int stream, long time, float x, float y, float z) throws IOException {
+            int slot = stream >= 0 && stream < slots.length ? slots[stream] : -1;
+            if (slot == -1) {
+                return;
+            }
+            samples++;
+            if (!isStarted) {
+                // on the first row time at or after the first sample
+                long first = Math.max(time, from);
+                start = first + (period - first % period) % period;
+                isStarted = true;
+            }
+            tracks[slot].append(time, x, y, z);
+            latest = Math.max(latest, time);
+
+            // a chunk can go once the streams have all got past its end, by enough to find the
+            // samples after it
+            while (!isDone && lastRow(nextChunk) + maxGap + MAX_SKEW <= latest) {
+                submit(lastRow(nextChunk));
+            }
+        }
+
+        void finish() throws IOException {
+            long end = Math.min(latest, to);
+            while (isStarted && !isDone && firstRow(nextChunk) <= end) {
+                submit(Math.min(lastRow(nextChunk), end));
+            }
+            while (!pending.isEmpty()) {
+                out.write(pending.remove().join());
+            }
+        }
+
+        private long firstRow(long chunk) {
+            return start + chunk * CHUNK_ROWS * period;
+        }
+
+        private long lastRow(long chunk) {
+            return firstRow(chunk) + (CHUNK_ROWS - 1) * period;
+        }
+
+        // start resampling the next chunk, up to the given row
+        private void submit(long last) throws IOException {
+            long first = firstRow(nextChunk);
+            last = Math.min(last, to);
+            if (first > last) {
+                isDone = true;
+                return;
+            }
+            int n = (int) ((last - first) / period) + 1;
+
+            Track[] windows = new Track[tracks.length];
+            for (int i = 0; i < tracks.length; i++) {
+                windows[i] = tracks[i].window(first - maxGap, last + maxGap);
+            }
+            pending.add(pool.submit(new ChunkTask(first, n, windows, attitudeSlot, attitudeFields)));
+            rows += n;
+            nextChunk++;
+
+            // what's before the next chunk (less the gap) won't be needed again
+            for (Track track : tracks) {
+                track.trim(firstRow(nextChunk) - maxGap);
+            }
+            if (pending.size() >= maxPending) {
+                out.write(pending.remove().join());
+            }
+        }
+    }
+
+    /**
+     * Works out one chunk of rows and formats them as CSV.
+     */
+    private class ChunkTask extends RecursiveTask<String> {
+        private static final long serialVersionUID = 1L;
+
+        private final long first;
+        private final int n;
+        private final Track[] tracks;
+        private final int attitudeSlot;
+        private final boolean[] attitudeFields;
+
+        ChunkTask(long first, int n, Track[] tracks, int attitudeSlot, boolean[] attitudeFields) {
+            this.first = first;
+            this.n = n;
+            this.tracks = tracks;
+            this.attitudeSlot = attitudeSlot;
+            this.attitudeFields = attitudeFields;
+        }
+
+        @Override
+        protected String compute() {
+            float[] quaternions = null;
+            if (attitudeSlot != -1) {
+                Track attitude = tracks[attitudeSlot];
+                quaternions = new float[4 * attitude.size];
+                float[] q = new float[4];
+                for (int i = 0; i < attitude.size; i++) {
+                    toQuaternion(attitude.values[3 * i], attitude.values[3 * i + 1],
+                            attitude.values[3 * i + 2], q);
+                    System.arraycopy(q, 0, quaternions, 4 * i, 4);
+                }
+            }
+
+            StringBuilder text = new StringBuilder(n * 16 * (1 + 3 * tracks.length));
+            float[] q = new float[4], R = new float[9], angles = new float[3];
+            // for each stream, the last sample at or before the row
+            int[] before = new int[tracks.length];
+            Arrays.fill(before, -1);
+            for (int row = 0; row < n; row++) {
+                long time = first + row * period;
+                text.append(time / 1000000);
+
+                for (int slot = 0; slot < tracks.length; slot++) {
+                    Track track = tracks[slot];
+                    int i = before[slot];
+                    while (i + 1 < track.size && track.times[i + 1] <= time) {
+                        i++;
+                    }
+                    before[slot] = i;
+
+                    // the samples either side, or just the one if it's at the row's time
+                    int j = i;
+                    float f = 0;
+                    if (i == -1) {
+                        j = -1;
+                    } else if (track.times[i] != time) {
+                        j = i + 1;
+                        if (j == track.size || track.times[j] - track.times[i] > maxGap) {
+                            j = -1;
+                        } else {
+                            f = (float) (time - track.times[i]) / (track.times[j] - track.times[i]);
+                        }
+                    }
+
+                    if (slot == attitudeSlot) {
+                        if (j == i) {
+                            System.arraycopy(track.values, 3 * i, angles, 0, 3);
+                        } else if (j != -1) {
+                            slerp(quaternions, 4 * i, 4 * j, f, q);
+                            toAngles(q, R, angles);
+                        }
+                        for (int field = 0; field < 3; field++) {
+                            if (attitudeFields[field]) {
+                                appendValue(text, j == -1 ? Float.NaN : angles[field]);
+                            }
+                        }
+                    } else {
+                        for (int axis = 0; axis < 3; axis++) {
+                            float value = Float.NaN;
+                            if (j != -1) {
+                                float a = track.values[3 * i + axis], b = track.values[3 * j + axis];
+                                value = a + f * (b - a);
+                            }
+                            appendValue(text, value);
+                        }
+                    }
+                }
+                text.append('\n');
+            }
+            return text.toString();
+        }
+    }
+
+    private static void appendValue(StringBuilder text, float value) {
+        text.append(',');
+        if (!Float.isNaN(value)) {
+            text.append(value);
+        }
+    }
+
+    /**
+     * The rotation with the given attitude angles (rad), as saved by the app: the inverse of
+     * toAngles().
+     */
+    static void toQuaternion(float yaw, float pitch, float roll, float[] q) {
+        // Rz(-yaw) Rx(pitch) Ry(roll), which Rotations.getOrientation() turns back into yaw,
+        // -pitch and roll
+        final double cz = Math.cos(-yaw / 2), sz = Math.sin(-yaw / 2);
+        final double cx = Math.cos(pitch / 2), sx = Math.sin(pitch / 2);
+        final double cy = Math.cos(roll / 2), sy = Math.sin(roll / 2);
+        final double w = cz * cx, x = cz * sx, y = sz * sx, z = sz * cx;
+        q[0] = (float) (w * cy - y * sy);
+        q[1] = (float) (x * cy - z * sy);
+        q[2] = (float) (w * sy + y * cy);
+        q[3] = (float) (z * cy + x * sy);
+    }
+
+    /**
+     * The attitude angles of a rotation, as the app saves them: yaw in [0, 2 pi), pitch and
+     * roll in (-pi, pi]. R is somewhere to put the rotation matrix.
+     */
+    static void toAngles(float[] q, float[] R, float[] angles) {
+        Rotations.quaternionToMatrix(q, R);
+        Rotations.getOrientation(R, angles);
+        if (angles[0] < 0) {
+            angles[0] += 2 * Math.PI;
+        }
+        angles[1] = -angles[1];
+    }
+
+    /**
+     * Spherical linear interpolation from the quaternion at q[i] (f = 0) to the one at q[j]
+     * (f = 1), the shorter way round.
+     */
+    static void slerp(float[] q, int i, int j, float f, float[] out) {
+        double dot = q[i] * q[j] + q[i + 1] * q[j + 1] + q[i + 2] * q[j + 2] + q[i + 3] * q[j + 3];
+        double sign = 1;
+        if (dot < 0) {
+            // q and -q are the same rotation
+            dot = -dot;
+            sign = -1;
+        }
+
+        double a, b;
+        if (dot > 0.9995) {
+            // so close that sin(theta) is mostly rounding error: interpolate linearly instead
+            a = 1 - f;
+            b = f;
+        } else {
+            double theta = Math.acos(dot), sin = Math.sin(theta);
+            a = Math.sin((1 - f) * theta) / sin;
+            b = Math.sin(f * theta) / sin;
+        }
+        b *= sign;
+        for (int k = 0; k < 4; k++) {
+            out[k] = (float) (a * q[i + k] + b * q[j + k]);
+        }
+        Rotations.normalize(out);
+    }
+
+    /**
+     * The samples of one stream, in time order.
+     */
+    private static class Track {
+        long[] times;
+        float[] values; // x, y and z for each sample
+        int size = 0;
+
+        Track(int capacity) {
+            times = new long[capacity];
+            values = new float[3 * capacity];
+        }
+
+        void append(long time, float x, float y, float z) {
+            if (size > 0 && time < times[size - 1]) {
+                // each stream should come in order; ignore anything which doesn't
+                return;
+            }
+            if (size == times.length) {
+                times = Arrays.copyOf(times, 2 * size);
+                values = Arrays.copyOf(values, 6 * size);
+            }
+            times[size] = time;
+            values[3 * size] = x;
+            values[3 * size + 1] = y;
+            values[3 * size + 2] = z;
+            size++;
+        }
+
+        // a copy of the samples from one time to another, inclusive
+        Track window(long from, long to) {
+            int i = indexOf(from), j = indexOf(to + 1);
+            Track window = new Track(Math.max(j - i, 1));
+            System.arraycopy(times, i, window.times, 0, j - i);
+            System.arraycopy(values, 3 * i, window.values, 0, 3 * (j - i));
+            window.size = j - i;
+            return window;
+        }
+
+        // drop the samples before the given time
+        void trim(long time) {
+            int i = indexOf(time);
+            System.arraycopy(times, i, times, 0, size - i);
+            System.arraycopy(values, 3 * i, values, 0, 3 * (size - i));
+            size -= i;
+        }
+
+        // the first sample at or after the given time
+        private int indexOf(long time) {
+            int i = Arrays.binarySearch(times, 0, size, time);
+            if (i < 0) {
+                return -i - 1;
+            }
+            // the first of any with the same time
+            while (i > 0 && times[i - 1] == time) {
+                i--;
+            }
+            return i;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package uk.ac.sussex.bee_labe;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Command-line tool which loads recorded sessions and exports them for analysis, e.g.
+ *
+ *     session-tool --format bin --fields yaw,acc --from 1000 --to 61000 --out export data/
+ *
+ * Files are loaded and exported in parallel (one per core by default) with a fork-join pool,
+ * and each session is dropped as soon as it has been saved, so memory use depends on the
+ * number of threads rather than the number of files.
+ *
+ * With --replay, the attitude is worked out again from the raw readings (see SessionReplayer),
+ * and how fast that went is reported for each file.
+ *
+ * With --resample, every stream is put on one timeline instead (see SessionResampler). Files
+ * are then done one at a time, each split across the threads by time.
+ */
+
+public class SessionTool {
+    // the replay option's value when not replaying (-1 replays with the recorded filter)
+    private static final int NO_REPLAY = -2;
+
+    private static final String USAGE =
+            "Usage: session-tool [options] FILE|DIR...\n"
+            + "Exports recorded sessions (.json or .bin files, or every session in a directory).\n"
+            + "  --out DIR        where to save the exported files (default: current directory)\n"
+            + "  --format FORMAT  csv, or bin for one little-endian array per column (default: csv)\n"
+            + "  --fields LIST    comma-separated fields to export, from yaw, pitch, roll, acc, mag\n"
+            + "                   and gyro (default: all of them)\n"
+            + "  --from MS        only export samples from this time (ms since the start)\n"
+            + "  --to MS          only export samples up to this time (ms since the start)\n"
+            + "  --threads N      number of files to work on at once (default: number of cores)\n"
+            + "  --replay         work the attitude out again from the raw readings, as the app does\n"
+            + "  --filter N       replay with orientation filter N instead of the recorded one:\n"
+            + filterList()
+            + "  --resample MS    resample every stream onto one timeline, MS apart, into\n"
+            + "                   NAME_resampled.csv (attitude by SLERP, raw readings linearly)\n"
+            + "  --max-gap MS     leave a stream empty where its samples are further apart than\n"
+            + "                   this when resampling (default: " + SessionResampler.DEFAULT_MAX_GAP + ")\n";
+
+    public static void main(String[] args) {
+        try {
+            System.exit(run(args, System.out));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Run with the given command-line arguments, returning the exit status: 0 if everything
+     * was exported and 1 if any file failed.
+     */
+    public static int run(String[] args, PrintStream out) {
+        SessionQuery query = new SessionQuery();
+        File outDir = new File(".");
+        SessionExporter exporter = new CsvSessionExporter();
+        int threads = Runtime.getRuntime().availableProcessors();
+        int replay = NO_REPLAY;
+        long resample = 0, maxGap = SessionResampler.DEFAULT_MAX_GAP;
+        List<File> files = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--help")) {
+                out.print(USAGE);
+                return 0;
+            } else if (arg.equals("--out")) {
+                outDir = new File(value(args, ++i));
+            } else if (arg.equals("--format")) {
+                exporter = createExporter(value(args, ++i));
+            } else if (arg.equals("--fields")) {
+                query.selectFields(value(args, ++i));
+            } else if (arg.equals("--from")) {
+                query.from = number(value(args, ++i));
+            } else if (arg.equals("--to")) {
+                query.to = number(value(args, ++i));
+            } else if (arg.equals("--threads")) {
+                threads = (int) number(value(args, ++i));
+            } else if (arg.equals("--replay")) {
+                replay = Math.max(replay, -1);
+            } else if (arg.equals("--filter")) {
+                replay = (int) number(value(args, ++i));
+                if (replay < 0 || replay >= AttitudeEstimators.NAMES.length) {
+                    throw new IllegalArgumentException("Unknown filter: " + replay);
+                }
+            } else if (arg.equals("--resample")) {
+                resample = number(value(args, ++i));
+                if (resample <= 0) {
+                    throw new IllegalArgumentException("The resampling period must be positive");
+                }
+            } else if (arg.equals("--max-gap")) {
+                maxGap = number(value(args, ++i));
+            } else if (arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            } else {
+                File file = new File(arg);
+                if (file.isDirectory()) {
+                    files.addAll(SessionLoader.listSessions(file));
+                } else {
+                    files.add(file);
+                }
+            }
+        }
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No sessions to export");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least one thread");
+        }
+        if (resample > 0 && replay != NO_REPLAY) {
+            throw new IllegalArgumentException("Can't resample a replay");
+        }
+        if (!outDir.isDirectory() && !outDir.mkdirs()) {
+            throw new IllegalArgumentException("Couldn't create " + outDir);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            if (resample > 0) {
+                return resample(files, query, new SessionResampler(resample, maxGap, pool), outDir, out);
+            }
+            String[] results = pool.invoke(new ExportTask(files, 0, files.size(), query, exporter, outDir,
+                    replay));
+            int failures = 0;
+            for (String result : results) {
+                out.println(result);
+                if (result.startsWith("FAILED")) {
+                    failures++;
+                }
+            }
+            return failures == 0 ? 0 : 1;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static int resample(List<File> files, SessionQuery query, SessionResampler resampler,
+                                File outDir, PrintStream out) {
+        int failures = 0;
+        for (File file : files) {
+            try {
+                resampler.resample(file, query, outDir);
+                out.println(String.format("%s: %d rows from %d samples", file.getName(),
+                        resampler.rows, resampler.samples));
+            } catch (IOException | RuntimeException e) {
+                out.println("FAILED " + file.getName() + ": " + e);
+                failures++;
+            }
+        }
+        return failures == 0 ? 0 : 1;
+    }
+
+    static SessionExporter createExporter(String format) {
+        switch (format) {
+            case "csv":
+                return new CsvSessionExporter();
+            case "bin":
+                return new ColumnSessionExporter();
+            default:
+                throw new IllegalArgumentException("Unknown format: " + format);
+        }
+    }
+
+    private static String filterList() {
+        StringBuilder list = new StringBuilder();
+        for (int i = 0; i < AttitudeEstimators.NAMES.length; i++) {
+            list.append("                     ").append(i).append(": ").append(AttitudeEstimators.NAMES[i])
+                    .append('\n');
+        }
+        return list.toString();
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(args[i - 1] + " needs a value");
+        }
+        return args[i];
+    }
+
+    private static long number(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + value);
+        }
+    }
+
+    /**
+     * Exports a range of the files, splitting it in half until there's one file per task. The
+     * result has one line for each file, saying how it went, in the same order as the files.
+     */
+    private static class ExportTask extends RecursiveTask<String[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<File> files;
+        private final int from, to;
+        private final SessionQuery query;
+        private final SessionExporter exporter;
+        private final File outDir;
+        private final int replay;
+
+        ExportTask(List<File> files, int from, int to, SessionQuery query, SessionExporter exporter,
+                   File outDir, int replay) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+            this.query = query;
+            this.exporter = exporter;
+            this.outDir = outDir;
+            this.replay = replay;
+        }
+
+        @Override
+        protected String[] compute() {
+            if (to - from == 1) {
+                return new String[] { export(files.get(from)) };
+            }
+
+            int middle = (from + to) >>> 1;
+            ExportTask left = new ExportTask(files, from, middle, query, exporter, outDir, replay);
+            ExportTask right = new ExportTask(files, middle, to, query, exporter, outDir, replay);
+            left.fork();
+            String[] rightResults = right.compute();
+            String[] leftResults = left.join();
+
+            String[] results = new String[to - from];
+            System.arraycopy(leftResults, 0, results, 0, leftResults.length);
+            System.arraycopy(rightResults, 0, results, leftResults.length, rightResults.length);
+            return results;
+        }
+
+        private String export(File file) {
+            try {
+                Session session;
+                String replayed = "";
+                if (replay == NO_REPLAY) {
+                    session = SessionLoader.load(file, query);
+                } else {
+                    SessionReplayer replayer = new SessionReplayer(replay);
+                    session = replayer.load(file, query);
+                    replayed = String.format(" (replayed at %.0f readings/s)", replayer.throughput);
+                }
+                exporter.export(session, query, outDir);
+                return String.format("%s: %d attitude samples, %d raw readings%s", file.getName(),
+                        session.attitude.size(), session.raw.size(), replayed);
+            } catch (IOException | RuntimeException e) {
+                return "FAILED " + file.getName() + ": " + e;
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package uk.ac.sussex.bee_labe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Receives the live telemetry which the app sends while its sensors are on (see
+ * TelemetryStreamer and TelemetryFormat), e.g. to watch a trial from a laptop. From the command
+ * line,
+ *
+ *     telemetry-receiver [PORT]
+ *
+ * prints each sample as a line of CSV, and a summary of what was lost on the way every few
+ * seconds.
+ */
+
+public class TelemetryReceiver implements Closeable {
+    private static final int SUMMARY_INTERVAL = 5000; // ms
+    // a frame further back than this from the newest means the sender started again
+    private static final int REORDER_WINDOW = 256;
+
+    private final DatagramSocket socket;
+    private final DatagramPacket packet = new DatagramPacket(new byte[TelemetryFormat.MAX_FRAME_SIZE],
+            TelemetryFormat.MAX_FRAME_SIZE);
+    private final TelemetryFormat format = new TelemetryFormat();
+    private long nextSequence = -1;
+
+    // frames and samples received, frames which went missing on the way (from the gaps in the
+    // sequence numbers), datagrams which weren't frames, and the samples the sender had to drop
+    public long frames, samples, lostFrames, badFrames, senderDropped;
+
+    /**
+     * @param port the UDP port to listen on, or 0 for any free one
+     */
+    public TelemetryReceiver(int port) throws IOException {
+        socket = new DatagramSocket(port);
+    }
+
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * Wait up to the timeout (ms, or 0 for ever) for a frame, and pass its samples to the
+     * visitor. Returns false if none came in time.
+     */
+    public boolean receive(SampleRing.Visitor visitor, int timeout) throws IOException {
+        socket.setSoTimeout(timeout);
+        packet.setLength(TelemetryFormat.MAX_FRAME_SIZE);
+        try {
+            socket.receive(packet);
+        } catch (SocketTimeoutException e) {
+            return false;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength());
+        try {
+            format.read(buffer, visitor);
+        } catch (IOException e) {
+            // something else sent to this port
+            badFrames++;
+            return true;
+        }
+
+        if (nextSequence == -1 || format.sequence >= nextSequence) {
+            if (nextSequence != -1) {
+                lostFrames += format.sequence - nextSequence;
+            }
+            nextSequence = format.sequence + 1;
+        } else if (nextSequence - format.sequence <= REORDER_WINDOW) {
+            // it came late, after it was counted as lost
+            if (lostFrames > 0) {
+                lostFrames--;
+            }
+        } else {
+            // the sender started again
+            nextSequence = format.sequence + 1;
+        }
+        frames++;
+        samples += format.count;
+        senderDropped = format.dropped;
+        return true;
+    }
+
+    public String summary() {
+        return String.format(Locale.UK, "%d frames, %d samples received; %d frames lost, "
+                + "%d samples dropped by the sender", frames, samples, lostFrames, senderDropped);
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : TelemetryStreamer.DEFAULT_PORT;
+        final PrintStream out = System.out;
+        TelemetryReceiver receiver = new TelemetryReceiver(port);
+        System.err.println("Listening on UDP port " + receiver.getPort());
+
+        out.println("stream,time_ns,x,y,z");
+        SampleRing.Visitor printer = new SampleRing.Visitor() {
+            @Override
+            public void onSample(int stream, long time, float x, float y, float z) {
+                out.printf(Locale.UK, "%s,%d,%s,%s,%s%n",
+                        stream == ReductionProfile.ATTITUDE ? "attitude" : SensorTypes.name(stream),
+                        time, x, y, z);
+            }
+        };
+        long summaryAt = System.currentTimeMillis() + SUMMARY_INTERVAL;
+        while (true) {
+            receiver.receive(printer, SUMMARY_INTERVAL);
+            if (System.currentTimeMillis() >= summaryAt) {
+                System.err.println(receiver.summary());
+                summaryAt += SUMMARY_INTERVAL;
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package uk.ac.sussex.bee_labe;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SessionLoaderTest {
+    private static final long START_TIME = 123456789L;
+    private static final long PERIOD = 5000000; // ns
+    private static final int SAMPLES = 2000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = folder.newFolder("data");
+    }
+
+    @Test
+    public void loadsJsonAndBinaryAlike() throws Exception {
+        writeSession("data_a", true, false);
+        writeSession("data_b", false, true);
+
+        SessionQuery query = new SessionQuery();
+        Session json = SessionLoader.load(new File(dir, "data_a.json"), query);
+        Session bin = SessionLoader.load(new File(dir, "data_b.bin"), query);
+        for (Session session : new Session[] { json, bin }) {
+            assertEquals(SAMPLES, session.attitude.size());
+            assertEquals(3 * SAMPLES, session.raw.size());
+            assertEquals("Ann Example", session.info.get("experimenter"));
+            assertEquals(0.1f, Float.parseFloat(session.info.get("calibration.pitch")), 0);
+            assertNotNull(session.info.get("endTime"));
+        }
+        assertEquals(json.info.keySet(), bin.info.keySet());
+        assertEquals(ReductionProfile.NONE, json.info.get("reduction.profile"));
+        assertEquals("1", json.info.get("reduction.attitude.decimation"));
+
+        for (int i = 0; i < SAMPLES; i++) {
+            assertEquals(json.attitude.getTime(i), bin.attitude.getTime(i));
+            assertEquals(i * PERIOD / 1000000, json.attitude.getTime(i));
+            assertEquals(json.attitude.getYaw(i), bin.attitude.getYaw(i), 0);
+            assertEquals(json.attitude.getRoll(i), bin.attitude.getRoll(i), 0);
+        }
+        for (int i = 0; i < 3 * SAMPLES; i++) {
+            assertEquals(json.raw.getSensorType(i), bin.raw.getSensorType(i));
+            assertEquals(json.raw.getValue(i, 2), bin.raw.getValue(i, 2), 0);
+        }
+    }
+
+    @Test
+    public void jsonFilesHaveTheSameFieldsWhetherReducedOrNot() throws Exception {
+        // e.g. so Matlab can put them in one struct array
+        JsonObject[] files = new JsonObject[2];
+        for (int i = 0; i < 2; i++) {
+            RecordingHeader header = new RecordingHeader(new Date(1505736000000L), START_TIME,
+                    "Ann Example", "Phone", "Kalman filter (EKF)", 0.1f, -0.2f);
+            if (i == 1) {
+                header.reduction = ReductionProfile.PROFILES[2];
+                header.calPitchVariance = 0.01f;
+                header.calRollVariance = 0.02f;
+            }
+            File file = new File(dir, "data_" + i + ".json");
+            write(new JsonRecordingSink(file, new File(dir, "data_" + i + "_raw.json")), header,
+                    new AttitudeLog(), new RawLog());
+            Reader in = new InputStreamReader(new FileInputStream(file), "UTF-8");
+            try {
+                files[i] = new JsonParser().parse(in).getAsJsonObject();
+            } finally {
+                in.close();
+            }
+        }
+        assertEquals(keys(files[0]), keys(files[1]));
+        for (String name : new String[] { "calibration", "reduction" }) {
+            assertEquals(keys(files[0].getAsJsonObject(name)), keys(files[1].getAsJsonObject(name)));
+        }
+        assertEquals(ReductionProfile.NONE, files[0].getAsJsonObject("reduction").get("profile").getAsString());
+        assertTrue(files[0].getAsJsonObject("calibration").get("pitch_variance").isJsonNull());
+    }
+
+    @Test
+    public void onlyLoadsWhatWasAskedFor() throws Exception {
+        writeSession("data_a", true, false);
+
+        SessionQuery query = new SessionQuery();
+        query.selectFields("pitch,gyro");
+        query.from = 1000;
+        query.to = 1999;
+        Session session = SessionLoader.load(new File(dir, "data_a.json"), query);
+
+        // 5 ms apart, so 200 of each in a second
+        assertEquals(200, session.attitude.size());
+        assertEquals(1000, session.attitude.getTime(0));
+        assertEquals(200, session.raw.size());
+        for (int i = 0; i < session.raw.size(); i++) {
+            assertEquals(SensorTypes.GYROSCOPE, session.raw.getSensorType(i));
+        }
+
+        query.selectFields("yaw");
+        session = SessionLoader.load(new File(dir, "data_a.json"), query);
+        assertEquals(0, session.raw.size());
+    }
+
+    @Test
+    public void listsEachSessionOnce() throws Exception {
+        writeSession("data_a", true, true);
+        writeSession("data_b", false, true);
+        writeSession("data_c", true, false);
+
+        List<File> sessions = SessionLoader.listSessions(dir);
+        assertEquals(3, sessions.size());
+        assertEquals("data_a.json", sessions.get(0).getName());
+        assertEquals("data_b.bin", sessions.get(1).getName());
+        assertEquals("data_c.json", sessions.get(2).getName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownFields() {
+        new SessionQuery().selectFields("yaw,heading");
+    }
+
+    static void writeSession(File dir, String basename, boolean json, boolean bin) throws IOException {
+        RecordingHeader header = new RecordingHeader(new Date(1505736000000L), START_TIME,
+                "Ann Example", "Phone", "Kalman filter (EKF)", 0.1f, -0.2f);
+        AttitudeLog attitude = new AttitudeLog();
+        RawLog raw = new RawLog();
+        int[] types = { SensorTypes.ACCELEROMETER, SensorTypes.MAGNETIC_FIELD, SensorTypes.GYROSCOPE };
+        for (int i = 0; i < SAMPLES; i++) {
+            long time = START_TIME + i * PERIOD;
+            attitude.append(time, i * 0.001f, 0.5f, -i * 0.0005f);
+            for (int type : types) {
+                raw.append(time, type, i, type, -i * 0.25f);
+            }
+        }
+
+        if (json) {
+            write(new JsonRecordingSink(new File(dir, basename + ".json"),
+                    new File(dir, basename + "_raw.json")), header, attitude, raw);
+        }
+        if (bin) {
+            write(new BinaryRecordingSink(new File(dir, basename + ".bin")), header, attitude, raw);
+        }
+    }
+
+    private void writeSession(String basename, boolean json, boolean bin) throws IOException {
+        writeSession(dir, basename, json, bin);
+    }
+
+    private static Set<String> keys(JsonObject object) {
+        Set<String> keys = new HashSet<>();
+        for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+            keys.add(entry.getKey());
+        }
+        return keys;
+    }
+
+    private static void write(RecordingSink sink, RecordingHeader header, AttitudeLog attitude,
+                              RawLog raw) throws IOException {
+        sink.begin(header);
+        sink.writeData(attitude, 0, attitude.size());
+        sink.writeRaw(raw, 0, raw.size());
+        sink.finish(new Date(1505736060000L), new SessionMetrics());
+    }
+}
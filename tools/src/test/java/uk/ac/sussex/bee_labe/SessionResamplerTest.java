@@ -0,0 +1,137 @@
+package uk.ac.sussex.bee_labe;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class SessionResamplerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = folder.newFolder("data");
+        pool = new ForkJoinPool(3);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdown();
+    }
+
+    @Test
+    public void convertsAnglesBothWays() throws Exception {
+        float[] q = new float[4], R = new float[9], angles = new float[3];
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            float yaw = (float) (2 * Math.PI * random.nextFloat());
+            float pitch = (float) (Math.PI * (random.nextFloat() - 0.5) * 0.99);
+            float roll = (float) (2 * Math.PI * (random.nextFloat() - 0.5));
+            SessionResampler.toQuaternion(yaw, pitch, roll, q);
+            SessionResampler.toAngles(q, R, angles);
+            assertEquals(0, Math.IEEEremainder(angles[0] - yaw, 2 * Math.PI), 1e-4);
+            assertEquals(pitch, angles[1], 1e-4);
+            assertEquals(0, Math.IEEEremainder(angles[2] - roll, 2 * Math.PI), 1e-4);
+        }
+    }
+
+    @Test
+    public void slerpsTheShortWayRound() throws Exception {
+        float[] q = new float[8], out = new float[4], R = new float[9], angles = new float[3];
+        float[] one = new float[4];
+        // either side of north
+        SessionResampler.toQuaternion(6.2f, 0.2f, 0, one);
+        System.arraycopy(one, 0, q, 0, 4);
+        SessionResampler.toQuaternion(0.2f, 0.2f, 0, one);
+        System.arraycopy(one, 0, q, 4, 4);
+
+        SessionResampler.slerp(q, 0, 4, 0.5f, out);
+        SessionResampler.toAngles(out, R, angles);
+        assertEquals(0, Math.IEEEremainder(angles[0] - (6.2 + 2 * Math.PI + 0.2) / 2, 2 * Math.PI), 1e-4);
+        assertEquals(0.2, angles[1], 1e-4);
+
+        // the ends are the samples themselves
+        SessionResampler.slerp(q, 0, 4, 0, out);
+        SessionResampler.toAngles(out, R, angles);
+        assertEquals(6.2, angles[0], 1e-4);
+        SessionResampler.slerp(q, 0, 4, 1, out);
+        SessionResampler.toAngles(out, R, angles);
+        assertEquals(0.2, angles[0], 1e-4);
+    }
+
+    @Test
+    public void resamplesJsonAndBinaryAlike() throws Exception {
+        SessionLoaderTest.writeSession(dir, "data_a", true, true);
+
+        // the samples are 5 ms apart, so over 2 chunks
+        SessionResampler resampler = new SessionResampler(1, SessionResampler.DEFAULT_MAX_GAP, pool);
+        SessionQuery query = new SessionQuery();
+        String json = resample(resampler, "data_a.json", query);
+        assertEquals(6000 + 2000, resampler.samples);
+        String bin = resample(resampler, "data_a.bin", query);
+        assertEquals(json, bin);
+
+        String[] lines = json.split("\n");
+        assertEquals("time,yaw,pitch,roll,acc_x,acc_y,acc_z,mag_x,mag_y,mag_z,gyro_x,gyro_y,gyro_z",
+                lines[0]);
+        // every ms from the first sample to the last
+        assertEquals(9996, resampler.rows);
+        assertEquals(9996 + 1, lines.length);
+        for (int row = 0; row < resampler.rows; row++) {
+            String[] values = lines[row + 1].split(",");
+            assertEquals(row, Long.parseLong(values[0]));
+            // each value went up in a straight line, one step every 5 ms
+            float i = row / 5f;
+            assertEquals(i * 0.001f, Float.parseFloat(values[1]), 1e-5);
+            assertEquals(0.5f, Float.parseFloat(values[2]), 1e-5);
+            assertEquals(-i * 0.0005f, Float.parseFloat(values[3]), 1e-5);
+            assertEquals(i, Float.parseFloat(values[4]), 1e-3);
+            assertEquals(SensorTypes.MAGNETIC_FIELD, Float.parseFloat(values[8]), 0);
+            assertEquals(-i * 0.25f, Float.parseFloat(values[12]), 1e-3);
+        }
+    }
+
+    @Test
+    public void leavesGapsEmpty() throws Exception {
+        SessionLoaderTest.writeSession(dir, "data_a", false, true);
+
+        // only interpolate between samples 4 ms apart, which none are
+        SessionResampler resampler = new SessionResampler(1, 4, pool);
+        SessionQuery query = new SessionQuery();
+        query.selectFields("roll,gyro");
+        query.from = 1000;
+        query.to = 1100;
+        String[] lines = resample(resampler, "data_a.bin", query).split("\n");
+
+        assertEquals("time,roll,gyro_x,gyro_y,gyro_z", lines[0]);
+        assertEquals(101, resampler.rows);
+        for (int row = 0; row <= 100; row++) {
+            long time = 1000 + row;
+            if (time % 5 == 0) {
+                assertEquals(time + "," + (-time / 5 * 0.0005f) + "," + (time / 5f) + ",4.0,"
+                        + (-time / 5 * 0.25f), lines[row + 1]);
+            } else {
+                assertEquals(time + ",,,,", lines[row + 1]);
+            }
+        }
+    }
+
+    private String resample(SessionResampler resampler, String name, SessionQuery query)
+            throws Exception {
+        StringWriter out = new StringWriter();
+        resampler.resample(new File(dir, name), query, out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,135 @@
+package uk.ac.sussex.bee_labe;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SessionToolTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir, outDir;
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    @Before
+    public void setUp() throws Exception {
+        dir = folder.newFolder("data");
+        outDir = new File(folder.getRoot(), "out");
+        for (int i = 0; i < 5; i++) {
+            SessionLoaderTest.writeSession(dir, "data_" + i, i % 2 == 0, i % 2 == 1);
+        }
+    }
+
+    @Test
+    public void exportsCsv() throws Exception {
+        assertEquals(0, run("--out", outDir.getPath(), "--fields", "yaw,roll,mag", "--to", "99",
+                "--threads", "3", dir.getPath()));
+
+        String[] lines = output.toString().trim().split("\n");
+        assertEquals(5, lines.length);
+        assertTrue(lines[0].startsWith("data_0.json: 20 attitude samples, 20 raw readings"));
+        assertTrue(lines[1].startsWith("data_1.bin: "));
+
+        List<String> csv = Files.readAllLines(new File(outDir, "data_3.csv").toPath());
+        assertEquals("time,yaw,roll", csv.get(0));
+        assertEquals(21, csv.size());
+        assertEquals("5,0.001,-5.0E-4", csv.get(2));
+
+        List<String> raw = Files.readAllLines(new File(outDir, "data_3_raw.csv").toPath());
+        assertEquals("time,sensor,x,y,z", raw.get(0));
+        assertEquals("5,mag,1.0,2.0,-0.25", raw.get(2));
+
+        List<String> info = Files.readAllLines(new File(outDir, "data_3_info.txt").toPath());
+        assertTrue(info.contains("experimenter\tAnn Example"));
+    }
+
+    @Test
+    public void exportsColumns() throws Exception {
+        assertEquals(0, run("--out", outDir.getPath(), "--format", "bin", "--from", "10",
+                new File(dir, "data_2.json").getPath()));
+
+        File session = new File(outDir, "data_2");
+        ByteBuffer time = read(new File(session, "time.i64"));
+        ByteBuffer pitch = read(new File(session, "pitch.f32"));
+        assertEquals(1998 * 8, time.remaining());
+        assertEquals(1998 * 4, pitch.remaining());
+        assertEquals(10, time.getLong());
+        assertEquals(0.5f, pitch.getFloat(), 0);
+
+        ByteBuffer gyroX = read(new File(session, "gyro_x.f32"));
+        assertEquals(1998 * 4, gyroX.remaining());
+        assertEquals(2, gyroX.getFloat(), 0);
+        assertTrue(new File(session, "acc_time.i64").exists());
+        assertTrue(new File(session, "info.txt").exists());
+    }
+
+    @Test
+    public void replaysRawReadings() throws Exception {
+        assertEquals(0, run("--out", outDir.getPath(), "--filter", "0", "--fields", "yaw,acc",
+                new File(dir, "data_0.json").getPath(), new File(dir, "data_1.bin").getPath()));
+
+        String[] lines = output.toString().trim().split("\n");
+        assertEquals(2, lines.length);
+        for (String line : lines) {
+            assertTrue(line.contains("raw readings (replayed at "));
+        }
+
+        // every reading is replayed, but only the fields asked for are exported
+        List<String> csv = Files.readAllLines(new File(outDir, "data_0.csv").toPath());
+        assertEquals("time,yaw", csv.get(0));
+        assertTrue(csv.size() > 1);
+        List<String> raw = Files.readAllLines(new File(outDir, "data_0_raw.csv").toPath());
+        assertEquals(2001, raw.size());
+        List<String> info = Files.readAllLines(new File(outDir, "data_1_info.txt").toPath());
+        assertTrue(info.contains("replay.orientation_filter\t" + AttitudeEstimators.NAMES[0]));
+    }
+
+    @Test
+    public void resamples() throws Exception {
+        assertEquals(0, run("--out", outDir.getPath(), "--resample", "10", "--fields", "yaw,acc",
+                new File(dir, "data_0.json").getPath(), new File(dir, "data_1.bin").getPath()));
+
+        String[] lines = output.toString().trim().split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("data_0.json: 1000 rows from 4000 samples", lines[0]);
+
+        List<String> csv = Files.readAllLines(new File(outDir, "data_1_resampled.csv").toPath());
+        assertEquals("time,yaw,acc_x,acc_y,acc_z", csv.get(0));
+        assertEquals(1001, csv.size());
+        assertEquals("10,0.002,2.0,1.0,-0.5", csv.get(2));
+    }
+
+    @Test
+    public void reportsBadFiles() throws Exception {
+        File bad = new File(dir, "data_9.json");
+        Files.write(bad.toPath(), "{\"data\": [".getBytes("UTF-8"));
+
+        assertEquals(1, run("--out", outDir.getPath(), dir.getPath()));
+        assertTrue(output.toString().contains("FAILED data_9.json"));
+        assertTrue(new File(outDir, "data_4.csv").exists());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownOptions() throws Exception {
+        run("--colour", dir.getPath());
+    }
+
+    private int run(String... args) throws Exception {
+        return SessionTool.run(args, new PrintStream(output, true, "UTF-8"));
+    }
+
+    private static ByteBuffer read(File file) throws Exception {
+        return ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
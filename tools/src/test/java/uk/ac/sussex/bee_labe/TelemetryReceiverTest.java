@@ -0,0 +1,143 @@
+package uk.ac.sussex.bee_labe;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class TelemetryReceiverTest {
+    private TelemetryReceiver receiver;
+
+    @Before
+    public void setUp() throws Exception {
+        receiver = new TelemetryReceiver(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        receiver.close();
+    }
+
+    @Test
+    public void receivesWhatTheAppStreams() throws Exception {
+        // the app's streamer, sending over the loopback interface
+        TelemetryStreamer streamer = new TelemetryStreamer("localhost", receiver.getPort());
+        streamer.start();
+        int n = 300;
+        try {
+            for (int i = 0; i < n; i++) {
+                long time = 1000000000L + i * 500000L;
+                if (i % 3 == 0) {
+                    streamer.publish(time, new Attitude(i, 1, 2));
+                } else {
+                    streamer.publish(SensorTypes.ACCELEROMETER, time, i, 1, 2);
+                }
+                // about as fast as the sensors go, so that nothing has to be dropped
+                if (i % 30 == 29) {
+                    Thread.sleep(10);
+                }
+            }
+
+            Checker checker = new Checker();
+            while (receiver.samples < n && receiver.receive(checker, 2000)) {
+                // keep going
+            }
+            assertNull(checker.error, checker.error);
+            assertEquals(n, receiver.samples);
+            assertEquals(n, checker.count);
+            assertEquals(0, receiver.lostFrames);
+            assertEquals(0, receiver.senderDropped);
+        } finally {
+            streamer.stop();
+        }
+    }
+
+    @Test
+    public void countsLostAndBadFrames() throws Exception {
+        DatagramSocket sender = new DatagramSocket();
+        try {
+            ByteBuffer frame = TelemetryFormat.allocate();
+            for (long sequence : new long[] { 0, 1, 4, 5 }) {
+                TelemetryFormat.begin(frame, sequence, 7, 1000000);
+                TelemetryFormat.put(frame, SensorTypes.GYROSCOPE, 1000000, 3000000, 1, 2, 3);
+                send(sender, frame.array(), frame.position());
+            }
+            send(sender, new byte[] { 1, 2, 3 }, 3);
+
+            Checker checker = new Checker();
+            for (int i = 0; i < 5; i++) {
+                assertTrue(receiver.receive(checker, 2000));
+            }
+            assertEquals(4, receiver.frames);
+            assertEquals(2, receiver.lostFrames);
+            assertEquals(1, receiver.badFrames);
+            assertEquals(7, receiver.senderDropped);
+            assertEquals(3000000, checker.last);
+            assertFalse(receiver.receive(checker, 10));
+        } finally {
+            sender.close();
+        }
+    }
+
+    @Test
+    public void countsLateFramesOnce() throws Exception {
+        DatagramSocket sender = new DatagramSocket();
+        try {
+            ByteBuffer frame = TelemetryFormat.allocate();
+            for (long sequence : new long[] { 5, 7, 6, 8 }) {
+                TelemetryFormat.begin(frame, sequence, 0, 1000000);
+                TelemetryFormat.put(frame, SensorTypes.GYROSCOPE, 1000000, sequence * 1000000, 1, 2, 3);
+                send(sender, frame.array(), frame.position());
+                // received before the next is sent, so they arrive in that order
+                Checker checker = new Checker();
+                assertTrue(receiver.receive(checker, 2000));
+                assertEquals(sequence * 1000000, checker.last);
+            }
+            assertEquals(4, receiver.frames);
+            assertEquals(0, receiver.lostFrames);
+
+            // and a gap after that still counts
+            TelemetryFormat.begin(frame, 10, 0, 1000000);
+            send(sender, frame.array(), frame.position());
+            assertTrue(receiver.receive(new Checker(), 2000));
+            assertEquals(1, receiver.lostFrames);
+        } finally {
+            sender.close();
+        }
+    }
+
+    private void send(DatagramSocket sender, byte[] data, int length) throws Exception {
+        sender.send(new DatagramPacket(data, length, InetAddress.getLoopbackAddress(),
+                receiver.getPort()));
+    }
+
+    // checks the samples made up in receivesWhatTheAppStreams(), which come in order
+    private static class Checker implements SampleRing.Visitor {
+        int count = 0;
+        long last = -1;
+        String error;
+
+        @Override
+        public void onSample(int stream, long time, float x, float y, float z) {
+            count++;
+            if (time < last) {
+                error = "sample at " + time + " came after " + last;
+            }
+            last = time;
+            if (stream == SensorTypes.GYROSCOPE) {
+                return;
+            }
+            int i = (int) x;
+            int expected = i % 3 == 0 ? ReductionProfile.ATTITUDE : SensorTypes.ACCELEROMETER;
+            if (stream != expected || time != 1000000000L + i * 500000L || y != 1 || z != 2) {
+                error = "sample " + i + " is wrong: " + stream + ", " + time + ", " + y + ", " + z;
+            }
+        }
+    }
+}